@@ -0,0 +1,76 @@
+package se.cbb.jprime.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.apps.dlrs.DLRModel;
+import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
+import se.cbb.jprime.topology.DoubleMap;
+
+/**
+ * Benchmarks a full update of the DLR model, i.e., the complete dynamic programming
+ * over the guest tree and discretised host tree. Every update is followed by a restore.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DLRModelBenchmark {
+
+	/** Data set. */
+	@Param({ "dlrs_example_1", "dlrs_example_3" })
+	public String example;
+
+	/** Model. */
+	private DLRModel dlr;
+
+	/** Branch lengths. */
+	private DoubleMap lengths;
+
+	/** Change infos, reused. */
+	private final Map<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+
+	/**
+	 * Sets up the model.
+	 * @throws Exception.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		DLRSFixture f = new DLRSFixture(this.example);
+		this.dlr = f.createDLRModel();
+		this.lengths = f.gNamesLengths.third;
+	}
+
+	/**
+	 * Full update, triggered by an undisclosed branch length change.
+	 * @return the probability.
+	 */
+	@Benchmark
+	public LogDouble fullUpdate() {
+		this.changeInfos.clear();
+		this.changeInfos.put(this.lengths, new ChangeInfo(this.lengths, "All lengths"));
+		this.dlr.cacheAndUpdate(this.changeInfos, false);
+		LogDouble p = this.dlr.getDataProbability();
+		this.dlr.restoreCache(false);
+		return p;
+	}
+}
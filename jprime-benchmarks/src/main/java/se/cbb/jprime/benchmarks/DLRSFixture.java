@@ -0,0 +1,166 @@
+package se.cbb.jprime.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+
+import org.biojava.nbio.core.sequence.template.Compound;
+import org.biojava.nbio.core.sequence.template.Sequence;
+
+import se.cbb.jprime.apps.dlrs.DLRModel;
+import se.cbb.jprime.apps.dlrs.DLRSParameterParser;
+import se.cbb.jprime.apps.dlrs.DLRSParameters;
+import se.cbb.jprime.apps.dlrs.DupLossProbs;
+import se.cbb.jprime.apps.dlrs.ReconciliationHelper;
+import se.cbb.jprime.math.Continuous1DPDDependent;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.misc.Pair;
+import se.cbb.jprime.misc.Triple;
+import se.cbb.jprime.seqevo.GammaSiteRateHandler;
+import se.cbb.jprime.seqevo.MSAData;
+import se.cbb.jprime.seqevo.SubstitutionMatrixHandler;
+import se.cbb.jprime.seqevo.SubstitutionMatrixHandlerFactory;
+import se.cbb.jprime.seqevo.SubstitutionModel;
+import se.cbb.jprime.topology.DoubleMap;
+import se.cbb.jprime.topology.GuestHostMap;
+import se.cbb.jprime.topology.MPRMap;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.RBTreeArcDiscretiser;
+import se.cbb.jprime.topology.TimesMap;
+
+/**
+ * Sets up the DLRS model pipeline on one of the <code>sample_data/dlrs_example_*</code>
+ * data sets, in the same way as <code>Delirious</code> does, so that the benchmarks measure
+ * realistically sized inputs.
+ * <p/>
+ * The sample data directory defaults to <code>../sample_data</code>, i.e., assuming the benchmarks
+ * are run from the <code>jprime-benchmarks</code> directory, and may be overridden with the system
+ * property <code>jprime.sampledata</code>.
+ *
+ * @author agent.
+ */
+public class DLRSFixture {
+
+	/** Seed used for all benchmarks, for reproducibility. */
+	public static final String SEED = "4711";
+
+	/** Parameters. */
+	public final DLRSParameters params;
+
+	/** Host tree, names and times. */
+	public final Triple<RBTree, NamesMap, TimesMap> sNamesTimes;
+
+	/** Guest-to-host leaf map. */
+	public final GuestHostMap gsMap;
+
+	/** Substitution matrix. */
+	public final SubstitutionMatrixHandler Q;
+
+	/** Sequences. */
+	public final LinkedHashMap<String, ? extends Sequence<? extends Compound>> sequences;
+
+	/** Multialignment. */
+	public final MSAData D;
+
+	/** Site rate shape and handler. */
+	public final Pair<DoubleParameter, GammaSiteRateHandler> siteRates;
+
+	/** PRNG. */
+	public final PRNG prng;
+
+	/** Guest tree, names and branch lengths. */
+	public final Triple<RBTree, NamesMap, DoubleMap> gNamesLengths;
+
+	/** Sigma. */
+	public final MPRMap mprMap;
+
+	/** Edge rate mean, CV and distribution. */
+	public final Triple<DoubleParameter, DoubleParameter, Continuous1DPDDependent> edgeRatePD;
+
+	/** Discretised host tree. */
+	public final RBTreeArcDiscretiser dtimes;
+
+	/** Reconciliation helper. */
+	public final ReconciliationHelper rHelper;
+
+	/** Duplication rate, loss rate and duplication-loss probabilities. */
+	public final Triple<DoubleParameter, DoubleParameter, DupLossProbs> dupLoss;
+
+	/**
+	 * Constructor. Reads the data set and creates all parameters.
+	 * @param example the data set name, e.g. "dlrs_example_1".
+	 * @throws Exception.
+	 */
+	public DLRSFixture(String example) throws Exception {
+		File dir = getSampleDataDir();
+		this.params = new DLRSParameters();
+		this.params.files.add(new File(dir, example + ".stree").getPath());
+		this.params.files.add(new File(dir, example + ".fa").getPath());
+		this.params.files.add(new File(dir, example + ".map").getPath());
+		this.params.substitutionModel = "JTT";
+		this.params.seed = SEED;
+		BufferedWriter info = new BufferedWriter(new NullWriter());
+
+		this.sNamesTimes = DLRSParameterParser.getHostTree(this.params, info);
+		this.gsMap = DLRSParameterParser.getGSMap(this.params);
+		this.Q = SubstitutionMatrixHandlerFactory.create(this.params.substitutionModel, 4 * this.gsMap.getNoOfLeafNames());
+		this.sequences = DLRSParameterParser.getMultialignment(this.params, this.Q.getSequenceType());
+		this.D = new MSAData(this.Q.getSequenceType(), this.sequences);
+		this.siteRates = DLRSParameterParser.getSiteRates(this.params);
+		this.prng = DLRSParameterParser.getPRNG(this.params);
+		this.gNamesLengths = DLRSParameterParser.getGuestTreeAndLengths(this.params, this.gsMap, this.prng, this.sequences, info, null, this.D);
+		this.mprMap = new MPRMap(this.gsMap, this.gNamesLengths.first, this.gNamesLengths.second, this.sNamesTimes.first, this.sNamesTimes.second);
+		this.edgeRatePD = DLRSParameterParser.getEdgeRatePD(this.params);
+		this.dtimes = DLRSParameterParser.getDiscretizer(this.params, this.sNamesTimes.first, this.sNamesTimes.second, this.sNamesTimes.third, this.gNamesLengths.first);
+		this.rHelper = DLRSParameterParser.getReconciliationHelper(this.params, this.gNamesLengths.first, this.sNamesTimes.first, this.dtimes, this.mprMap);
+		this.dupLoss = DLRSParameterParser.getDupLossProbs(this.params, this.mprMap, this.sNamesTimes.first, this.gNamesLengths.first, this.dtimes);
+	}
+
+	/**
+	 * Creates a substitution model over the guest tree.
+	 * @param noOfThreads number of threads.
+	 * @return the model.
+	 */
+	public SubstitutionModel createSubstitutionModel(int noOfThreads) {
+		return new SubstitutionModel("SubstitutionModel", this.D, this.siteRates.second, this.Q, this.gNamesLengths.first,
+				this.gNamesLengths.second, this.gNamesLengths.third, true, noOfThreads);
+	}
+
+	/**
+	 * Creates a DLR model over the guest and host trees.
+	 * @return the model.
+	 */
+	public DLRModel createDLRModel() {
+		return new DLRModel(this.gNamesLengths.first, this.sNamesTimes.first, this.rHelper, this.gNamesLengths.third,
+				this.dupLoss.third, this.edgeRatePD.third);
+	}
+
+	/**
+	 * Returns the sample data directory.
+	 * @return the directory.
+	 */
+	public static File getSampleDataDir() {
+		return new File(System.getProperty("jprime.sampledata", "../sample_data"));
+	}
+
+	/**
+	 * Writer discarding all output.
+	 */
+	public static class NullWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package se.cbb.jprime.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.apps.dlrs.DupLossProbs;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
+import se.cbb.jprime.mcmc.DoubleParameter;
+
+/**
+ * Benchmarks a full update of the duplication-loss probabilities over the discretised
+ * host tree, as after a duplication rate change. Every update is followed by a restore.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DupLossProbsBenchmark {
+
+	/** Data set. */
+	@Param({ "dlrs_example_1", "dlrs_example_3" })
+	public String example;
+
+	/** Probabilities. */
+	private DupLossProbs dupLoss;
+
+	/** Duplication rate. */
+	private DoubleParameter dupRate;
+
+	/** Change infos, reused. */
+	private final Map<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+
+	/**
+	 * Sets up the probabilities.
+	 * @throws Exception.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		DLRSFixture f = new DLRSFixture(this.example);
+		this.dupLoss = f.dupLoss.third;
+		this.dupRate = f.dupLoss.first;
+	}
+
+	/**
+	 * Full update.
+	 * @return the probabilities.
+	 */
+	@Benchmark
+	public DupLossProbs fullUpdate() {
+		this.changeInfos.clear();
+		this.changeInfos.put(this.dupRate, new ChangeInfo(this.dupRate, "Duplication rate"));
+		this.dupLoss.cacheAndUpdate(this.changeInfos, false);
+		this.dupLoss.restoreCache(false);
+		return this.dupLoss;
+	}
+}
@@ -0,0 +1,66 @@
+package se.cbb.jprime.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.apps.dltrs.EpochDLTProbs;
+import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
+
+/**
+ * Benchmarks construction of the duplication-loss-transfer probabilities over an epoch
+ * discretisation of the sample host trees, i.e., solving the ODEs of all epochs.
+ * Discretisation settings equal the <code>Deleterious</code> defaults.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EpochDLTProbsBenchmark {
+
+	/** Data set. */
+	@Param({ "dlrs_example_1", "dlrs_example_3" })
+	public String example;
+
+	/** Number of threads. */
+	@Param({ "1" })
+	public int threads;
+
+	/** Discretisation. */
+	private RBTreeEpochDiscretiser ed;
+
+	/**
+	 * Sets up the discretisation.
+	 * @throws Exception.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		DLRSFixture f = new DLRSFixture(this.example);
+		this.ed = new RBTreeEpochDiscretiser(f.sNamesTimes.first, f.sNamesTimes.second, f.sNamesTimes.third, 2, 5, 0.05, 5);
+	}
+
+	/**
+	 * Creates and computes the probabilities.
+	 * @return the probabilities.
+	 */
+	@Benchmark
+	public EpochDLTProbs construct() {
+		return new EpochDLTProbs(this.ed, new DoubleParameter("DuplicationRate", 0.1), new DoubleParameter("LossRate", 0.1),
+				new DoubleParameter("TransferRate", 0.05), true, this.threads);
+	}
+}
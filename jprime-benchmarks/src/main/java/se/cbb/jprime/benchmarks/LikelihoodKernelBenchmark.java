@@ -0,0 +1,158 @@
+package se.cbb.jprime.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.seqevo.LikelihoodKernel;
+import se.cbb.jprime.seqevo.SubstitutionMatrixHandler;
+import se.cbb.jprime.seqevo.SubstitutionMatrixHandlerFactory;
+
+/**
+ * Benchmarks the inner loop of the pruning algorithm, i.e., computing P*(left .* right) for every
+ * pattern of a vertex, in three versions:
+ * <ol>
+ * <li><code>ejml</code>: the original loop, with one <code>DenseMatrix64F</code> per pattern and
+ *     <code>CommonOps.elementMult()</code> followed by <code>SubstitutionMatrixHandler.multiplyWithP()</code>.</li>
+ * <li><code>flat</code>: flat arrays, but still a temporary vector and a generic matrix-vector product per pattern.</li>
+ * <li><code>kernel</code>: the alphabet-specific <code>LikelihoodKernel</code>.</li>
+ * </ol>
+ * JC69 has 4 states, JTT 20.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LikelihoodKernelBenchmark {
+
+	/** Substitution model, i.e., alphabet. */
+	@Param({ "JC69", "JTT" })
+	public String model;
+
+	/** Number of patterns. */
+	@Param({ "1000" })
+	public int patterns;
+
+	/** Alphabet size. */
+	private int n;
+
+	/** Substitution matrix handler, with its current P set. */
+	private SubstitutionMatrixHandler Q;
+
+	/** Kernel. */
+	private LikelihoodKernel kernel;
+
+	/** Transition matrix, flat. */
+	private double[] P;
+
+	/** Likelihoods, flat: left child, right child, vertex. */
+	private double[] L;
+
+	/** Temporary vector, flat. */
+	private double[] tmp;
+
+	/** Likelihoods of left child, per pattern. */
+	private DenseMatrix64F[] left;
+
+	/** Likelihoods of right child, per pattern. */
+	private DenseMatrix64F[] right;
+
+	/** Likelihoods of vertex, per pattern. */
+	private DenseMatrix64F[] curr;
+
+	/** Temporary vector. */
+	private DenseMatrix64F tmpMatrix;
+
+	/**
+	 * Sets up random child likelihoods.
+	 */
+	@Setup
+	public void setup() {
+		this.Q = SubstitutionMatrixHandlerFactory.create(this.model, 1);
+		this.kernel = this.Q.getSequenceType().getLikelihoodKernel();
+		this.n = this.Q.getAlphabetSize();
+		this.P = new double[this.n * this.n];
+		this.Q.computeTransitionMatrix(0.3, new double[this.n], this.P, 0);
+		this.Q.updateTransitionMatrix(0.3);
+		Random rand = new Random(42);
+		this.L = new double[3 * this.patterns * this.n];
+		this.left = new DenseMatrix64F[this.patterns];
+		this.right = new DenseMatrix64F[this.patterns];
+		this.curr = new DenseMatrix64F[this.patterns];
+		for (int i = 0; i < this.patterns; ++i) {
+			this.left[i] = new DenseMatrix64F(this.n, 1);
+			this.right[i] = new DenseMatrix64F(this.n, 1);
+			this.curr[i] = new DenseMatrix64F(this.n, 1);
+			for (int s = 0; s < this.n; ++s) {
+				this.L[i * this.n + s] = rand.nextDouble();
+				this.L[(this.patterns + i) * this.n + s] = rand.nextDouble();
+				this.left[i].set(s, 0, this.L[i * this.n + s]);
+				this.right[i].set(s, 0, this.L[(this.patterns + i) * this.n + s]);
+			}
+		}
+		this.tmp = new double[this.n];
+		this.tmpMatrix = new DenseMatrix64F(this.n, 1);
+	}
+
+	/**
+	 * Original loop.
+	 * @return the likelihoods.
+	 */
+	@Benchmark
+	public DenseMatrix64F[] ejml() {
+		for (int i = 0; i < this.patterns; ++i) {
+			CommonOps.elementMult(this.left[i], this.right[i], this.tmpMatrix);
+			this.Q.multiplyWithP(this.tmpMatrix, this.curr[i]);
+		}
+		return this.curr;
+	}
+
+	/**
+	 * Loop on flat arrays.
+	 * @return the likelihoods.
+	 */
+	@Benchmark
+	public double[] flat() {
+		int n = this.n;
+		int left = 0;
+		int right = this.patterns * n;
+		int curr = 2 * this.patterns * n;
+		for (int i = 0; i < this.patterns; ++i) {
+			for (int s = 0; s < n; ++s) {
+				this.tmp[s] = this.L[left + s] * this.L[right + s];
+			}
+			this.Q.multiplyWithP(this.P, 0, this.tmp, 0, this.L, curr);
+			curr += n;
+			left += n;
+			right += n;
+		}
+		return this.L;
+	}
+
+	/**
+	 * Specialised kernel.
+	 * @return the likelihoods.
+	 */
+	@Benchmark
+	public double[] kernel() {
+		this.kernel.multiplyWithP(this.P, 0, this.L, 0, this.patterns * this.n, 2 * this.patterns * this.n, this.patterns, this.tmp);
+		return this.L;
+	}
+}
@@ -0,0 +1,87 @@
+package se.cbb.jprime.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.io.NewickTree;
+import se.cbb.jprime.io.NewickTreeReader;
+import se.cbb.jprime.io.NewickTreeWriter;
+
+/**
+ * Benchmarks reading a large file of Newick trees, akin to a guest tree sample set.
+ * Since the sample data contains no such file, one is created at setup by writing
+ * the guest tree of a sample data set, with names and branch lengths, repeatedly.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewickTreeReaderBenchmark {
+
+	/** Data set. */
+	@Param({ "dlrs_example_3" })
+	public String example;
+
+	/** Number of trees in the file. */
+	@Param({ "10000" })
+	public int noOfTrees;
+
+	/** Tree file. */
+	private File file;
+
+	/**
+	 * Writes the tree file.
+	 * @throws Exception.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		DLRSFixture f = new DLRSFixture(this.example);
+		String tree = NewickTreeWriter.write(f.gNamesLengths.first, f.gNamesLengths.second, f.gNamesLengths.third, false);
+		this.file = File.createTempFile("jprime-bench", ".nw");
+		this.file.deleteOnExit();
+		BufferedWriter out = new BufferedWriter(new FileWriter(this.file));
+		for (int i = 0; i < this.noOfTrees; ++i) {
+			out.write(tree);
+			out.newLine();
+		}
+		out.close();
+	}
+
+	/**
+	 * Removes the tree file.
+	 */
+	@TearDown
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	/**
+	 * Reads all trees.
+	 * @return the trees.
+	 * @throws Exception.
+	 */
+	@Benchmark
+	public List<NewickTree> readTrees() throws Exception {
+		return NewickTreeReader.readTrees(this.file, false);
+	}
+}
@@ -0,0 +1,69 @@
+package se.cbb.jprime.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
+import se.cbb.jprime.mcmc.Proposal;
+import se.cbb.jprime.topology.RBTreeBranchSwapper;
+
+/**
+ * Benchmarks a guest tree topology perturbation (NNI, SPR or rerooting) followed by
+ * a restore, as for a rejected proposal. Likelihood updates are not included.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RBTreeBranchSwapperBenchmark {
+
+	/** Data set. */
+	@Param({ "dlrs_example_1", "dlrs_example_3" })
+	public String example;
+
+	/** Proposer. */
+	private RBTreeBranchSwapper swapper;
+
+	/** Change infos, reused. */
+	private final Map<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+
+	/**
+	 * Sets up the proposer.
+	 * @throws Exception.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		DLRSFixture f = new DLRSFixture(this.example);
+		this.swapper = new RBTreeBranchSwapper(f.gNamesLengths.first, f.gNamesLengths.third, f.prng);
+	}
+
+	/**
+	 * Perturbs and restores.
+	 * @return the proposal.
+	 */
+	@Benchmark
+	public Proposal cacheAndPerturbAndRestore() {
+		this.changeInfos.clear();
+		Proposal p = this.swapper.cacheAndPerturb(this.changeInfos);
+		this.swapper.restoreCache();
+		return p;
+	}
+}
@@ -0,0 +1,79 @@
+package se.cbb.jprime.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.io.RBTreeSampleWrapper;
+import se.cbb.jprime.io.SampleWriter;
+import se.cbb.jprime.io.Sampleable;
+import se.cbb.jprime.io.Sampleable.SamplingMode;
+
+/**
+ * Benchmarks writing a sample of typical <code>Delirious</code> sampleables, i.e.,
+ * rate parameters, the guest tree with branch lengths, and the model densities. Output
+ * is discarded, so that string conversion rather than disk speed is measured.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleWriterBenchmark {
+
+	/** Data set. */
+	@Param({ "dlrs_example_1", "dlrs_example_3" })
+	public String example;
+
+	/** Writer. */
+	private SampleWriter writer;
+
+	/** Sampleables. */
+	private List<Sampleable> sampleables;
+
+	/**
+	 * Sets up the writer and sampleables.
+	 * @throws Exception.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		DLRSFixture f = new DLRSFixture(this.example);
+		this.writer = new SampleWriter(new BufferedWriter(new DLRSFixture.NullWriter()), 10);
+		this.sampleables = new ArrayList<Sampleable>();
+		this.sampleables.add(f.dupLoss.first);
+		this.sampleables.add(f.dupLoss.second);
+		this.sampleables.add(f.edgeRatePD.first);
+		this.sampleables.add(f.edgeRatePD.second);
+		this.sampleables.add(f.siteRates.first);
+		this.sampleables.add(new RBTreeSampleWrapper(f.gNamesLengths.first, f.gNamesLengths.second, f.gNamesLengths.third));
+		this.sampleables.add(f.createSubstitutionModel(1));
+		this.sampleables.add(f.createDLRModel());
+		this.writer.writeSampleHeader(this.sampleables);
+	}
+
+	/**
+	 * Writes a sample.
+	 * @throws IOException.
+	 */
+	@Benchmark
+	public void writeSample() throws IOException {
+		this.writer.writeSample(this.sampleables, SamplingMode.ORDINARY);
+	}
+}
@@ -0,0 +1,113 @@
+package se.cbb.jprime.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
+import se.cbb.jprime.seqevo.SubstitutionModel;
+import se.cbb.jprime.topology.DoubleMap;
+
+/**
+ * Benchmarks full and partial updates of the substitution model likelihood,
+ * the latter corresponding to a single perturbed leaf branch length.
+ * Every update is followed by a restore, as for a rejected proposal.
+ *
+ * @author agent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubstitutionModelBenchmark {
+
+	/** Data set. */
+	@Param({ "dlrs_example_1", "dlrs_example_3" })
+	public String example;
+
+	/** Number of threads of the model. */
+	@Param({ "1" })
+	public int threads;
+
+	/** Model. */
+	private SubstitutionModel sm;
+
+	/** Branch lengths. */
+	private DoubleMap lengths;
+
+	/** Leaves of the guest tree, perturbed in turn. */
+	private int[] leaves;
+
+	/** Next leaf index. */
+	private int next;
+
+	/** Change infos, reused. */
+	private final Map<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+
+	/**
+	 * Sets up the model.
+	 * @throws Exception.
+	 */
+	@Setup
+	public void setup() throws Exception {
+		DLRSFixture f = new DLRSFixture(this.example);
+		this.sm = f.createSubstitutionModel(this.threads);
+		this.lengths = f.gNamesLengths.third;
+		List<Integer> ls = f.gNamesLengths.first.getLeaves();
+		this.leaves = new int[ls.size()];
+		for (int i = 0; i < this.leaves.length; ++i) {
+			this.leaves[i] = ls.get(i);
+		}
+		this.next = 0;
+	}
+
+	/**
+	 * Full update, as after a topology change.
+	 * @return the likelihood.
+	 */
+	@Benchmark
+	public LogDouble fullUpdate() {
+		this.changeInfos.clear();
+		this.changeInfos.put(this.lengths, new ChangeInfo(this.lengths, "All lengths"));
+		this.sm.cacheAndUpdate(this.changeInfos, false);
+		LogDouble l = this.sm.getDataProbability();
+		this.sm.restoreCache(false);
+		return l;
+	}
+
+	/**
+	 * Partial update of a single leaf branch length.
+	 * @return the likelihood.
+	 */
+	@Benchmark
+	public LogDouble partialUpdate() {
+		int x = this.leaves[this.next];
+		this.next = (this.next + 1) % this.leaves.length;
+		this.lengths.cache(new int[] { x });
+		this.lengths.set(x, this.lengths.get(x) * 1.1);
+		this.changeInfos.clear();
+		this.changeInfos.put(this.lengths, new ChangeInfo(this.lengths, "Single length", new int[] { x }));
+		this.sm.cacheAndUpdate(this.changeInfos, false);
+		LogDouble l = this.sm.getDataProbability();
+		this.sm.restoreCache(false);
+		this.lengths.restoreCache();
+		return l;
+	}
+}
@@ -3,6 +3,7 @@ package se.cbb.jprime.apps;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -12,6 +13,7 @@ import org.biojava.nbio.core.sequence.io.FastaReaderHelper;
 import org.biojava.nbio.core.sequence.template.Compound;
 import org.biojava.nbio.core.sequence.template.Sequence;
 
+import se.cbb.jprime.io.AsyncSampleWriter;
 import se.cbb.jprime.io.GuestHostMapReader;
 import se.cbb.jprime.io.MSAFastPhyloTree;
 import se.cbb.jprime.io.NewickRBTreeSamples;
@@ -21,11 +23,13 @@ import se.cbb.jprime.io.PrIMENewickTree.MetaProperty;
 import se.cbb.jprime.io.PrIMENewickTreeReader;
 import se.cbb.jprime.io.SampleDoubleArray;
 import se.cbb.jprime.io.SampleWriter;
+import se.cbb.jprime.io.Sampler;
 import se.cbb.jprime.math.Continuous1DPDDependent;
 import se.cbb.jprime.math.GammaDistribution;
 import se.cbb.jprime.math.PRNG;
 import se.cbb.jprime.math.RealInterval;
 import se.cbb.jprime.math.UniformDistribution;
+import se.cbb.jprime.mcmc.AdaptiveTuningParameter;
 import se.cbb.jprime.mcmc.ConstantThinner;
 import se.cbb.jprime.mcmc.DoubleParameter;
 import se.cbb.jprime.mcmc.FineProposerStatistics;
@@ -33,19 +37,26 @@ import se.cbb.jprime.mcmc.HillClimbingAcceptor;
 import se.cbb.jprime.mcmc.Iteration;
 import se.cbb.jprime.mcmc.LinearProposerWeight;
 import se.cbb.jprime.mcmc.LinearTuningParameter;
+import se.cbb.jprime.mcmc.MCMCManager;
 import se.cbb.jprime.mcmc.MetropolisHastingsAcceptor;
+import se.cbb.jprime.mcmc.MultiChainManager;
 import se.cbb.jprime.mcmc.MultiProposerSelector;
 import se.cbb.jprime.mcmc.NormalProposer;
+import se.cbb.jprime.mcmc.ParallelTemperingManager;
 import se.cbb.jprime.mcmc.ProposalAcceptor;
 import se.cbb.jprime.mcmc.Proposer;
+import se.cbb.jprime.mcmc.ProposerStatistics;
 import se.cbb.jprime.mcmc.RealParameter;
 import se.cbb.jprime.mcmc.Thinner;
+import se.cbb.jprime.mcmc.TuningParameter;
 import se.cbb.jprime.misc.Pair;
 import se.cbb.jprime.misc.Triple;
+import se.cbb.jprime.seqevo.BranchLengthGridProposer;
 import se.cbb.jprime.seqevo.GammaSiteRateHandler;
 import se.cbb.jprime.seqevo.MSAData;
 import se.cbb.jprime.seqevo.MultiAlignment;
 import se.cbb.jprime.seqevo.SequenceType;
+import se.cbb.jprime.seqevo.SubstitutionModel;
 import se.cbb.jprime.topology.BiasedRBTreeBranchSwapper;
 import se.cbb.jprime.topology.BifurcateTree;
 import se.cbb.jprime.topology.DoubleMap;
@@ -73,6 +84,9 @@ import se.cbb.jprime.topology.UniformRBTreeGenerator;
  */
 public class ParameterParser {
 
+	/** Number of iterations between adaptations of proposer weights. */
+	public static final int ADAPTIVE_WEIGHTS_INTERVAL = 500;
+
 	/**
 	 * Reads host tree with leaf names and times.
 	 * <p/>
@@ -154,12 +168,38 @@ public class ParameterParser {
 	
 	/**
 	 * Creates an output stream for the MCMC chain. If no parameter is found, stdout is used.
+	 * When resuming from a checkpoint, the output is appended to the file.
+	 * If so specified, samples are written asynchronously.
 	 * @param ps parameters.
 	 * @return output stream.
 	 */
 	public static <P extends Parameters> SampleWriter getOut(P ps) {
 		try {
-			return (ps.getOutfile() == null ? new SampleWriter() : new SampleWriter(new File(ps.getOutfile()), 10));
+			if (ps.getAsyncSampling() > 0) {
+				return (ps.getOutfile() == null ?
+						new AsyncSampleWriter(new BufferedWriter(new OutputStreamWriter(System.out)), 1, ps.getAsyncSampling()) :
+						new AsyncSampleWriter(new File(ps.getOutfile()), 10, ps.getResume() != null, ps.getAsyncSampling()));
+			}
+			return (ps.getOutfile() == null ? new SampleWriter() : new SampleWriter(new File(ps.getOutfile()), 10, ps.getResume() != null));
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Invalid output file.", e);
+		}
+	}
+	
+	/**
+	 * Creates an output stream for one of several independent runs. If the output file is, e.g., "myout",
+	 * samples of run r are written to "myout.run&lt;r&gt;".
+	 * @param ps parameters.
+	 * @param run the run, starting at 1.
+	 * @return output stream.
+	 */
+	public static <P extends Parameters> SampleWriter getOut(P ps, int run) {
+		if (ps.getOutfile() == null) {
+			throw new IllegalArgumentException("Multiple independent runs require an output file.");
+		}
+		try {
+			File f = new File(ps.getOutfile().trim() + ".run" + run);
+			return (ps.getAsyncSampling() > 0 ? new AsyncSampleWriter(f, 10, false, ps.getAsyncSampling()) : new SampleWriter(f, 10));
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Invalid output file.", e);
 		}
@@ -171,6 +211,7 @@ public class ParameterParser {
 	 * <li>if the ordinary output is directed to stdout, so will the info.</li>
 	 * <li>if the ordinary output is directed to a file, e.g., "myout", info will be written to "myout.info".</li>
 	 * </ol>
+	 * When resuming from a checkpoint, the info is appended to the file.
 	 * @param ps parameters.
 	 * @return output stream.
 	 */
@@ -182,7 +223,7 @@ public class ParameterParser {
 					return new BufferedWriter(new OutputStreamWriter(System.out));
 				} else {
 					// <outfile>.info.
-					return new BufferedWriter(new FileWriter(ps.getOutfile().trim() + ".info"));
+					return new BufferedWriter(new FileWriter(ps.getOutfile().trim() + ".info", ps.getResume() != null));
 				}
 				
 			} else {
@@ -191,7 +232,7 @@ public class ParameterParser {
 					return null;
 				}
 				// User-defined info file.
-				return new BufferedWriter(new FileWriter(ps.getInfofile()));
+				return new BufferedWriter(new FileWriter(ps.getInfofile(), ps.getResume() != null));
 			}			
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Invalid output file.", e);
@@ -377,6 +418,90 @@ public class ParameterParser {
 		return new ConstantThinner(iter, ps.getThinning());
 	}
 	
+	/**
+	 * Returns a manager for Metropolis-coupled chains, or null if only a single chain is used.
+	 * @param ps parameters.
+	 * @param sampler handles output of drawn samples.
+	 * @param prng PRNG.
+	 * @return the manager.
+	 */
+	public static <P extends Parameters> ParallelTemperingManager getParallelTemperingManager(P ps, Sampler sampler, PRNG prng) {
+		if (ps.getChains() < 1) {
+			throw new IllegalArgumentException("Invalid number of chains: " + ps.getChains() + ".");
+		}
+		if (ps.getChains() == 1) {
+			return null;
+		}
+		if (!ps.getRuntype().equalsIgnoreCase("MCMC")) {
+			throw new IllegalArgumentException("Metropolis-coupled chains require run type MCMC.");
+		}
+		return new ParallelTemperingManager(sampler, prng, Double.parseDouble(ps.getHeating()), ps.getSwapInterval());
+	}
+	
+	/**
+	 * Returns a manager for independent chains, or null if only a single run is used.
+	 * @param ps parameters.
+	 * @param prng PRNG.
+	 * @param info output stream for convergence diagnostics.
+	 * @return the manager.
+	 */
+	public static <P extends Parameters> MultiChainManager getMultiChainManager(P ps, PRNG prng, BufferedWriter info) {
+		if (ps.getRuns() < 1) {
+			throw new IllegalArgumentException("Invalid number of runs: " + ps.getRuns() + ".");
+		}
+		if (ps.getRuns() == 1) {
+			return null;
+		}
+		if (ps.getChains() > 1) {
+			throw new IllegalArgumentException("Multiple independent runs cannot be combined with Metropolis-coupled chains.");
+		}
+		return new MultiChainManager(prng, ps.getConvergenceCheckInterval(), Double.parseDouble(ps.getConvergenceBurninProp()),
+				Double.parseDouble(ps.getMaxRHat()), Double.parseDouble(ps.getMinESS()), Double.parseDouble(ps.getMaxASDSF()),
+				ps.getStopWhenConverged(), info);
+	}
+	
+	/**
+	 * Sets up checkpointing and resuming of an MCMC chain, if so specified. Unless a separate checkpoint file
+	 * is given, checkpoints of a resumed chain are written to the file it is resumed from.
+	 * @param ps parameters.
+	 * @param manager the chain.
+	 */
+	public static <P extends Parameters> void setCheckpointing(P ps, MCMCManager manager) {
+		if (ps.getCheckpoint() == null && ps.getResume() == null) {
+			return;
+		}
+		if (ps.getChains() > 1 || ps.getRuns() > 1) {
+			throw new IllegalArgumentException("Checkpointing is not supported for Metropolis-coupled chains or multiple independent runs.");
+		}
+		if (ps.getResume() != null) {
+			File f = new File(ps.getResume());
+			if (!f.isFile()) {
+				throw new IllegalArgumentException("Checkpoint file to resume from does not exist: " + ps.getResume() + ".");
+			}
+			manager.setResumeFile(f);
+		}
+		manager.setCheckpointing(new File(ps.getCheckpoint() != null ? ps.getCheckpoint() : ps.getResume()), ps.getCheckpointInterval());
+	}
+	
+	/**
+	 * Sets up streaming of performance statistics of an MCMC chain, if so specified.
+	 * @param ps parameters.
+	 * @param manager the chain.
+	 */
+	public static <P extends Parameters> void setMetrics(P ps, MCMCManager manager) {
+		if (ps.getMetrics() == null) {
+			return;
+		}
+		if (ps.getRuns() > 1) {
+			throw new IllegalArgumentException("Performance statistics output is not supported for multiple independent runs.");
+		}
+		try {
+			manager.setMetricsOutput(new BufferedWriter(new FileWriter(ps.getMetrics(), ps.getResume() != null)), ps.getMetricsInterval());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open performance statistics file: " + ps.getMetrics() + ".", e);
+		}
+	}
+	
 	/**
 	 * Reads the probability distribution used for iid rates over guest tree edges.
 	 * @param ps parameters.
@@ -463,13 +588,46 @@ public class ParameterParser {
 	 * @return proposer.
 	 */
 	public static <P extends Parameters> NormalProposer getNormalProposer(P ps, RealParameter p, Iteration iter, PRNG prng, String tuning) {
-		double[] tng = SampleDoubleArray.toDoubleArray(tuning);
-		LinearTuningParameter tcv = new LinearTuningParameter(iter, tng[0], tng[1]);
-		NormalProposer proposer = new NormalProposer(p, new RealInterval(0, Double.POSITIVE_INFINITY, true, true), tcv, prng);
-		proposer.setStatistics(new FineProposerStatistics(iter, 8));
+		FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
+		NormalProposer proposer = new NormalProposer(p, new RealInterval(0, Double.POSITIVE_INFINITY, true, true), getTuningParameter(ps, iter, stats, tuning), prng);
+		proposer.setStatistics(stats);
 		return proposer;
 	}
 	
+	/**
+	 * Returns a tuning parameter, either varying linearly from start to stop, or, if adaptive tuning
+	 * is enabled, adapted during burn-in from the start value, in which case it is bounded by
+	 * [start/100,start*100].
+	 * @param ps parameters.
+	 * @param iter iterations.
+	 * @param stats statistics of the proposer which will use the tuning parameter.
+	 * @param tuning tuning parameter start-stop as an array in string format.
+	 * @return tuning parameter.
+	 */
+	public static <P extends Parameters> TuningParameter getTuningParameter(P ps, Iteration iter, ProposerStatistics stats, String tuning) {
+		double[] tng = SampleDoubleArray.toDoubleArray(tuning);
+		if (ps.getAdaptive()) {
+			int end = (int) (Double.parseDouble(ps.getAdaptiveBurninProp()) * ps.getIterations());
+			return new AdaptiveTuningParameter(iter, stats, tng[0], tng[0] / 100, tng[0] * 100, Double.parseDouble(ps.getAdaptiveTarget()),
+					end, AdaptiveTuningParameter.DEFAULT_BATCH_SIZE);
+		}
+		return new LinearTuningParameter(iter, tng[0], tng[1]);
+	}
+	
+	/**
+	 * Enables adaptation of the proposer weights during burn-in, if so specified.
+	 * Must be invoked after all proposers have been added to the selector.
+	 * @param ps parameters.
+	 * @param selector proposer selector.
+	 * @param iter iterations.
+	 */
+	public static <P extends Parameters> void setAdaptiveWeights(P ps, MultiProposerSelector selector, Iteration iter) {
+		if (ps.getAdaptiveWeights()) {
+			int end = (int) (Double.parseDouble(ps.getAdaptiveBurninProp()) * ps.getIterations());
+			selector.setAdaptiveWeights(iter, end, ADAPTIVE_WEIGHTS_INTERVAL, ps.getAdaptiveWallTime());
+		}
+	}
+	
 	/**
 	 * Returns a branch swapper proposer.
 	 * @param tree tree.
@@ -500,6 +658,29 @@ public class ParameterParser {
 		return mrGardener;
 	}
 	
+	/**
+	 * Adds a Gibbs-style branch lengths proposer to a selector, if it has a positive weight.
+	 * @param ps parameters.
+	 * @param selector proposer selector.
+	 * @param sm substitution model holding the branch lengths.
+	 * @param interval domain of branch lengths.
+	 * @param iter iteration.
+	 * @param prng PRNG.
+	 * @return the proposer, or null if not added.
+	 */
+	public static <P extends Parameters> BranchLengthGridProposer addBranchLengthGridProposer(P ps, MultiProposerSelector selector, SubstitutionModel sm,
+			RealInterval interval, Iteration iter, PRNG prng) {
+		double[] ws = SampleDoubleArray.toDoubleArray(ps.getTuningWeightLengthsGrid());
+		if (ws[0] <= 0.0 && ws[1] <= 0.0) {
+			return null;
+		}
+		BranchLengthGridProposer proposer = new BranchLengthGridProposer(sm, interval, ps.getLengthsGridSize(), prng);
+		proposer.setStatistics(new FineProposerStatistics(iter, 8));
+		proposer.setEnabled(!ps.getLengthsFixed());
+		selector.add(proposer, getProposerWeight(ps.getTuningWeightLengthsGrid(), iter));
+		return proposer;
+	}
+	
 	/**
 	 * Returns a proposer weight.
 	 * @param weights the two weights as an array in string format. 
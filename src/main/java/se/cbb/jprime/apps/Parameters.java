@@ -179,10 +179,226 @@ public abstract class Parameters {
 	@Parameter(names = {"-tngwl", "--tuningweightlengths"}, description = "Tuning parameter: Relative activation weight for branch lengths proposer.")
 	public String tuningWeightLengths = "[10.0,10.0]";
 
+	/** Tuning parameter: branch lengths grid proposer weight. */
+	@Parameter(names = {"-tngwlgrid", "--tuningweightlengthsgrid"}, description = "Tuning parameter: Relative activation weight for the Gibbs-style branch lengths proposer," +
+			" which draws a single branch length from a grid approximation of its conditional sequence likelihood. Default: disabled.")
+	public String tuningWeightLengthsGrid = "[0.0,0.0]";
+
+	/** Number of cells of branch lengths grid proposer. */
+	@Parameter(names = {"-lgrid", "--lengthsgridsize"}, description = "Number of cells K of the grid of the Gibbs-style branch lengths proposer." +
+			" The likelihood is evaluated at 2K lengths per proposal.")
+	public Integer lengthsGridSize = 32;
+
 	/** Debug flag. */
 	@Parameter(names = {"-dbg", "--debug"}, description = "Output debugging info.")
 	public Boolean debug = false;
 
+	/** Number of Metropolis-coupled chains. */
+	@Parameter(names = {"-chains", "--chains"}, description = "Number of Metropolis-coupled chains (parallel tempering), each run on its own thread." +
+			" Only the cold chain is sampled. Default: 1, i.e., an ordinary MCMC chain.")
+	public Integer chains = 1;
+
+	/** Heating increment of Metropolis-coupled chains. */
+	@Parameter(names = {"-heat", "--heating"}, description = "Heating increment dT of Metropolis-coupled chains, chain k having heat 1/(1+k*dT).")
+	public String heating = "0.1";
+
+	/** Swap interval of Metropolis-coupled chains. */
+	@Parameter(names = {"-swap", "--swapinterval"}, description = "Number of iterations between attempted state exchanges of Metropolis-coupled chains.")
+	public Integer swapInterval = 10;
+
+	/** Concurrent updates flag. */
+	@Parameter(names = {"-cu", "--concurrentupdates"}, description = "Update independent parts of the model, e.g. the substitution model" +
+			" and the reconciliation model, concurrently on separate threads.")
+	public Boolean concurrentUpdates = false;
+
+	/** Early abort flag. */
+	@Parameter(names = {"-ea", "--earlyabort"}, description = "Draw the acceptance threshold of a proposed state before evaluating it, evaluate" +
+			" the substitution model and priors last, and reject as soon as the threshold cannot be attained. Speeds up runs where most" +
+			" proposals are rejected. Requires run type MCMC. Note: yields a different chain than without this option for the same seed.")
+	public Boolean earlyAbort = false;
+
+	/** Adaptive tuning flag. */
+	@Parameter(names = {"-adapt", "--adaptive"}, description = "During burn-in, adapt the proposal CVs of the rate and branch length proposers" +
+			" towards a target acceptance ratio, using the first value of each tuning CV option as start value. The adaptation diminishes" +
+			" over time and is frozen after burn-in, see -adaptb.")
+	public Boolean adaptive = false;
+
+	/** Adaptive weights flag. */
+	@Parameter(names = {"-adaptw", "--adaptiveweights"}, description = "During burn-in, adapt the proposer weights towards the proposers" +
+			" with the highest acceptance ratio per unit of cost. The adaptation diminishes over time and is frozen after burn-in, see -adaptb." +
+			" Note: this favours proposers by acceptance ratio alone, so it is best combined with -adaptwt, and not with -adapt, which" +
+			" drives the acceptance ratios of the rate and branch length proposers towards a common target.")
+	public Boolean adaptiveWeights = false;
+
+	/** Wall time adaptive weights flag. */
+	@Parameter(names = {"-adaptwt", "--adaptivewalltime"}, description = "With -adaptw, measure the cost of a proposer by the wall time" +
+			" spent on its proposals rather than by its number of proposals. Note: since the proposer weights then depend on measured run" +
+			" times, the chain is not reproducible for a given seed, nor when resumed from a checkpoint.")
+	public Boolean adaptiveWallTime = false;
+
+	/** Burn-in proportion for adaptive tuning. */
+	@Parameter(names = {"-adaptb", "--adaptiveburninprop"}, description = "Proportion of iterations at the start of the run during which" +
+			" tuning parameters and proposer weights are adapted.")
+	public String adaptiveBurninProp = "0.25";
+
+	/** Target acceptance ratio for adaptive tuning. */
+	@Parameter(names = {"-adapttarget", "--adaptivetarget"}, description = "Target acceptance ratio of adapted proposers.")
+	public String adaptiveTarget = "0.44";
+
+	/** Number of independent runs. */
+	@Parameter(names = {"-runs", "--runs"}, description = "Number of independent chains, run concurrently, each on its own thread." +
+			" Requires an output file, e.g. \"myout\", run r writing its samples to \"myout.run<r>\". Convergence diagnostics over the runs" +
+			" are written to the info file. Default: 1.")
+	public Integer runs = 1;
+
+	/** Convergence check interval of independent runs. */
+	@Parameter(names = {"-conv", "--convergencecheckinterval"}, description = "Number of iterations between convergence diagnostics of independent runs.")
+	public Integer convergenceCheckInterval = 10000;
+
+	/** Burn-in proportion for convergence diagnostics. */
+	@Parameter(names = {"-convb", "--convergenceburninprop"}, description = "Proportion of samples discarded as burn-in when computing convergence diagnostics.")
+	public String convergenceBurninProp = "0.25";
+
+	/** Maximum split-R^ for convergence. */
+	@Parameter(names = {"-maxrhat", "--maxsplitrhat"}, description = "Maximum split-R^ of all real-valued parameters for convergence of independent runs.")
+	public String maxRHat = "1.01";
+
+	/** Minimum ESS for convergence. */
+	@Parameter(names = {"-miness", "--minimumess"}, description = "Minimum effective sample size of all real-valued parameters for convergence of independent runs.")
+	public String minESS = "200";
+
+	/** Maximum ASDSF for convergence. */
+	@Parameter(names = {"-maxasdsf", "--maxasdsf"}, description = "Maximum average standard deviation of split frequencies of the guest tree for convergence of independent runs.")
+	public String maxASDSF = "0.01";
+
+	/** Stop when converged flag. */
+	@Parameter(names = {"-stopconv", "--stopwhenconverged"}, description = "Stop independent runs as soon as the convergence thresholds are met.")
+	public Boolean stopWhenConverged = false;
+
+	/** Checkpoint file. */
+	@Parameter(names = {"-chk", "--checkpoint"}, description = "Periodically write the state of the chain to this file, from which the" +
+			" run may be resumed with -resume. A checkpoint is also written if the run is terminated by SIGTERM. Not supported for" +
+			" Metropolis-coupled chains or multiple independent runs.")
+	public String checkpoint = null;
+
+	/** Checkpoint interval. */
+	@Parameter(names = {"-chkint", "--checkpointinterval"}, description = "Number of iterations between checkpoints.")
+	public Integer checkpointInterval = 10000;
+
+	/** Resume file. */
+	@Parameter(names = {"-resume", "--resume"}, description = "Resume a run from this checkpoint file, using the same options as the" +
+			" original run, apart from -i, which may be increased to extend the run. Samples and info are appended to existing output." +
+			" If the original run was killed abruptly, samples drawn after its last checkpoint are repeated. Unless -chk is specified," +
+			" checkpoints are written to this file.")
+	public String resume = null;
+
+	/** Performance statistics file. */
+	@Parameter(names = {"-metrics", "--metrics"}, description = "Periodically write cumulative counts and wall times of proposals and model" +
+			" updates to this file, one line of JSON at a time. For Metropolis-coupled chains, those of the first chain are written." +
+			" Not supported for multiple independent runs. The totals are always reported in the info file.")
+	public String metrics = null;
+
+	/** Performance statistics interval. */
+	@Parameter(names = {"-metricsint", "--metricsinterval"}, description = "Number of iterations between lines of performance statistics.")
+	public Integer metricsInterval = 1000;
+
+	/** Asynchronous sampling ring buffer capacity. */
+	@Parameter(names = {"-async", "--asyncsampling"}, description = "Format and write samples on a background thread, with a ring buffer" +
+			" holding at most this many pending samples. The sampling is blocked when the buffer is full. Default: 0, i.e., synchronous sampling.")
+	public Integer asyncSampling = 0;
+
+	public Integer getChains() {
+		return chains;
+	}
+
+	public String getHeating() {
+		return heating;
+	}
+
+	public Integer getSwapInterval() {
+		return swapInterval;
+	}
+
+	public Boolean getConcurrentUpdates() {
+		return concurrentUpdates;
+	}
+
+	public Boolean getEarlyAbort() {
+		return earlyAbort;
+	}
+
+	public String getMetrics() {
+		return metrics;
+	}
+
+	public Integer getMetricsInterval() {
+		return metricsInterval;
+	}
+
+	public Integer getAsyncSampling() {
+		return asyncSampling;
+	}
+
+	public Boolean getAdaptive() {
+		return adaptive;
+	}
+
+	public Boolean getAdaptiveWeights() {
+		return adaptiveWeights;
+	}
+
+	public Boolean getAdaptiveWallTime() {
+		return adaptiveWallTime;
+	}
+
+	public String getAdaptiveBurninProp() {
+		return adaptiveBurninProp;
+	}
+
+	public String getAdaptiveTarget() {
+		return adaptiveTarget;
+	}
+
+	public Integer getRuns() {
+		return runs;
+	}
+
+	public Integer getConvergenceCheckInterval() {
+		return convergenceCheckInterval;
+	}
+
+	public String getConvergenceBurninProp() {
+		return convergenceBurninProp;
+	}
+
+	public String getMaxRHat() {
+		return maxRHat;
+	}
+
+	public String getMinESS() {
+		return minESS;
+	}
+
+	public String getMaxASDSF() {
+		return maxASDSF;
+	}
+
+	public Boolean getStopWhenConverged() {
+		return stopWhenConverged;
+	}
+
+	public String getCheckpoint() {
+		return checkpoint;
+	}
+
+	public Integer getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public String getResume() {
+		return resume;
+	}
+
 	public Boolean getHelp() {
 		return help;
 	}
@@ -337,6 +553,14 @@ public abstract class Parameters {
 		return tuningWeightLengths;
 	}
 
+	public String getTuningWeightLengthsGrid() {
+		return tuningWeightLengthsGrid;
+	}
+
+	public Integer getLengthsGridSize() {
+		return lengthsGridSize;
+	}
+
 	public Boolean getDebug() {
 		return debug;
 	}
@@ -3,8 +3,10 @@ package se.cbb.jprime.apps.dlrs;
 import java.util.Arrays;
 import java.util.Map;
 import se.cbb.jprime.io.SampleLogDouble;
+import se.cbb.jprime.io.SnapshotSampleable;
 import se.cbb.jprime.math.Continuous1DPDDependent;
 import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.math.LogDoubleArrays;
 import se.cbb.jprime.mcmc.ChangeInfo;
 import se.cbb.jprime.mcmc.Dependent;
 import se.cbb.jprime.mcmc.InferenceModel;
@@ -35,7 +37,7 @@ import se.cbb.jprime.topology.TreeAlgorithms;
  * @author Sayyed Auwn Muhammad.
  * @author Raja Hashim Ali.
  */
-public class DLRModel implements InferenceModel {
+public class DLRModel implements InferenceModel, SnapshotSampleable {
 
 	/** The guest tree G. */
 	protected RootedBifurcatingTreeParameter g;
@@ -66,6 +68,15 @@ public class DLRModel implements InferenceModel {
 	 */
 	protected DoubleArrayLogMap belows;
 	
+	/** Change info of partial updates after topology changes, reused between updates. */
+	private ChangeInfo topologyChangeInfo;
+	
+	/** Change info of partial updates after length changes, reused between updates. */
+	private ChangeInfo partialChangeInfo;
+	
+	/** Change info of full updates, reused between updates. */
+	private ChangeInfo fullChangeInfo;
+	
 	/**
 	 * Constructor.
 	 * @param g the guest tree G.
@@ -86,6 +97,9 @@ public class DLRModel implements InferenceModel {
 		this.substPD = substPD;
 		this.ats = new DoubleArrayLogMap("DLR.ats", g.getNoOfVertices());
 		this.belows = new DoubleArrayLogMap("DLR.belows", g.getNoOfVertices());
+		this.topologyChangeInfo = new ChangeInfo(this, "Partial DLR topology update", null);
+		this.partialChangeInfo = new ChangeInfo(this, "Partial DLR update", null);
+		this.fullChangeInfo = new ChangeInfo(this, "Full DLR update.");
 				
 		// Update.
 		this.fullUpdate();
@@ -108,8 +122,20 @@ public class DLRModel implements InferenceModel {
 		// One could think of many optimisations here, especially when there are 
 		// time perturbations involved, possibly combined with length perturbations.
 		// However, it is easy to make algorithmic mistakes in such situations,
-		// so at the only moment solitary length changes result in a partial DP update.
-		if (gci == null && sci == null && rhci == null && dpci == null && rci == null) {
+		// so at the moment only solitary length changes and topology changes confined
+		// to disclosed vertices (e.g. NNI and SPR) result in a partial DP update.
+		if (sci == null && dpci == null && rci == null && (gci != null || rhci != null) &&
+				(gci == null || gci.getAffectedElements() != null) &&
+				(rhci == null || rhci.getAffectedElements() != null) &&
+				(lci == null || lci.getAffectedElements() != null)) {
+			// Topology has changed locally. We do a partial update.
+			int[] affected = this.topologyUpdate(ChangeInfo.getUnion(new int[][] {
+					(gci == null ? new int[0] : gci.getAffectedElements()),
+					(rhci == null ? new int[0] : rhci.getAffectedElements()),
+					(lci == null ? new int[0] : lci.getAffectedElements()) }));
+			this.topologyChangeInfo.setAffectedElements(affected);
+			changeInfos.put(this, this.topologyChangeInfo);
+		} else if (gci == null && sci == null && rhci == null && dpci == null && rci == null) {
 			if (lci != null && lci.getAffectedElements() != null) {
 				// Only certain branch lengths have changed. We do a partial update.
 				
@@ -117,18 +143,19 @@ public class DLRModel implements InferenceModel {
 				this.ats.cache(affected);
 				this.belows.cache(affected);
 				this.partialUpdate(affected);
-				changeInfos.put(this, new ChangeInfo(this, "Partial DLR update", affected));
+				this.partialChangeInfo.setAffectedElements(affected);
+				changeInfos.put(this, this.partialChangeInfo);
 			} else if (lci != null) {
 				this.ats.cache(null);
 				this.belows.cache(null);
 				this.fullUpdate();
-				changeInfos.put(this, new ChangeInfo(this, "Full DLR update."));
+				changeInfos.put(this, this.fullChangeInfo);
 			}
 		} else {
 			this.ats.cache(null);
 			this.belows.cache(null);
 			this.fullUpdate();
-			changeInfos.put(this, new ChangeInfo(this, "Full DLR update."));
+			changeInfos.put(this, this.fullChangeInfo);
 		}
 	}
 
@@ -159,25 +186,39 @@ public class DLRModel implements InferenceModel {
 		return this.getDataProbability().toString();
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new LogDouble();
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		((LogDouble) snapshot).set(this.getDataProbability());
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		return snapshot.toString();
+	}
+
 	@Override
 	public LogDouble getDataProbability() {
-		return new LogDouble(this.belows.get(this.g.getRoot(), 0));
+		return this.belows.get(this.g.getRoot(), 0);
 	}
 	
 	
 	/**
-	 * Creates (and thus clears) the DP data structures.
-	 * @param u the root of the subtree of G.
-	 * @param noOfAncestors the number of ancestors of u.
+	 * Creates (and thus clears) the DP data structures. Existing arrays
+	 * are reused when their sizes are unchanged.
 	 */
 	protected void clearAtsAndBelows() {
 		int[] nos = this.reconcHelper.getNoOfPlacements();
 		for (int u = 0; u < this.g.getNoOfVertices(); ++u) {
-			this.ats.set(u, new LogDouble[nos[u]]);
+			this.ats.allocate(u, nos[u]);
 			if (this.g.isRoot(u)) {
-				this.belows.set(u, new LogDouble[1]);  // Only tip of host tree.
+				this.belows.allocate(u, 1);  // Only tip of host tree.
 			} else {
-				this.belows.set(u, new LogDouble[nos[this.g.getParent(u)]]);
+				this.belows.allocate(u, nos[this.g.getParent(u)]);
 			}	
 		}
 	}
@@ -203,6 +244,81 @@ public class DLRModel implements InferenceModel {
 		}
 	}
 
+	/**
+	 * Caches and performs a partial DP update after a topology change confined to certain
+	 * vertices of G. Apart from these vertices, the number of placements may have changed for
+	 * vertices whose depth has changed. All such vertices and their ancestors are updated,
+	 * and so are the planted tree probabilities of their children, since these depend on the
+	 * placements of the parent.
+	 * @param changedVertices the vertices disclosed as changed.
+	 * @return all affected vertices, sorted in reverse topological order.
+	 */
+	private int[] topologyUpdate(int[] changedVertices) {
+		int n = this.g.getNoOfVertices();
+		int[] nos = this.reconcHelper.getNoOfPlacements();
+		
+		// Find vertices to update.
+		boolean[] isChanged = new boolean[n];
+		int noOfChanged = 0;
+		for (int u : changedVertices) {
+			if (!isChanged[u]) {
+				isChanged[u] = true;
+				++noOfChanged;
+			}
+		}
+		for (int u = 0; u < n; ++u) {
+			if (!isChanged[u] && (this.ats.getLogValues(u) == null || this.ats.getLength(u) != nos[u])) {
+				isChanged[u] = true;
+				++noOfChanged;
+			}
+		}
+		int[] changed = new int[noOfChanged];
+		for (int u = 0, i = 0; u < n; ++u) {
+			if (isChanged[u]) {
+				changed[i++] = u;
+			}
+		}
+		int[] affected = TreeAlgorithms.getSpanningRootSubtree(this.g, changed);
+		
+		// Planted trees of affected vertices and their children.
+		boolean[] isAffected = new boolean[n];
+		for (int u : affected) {
+			isAffected[u] = true;
+		}
+		int[] planted = new int[n];
+		int noOfPlanted = 0;
+		for (int u : affected) {
+			planted[noOfPlanted++] = u;
+			if (!this.g.isLeaf(u)) {
+				int lc = this.g.getLeftChild(u);
+				int rc = this.g.getRightChild(u);
+				if (!isAffected[lc]) { planted[noOfPlanted++] = lc; }
+				if (!isAffected[rc]) { planted[noOfPlanted++] = rc; }
+			}
+		}
+		planted = Arrays.copyOf(planted, noOfPlanted);
+		
+		// Cache and update.
+		this.ats.cache(affected);
+		this.belows.cache(planted);
+		for (int u : affected) {
+			this.ats.allocate(u, nos[u]);
+		}
+		for (int u : planted) {
+			this.belows.allocate(u, this.g.isRoot(u) ? 1 : nos[this.g.getParent(u)]);
+		}
+		for (int u : affected) {
+			if (!this.g.isLeaf(u)) {
+				int lc = this.g.getLeftChild(u);
+				int rc = this.g.getRightChild(u);
+				if (!isAffected[lc]) { this.updateBelowProbs(lc); }
+				if (!isAffected[rc]) { this.updateBelowProbs(rc); }
+			}
+			this.updateAtProbs(u, false);
+		}
+		return affected;
+	}
+
 	/**
 	 * Dynamic programming method for computing the probability of all realisations of
 	 * rooted tree G_u when u is placed on point x_i. All viable placements x_i are
@@ -212,7 +328,7 @@ public class DLRModel implements InferenceModel {
 	 */
 	protected void updateAtProbs(int u, boolean doRecurse) {
 		if (this.g.isLeaf(u)) {
-			this.ats.set(u, 0, new LogDouble(1.0));
+			LogDoubleArrays.set(this.ats.getLogValues(u), this.ats.getSigns(u), 0, 1.0);
 		} else {
 			int lc = this.g.getLeftChild(u);
 			int rc = this.g.getRightChild(u);
@@ -227,13 +343,17 @@ public class DLRModel implements InferenceModel {
 			int[] x_i = this.reconcHelper.getLoLim(u);
 			int idx = 0;                                // No. of processed viable placements.
 
-			LogDouble[] uAts = this.ats.get(u);
-			LogDouble[] lcBelows = this.belows.get(lc);
-			LogDouble[] rcBelows = this.belows.get(rc);
+			// Log-values and signs, see LogDoubleArrays.
+			double[] uAts = this.ats.getLogValues(u);
+			int[] uAtsSigns = this.ats.getSigns(u);
+			double[] lcBelows = this.belows.getLogValues(lc);
+			int[] lcBelowsSigns = this.belows.getSigns(lc);
+			double[] rcBelows = this.belows.getLogValues(rc);
+			int[] rcBelowsSigns = this.belows.getSigns(rc);
 			
 			// First placement might correspond to a speciation.
 			if (x_i[1] == 0) {
-				uAts[0] = lcBelows[0].multToNew(rcBelows[0]);
+				LogDoubleArrays.mult(uAts, uAtsSigns, 0, lcBelows, lcBelowsSigns, 0, rcBelows, rcBelowsSigns, 0);
 				++idx;
 				++x_i[1];
 			}
@@ -241,7 +361,8 @@ public class DLRModel implements InferenceModel {
 			// Remaining placements correspond to duplications for sure.
 			for (; idx < uAts.length; ++idx) {
 				double dupRateSliceTimeProduct = 2 * this.dupLossProbs.getDuplicationRate() * this.reconcHelper.getSliceTime(x_i);
-				uAts[idx] = lcBelows[idx].multToNew(rcBelows[idx]).multToNew(dupRateSliceTimeProduct);	
+				LogDoubleArrays.mult(uAts, uAtsSigns, idx, lcBelows, lcBelowsSigns, idx, rcBelows, rcBelowsSigns, idx);
+				LogDoubleArrays.mult(uAts, uAtsSigns, idx, dupRateSliceTimeProduct);
 				// Move onto next pure discretisation point above.
 				this.reconcHelper.incrementPt(x_i);
 			}
@@ -262,8 +383,10 @@ public class DLRModel implements InferenceModel {
 		// y refers to point where u is placed (strictly below x).
 
 		double length = this.lengths.get(u);
-		LogDouble[] uAts = this.ats.get(u);
-		LogDouble[] uBelows = this.belows.get(u);
+		double[] uAts = this.ats.getLogValues(u);
+		int[] uAtsSigns = this.ats.getSigns(u);
+		double[] uBelows = this.belows.getLogValues(u);
+		int[] uBelowsSigns = this.belows.getSigns(u);
 		
 		// Get limits.
 		int[] x_i = (this.g.isRoot(u) ? this.reconcHelper.getTipPt() : this.reconcHelper.getLoLim(this.g.getParent(u)));
@@ -271,7 +394,7 @@ public class DLRModel implements InferenceModel {
 		// For each x_i.
 		for (int xcnt = 0; xcnt < uBelows.length; ++xcnt) {
 			// Clear old value.
-			uBelows[xcnt] = new LogDouble(0.0);
+			LogDoubleArrays.setZero(uBelows, uBelowsSigns, xcnt);
 			// For each y_j strictly below x_i.
 			int[] y_j = this.reconcHelper.getLoLim(u);
 			double xt = this.reconcHelper.getDiscretisationTime(x_i);
@@ -280,8 +403,12 @@ public class DLRModel implements InferenceModel {
 				// Note: We now allow edge rates over stem arc as well.
 				double rateDens = this.substPD.getPDF(length / (xt - yt));
 				double p11 = this.dupLossProbs.getP11Probability(x_i[0], x_i[1], y_j[0], y_j[1]);
-				LogDouble product = uAts[ycnt].multToNew(rateDens * p11);
-				uBelows[xcnt].add(product);
+				// Add uAts[ycnt] * rateDens * p11 without intermediate objects.
+				double factor = rateDens * p11;
+				int sign = uAtsSigns[ycnt] * (factor > 0.0 ? 1 : (factor == 0.0 ? 0 : -1));
+				if (sign != 0) {
+					LogDoubleArrays.add(uBelows, uBelowsSigns, xcnt, uAts[ycnt] + Math.log(Math.abs(factor)), sign);
+				}
 				// Move y_j onto next pure discretisation point above.
 				this.reconcHelper.incrementPt(y_j);
 				if (y_j[0] == x_i[0] && y_j[1] >= x_i[1]) { break; }
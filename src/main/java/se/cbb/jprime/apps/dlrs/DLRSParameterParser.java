@@ -16,7 +16,6 @@ import se.cbb.jprime.math.RealInterval;
 import se.cbb.jprime.mcmc.DoubleParameter;
 import se.cbb.jprime.mcmc.FineProposerStatistics;
 import se.cbb.jprime.mcmc.Iteration;
-import se.cbb.jprime.mcmc.LinearTuningParameter;
 import se.cbb.jprime.mcmc.NormalProposer;
 import se.cbb.jprime.mcmc.RealParameter;
 import se.cbb.jprime.misc.Triple;
@@ -90,10 +89,9 @@ public class DLRSParameterParser extends se.cbb.jprime.apps.ParameterParser {
 	 * @return proposer.
 	 */
 	public static NormalProposer getTruncatedNormalProposer(DLRSParameters ps, RealInterval interval, RealParameter p, Iteration iter, PRNG prng, String tuning) {
-		double[] tng = SampleDoubleArray.toDoubleArray(tuning);
-		LinearTuningParameter tcv = new LinearTuningParameter(iter, tng[0], tng[1]);
-		NormalProposer proposer = new NormalProposer(p, interval, tcv, prng);
-		proposer.setStatistics(new FineProposerStatistics(iter, 8));
+		FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
+		NormalProposer proposer = new NormalProposer(p, interval, getTuningParameter(ps, iter, stats, tuning), prng);
+		proposer.setStatistics(stats);
 		return proposer;
 	}
 	
@@ -97,6 +97,12 @@ public class DLRSParameters extends Parameters {
 			"--normalizationparam" }, description = "Normalizing ratio for branch lengths of gene tree.")
 	public String normp = "1.0";
 
+	/** Number of threads. */
+	@Parameter(names = { "-threads",
+			"--threads" }, description = "Number of threads over which the alignment patterns are split when computing "
+					+ "the substitution model likelihood.")
+	public Integer threads = 1;
+
 	public List<String> getFiles() {
 		return files;
 	}
@@ -156,4 +162,8 @@ public class DLRSParameters extends Parameters {
 	public String getNormp() {
 		return normp;
 	}
+
+	public Integer getThreads() {
+		return threads;
+	}
 }
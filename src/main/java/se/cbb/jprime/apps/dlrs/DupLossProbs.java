@@ -9,6 +9,7 @@ import se.cbb.jprime.topology.DoubleArrayMatrixMap;
 import se.cbb.jprime.topology.DoubleMap;
 import se.cbb.jprime.topology.RBTree;
 import se.cbb.jprime.topology.RBTreeArcDiscretiser;
+import se.cbb.jprime.topology.TreeAlgorithms;
 
 /**
  * Point-wise duplication and loss probabilities for a
@@ -36,6 +37,12 @@ public class DupLossProbs implements ProperDependent {
 	/** Death probabilites for planted subtrees. */
 	protected DoubleMap extinction;
 	
+	/** Change info of partial updates, reused between updates. */
+	private ChangeInfo partialChangeInfo;
+	
+	/** Change info of full updates, reused between updates. */
+	private ChangeInfo fullChangeInfo;
+	
 	/**
 	 * Constructor.
 	 * @param s
@@ -50,6 +57,8 @@ public class DupLossProbs implements ProperDependent {
 		this.mu = mu;
 		this.p11 = new DoubleArrayMatrixMap(s.getNoOfVertices());
 		this.extinction = new DoubleMap("extinction", s.getNoOfVertices());
+		this.partialChangeInfo = new ChangeInfo(this, "DupLossProbs - partial update", null);
+		this.fullChangeInfo = new ChangeInfo(this, "DupLossProbs - full update");
 		this.fullUpdate();
 	}
 
@@ -65,17 +74,18 @@ public class DupLossProbs implements ProperDependent {
 		if (changeInfos.get(this.s) == null && changeInfos.get(this.lambda) == null &&
 			changeInfos.get(this.mu) == null && tci != null && tci.getAffectedElements() != null &&
 			tci.getAffectedElements().length < maxAffectedVertices) {
-			// TODO: Here one could find the parts of the tree spanned by
-			// tci.getAffectedElements() and do partial update.
-			this.p11.cache(null);
-			this.extinction.cache(null);
-			fullUpdate();
-			changeInfos.put(this, new ChangeInfo(this, "DupLossProbs - full update"));
+			// Only the arcs spanned by the affected elements and the root need recomputation.
+			int[] affected = TreeAlgorithms.getSpanningRootSubtree(this.s, tci.getAffectedElements());
+			this.p11.cacheRows(affected);
+			this.extinction.cache(affected);
+			partialUpdate(affected);
+			this.partialChangeInfo.setAffectedElements(affected);
+			changeInfos.put(this, this.partialChangeInfo);
 		} else {
 			this.p11.cache(null);
 			this.extinction.cache(null);
 			fullUpdate();
-			changeInfos.put(this, new ChangeInfo(this, "DupLossProbs - full update"));
+			changeInfos.put(this, this.fullChangeInfo);
 		}
 	}
 
@@ -84,16 +94,24 @@ public class DupLossProbs implements ProperDependent {
 	 */
 	private void fullUpdate() {
 		this.computeP11AndExtinctionForArc(this.s.getRoot(), true);
-		this.computeP11ForRootPath(this.s.getRoot(), true);
+		this.computeP11ForRootPath(this.s.getRoot(), true, null);
 	}
 
 	/**
-	 * Partial update. Not implemented.
-	 * @param affectedElements.
+	 * Performs a partial update when only the discretisation of certain arcs has changed.
+	 * The tables of an arc depend on its own discretisation and on the extinction probabilities
+	 * of its descendants, so all arcs on the paths from the changed arcs to the root are recomputed.
+	 * Likewise, p11 between points on arc x and points on a descendant arc y is recomputed only if
+	 * x is one of these arcs; otherwise, nothing on the path from x to y has changed.
+	 * @param affectedVertices the changed arcs and their ancestors, in reverse topological order.
 	 */
-	@SuppressWarnings("unused")
-	private void partialUpdate(int[] affectedElements) {
-		// TODO: Implement. Probably mostly useful if tree and/or discretisation has changed.
+	private void partialUpdate(int[] affectedVertices) {
+		boolean[] isAffected = new boolean[this.s.getNoOfVertices()];
+		for (int x : affectedVertices) {
+			isAffected[x] = true;
+			this.computeP11AndExtinctionForArc(x, false);
+		}
+		this.computeP11ForRootPath(this.s.getRoot(), true, isAffected);
 	}
 	
 	/**
@@ -251,15 +269,16 @@ public class DupLossProbs implements ProperDependent {
 	 * For an arc y, computes and stores p11 for each proper ancestral arc x.
 	 * @param y the arc (or arc with head vertex y, if you wish).
 	 * @param doRecurse true to process all of the tree rooted at y.
+	 * @param isAffected flags the ancestral arcs x to compute p11 for. Null computes all.
 	 */
-	private void computeP11ForRootPath(int y, boolean doRecurse) {
+	private void computeP11ForRootPath(int y, boolean doRecurse, boolean[] isAffected) {
 		
 		// Edge y refers to the lower most arc, i.e. the descendant edge.
 		
 		// Perform computations from leaves to root.
 		if (!this.s.isLeaf(y) && doRecurse) {
-			this.computeP11ForRootPath(this.s.getLeftChild(y), true);
-			this.computeP11ForRootPath(this.s.getRightChild(y), true);
+			this.computeP11ForRootPath(this.s.getLeftChild(y), true, isAffected);
+			this.computeP11ForRootPath(this.s.getRightChild(y), true, isAffected);
 		}
 		
 		if (!this.s.isRoot(y)) {
@@ -289,6 +308,18 @@ public class DupLossProbs implements ProperDependent {
 				// p11 for points within ancestral arc y.
 				double[] xp11 = this.p11.get(x, x);
 				
+				// Unaffected arcs keep their values; just move on to the parent.
+				if (isAffected != null && !isAffected[x]) {
+					if (this.s.isRoot(x)) {
+						break;
+					}
+					p11ForIntermediateArcs *= loss;
+					p11ForIntermediateArcs *= xp11[xSz * (xSz - 1) + 0];
+					loss = this.extinction.get(this.s.getSibling(x));
+					x = this.s.getParent(x);
+					continue;
+				}
+				
 				// What we're computing: p11 between x and y.
 				double[] xyp11 = new double[xSz * ySz];
 
@@ -12,6 +12,7 @@ import se.cbb.jprime.topology.MPRMap;
 import se.cbb.jprime.topology.RBTree;
 import se.cbb.jprime.topology.RBTreeArcDiscretiser;
 import se.cbb.jprime.topology.RootedBifurcatingTreeParameter;
+import se.cbb.jprime.topology.TreeAlgorithms;
 
 /**
  * Keeps track of the various things related to allowed reconciliations
@@ -144,7 +145,17 @@ public class ReconciliationHelper implements ProperDependent, InfoProvider {
 	public void cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample) {
 		this.loLims.cache(null);
 		this.updateLoLims(this.g.getRoot());
-		changeInfos.put(this, new ChangeInfo(this, "Reconciliation helper update."));
+		ChangeInfo gci = changeInfos.get(this.g);
+		ChangeInfo gsci = changeInfos.get(this.gsMap);
+		if (changeInfos.get(this.s) == null && changeInfos.get(this.times) == null && gci != null &&
+				gci.getAffectedElements() != null && (gsci == null || gsci.getAffectedElements() != null)) {
+			// Lower limits only depend on the subtree of a vertex, so only the disclosed
+			// vertices of G and their ancestors may have changed.
+			int[] affected = TreeAlgorithms.getSpanningRootSubtree(this.g, gci.getAffectedElements());
+			changeInfos.put(this, new ChangeInfo(this, "Partial reconciliation helper update.", affected));
+		} else {
+			changeInfos.put(this, new ChangeInfo(this, "Reconciliation helper update."));
+		}
 	}
 
 	@Override
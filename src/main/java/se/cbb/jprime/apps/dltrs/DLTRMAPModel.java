@@ -11,7 +11,6 @@ import se.cbb.jprime.mcmc.Dependent;
 import se.cbb.jprime.mcmc.InferenceModel;
 import se.cbb.jprime.topology.DoubleMap;
 import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
-import se.cbb.jprime.topology.GenericMap;
 import se.cbb.jprime.topology.RootedBifurcatingTreeParameter;
 import se.cbb.jprime.topology.TreeAlgorithms;
 
@@ -69,10 +68,10 @@ public class DLTRMAPModel implements InferenceModel {
 	protected Continuous1DPDDependent substPD;
 
 	/** Probability of rooted subtree G_u for each valid placement of u in S'. */
-	protected GenericMap<EpochPtMap> ats;
+	protected VertexEpochPtMap ats;
 
 	/** Probability of planted subtree G^u for each valid placement of tip of u's parent arc in S'. */
-	protected GenericMap<EpochPtMap> belows;
+	protected VertexEpochPtMap belows;
 
 	/** PRNG object */
 	//protected PRNG prng;
@@ -95,8 +94,8 @@ public class DLTRMAPModel implements InferenceModel {
 		this.lengths = lengths;
 		this.dltProbs = dltProbs;
 		this.substPD = substPD;
-		this.ats = new GenericMap<EpochPtMap>("DLTRS.ats", g.getNoOfVertices());
-		this.belows = new GenericMap<EpochPtMap>("DLTRS.belows", g.getNoOfVertices());
+		this.ats = new VertexEpochPtMap(g.getNoOfVertices(), reconcHelper.getDiscretisation());
+		this.belows = new VertexEpochPtMap(g.getNoOfVertices(), reconcHelper.getDiscretisation());
 
 		// Update.
 		this.fullUpdate();
@@ -119,30 +118,39 @@ public class DLTRMAPModel implements InferenceModel {
 		// One could think of many optimisations here, especially when there are 
 		// time perturbations involved, possibly combined with length perturbations.
 		// However, it is easy to make algorithmic mistakes in such situations,
-		// so at the only moment solitary length changes result in a partial DP update.
-		try {
-			if (gci == null && sci == null && rhci == null && dpci == null && rci == null) {
-				if (lci != null && lci.getAffectedElements() != null) {
-					// Only certain branch lengths have changed. We do a partial update.
-
-					int[] affected = TreeAlgorithms.getSpanningRootSubtree(this.g, lci.getAffectedElements());
-					this.ats.cache(affected);
-					this.belows.cache(affected);
-					this.partialUpdate(affected);
-					changeInfos.put(this, new ChangeInfo(this, "Partial DLTRS update", affected));
-				} else if (lci != null) {
-					this.ats.cache(null);
-					this.belows.cache(null);
-					this.fullUpdate();
-					changeInfos.put(this, new ChangeInfo(this, "Full DLTRS update."));
-				}
-			} else {
+		// so at the moment only solitary length changes and topology changes confined
+		// to disclosed vertices (e.g. NNI and SPR) result in a partial DP update.
+		if (sci == null && dpci == null && rci == null && (gci != null || rhci != null) &&
+				(gci == null || gci.getAffectedElements() != null) &&
+				(rhci == null || rhci.getAffectedElements() != null) &&
+				(lci == null || lci.getAffectedElements() != null)) {
+			// Topology has changed locally. We do a partial update.
+			int[] affected = TreeAlgorithms.getSpanningRootSubtree(this.g, ChangeInfo.getUnion(new int[][] {
+					(gci == null ? new int[0] : gci.getAffectedElements()),
+					(rhci == null ? new int[0] : rhci.getAffectedElements()),
+					(lci == null ? new int[0] : lci.getAffectedElements()) }));
+			this.topologyUpdate(affected);
+			changeInfos.put(this, new ChangeInfo(this, "Partial DLTRS topology update", affected));
+		} else if (gci == null && sci == null && rhci == null && dpci == null && rci == null) {
+			if (lci != null && lci.getAffectedElements() != null) {
+				// Only certain branch lengths have changed. We do a partial update.
+
+				int[] affected = TreeAlgorithms.getSpanningRootSubtree(this.g, lci.getAffectedElements());
+				this.ats.cache(affected);
+				this.belows.cache(affected);
+				this.partialUpdate(affected);
+				changeInfos.put(this, new ChangeInfo(this, "Partial DLTRS update", affected));
+			} else if (lci != null) {
 				this.ats.cache(null);
 				this.belows.cache(null);
 				this.fullUpdate();
 				changeInfos.put(this, new ChangeInfo(this, "Full DLTRS update."));
 			}
-		} catch (CloneNotSupportedException ex) {
+		} else {
+			this.ats.cache(null);
+			this.belows.cache(null);
+			this.fullUpdate();
+			changeInfos.put(this, new ChangeInfo(this, "Full DLTRS update."));
 		}
 	}
 
@@ -196,18 +204,20 @@ public class DLTRMAPModel implements InferenceModel {
 		int lc = g.getLeftChild(u);
 		int rc = g.getRightChild(u);
 
-		double[] ats = this.ats.get(u).get(s[0], s[1]);
+		double[] ats = this.ats.getValues();
+		int ao = this.ats.getOffset(u, s[0], s[1]);
+		int na = this.ats.getNoOfArcs(s[0]);
 		int[] sb = reconcHelper.getEpochPtBelow(s);
 		int split = reconcHelper.getSplitIndex(s[0]);
 
 		// Get speciation probability by multiplying lineage values
 		// from children. At the moment, we set values for all remaining
 		// contemporaries to 0.
-		for (int i = 0; i < ats.length; ++i) {
-			ats[i] = 0.0;
+		for (int i = 0; i < na; ++i) {
+			ats[ao + i] = 0.0;
 		}
-		ats[split] = belows.get(lc).get(sb[0], sb[1], split) * belows.get(rc).get(sb[0], sb[1], split+1)
-		+ belows.get(lc).get(sb[0], sb[1], split+1) * belows.get(rc).get(sb[0], sb[1], split);
+		ats[ao + split] = belows.get(lc, sb[0], sb[1], split) * belows.get(rc, sb[0], sb[1], split+1)
+		+ belows.get(lc, sb[0], sb[1], split+1) * belows.get(rc, sb[0], sb[1], split);
 	}
 
 	/**
@@ -231,9 +241,11 @@ public class DLTRMAPModel implements InferenceModel {
 		int lc = g.getLeftChild(u);
 		int rc = g.getRightChild(u);
 
-		double[] ats = this.ats.get(u).get(s[0], s[1]);
+		double[] ats = this.ats.getValues();
+		int ao = this.ats.getOffset(u, s[0], s[1]);
+		int na = this.ats.getNoOfArcs(s[0]);
 		double dupFact = 2 * dltProbs.getDuplicationRate();
-		int adjFact = (this.dltProbs.getTransferProbabilityAdjustment() ? ats.length - 1 : 1);   // Adjust for contemporary species or not.
+		int adjFact = (this.dltProbs.getTransferProbabilityAdjustment() ? na - 1 : 1);   // Adjust for contemporary species or not.
 		double trFact = this.dltProbs.getTransferRate() / adjFact;
 
 		// Compute probs for all planted subtrees G^lc and G^rc with
@@ -242,25 +254,26 @@ public class DLTRMAPModel implements InferenceModel {
 		updateBelowProbs(rc, s);
 
 		// Compute probs for all rooted subtrees G_u at s.
-		double[] lclins = belows.get(lc).get(s[0], s[1]);
-		double[] rclins = belows.get(rc).get(s[0], s[1]);
+		double[] lins = belows.getValues();
+		int lco = belows.getOffset(lc, s[0], s[1]);
+		int rco = belows.getOffset(rc, s[0], s[1]);
 		
-		if (ats.length > 1) {
-			for (int e = 0; e < ats.length; ++e) {
-				ats[e] = dt * (dupFact * lclins[e] * rclins[e]);
+		if (na > 1) {
+			for (int e = 0; e < na; ++e) {
+				ats[ao + e] = dt * (dupFact * lins[lco + e] * lins[rco + e]);
 				double maxProbAtF=0.0;
 				double tempProb=0.0;
-				for (int f = 0; f < lclins.length; ++f) {
-					tempProb =(lclins[e] * rclins[f] + rclins[e] * lclins[f]);
+				for (int f = 0; f < na; ++f) {
+					tempProb =(lins[lco + e] * lins[rco + f] + lins[rco + e] * lins[lco + f]);
 					if (maxProbAtF < tempProb ) {
 						maxProbAtF=tempProb;
 					}
 				}
-				ats[e]+=trFact * maxProbAtF;
+				ats[ao + e]+=trFact * maxProbAtF;
 			}
 		} else {
 			// Case with top time edge. No transfer possible.
-			ats[0] = dt * dupFact * lclins[0] * rclins[0];
+			ats[ao] = dt * dupFact * lins[lco] * lins[rco];
 		}
 	}
 
@@ -274,21 +287,24 @@ public class DLTRMAPModel implements InferenceModel {
 	private void updateBelowProbs(int u, int[] s) {
 		double sTime = reconcHelper.getTime(s);
 		double l = lengths.get(u);
-		double[] lins = belows.get(u).get(s[0], s[1]);
-		int sz = lins.length;
+		double[] lins = belows.getValues();
+		int lo = belows.getOffset(u, s[0], s[1]);
+		int sz = belows.getNoOfArcs(s[0]);
 
 		if (g.isLeaf(u)) {
 			int sigma = this.reconcHelper.getHostLeafIndex(u);
 			double rateDens = substPD.getPDF(l / sTime);  // Assumes leaf time 0.
 
 			// For each edge e where lineage can start at time s.
+			double[] p11 = this.dltProbs.getOneToOneProbs().get(0, 0, s[0], s[1]);
+			int row = sigma * sz;
 			for (int e = 0; e < sz; ++e) {
-				lins[e] = this.dltProbs.getOneToOneProbs().get(0, 0, sigma, s[0], s[1], e) * rateDens;
+				lins[lo + e] = p11[row + e] * rateDens;
 			}
 		} else {
 			// Reset values.
 			for (int i = 0; i < sz; ++i) {
-				lins[i] = 0.0;
+				lins[lo + i] = 0.0;
 			}
 
 			// We always ignore last time index for at-probs of current epoch,
@@ -302,16 +318,22 @@ public class DLTRMAPModel implements InferenceModel {
 			while (t[0] < s[0] || (!(s[0] < t[0]) && t[1] < s[1])) {
 				double rateDens = substPD.getPDF(l / (sTime - reconcHelper.getTime(t)));
 
-				// For each edge e where lineage can start at time s.
-				double[] ats = this.ats.get(u).get(t[0], t[1]);
-				for (int e = 0; e < sz; ++e) {
-					// For each edge f where u can be placed at time t.
-					double tempProb= 0.0;
-					for (int f = 0; f < ats.length; ++f) {
-						tempProb= dltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[f];
-						if (lins[e] < tempProb){
+				double[] ats = this.ats.getValues();
+				int ao = this.ats.getOffset(u, t[0], t[1]);
+				int na = this.ats.getNoOfArcs(t[0]);
+
+				// For each edge f where u can be placed at time t, skipping those with
+				// zero at-probability, and each edge e where lineage can start at time s.
+				double[] p11 = dltProbs.getOneToOneProbs().get(t[0], t[1], s[0], s[1]);
+				for (int f = 0; f < na; ++f) {
+					double at = ats[ao + f];
+					if (at == 0.0) { continue; }
+					int row = f * sz;
+					for (int e = 0; e < sz; ++e) {
+						double tempProb = p11[row + e] * rateDens * at;
+						if (lins[lo + e] < tempProb){
 							// consider only maximum
-							lins[e] =  tempProb;
+							lins[lo + e] =  tempProb;
 						} 
 					}
 				}
@@ -353,16 +375,33 @@ public class DLTRMAPModel implements InferenceModel {
 	}
 
 	/**
-	 * Creates (and thus clears) the DP data structures.
-	 * @param u the root of the subtree of G.
-	 * @param noOfAncestors the number of ancestors of u.
+	 * Caches and performs a partial DP update after a topology change. Apart from the affected
+	 * vertices, the planted tree probabilities of their children are recomputed, since these
+	 * depend on the placements of the parent. Values are cleared first so that they equal
+	 * those of a full update.
+	 * @param sortedAffectedVertices all affected vertices, closed under ancestry and sorted in
+	 *        reverse topological order, including all vertices whose limits have changed.
+	 */
+	private void topologyUpdate(int[] sortedAffectedVertices) {
+		int[] planted = this.reconcHelper.getPlantedVertices(sortedAffectedVertices);
+		this.ats.cache(sortedAffectedVertices);
+		this.belows.cache(planted);
+		for (int u : sortedAffectedVertices) {
+			this.ats.clear(u);
+		}
+		for (int u : planted) {
+			this.belows.clear(u);
+		}
+		this.partialUpdate(sortedAffectedVertices);
+	}
+	
+	/**
+	 * Clears the DP data structures.
 	 */
 	protected void clearAtsAndBelows() {
 		RBTreeEpochDiscretiser disc = reconcHelper.getDiscretisation();
-		for (int u = 0; u < this.g.getNoOfVertices(); ++u) {
-			this.ats.set(u, new EpochPtMap(disc));
-			this.belows.set(u, new EpochPtMap(disc));
-		}
+		this.ats.reset(disc);
+		this.belows.reset(disc);
 	}
 
 	@Override
@@ -418,7 +457,7 @@ public class DLTRMAPModel implements InferenceModel {
 		// Return value for planted tree G^u with lineage
 		// starting at tip of host tree.
 		int uRoot = g.getRoot();
-		double p = this.belows.get(uRoot).getTopmost();
+		double p = this.belows.getTopmost(uRoot);
 		return new LogDouble(p);
 	}
 
@@ -27,7 +27,6 @@ import se.cbb.jprime.math.UniformDistribution;
 import se.cbb.jprime.mcmc.DoubleParameter;
 import se.cbb.jprime.mcmc.FineProposerStatistics;
 import se.cbb.jprime.mcmc.Iteration;
-import se.cbb.jprime.mcmc.LinearTuningParameter;
 import se.cbb.jprime.mcmc.NormalProposer;
 import se.cbb.jprime.mcmc.Proposer;
 import se.cbb.jprime.mcmc.RealParameter;
@@ -203,7 +202,7 @@ public class DLTRSParameterParser extends se.cbb.jprime.apps.ParameterParser {
 		DoubleParameter dr = new DoubleParameter("DuplicationRate", lambda);
 		DoubleParameter lr = new DoubleParameter("LossRate", mu);
 		DoubleParameter tr = new DoubleParameter("TransferRate", tau);
-		EpochDLTProbs dltProbs = new EpochDLTProbs(times, dr, lr, tr, adjust);
+		EpochDLTProbs dltProbs = new EpochDLTProbs(times, dr, lr, tr, adjust, ps.threads);
 		return new Quadruple<DoubleParameter, DoubleParameter, DoubleParameter, EpochDLTProbs>(dr, lr, tr, dltProbs);
 	}
 	
@@ -252,10 +251,9 @@ public class DLTRSParameterParser extends se.cbb.jprime.apps.ParameterParser {
 	 * @return proposer.
 	 */
 	public static NormalProposer getTruncatedNormalProposer(DLTRSParameters ps, RealInterval interval, RealParameter p, Iteration iter, PRNG prng, String tuning) {
-		double[] tng = SampleDoubleArray.toDoubleArray(tuning);
-		LinearTuningParameter tcv = new LinearTuningParameter(iter, tng[0], tng[1]);
-		NormalProposer proposer = new NormalProposer(p, interval, tcv, prng);
-		proposer.setStatistics(new FineProposerStatistics(iter, 8));
+		FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
+		NormalProposer proposer = new NormalProposer(p, interval, getTuningParameter(ps, iter, stats, tuning), prng);
+		proposer.setStatistics(stats);
 		return proposer;
 	}
 	
@@ -312,7 +310,6 @@ public class DLTRSParameterParser extends se.cbb.jprime.apps.ParameterParser {
 		if (ps.sampleRealisations == false && ps.maxRealizationFlag == false ) { return null; }
 		if (ps.sampleRealisations == true && ps.maxRealizationFlag == true ) { return null; }
 		String fn = ps.outfile.trim() + ".disct.host.tree";
-		int NO_OF_REALIZATION_PER_SATATE= 1;
-		return new RealisationSampler(fn,NO_OF_REALIZATION_PER_SATATE, iter, prng, model, msModel, names, maxRealizationFlag);
+		return new RealisationSampler(fn, ps.noOfRealisations, ps.realisationThreads, iter, prng, model, msModel, names, maxRealizationFlag);
 	}
 }
@@ -30,6 +30,26 @@ public class DLTRSParameters extends se.cbb.jprime.apps.Parameters {
 	@Parameter(names = { "-mr", "--maxrealization" }, description = "Compute Max Realizations.")
 	public Boolean maxRealizationFlag = false;
 
+	/** Number of realisations per sampling round. */
+	@Parameter(names = { "-nreal", "--realisations" }, description = "Number of realisations drawn per sampling round when sampling "
+			+ "realisations. If more than 1, all realisations are written to the realisation file, and the first is also sampled.")
+	public Integer noOfRealisations = 1;
+
+	/** Number of realisation sampling threads. */
+	@Parameter(names = { "-realthreads", "--realisationthreads" }, description = "Number of threads drawing the realisations of a "
+			+ "sampling round. If more than 1, realisations are drawn in batch mode as for -nreal.")
+	public Integer realisationThreads = 1;
+
+	/** Transfer heatmap output. */
+	@Parameter(names = { "-heatmap", "--heatmap" }, description = "Output file of a transfer heatmap, i.e., the number of transfers for "
+			+ "each discretisation point and pair of host arcs, aggregated from the realisations sampled during the run. Requires -real or -mr.")
+	public String heatmap = null;
+
+	/** Realisation file for an offline transfer heatmap. */
+	@Parameter(names = { "-heatmapfrom", "--heatmapfromrealisations" }, description = "Instead of running a chain, stream an existing "
+			+ "realisation file and write its transfer heatmap to the file of -heatmap.")
+	public String heatmapFrom = null;
+
 	/** Transfer rate. */
 	@Parameter(names = { "-trans", "--transferrate" }, description = "Initial transfer rate. Append with FIXED for no "
 			+ "perturbation, e.g. 0.1FIXED. Default: Simple rule-of-thumb.")
@@ -112,6 +132,12 @@ public class DLTRSParameters extends se.cbb.jprime.apps.Parameters {
 
 	public List<String> runSampRealFromPosterior = null;
 
+	/** Number of threads. */
+	@Parameter(names = { "-threads",
+			"--threads" }, description = "Number of threads used when computing the substitution model likelihood "
+					+ "and the duplication-loss-transfer probabilities.")
+	public Integer threads = 1;
+
 	public List<String> getFiles() {
 		return files;
 	}
@@ -128,6 +154,22 @@ public class DLTRSParameters extends se.cbb.jprime.apps.Parameters {
 		return maxRealizationFlag;
 	}
 
+	public Integer getNoOfRealisations() {
+		return noOfRealisations;
+	}
+
+	public Integer getRealisationThreads() {
+		return realisationThreads;
+	}
+
+	public String getHeatmap() {
+		return heatmap;
+	}
+
+	public String getHeatmapFrom() {
+		return heatmapFrom;
+	}
+
 	public String getTransRate() {
 		return transRate;
 	}
@@ -190,4 +232,8 @@ public class DLTRSParameters extends se.cbb.jprime.apps.Parameters {
 		return null;
 	}
 
+	public Integer getThreads() {
+		return threads;
+	}
+
 }
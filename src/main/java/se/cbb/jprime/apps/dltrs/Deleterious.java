@@ -7,6 +7,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.LinkedHashMap;
@@ -27,10 +28,13 @@ import se.cbb.jprime.math.PRNG;
 import se.cbb.jprime.math.RealInterval;
 import se.cbb.jprime.mcmc.DoubleParameter;
 import se.cbb.jprime.mcmc.FineProposerStatistics;
+import se.cbb.jprime.mcmc.InfoProvider;
 import se.cbb.jprime.mcmc.Iteration;
 import se.cbb.jprime.mcmc.MCMCManager;
+import se.cbb.jprime.mcmc.MultiChainManager;
 import se.cbb.jprime.mcmc.MultiProposerSelector;
 import se.cbb.jprime.mcmc.NormalProposer;
+import se.cbb.jprime.mcmc.ParallelTemperingManager;
 import se.cbb.jprime.mcmc.ProposalAcceptor;
 import se.cbb.jprime.mcmc.Proposer;
 import se.cbb.jprime.mcmc.RealParameterUniformPrior;
@@ -102,10 +106,20 @@ public class Deleterious implements JPrIMEApp {
 				return;
 			}
 			
+			// ================ OFFLINE TRANSFER HEATMAP ================
+			
+			if (params.heatmapFrom != null) {
+				if (params.heatmap == null) {
+					throw new IllegalArgumentException("Missing heatmap output file.");
+				}
+				TransferHeatmap.read(new File(params.heatmapFrom)).write(new File(params.heatmap));
+				return;
+			}
+			
 			// ================ READ AND CREATE ALL PARAMETERS ================
 			
-			// MCMC chain output and auxiliary info.
-			SampleWriter sampler = DLTRSParameterParser.getOut(params);
+			// MCMC chain output and auxiliary info. Independent runs each have their own output.
+			SampleWriter sampler = (params.runs > 1 ? DLTRSParameterParser.getOut(params, 1) : DLTRSParameterParser.getOut(params));
 			info = DLTRSParameterParser.getInfo(params);
 			info.write("# =========================================================================\n");
 			info.write("# ||                             PRE-RUN INFO                            ||\n");
@@ -116,174 +130,70 @@ public class Deleterious implements JPrIMEApp {
 		    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
 			info.write("# Current time: " + df.format(cal.getTime()) + '\n');
 			
-			// Read S and t.
-			Triple<RBTree, NamesMap, TimesMap> sNamesTimes = DLTRSParameterParser.getHostTree(params, info);
-			
-			// Read guest-to-host leaf map.
-			GuestHostMap gsMap = DLTRSParameterParser.getGSMap(params);
-			
-			// Substitution model first, then sequence alignment D and site rates.
-			SubstitutionMatrixHandler Q = SubstitutionMatrixHandlerFactory.create(params.substitutionModel, 4 * gsMap.getNoOfLeafNames());
-			LinkedHashMap<String, ? extends Sequence<? extends Compound>> sequences = DLTRSParameterParser.getMultialignment(params, Q.getSequenceType());
-			MSAData D = new MSAData(Q.getSequenceType(), sequences);
-			Pair<DoubleParameter, GammaSiteRateHandler> siteRates = DLTRSParameterParser.getSiteRates(params);
-			
 			// Pseudo-random number generator.
 			PRNG prng = DLTRSParameterParser.getPRNG(params);
 			
+			// ================ CREATE MCMC CHAIN(S) ================
 			
-			// Read/create G and l.
-			NewickRBTreeSamples guestTreeSamples = null;
-			if (params.guestTreeSet != null) {
-				Double burninProp = Double.parseDouble(params.guestTreeSetBurninProp);
-				Double minCvg = Double.parseDouble(params.guestTreeSetMinCvg);
-				if (params.guestTreeSetWithLengths) {
-					guestTreeSamples = NewickRBTreeSamples.readTreesWithLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
-							params.guestTreeSetFileRelColNo, burninProp, minCvg);
-				} else {
-					guestTreeSamples = NewickRBTreeSamples.readTreesWithoutLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
-							params.guestTreeSetFileRelColNo, burninProp, minCvg);
-				}
+			if (params.resume != null && (params.sampleRealisations || params.maxRealizationFlag)) {
+				throw new IllegalArgumentException("Realisation sampling is not supported when resuming from a checkpoint.");
 			}
-			Triple<RBTree, NamesMap, DoubleMap> gNamesLengths = DLTRSParameterParser.getGuestTreeAndLengths(params, gsMap, prng, sequences, info, guestTreeSamples);
-			
-			// Read number of iterations and thinning factor.
-			Iteration iter = DLTRSParameterParser.getIteration(params);
-			Thinner thinner = DLTRSParameterParser.getThinner(params, iter);
-			
-			// Read probability distribution for iid guest tree edge rates (molecular clock relaxation). 
-			Triple<DoubleParameter, DoubleParameter, Continuous1DPDDependent> edgeRatePD = DLTRSParameterParser.getEdgeRatePD(params);
-			
-			// Create discretisation of S.
-			RBTreeEpochDiscretiser dtimes = DLTRSParameterParser.getDiscretizer(params, sNamesTimes.first, sNamesTimes.second, sNamesTimes.third, gNamesLengths.first);
-                        info.write("# Host tree: " + dtimes.toString() + "\n");
-			
-			// Create reconciliation helper.
-			ReconciliationHelper rHelper = DLTRSParameterParser.getReconciliationHelper(params, gNamesLengths.first, sNamesTimes.first, dtimes,
-					new LeafLeafMap(gsMap, gNamesLengths.first, gNamesLengths.second, sNamesTimes.first, sNamesTimes.second));
-			
-			// Duplication-loss probabilities over discretised S.
-			Quadruple<DoubleParameter, DoubleParameter, DoubleParameter, EpochDLTProbs> dlt = DLTRSParameterParser.getDLTProbs(params, sNamesTimes.first, sNamesTimes.second,
-					gNamesLengths.first, gNamesLengths.second, gsMap, dtimes);
-			
-			// ================ CREATE MODELS, PROPOSERS, ETC. ================
-			
-			// Priors. We only have them for parameters which might cause issues.
-			RealInterval priorRange = new RealInterval(1e-16, 1e16, false, false);
-			RealParameterUniformPrior edgeRateMeanPrior = new RealParameterUniformPrior(edgeRatePD.first, priorRange);
-			RealParameterUniformPrior edgeRateCVPrior = new RealParameterUniformPrior(edgeRatePD.second, priorRange);
-			RealParameterUniformPrior lengthsPrior = new RealParameterUniformPrior(gNamesLengths.third, priorRange);
-			
-			// Substitution model. NOTE: Root arc is turned on!!!!
-			SubstitutionModel sm = new SubstitutionModel("SubstitutionModel", D, siteRates.second, Q, gNamesLengths.first, gNamesLengths.second, gNamesLengths.third, true);
-			
-			// DLTR model.
-			DLTRModel dltr = new DLTRModel(gNamesLengths.first, sNamesTimes.first, rHelper, gNamesLengths.third, dlt.fourth, edgeRatePD.third);
-			// mehmood's addtition here Ma7 24 2013
-			// Sigma (mapping between G and S).	
-			// DLTRMaxSampling model.
-			DLTRMAPModel dltrMs = new DLTRMAPModel(gNamesLengths.first, sNamesTimes.first, rHelper, gNamesLengths.third, dlt.fourth, edgeRatePD.third);
-			
-			// Realisation sampler.
-			RealisationSampler realisationSampler = DLTRSParameterParser.getRealisationSampler(params, iter, prng, dltr, dltrMs, gNamesLengths.second, params.maxRealizationFlag);
-			
-			// Proposers.
-			NormalProposer dupRateProposer 		= DLTRSParameterParser.getNormalProposer(params, dlt.first, iter, prng, params.tuningDupRate);
-			NormalProposer lossRateProposer 	= DLTRSParameterParser.getNormalProposer(params, dlt.second, iter, prng, params.tuningLossRate);
-			NormalProposer transRateProposer 	= DLTRSParameterParser.getNormalProposer(params, dlt.third, iter, prng, params.tuningTransferRate);
-			NormalProposer edgeRateMeanProposer = DLTRSParameterParser.getNormalProposer(params, edgeRatePD.first, iter, prng, params.tuningEdgeRateMean);
-			NormalProposer edgeRateCVProposer 	= DLTRSParameterParser.getNormalProposer(params, edgeRatePD.second, iter, prng, params.tuningEdgeRateCV);
-			NormalProposer siteRateShapeProposer= DLTRSParameterParser.getNormalProposer(params, siteRates.first, iter, prng, params.tuningSiteRateShape);
-			Proposer guestTreeProposer 			= DLTRSParameterParser.getBranchSwapper(params, gNamesLengths.first, gNamesLengths.third, iter, prng, guestTreeSamples);
-			RealInterval lengthsBounds = new RealInterval(0, 10, true, true); // Branchlengths should be limited to this open (true, true) interval. Main point: do no allow lengths >10.
-			NormalProposer lengthsProposer = DLTRSParameterParser.getTruncatedNormalProposer(params, lengthsBounds, gNamesLengths.third, iter, prng, params.tuningLengths);
-			double[] lengthsWeights 			= SampleDoubleArray.toDoubleArray(params.tuningLengthsSelectorWeights);
-			lengthsProposer.setSubParameterWeights(lengthsWeights);
-			
-			// Proposer selector.
-			MultiProposerSelector selector=		DLTRSParameterParser.getSelector(params, prng);
-			selector.add(dupRateProposer, 		DLTRSParameterParser.getProposerWeight(params.tuningWeightDupRate, iter));
-			selector.add(lossRateProposer, 		DLTRSParameterParser.getProposerWeight(params.tuningWeightLossRate, iter));
-			selector.add(transRateProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightTransferRate, iter));
-			selector.add(edgeRateMeanProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateMean, iter));
-			selector.add(edgeRateCVProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateCV, iter));
-			selector.add(siteRateShapeProposer, DLTRSParameterParser.getProposerWeight(params.tuningWeightSiteRateShape, iter));
-			selector.add(guestTreeProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightG, iter));
-			selector.add(lengthsProposer, 		DLTRSParameterParser.getProposerWeight(params.tuningWeightLengths, iter));
-			
-			// Inactivate fixed proposers.
-			String fixedRegex = ".+[fF][iI][xX][eE][dD]"; // Notice the starting ".+". The regex has to match the whole jaevla string!
-			if (params.dupRate != null        && params.dupRate.matches(fixedRegex))        { dupRateProposer.setEnabled(false); }
-			if (params.lossRate != null       && params.lossRate.matches(fixedRegex))       { lossRateProposer.setEnabled(false); }
-			if (params.transRate != null      && params.transRate.matches(fixedRegex))      { transRateProposer.setEnabled(false); }
-			if (params.edgeRatePDMean != null && params.edgeRatePDMean.matches(fixedRegex)) { edgeRateMeanProposer.setEnabled(false); }
-			if (params.edgeRatePDCV != null   && params.edgeRatePDCV.matches(fixedRegex))   { edgeRateCVProposer.setEnabled(false); }
-			if (params.siteRateCats == 1      || params.siteRateShape.matches(fixedRegex))  { siteRateShapeProposer.setEnabled(false); }
-			if (params.guestTreeFixed)                                                      { guestTreeProposer.setEnabled(false); }
-			if (params.lengthsFixed)                                                        { lengthsProposer.setEnabled(false); }
-			
-			// Proposal acceptor.
-			ProposalAcceptor acceptor = DLTRSParameterParser.getAcceptor(params, prng);
-			
-			// Overall statistics.
-			FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
-			
-			// ================ SETUP MCMC HIERARCHY ================
-			
-			MCMCManager manager = new MCMCManager(iter, thinner, selector, acceptor, sampler, prng, stats);
-			manager.setDebugMode(params.debug);
-			
-			manager.addModel(edgeRateMeanPrior);
-			manager.addModel(edgeRateCVPrior);
-			manager.addModel(lengthsPrior);
-			manager.addModel(sm);
-			
-			if (params.sampleRealisations == true){
-				manager.addModel(dltr);
-			}else if (params.maxRealizationFlag == true ){
-				manager.addModel(dltrMs);
+			Pair<MCMCManager, RealisationSampler> chain = createChain(params, sampler, info, prng, null);
+			MCMCManager manager = chain.first;
+			RealisationSampler realisationSampler = chain.second;
+			
+			// Transfer heatmap aggregated while sampling; shared with any additional chains.
+			TransferHeatmap heatmap = null;
+			if (params.heatmap != null) {
+				if (realisationSampler == null) {
+					throw new IllegalArgumentException("A transfer heatmap requires sampling realisations.");
+				}
+				heatmap = new TransferHeatmap(realisationSampler.getDiscretisedHostTree());
+				realisationSampler.setHeatmap(heatmap);
 			}
-
 			
-			manager.addSampleable(iter);
-			manager.addSampleable(manager);			// Overall likelihood.
-			//manager.addSampleable(edgeRateMeanPrior);
-			//manager.addSampleable(edgeRateCVPrior);
-			//manager.addSampleable(lengthsPrior);
-			manager.addSampleable(sm);
-			if (params.sampleRealisations == true){
-				manager.addSampleable(dltr);
-			}else if (params.maxRealizationFlag == true ){
-				manager.addSampleable(dltrMs);
+			// Additional Metropolis-coupled chains, if any.
+			ParallelTemperingManager ptManager = DLTRSParameterParser.getParallelTemperingManager(params, sampler, prng);
+			if (ptManager != null) {
+				ptManager.addChain(manager);
+				BufferedWriter noInfo = new BufferedWriter(new StringWriter());
+				for (int i = 1; i < params.chains; ++i) {
+					ptManager.addChain(createChain(params, sampler, noInfo, ptManager.getReplicaPRNG(), chain).first);
+				}
 			}
 			
-			
-			manager.addSampleable(dlt.first);
-			manager.addSampleable(dlt.second);
-			manager.addSampleable(dlt.third);
-			manager.addSampleable(edgeRatePD.first);
-			manager.addSampleable(edgeRatePD.second);
-			if (siteRateShapeProposer.isEnabled()) {
-				manager.addSampleable(siteRates.first);
-			}
-			manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second));
-			if (params.outputLengths) {
-				manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second, gNamesLengths.third));
-			}
-			// mehmood's addition here
-			if (realisationSampler != null) {
-				manager.addSampleable(realisationSampler);
+			// Additional independent runs, if any.
+			MultiChainManager mcManager = DLTRSParameterParser.getMultiChainManager(params, prng, info);
+			ArrayList<SampleWriter> runSamplers = new ArrayList<SampleWriter>();
+			if (mcManager != null) {
+				if (params.sampleRealisations || params.maxRealizationFlag) {
+					throw new IllegalArgumentException("Realisation sampling is not supported for multiple independent runs.");
+				}
+				mcManager.addChain(manager);
+				BufferedWriter noInfo = new BufferedWriter(new StringWriter());
+				for (int r = 2; r <= params.runs; ++r) {
+					SampleWriter runSampler = DLTRSParameterParser.getOut(params, r);
+					runSamplers.add(runSampler);
+					mcManager.addChain(createChain(params, runSampler, noInfo, mcManager.getChainPRNG(), null).first);
+				}
 			}
+			InfoProvider topManager = (ptManager != null ? ptManager : (mcManager != null ? mcManager : manager));
 			
 			// ================ WRITE PRE-INFO ================
 			info.write("# MCMC manager:\n");
-			info.write(manager.getPreInfo("# \t"));
+			info.write(topManager.getPreInfo("# \t"));
 			info.flush();   // Don't close, maybe using stdout for both sampling and info...
 			
 			//if(Integer.parseInt(params.heatmap.get(1)) != 1)			// Dont run MCMC chain if only generating heatmaps
 			// ================ RUN ================
 			
-			manager.run();	
+			if (ptManager != null) {
+				ptManager.run();
+			} else if (mcManager != null) {
+				mcManager.run();
+			} else {
+				manager.run();
+			}
 
 			// ================ WRITE POST-INFO ================
 			info.write("# =========================================================================\n");
@@ -291,88 +201,21 @@ public class Deleterious implements JPrIMEApp {
 			info.write("# =========================================================================\n");
 			info.write("# DELETERIOUS\n");
 			info.write("# MCMC manager:\n");
-			info.write(manager.getPostInfo("# \t"));
+			info.write(topManager.getPostInfo("# \t"));
 			info.flush();
 			sampler.close();
+			for (SampleWriter runSampler : runSamplers) { runSampler.close(); }
 			info.close();
 			
 			
 
 			
 			// mehmood's addition here
-			//if (realisationSampler != null) { realisationSampler.close(); }
+			if (realisationSampler != null) { realisationSampler.close(); }
 			
-			/*
-			if(params.heatmap != null)
-			{
-				File f = new File(params.heatmap.get(2));									// Read the file having realisation samples 
-//				PrIMENewickTree DSTree = RealisationFileReader.getHostTree(f);
-				int maximumNoofArcsAtOneEpoch = dtimes.getEpoch(0).getNoOfArcs();   		//dtimes.getEpoch(0).getNoOfArcs();
-				int possibleCombinations = maximumNoofArcsAtOneEpoch *(maximumNoofArcsAtOneEpoch -1);
-				int [][] heatmap = new int[dtimes.getTotalNoOfPoints()][possibleCombinations];
-				
-				// Read the realization file given in the arguments of heatmap.
-				byte[] buffer = new byte[(int) f.length()];
-				FileInputStream fis = null;
-				try {
-					fis = new FileInputStream(f);
-					fis.read(buffer);
-					
-				} finally {
-					if (fis != null) try { fis.close(); } catch (IOException ex) {}
-				}
-			    String str = new String(buffer);
-			    String[] strsplit = str.split("\t|\n");
-			    for(int c=6;c<strsplit.length;c+=3)
-			    {
-			    	if(c % 3 == 0)
-			    	{
-			    		// map transfers of a realization to the corresponding places...
-//			    		System.out.println(strsplit[c]);
-			    		Realisation realisation = UnparsedRealisation.parseRealisation(strsplit[c]);
-			    		StringMap fromTos = realisation.getFromTos();
-			    		BooleanMap isTrans = realisation.getTransfers();
-			    		StringMap placements = realisation.getPlacements();
-			    		
-			    		for(int v =0; v< realisation.getTree().getNoOfVertices(); v++){
-			    			if(isTrans.get(v)==true){
-			    				int from , to;
-			    				boolean special_transfer=false;
-			    				from = Integer.parseInt(fromTos.get(v).substring( fromTos.get(v).indexOf("(")+1 , fromTos.get(v).indexOf(",")  ) );
-			    				to = Integer.parseInt(fromTos.get(v).substring( fromTos.get(v).indexOf(",")+1 , fromTos.get(v).lastIndexOf(",")  ) );
-			    				int sp_transfer = Integer.parseInt(fromTos.get(v).substring( fromTos.get(v).lastIndexOf(",")+1 , fromTos.get(v).lastIndexOf(")")  ) );
-			    				special_transfer = (sp_transfer == -1)?false:true;
-			    				int epochNo = Integer.parseInt(placements.get(v).substring( placements.get(v).indexOf("(")+1, placements.get(v).indexOf(",")));
-			    				int discPt = Integer.parseInt(placements.get(v).substring( placements.get(v).indexOf(",")+1, placements.get(v).indexOf(")")));
-
-			    				int idx = 0;
-			    				for(int i =0; i< epochNo; i++){
-			    					idx += dtimes.getEpoch(i).getNoOfPoints();
-			    				}
-			    				idx += discPt;
-			    				int idx2 = from *(maximumNoofArcsAtOneEpoch-1) + ((from<to)?to-1:to);
-			    				heatmap[idx][idx2]++;
-			    			}
-			    		}
-			    		
-			    	}
-			    }
-					
-			    try {
-				    PrintWriter heatmapout = new PrintWriter(new BufferedWriter(new FileWriter(params.heatmap.get(0), false)));
-				    heatmapout.println("#HeatMap: [colums: epochs+disc_points x rows:transfers_from_to ] (time points x Species Edge/Vertex No) = value (count(realized vertices))");
-			    	for(int i=0; i< dtimes.getTotalNoOfPoints(); i++){
-			    		for(int j=0; j< possibleCombinations; j++)
-			    			heatmapout.print(heatmap[i][j] + "\t");
-			    		heatmapout.println();
-			    	}
-			    	heatmapout.close();
-				} catch (IOException e) {
-				    System.out.println("Problem with accessing file " + params.heatmap);
-				}
-			    
-			} // heatmap funcationality ends here
-			*/
+			if (params.heatmap != null) {
+				heatmap.write(new File(params.heatmap));
+			}
 			
 		} catch (Exception e) {
 			e.printStackTrace(System.err);
@@ -395,5 +238,185 @@ public class Deleterious implements JPrIMEApp {
 		}
 	}
 	
-	
+	/**
+	 * Reads the data and creates all parameters, models, proposers, etc. of an MCMC chain.
+	 * Invoked once for every Metropolis-coupled chain or independent run, so that each chain has its own objects.
+	 * @param params parameters.
+	 * @param sampler output of drawn samples.
+	 * @param info auxiliary info output.
+	 * @param prng PRNG of the chain.
+	 * @param first the first chain and its realisation sampler when creating an additional Metropolis-coupled
+	 *        chain; null when creating the first chain.
+	 * @return the chain and its realisation sampler (null if realisations are not sampled).
+	 * @throws Exception.
+	 */
+	private Pair<MCMCManager, RealisationSampler> createChain(DLTRSParameters params, SampleWriter sampler, BufferedWriter info,
+			PRNG prng, Pair<MCMCManager, RealisationSampler> first) throws Exception {
+		// Read S and t.
+		Triple<RBTree, NamesMap, TimesMap> sNamesTimes = DLTRSParameterParser.getHostTree(params, info);
+		
+		// Read guest-to-host leaf map.
+		GuestHostMap gsMap = DLTRSParameterParser.getGSMap(params);
+		
+		// Substitution model first, then sequence alignment D and site rates.
+		SubstitutionMatrixHandler Q = SubstitutionMatrixHandlerFactory.create(params.substitutionModel, 4 * gsMap.getNoOfLeafNames());
+		LinkedHashMap<String, ? extends Sequence<? extends Compound>> sequences = DLTRSParameterParser.getMultialignment(params, Q.getSequenceType());
+		MSAData D = new MSAData(Q.getSequenceType(), sequences);
+		Pair<DoubleParameter, GammaSiteRateHandler> siteRates = DLTRSParameterParser.getSiteRates(params);
+		
+		// Read/create G and l.
+		NewickRBTreeSamples guestTreeSamples = null;
+		if (params.guestTreeSet != null) {
+			Double burninProp = Double.parseDouble(params.guestTreeSetBurninProp);
+			Double minCvg = Double.parseDouble(params.guestTreeSetMinCvg);
+			if (params.guestTreeSetWithLengths) {
+				guestTreeSamples = NewickRBTreeSamples.readTreesWithLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
+						params.guestTreeSetFileRelColNo, burninProp, minCvg);
+			} else {
+				guestTreeSamples = NewickRBTreeSamples.readTreesWithoutLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
+						params.guestTreeSetFileRelColNo, burninProp, minCvg);
+			}
+		}
+		Triple<RBTree, NamesMap, DoubleMap> gNamesLengths = DLTRSParameterParser.getGuestTreeAndLengths(params, gsMap, prng, sequences, info, guestTreeSamples);
+		
+		// Read number of iterations and thinning factor.
+		Iteration iter = DLTRSParameterParser.getIteration(params);
+		Thinner thinner = DLTRSParameterParser.getThinner(params, iter);
+		
+		// Read probability distribution for iid guest tree edge rates (molecular clock relaxation). 
+		Triple<DoubleParameter, DoubleParameter, Continuous1DPDDependent> edgeRatePD = DLTRSParameterParser.getEdgeRatePD(params);
+		
+		// Create discretisation of S.
+		RBTreeEpochDiscretiser dtimes = DLTRSParameterParser.getDiscretizer(params, sNamesTimes.first, sNamesTimes.second, sNamesTimes.third, gNamesLengths.first);
+                        info.write("# Host tree: " + dtimes.toString() + "\n");
+		
+		// Create reconciliation helper.
+		ReconciliationHelper rHelper = DLTRSParameterParser.getReconciliationHelper(params, gNamesLengths.first, sNamesTimes.first, dtimes,
+				new LeafLeafMap(gsMap, gNamesLengths.first, gNamesLengths.second, sNamesTimes.first, sNamesTimes.second));
+		
+		// Duplication-loss probabilities over discretised S.
+		Quadruple<DoubleParameter, DoubleParameter, DoubleParameter, EpochDLTProbs> dlt = DLTRSParameterParser.getDLTProbs(params, sNamesTimes.first, sNamesTimes.second,
+				gNamesLengths.first, gNamesLengths.second, gsMap, dtimes);
+		
+		// ================ CREATE MODELS, PROPOSERS, ETC. ================
+		
+		// Priors. We only have them for parameters which might cause issues.
+		RealInterval priorRange = new RealInterval(1e-16, 1e16, false, false);
+		RealParameterUniformPrior edgeRateMeanPrior = new RealParameterUniformPrior(edgeRatePD.first, priorRange);
+		RealParameterUniformPrior edgeRateCVPrior = new RealParameterUniformPrior(edgeRatePD.second, priorRange);
+		RealParameterUniformPrior lengthsPrior = new RealParameterUniformPrior(gNamesLengths.third, priorRange);
+		
+		// Substitution model. NOTE: Root arc is turned on!!!!
+		SubstitutionModel sm = new SubstitutionModel("SubstitutionModel", D, siteRates.second, Q, gNamesLengths.first, gNamesLengths.second, gNamesLengths.third, true, params.threads);
+		
+		// DLTR model.
+		DLTRModel dltr = new DLTRModel(gNamesLengths.first, sNamesTimes.first, rHelper, gNamesLengths.third, dlt.fourth, edgeRatePD.third);
+		// mehmood's addtition here Ma7 24 2013
+		// Sigma (mapping between G and S).	
+		// DLTRMaxSampling model.
+		DLTRMAPModel dltrMs = new DLTRMAPModel(gNamesLengths.first, sNamesTimes.first, rHelper, gNamesLengths.third, dlt.fourth, edgeRatePD.third);
+		
+		// Realisation sampler.
+		RealisationSampler realisationSampler = (first == null ? DLTRSParameterParser.getRealisationSampler(params, iter, prng, dltr, dltrMs, gNamesLengths.second, params.maxRealizationFlag) :
+			(first.second == null ? null : new RealisationSampler(first.second, iter, prng, dltr, dltrMs, gNamesLengths.second)));
+		
+		// Proposers.
+		NormalProposer dupRateProposer 		= DLTRSParameterParser.getNormalProposer(params, dlt.first, iter, prng, params.tuningDupRate);
+		NormalProposer lossRateProposer 	= DLTRSParameterParser.getNormalProposer(params, dlt.second, iter, prng, params.tuningLossRate);
+		NormalProposer transRateProposer 	= DLTRSParameterParser.getNormalProposer(params, dlt.third, iter, prng, params.tuningTransferRate);
+		NormalProposer edgeRateMeanProposer = DLTRSParameterParser.getNormalProposer(params, edgeRatePD.first, iter, prng, params.tuningEdgeRateMean);
+		NormalProposer edgeRateCVProposer 	= DLTRSParameterParser.getNormalProposer(params, edgeRatePD.second, iter, prng, params.tuningEdgeRateCV);
+		NormalProposer siteRateShapeProposer= DLTRSParameterParser.getNormalProposer(params, siteRates.first, iter, prng, params.tuningSiteRateShape);
+		Proposer guestTreeProposer 			= DLTRSParameterParser.getBranchSwapper(params, gNamesLengths.first, gNamesLengths.third, iter, prng, guestTreeSamples);
+		RealInterval lengthsBounds = new RealInterval(0, 10, true, true); // Branchlengths should be limited to this open (true, true) interval. Main point: do no allow lengths >10.
+		NormalProposer lengthsProposer = DLTRSParameterParser.getTruncatedNormalProposer(params, lengthsBounds, gNamesLengths.third, iter, prng, params.tuningLengths);
+		double[] lengthsWeights 			= SampleDoubleArray.toDoubleArray(params.tuningLengthsSelectorWeights);
+		lengthsProposer.setSubParameterWeights(lengthsWeights);
+		
+		// Proposer selector.
+		MultiProposerSelector selector=		DLTRSParameterParser.getSelector(params, prng);
+		selector.add(dupRateProposer, 		DLTRSParameterParser.getProposerWeight(params.tuningWeightDupRate, iter));
+		selector.add(lossRateProposer, 		DLTRSParameterParser.getProposerWeight(params.tuningWeightLossRate, iter));
+		selector.add(transRateProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightTransferRate, iter));
+		selector.add(edgeRateMeanProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateMean, iter));
+		selector.add(edgeRateCVProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateCV, iter));
+		selector.add(siteRateShapeProposer, DLTRSParameterParser.getProposerWeight(params.tuningWeightSiteRateShape, iter));
+		selector.add(guestTreeProposer, 	DLTRSParameterParser.getProposerWeight(params.tuningWeightG, iter));
+		selector.add(lengthsProposer, 		DLTRSParameterParser.getProposerWeight(params.tuningWeightLengths, iter));
+		DLTRSParameterParser.addBranchLengthGridProposer(params, selector, sm, lengthsBounds, iter, prng);
+		DLTRSParameterParser.setAdaptiveWeights(params, selector, iter);
+		
+		// Inactivate fixed proposers.
+		String fixedRegex = ".+[fF][iI][xX][eE][dD]"; // Notice the starting ".+". The regex has to match the whole jaevla string!
+		if (params.dupRate != null        && params.dupRate.matches(fixedRegex))        { dupRateProposer.setEnabled(false); }
+		if (params.lossRate != null       && params.lossRate.matches(fixedRegex))       { lossRateProposer.setEnabled(false); }
+		if (params.transRate != null      && params.transRate.matches(fixedRegex))      { transRateProposer.setEnabled(false); }
+		if (params.edgeRatePDMean != null && params.edgeRatePDMean.matches(fixedRegex)) { edgeRateMeanProposer.setEnabled(false); }
+		if (params.edgeRatePDCV != null   && params.edgeRatePDCV.matches(fixedRegex))   { edgeRateCVProposer.setEnabled(false); }
+		if (params.siteRateCats == 1      || params.siteRateShape.matches(fixedRegex))  { siteRateShapeProposer.setEnabled(false); }
+		if (params.guestTreeFixed)                                                      { guestTreeProposer.setEnabled(false); }
+		if (params.lengthsFixed)                                                        { lengthsProposer.setEnabled(false); }
+		
+		// Proposal acceptor.
+		ProposalAcceptor acceptor = DLTRSParameterParser.getAcceptor(params, prng);
+		
+		// Overall statistics.
+		FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
+		
+		// ================ SETUP MCMC HIERARCHY ================
+		
+		MCMCManager manager = new MCMCManager(iter, thinner, selector, acceptor, sampler, prng, stats);
+		manager.setDebugMode(params.debug);
+		manager.setConcurrentUpdates(params.concurrentUpdates);
+		manager.setEarlyAbort(params.earlyAbort);
+		if (first == null) {
+			DLTRSParameterParser.setCheckpointing(params, manager);
+			DLTRSParameterParser.setMetrics(params, manager);
+		}
+		
+		manager.addModel(edgeRateMeanPrior);
+		manager.addModel(edgeRateCVPrior);
+		manager.addModel(lengthsPrior);
+		manager.addModel(sm);
+		
+		if (params.sampleRealisations == true){
+			manager.addModel(dltr);
+		}else if (params.maxRealizationFlag == true ){
+			manager.addModel(dltrMs);
+		}
+
+		
+		manager.addSampleable(iter);
+		manager.addSampleable(manager);			// Overall likelihood.
+		//manager.addSampleable(edgeRateMeanPrior);
+		//manager.addSampleable(edgeRateCVPrior);
+		//manager.addSampleable(lengthsPrior);
+		manager.addSampleable(sm);
+		if (params.sampleRealisations == true){
+			manager.addSampleable(dltr);
+		}else if (params.maxRealizationFlag == true ){
+			manager.addSampleable(dltrMs);
+		}
+		
+		
+		manager.addSampleable(dlt.first);
+		manager.addSampleable(dlt.second);
+		manager.addSampleable(dlt.third);
+		manager.addSampleable(edgeRatePD.first);
+		manager.addSampleable(edgeRatePD.second);
+		if (siteRateShapeProposer.isEnabled()) {
+			manager.addSampleable(siteRates.first);
+		}
+		manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second));
+		if (params.outputLengths) {
+			manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second, gNamesLengths.third));
+		}
+		// mehmood's addition here
+		if (realisationSampler != null) {
+			manager.addSampleable(realisationSampler);
+		}
+		
+		return new Pair<MCMCManager, RealisationSampler>(manager, realisationSampler);
+	}
+
 }
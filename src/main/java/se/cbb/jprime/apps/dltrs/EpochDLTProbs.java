@@ -1,6 +1,12 @@
 package se.cbb.jprime.apps.dltrs;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import se.cbb.jprime.math.ODEExternalSolutionProvider;
 import se.cbb.jprime.math.ODEFunction;
@@ -10,6 +16,7 @@ import se.cbb.jprime.mcmc.Dependent;
 import se.cbb.jprime.mcmc.DoubleParameter;
 import se.cbb.jprime.mcmc.InfoProvider;
 import se.cbb.jprime.mcmc.ProperDependent;
+import se.cbb.jprime.misc.SharedForkJoinPools;
 import se.cbb.jprime.topology.Epoch;
 import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
 
@@ -20,7 +27,8 @@ import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
  * access. The precomputed values are first solved numerically for points
  * within each epoch with aid of an ODE solver. Probabilities
  * between points of different epochs are then assembled without need of
- * the solver.
+ * the solver. For a given upper epoch, the assembly for different lower epochs is
+ * independent, and may be carried out concurrently.
  * <p/>
  * The original of this class was written in an inhumanly pace prior to Ali's
  * dissertation, so bear with me on the incomprehensibility of certain parts.
@@ -87,6 +95,15 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 	/** ODE work var.: transferRate/(wn-1) or simply transferRate depending on adjustment flag. */
 	private double wnorm;
 	
+	/** ODE work var.: scratch space for the sums of Qef over e for each f. Sized for the leaf epoch. */
+	private double[] wsumqxf;
+	
+	/** ODE work var.: scratch space for interpolated solutions. Sized for the leaf epoch. */
+	private double[] winterp;
+	
+	/** Shared pool of worker threads for computing probabilities between epochs, see <code>SharedForkJoinPools</code>. Null if single-threaded. */
+	private ForkJoinPool pool;
+	
 	/**
 	 * Constructor.
 	 * @param EDS the "epochised" discretised host tree.
@@ -96,6 +113,24 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 	 * @param adjust true to adjust the probability of transfer by normalising with the number of contemporary host tree arcs.
 	 */
 	public EpochDLTProbs(RBTreeEpochDiscretiser ed, DoubleParameter dup, DoubleParameter loss, DoubleParameter trans, boolean adjust) {
+		this(ed, dup, loss, trans, adjust, 1);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param EDS the "epochised" discretised host tree.
+	 * @param dup the duplication rate.
+	 * @param loss the loss rate.
+	 * @param trans the lateral transfer rate.
+	 * @param adjust true to adjust the probability of transfer by normalising with the number of contemporary host tree arcs.
+	 * @param noOfThreads number of threads used for computing probabilities between epochs, e.g. 1.
+	 */
+	public EpochDLTProbs(RBTreeEpochDiscretiser ed, DoubleParameter dup, DoubleParameter loss, DoubleParameter trans, boolean adjust,
+			int noOfThreads) {
+		if (noOfThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads for DLT probabilities: " + noOfThreads + ".");
+		}
+		this.pool = (noOfThreads > 1 ? SharedForkJoinPools.get(noOfThreads) : null);
 		this.solver = new ODESolver(this, this, true, REL_TOL, ABS_TOL);
 		this.discTree = ed;
 		this.dupRate = dup;
@@ -109,11 +144,22 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 		this.wlast = 0;
 		this.wn = 0;
 		this.wnorm = 0;
+		this.allocateWorkVars();
 		this.adjustTransferProbabilityOverS = adjust;
 		
 		this.update();
 	}
     
+	/**
+	 * Allocates the ODE scratch space for the current discretisation. The leaf epoch
+	 * has the most arcs, so the space suffices for all epochs.
+	 */
+	private void allocateWorkVars() {
+		int n = this.discTree.getEpoch(0).getNoOfArcs();
+		this.wsumqxf = new double[n];
+		this.winterp = new double[n + n * n];
+	}
+	
 	/**
 	 * Updates the internally stored probabilities.
 	 */
@@ -197,19 +243,27 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 	public void evaluate(double x, double[] Q, double[] dQdt) {
 		// Defines the organisation of solver's concatenated vectors.
 		// First wn elements are reserved for extinction probs, Qe.
-		// Next wn*wn elements are one-to-one probs, Qef.
+		// Next wn*wn elements are one-to-one probs, Qef, stored row-wise, so that
+		// all loops below run over contiguous f and may be vectorised by the JIT.
+		// No memory is allocated, since this is called very frequently by the solver.
+		final int n = wn;
+		final double norm = wnorm;
+		final double[] sumqxf = wsumqxf;
 		
 		// Compute sum of Qe.
 		double sumqe = 0.0;
-		for (int i = 0; i < wn; ++i) {
+		for (int i = 0; i < n; ++i) {
 			sumqe += Q[i];
 		}
 		
-		// For each f (sic!), compute sum of Qef.
-		double[] sumqxf = new double[wn];
-		for (int e = 0; e < wn; ++e) {
-			for (int f = 0, ef = e * wn + wn; f < wn; ++f, ++ef) {
-				sumqxf[f] += Q[ef];
+		// For each f (sic!), compute sum of Qef by adding one row e at a time.
+		for (int f = 0; f < n; ++f) {
+			sumqxf[f] = 0.0;
+		}
+		for (int e = 0; e < n; ++e) {
+			int row = e * n + n;
+			for (int f = 0; f < n; ++f) {
+				sumqxf[f] += Q[row + f];
 			}
 		}
 		
@@ -218,18 +272,20 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 		double l = this.lossRate.getValue();
 		double t = this.transRate.getValue();
 		double rateSum = d + l + t;
-		for (int e = 0; e < wn; ++e) {
+		for (int e = 0; e < n; ++e) {
 			double qe = Q[e];
 			double sumqg = sumqe - qe;
 			
 			// dQedt = delta*Qe(t)^2 + tau/(n-1)*Qe*sum_{f in E\e}Qf(t) + mu - phi*Qe(t).
-			dQdt[e] = d * qe * qe + wnorm * qe * sumqg + l - rateSum * qe;
+			dQdt[e] = d * qe * qe + norm * qe * sumqg + l - rateSum * qe;
 			
 			// dQefdt = 2*delta*Qe(t)*Qef(t,t0) + tau/(n-1)*(Qe(t)*sum_{g in E\e}Qgf(t,t0) +
 			// Qef(t,t0)*sum_{g in E\e}Qg(t)) - phi*Qef(t,t0).
-			for (int f = 0, ef = e * wn + wn; f < wn; ++f, ++ef) {
-				double qef = Q[ef];
-				dQdt[ef] = 2 * d * qe * qef + wnorm * (qe * (sumqxf[f] - qef) + qef * sumqg) - rateSum * qef;
+			double dqe2 = 2 * d * qe;
+			int row = e * n + n;
+			for (int f = 0; f < n; ++f) {
+				double qef = Q[row + f];
+				dQdt[row + f] = dqe2 * qef + norm * (qe * (sumqxf[f] - qef) + qef * sumqg) - rateSum * qef;
 			}
 		}
 	}
@@ -253,7 +309,7 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 			double[] it = Q;
 			if (Math.abs(t - discTree.getEpoch(wi).getTime(ws)) > 1e-8) {
 				// If not on a discretisation time, interpolate.
-				it = new double[Q.length];
+				it = winterp;
 				solver.contd5(it, discTree.getEpoch(wi).getTime(ws));
 			}
 			
@@ -373,6 +429,10 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 	 * that calcProbsWithinEpochs() must be invoked first.
 	 */
 	private void calcProbsBetweenEpochs() {
+		if (this.pool != null) {
+			this.calcProbsBetweenEpochsConcurrently();
+			return;
+		}
 		// For every upper epoch i.
 		for (int i = 1; i < discTree.getNoOfEpochs(); ++i) {
 			// For every lower epoch j strictly beneath i.
@@ -381,6 +441,39 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 			}
 		}
 	}
+	
+	/**
+	 * Helper. Concurrent version of calcProbsBetweenEpochs(). For an upper epoch i,
+	 * the probabilities for a lower epoch j only depend on those of i-1 and j, and
+	 * are written to values of their own. Thus, all j are processed concurrently, one
+	 * upper epoch at a time.
+	 */
+	private void calcProbsBetweenEpochsConcurrently() {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(discTree.getNoOfEpochs());
+		try {
+			for (int i = 1; i < discTree.getNoOfEpochs(); ++i) {
+				tasks.clear();
+				for (int j = 0; j < i; ++j) {
+					final int ii = i;
+					final int jj = j;
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() {
+							calcProbsBetweenEpochs(ii, jj);
+							return null;
+						}
+					});
+				}
+				for (Future<Void> f : this.pool.invokeAll(tasks)) {
+					f.get();
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Computation of DLT probabilities was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
 
 	
 	/**
@@ -410,28 +503,38 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 		double Dgp = m_Qe.getForLastTime(z, g);
 		double Dgb = m_Qe.getForLastTime(z, g + 1);
 		
+		// Arc counts, i.e., row lengths of the value matrices.
+		int ni = lastei + 1;
+		int nz = epz.getNoOfArcs();
+		
 		// For every upper point time s.
 		for (int s = 0; s <= lastti; ++s) {
-			// For every upper point arc e.
-			for (int e = 0; e <= lastei; ++e) {
-				// For every lower point time t.
-				for (int t = 0; t <= lasttj; ++t) {
+			// Values from (i,0) to (i,s).
+			double[] upper = m_Qef.get(i, 0, i, s);
+			// For every lower point time t.
+			for (int t = 0; t <= lasttj; ++t) {
+				// Values from (j,t) to (z,lastzt) and (j,t) to (i,s).
+				double[] lower = m_Qef.get(j, t, z, lastzt);
+				double[] vals = m_Qef.get(j, t, i, s);
+				// For every upper point arc e.
+				for (int e = 0; e <= lastei; ++e) {
 					// For every lower point arc f.
 					for (int f = 0; f <= lastej; ++f) {
 						// COMPUTE PROBABILITY Qef(j,t,f,i,s,e).
-												
+						int fz = f * nz;
+						
 						// First treat case with arc g.
-						double qef = m_Qef.get(i, 0, g, i, s, e) * (m_Qef.get(j, t, f, z, lastzt, g) * Dgb + m_Qef.get(j, t, f, z, lastzt, g + 1) * Dgp);
-											
+						double qef = upper[g * ni + e] * (lower[fz + g] * Dgb + lower[fz + g + 1] * Dgp);
+						
 						// For every arc h in epoch i besides g. hb refers to same arc, but below.
 						for (int h = 0, hb = 0; h <= lastei; ++h, ++hb) {
 							if (h == g) {
 								++hb;
 								continue;
 							}
-							qef += m_Qef.get(i, 0, h, i, s, e) * m_Qef.get(j, t, f, z, lastzt, hb);
+							qef += upper[h * ni + e] * lower[fz + hb];
 						}
-						m_Qef.set(j, t, f, i, s, e, qef);
+						vals[f * ni + e] = qef;
 					}
 				}
 			}
@@ -492,6 +595,7 @@ public class EpochDLTProbs implements ProperDependent, ODEFunction, ODEExternalS
 			// Discretisation or times have changed. Reinitialise place-holders.
 			this.m_Qe = new EpochPtMap(this.discTree);
 			this.m_Qef = new EpochPtPtMap(discTree);
+			this.allocateWorkVars();
 		}
 		this.update();
 		changeInfos.put(this, new ChangeInfo(this, "EpochDLTProbs full update"));
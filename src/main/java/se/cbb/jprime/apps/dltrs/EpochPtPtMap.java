@@ -184,6 +184,23 @@ class EpochPtPtMap {
     	return v[a * noOfArcs + b];
     }
 	
+	/**
+	 * Returns all values from points of a certain time to points
+	 * of a certain time as a matrix with concatenated rows, i.e.,
+	 * the value between arcs a and b is found at index a * (no. of arcs at time 2) + b.
+	 * The array is not a copy, so changes are reflected in the map.
+	 * @param i epoch index of lower time 1.
+	 * @param s time index in epoch of time 1.
+	 * @param j epoch index of upper time 2.
+	 * @param t time index in epoch of time 2.
+	 * @return the values.
+	 */
+	public double[] get(int i, int s, int j, int t) {
+		int it = m_offsets[i] + s;
+		int jt = m_offsets[j] + t;
+		return m_vals[it * (2 * noOfTimes - it - 1) / 2 + jt];
+	}
+	
 	/**
 	 * Sets a certain point-to-point value.
 	 * @param i epoch index of lower time 1.
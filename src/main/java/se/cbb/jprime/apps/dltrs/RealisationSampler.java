@@ -5,6 +5,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import se.cbb.jprime.io.SampleInt;
 import se.cbb.jprime.io.Sampleable;
@@ -13,7 +21,6 @@ import se.cbb.jprime.math.PRNG;
 import se.cbb.jprime.mcmc.Iteration;
 import se.cbb.jprime.topology.BooleanMap;
 import se.cbb.jprime.topology.DoubleMap;
-import se.cbb.jprime.topology.GenericMap;
 import se.cbb.jprime.topology.IntMap;
 import se.cbb.jprime.topology.NamesMap;
 import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
@@ -25,6 +32,12 @@ import se.cbb.jprime.topology.TimesMap;
  * 
  * Enables sampling of <i>realisations</i>, i.e., dated embeddings
  * of G in S according to the probability distribution of embeddings under the DLTRS model.
+ * <p/>
+ * By default, one realisation is drawn per sampling round on the MCMC thread. In batch mode, i.e., when
+ * drawing more than one realisation per round or using more than one thread, the realisations of a round are drawn
+ * by a pool of worker threads, each draw with its own generator seeded from the PRNG of this sampler. The MCMC thread waits
+ * for the draws, since these read the current DP tables, but the realisations are written to the
+ * realisation file by a background thread. The DP tables are only read, never written to.
  * @author Mehmood Alam Khan.
  * NOWAR PA STARGO NA PATAY GI ...
  * 
@@ -70,10 +83,10 @@ public class RealisationSampler implements Sampleable {
 
 	///** At-probabilities for vertices v of G. */
 	/** Probability of rooted subtree G_u for each valid placement of u in S'. */
-	protected GenericMap<EpochPtMap> ats;
+	protected VertexEpochPtMap ats;
 
 	/** Probability of planted subtree G^u for each valid placement of tip of u's parent arc in S'. */
-	protected GenericMap<EpochPtMap> belows;
+	protected VertexEpochPtMap belows;
 
 	/** P11, etc. */
 	private EpochDLTProbs msDltProbs;  
@@ -86,10 +99,10 @@ public class RealisationSampler implements Sampleable {
 
 	///** At-probabilities for vertices v of G. */
 	/** Probability of rooted subtree G_u for each valid placement of u in S'. */
-	protected GenericMap<EpochPtMap> msAts;
+	protected VertexEpochPtMap msAts;
 
 	/** Probability of planted subtree G^u for each valid placement of tip of u's parent arc in S'. */
-	protected GenericMap<EpochPtMap> msBelows;
+	protected VertexEpochPtMap msBelows;
 
 	/** No. of realisations per sampling round. */
 	private int noOfRealisations;
@@ -108,6 +121,75 @@ public class RealisationSampler implements Sampleable {
 	/** Realization header . */
 	protected String realizationHeader;
 
+	/** Transfer heatmap to which ordinary samples are added. Null if not used. */
+	private TransferHeatmap heatmap = null;
+
+	/** Worker threads and writer of batch mode, shared by samplers of the same output stream. Null if not in batch mode. */
+	private Batch batch = null;
+
+	/**
+	 * Worker threads and asynchronous writer of batch mode.
+	 */
+	private static class Batch {
+
+		/** Pool of worker threads drawing realisations. */
+		private ExecutorService pool;
+
+		/** Single thread writing realisations in submission order. */
+		private ExecutorService writer;
+
+		/** Error of the writer thread. */
+		private volatile IOException error = null;
+
+		/**
+		 * Constructor.
+		 * @param noOfThreads number of worker threads.
+		 */
+		private Batch(int noOfThreads) {
+			ThreadFactory daemons = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RealisationSampler");
+					t.setDaemon(true);
+					return t;
+				}
+			};
+			this.pool = Executors.newFixedThreadPool(noOfThreads, daemons);
+			this.writer = Executors.newSingleThreadExecutor(daemons);
+		}
+	}
+
+	/**
+	 * Lightweight generator of a single draw in batch mode, i.e., SplitMix64 of a seed drawn from
+	 * the PRNG of the sampler. Unlike a Mersenne twister, it is seeded in constant time, and
+	 * is not synchronised, since it is only used by the worker thread of its draw.
+	 */
+	private static class DrawRandom extends Random {
+
+		/** Eclipse-generated serial version UID. */
+		private static final long serialVersionUID = -4273958164035281967L;
+
+		/** Current state. */
+		private long state;
+
+		/**
+		 * Constructor.
+		 * @param seed the seed.
+		 */
+		private DrawRandom(long seed) {
+			super(seed);
+			this.state = seed;
+		}
+
+		@Override
+		protected int next(int bits) {
+			long z = (this.state += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return (int) ((z ^ (z >>> 31)) >>> (64 - bits));
+		}
+	}
+
 	/**
 	 * Constructor.
 	 * @param file f the output str.
@@ -126,7 +208,85 @@ public class RealisationSampler implements Sampleable {
 	 */
 	public RealisationSampler(String filename, int noOfRealisations, Iteration iteration, PRNG prng, DLTRModel model, DLTRMAPModel msModel, NamesMap names, Boolean maxRealizationFlag) throws IOException {
 	//public RealisationSampler(int noOfRealisations, Iteration iteration, PRNG prng, DLTRModel model, DLTRMAPModel msModel, NamesMap names, Boolean maxRealizationFlag) throws IOException {		
-		this.out = new BufferedWriter(new FileWriter(filename));
+		this(filename, noOfRealisations, 1, iteration, prng, model, msModel, names, maxRealizationFlag);
+	}
+
+	/**
+	 * Constructor.
+	 * @param filename the realisation file.
+	 * @param noOfRealisations number of realisations per sampling round.
+	 * @param noOfThreads number of threads drawing the realisations of a round. Batch mode is used if this or
+	 *        the number of realisations exceeds 1.
+	 * @param iteration iteration.
+	 * @param prng pseudo-random number generator.
+	 * @param model the model.
+	 * @param msModel the max realisation model.
+	 * @param names leaf names of G.
+	 * @param maxRealizationFlag true to output max probability realisations.
+	 * @throws IOException.
+	 */
+	public RealisationSampler(String filename, int noOfRealisations, int noOfThreads, Iteration iteration, PRNG prng, DLTRModel model, DLTRMAPModel msModel, NamesMap names, Boolean maxRealizationFlag) throws IOException {
+		this(new BufferedWriter(new FileWriter(filename)), noOfRealisations, iteration, prng, model, msModel, names, maxRealizationFlag);
+		if (noOfRealisations < 1 || noOfThreads < 1) {
+			this.out.close();
+			throw new IllegalArgumentException("Invalid number of realisations or realisation sampling threads.");
+		}
+		if (noOfRealisations > 1 || noOfThreads > 1) {
+			this.batch = new Batch(noOfThreads);
+		}
+		
+		// Write header.
+		this.out.write("[Host tree:]" + this.times.toString() + "\n");
+		this.out.flush();
+	}
+
+	/**
+	 * Constructor for a sampler of another replica of the same model, e.g. for Metropolis-coupled chains.
+	 * Writes to the same output stream as an existing sampler, with the same settings.
+	 * The stream is not closed by this sampler.
+	 * @param shared the sampler whose output stream is shared.
+	 * @param iteration iteration.
+	 * @param prng pseudo-random number generator.
+	 * @param model the model.
+	 * @param msModel the max realisation model.
+	 * @param names leaf names of G.
+	 */
+	public RealisationSampler(RealisationSampler shared, Iteration iteration, PRNG prng, DLTRModel model, DLTRMAPModel msModel, NamesMap names) {
+		this(shared.out, shared.noOfRealisations, iteration, prng, model, msModel, names, shared.maxRealizationFlag);
+		this.batch = shared.batch;
+		this.heatmap = shared.heatmap;
+	}
+
+	/**
+	 * Sets a transfer heatmap to which all ordinary samples are added, in batch mode all realisations of a round.
+	 * Must be set before creating samplers sharing the output stream of this sampler.
+	 * @param heatmap the heatmap.
+	 */
+	public void setHeatmap(TransferHeatmap heatmap) {
+		this.heatmap = heatmap;
+	}
+
+	/**
+	 * Returns the discretised host tree.
+	 * @return the discretised tree.
+	 */
+	public RBTreeEpochDiscretiser getDiscretisedHostTree() {
+		return this.times;
+	}
+
+	/**
+	 * Constructor.
+	 * @param out the output stream.
+	 * @param noOfRealisations number of realisations per sampling round.
+	 * @param iteration iteration.
+	 * @param prng pseudo-random number generator.
+	 * @param model the model.
+	 * @param msModel the max realisation model.
+	 * @param names leaf names of G.
+	 * @param maxRealizationFlag true to output max probability realisations.
+	 */
+	private RealisationSampler(BufferedWriter out, int noOfRealisations, Iteration iteration, PRNG prng, DLTRModel model, DLTRMAPModel msModel, NamesMap names, Boolean maxRealizationFlag) {
+		this.out = out;
 		this.noOfRealisations = noOfRealisations;
 		this.iteration = iteration;
 		this.prng = prng;
@@ -154,9 +314,6 @@ public class RealisationSampler implements Sampleable {
 		}else{
 			this.realizationHeader= "SampledRealisation";
 		}
-		// Write header.
-		this.out.write("[Host tree:]" + this.times.toString() + "\n");
-		this.out.flush();
 	}
 
 
@@ -214,6 +371,15 @@ public class RealisationSampler implements Sampleable {
 	 * @param vertices vertices of G in topological ordering from root to leaves.
 	 */
 	public Realisation sample(List<Integer> vertices) {
+		return this.sample(vertices, this.prng);
+	}
+
+	/**
+	 * Samples a realisation given the current guest tree, "at-probabilities", p11-probabilities, etc.
+	 * @param vertices vertices of G in topological ordering from root to leaves.
+	 * @param prng pseudo-random number generator.
+	 */
+	private Realisation sample(List<Integer> vertices, Random prng) {
 
 		int n 					= vertices.size();
 		int[][] placements 		= new int[n][];  // Sampled points only discretization is stored.
@@ -239,7 +405,7 @@ public class RealisationSampler implements Sampleable {
 		}
 
 		for (int v : vertices) {
-			getSamplePointLTG(v, placements, fromTo, edgePlacements, abst, arct, isDups, isTrans);
+			getSamplePointLTG(v, placements, fromTo, edgePlacements, abst, arct, isDups, isTrans, prng);
 			placementss[v] = "(" + placements[v][0] + "," + placements[v][1] + ")"; 
 			//fromToLinage[v]= "(" + fromTo[v][0] + "," + fromTo[v][1] + "," + fromTo[v][2] + ")";
 			// changes feb 24 2015 starts
@@ -279,8 +445,8 @@ public class RealisationSampler implements Sampleable {
 
 		double sTime = msReconcHelper.getTime(s);
 		double l = msLengths.get(v);
-		double[] lins = this.msBelows.get(v).get(s[0], s[1]);
-		int sz = lins.length;
+		double[] lins = this.msBelows.getValues();
+		int sz = this.msBelows.getNoOfArcs(s[0]);
 		int[] t = this.msReconcHelper.getLoLim(v);
 		int lc = G.getLeftChild(v);
 		int rc = G.getRightChild(v);
@@ -319,12 +485,6 @@ public class RealisationSampler implements Sampleable {
 			// Store Arc 'f' of duplication or transfer on species tree 
 			ArrayList<Integer> arcF = new ArrayList<Integer>();// added after May 23
 
-
-			// Reset values.
-			for (int i = 0; i < sz; ++i) {
-				lins[i] = 0.0;
-			}
-
 			// We always ignore last time index for at-probs of current epoch,
 			// since such values are correctly stored at index 0 of next epoch.
 			//int[] t = this.reconcHelper.getLoLim(v);  // changed after May 23
@@ -343,19 +503,21 @@ public class RealisationSampler implements Sampleable {
 				double rateDens = msSubstPD.getPDF(l / (sTime - msReconcHelper.getTime(t)));
 
 				// For each edge e where lineage can start at time s.
-				double[] ats = this.msAts.get(v).get(t[0], t[1]);
+				double[] ats = this.msAts.getValues();
+				int ao = this.msAts.getOffset(v, t[0], t[1]);
+				int na = this.msAts.getNoOfArcs(t[0]);
 
 				if (!this.G.isRoot(v)){
 					int e= edgePlacements[this.G.getParent(v)][0];
 					// For each edge f where u can be placed at time t.
-					for (int f = 0; f < ats.length; ++f) {
+					for (int f = 0; f < na; ++f) {
 
-						double p= msDltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[f];
+						double p= msDltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[ao + f];
 						if  (p > maxp) {
 							maxp = p;
 							maxT = t;
 							maxF= f;
-							totalSpeciesEdges= ats.length;
+							totalSpeciesEdges= na;
 							maxE= e;				
 						}
 
@@ -371,13 +533,13 @@ public class RealisationSampler implements Sampleable {
 				}else{
 					for (int e = 0; e < sz; ++e) {
 						// For each edge f where u can be placed at time t.
-						for (int f = 0; f < ats.length; ++f) {
-							double p= msDltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[f];
+						for (int f = 0; f < na; ++f) {
+							double p= msDltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[ao + f];
 							if  (p > maxp) {
 								maxp = p;
 								maxT = t;
 								maxF= f;
-								totalSpeciesEdges= ats.length;
+								totalSpeciesEdges= na;
 								maxE= e;				
 							}
 
@@ -414,38 +576,40 @@ public class RealisationSampler implements Sampleable {
 			if (t[1] != 0) {
 
 				double dt = msReconcHelper.getTimestep(t[0]);	
-				double[] ats = this.msAts.get(v).get(t[0], t[1]);
+				double[] ats = this.msAts.getValues();
+				int ao = this.msAts.getOffset(v, t[0], t[1]);
+				int na = this.msAts.getNoOfArcs(t[0]);
 				double dupFact = 2 * msDltProbs.getDuplicationRate();
-				int adjFact = (this.msDltProbs.getTransferProbabilityAdjustment() ? ats.length - 1 : 1);   // Adjust for contemporary species or not.
+				int adjFact = (this.msDltProbs.getTransferProbabilityAdjustment() ? na - 1 : 1);   // Adjust for contemporary species or not.
 				double trFact = this.msDltProbs.getTransferRate() / adjFact;
 
-				double[] lclins = msBelows.get(lc).get(t[0], t[1]);
-				double[] rclins = msBelows.get(rc).get(t[0], t[1]);
+				int lco = msBelows.getOffset(lc, t[0], t[1]);
+				int rco = msBelows.getOffset(rc, t[0], t[1]);
 
 				double dupProb	=	0.0;
-				double[] transProb= new double[ats.length];
-				double[] transProbUtoW= new double[ats.length];
-				double[] transProbUtoV= new double[ats.length];
+				double[] transProb= new double[na];
+				double[] transProbUtoW= new double[na];
+				double[] transProbUtoV= new double[na];
 
 				double transProbSum= 0.0;
 				double maxProbAtf=-0.0;
 				int maxfIndex=0;
 
-				if (lclins.length > 1) {
+				if (na > 1) {
 
-					dupProb 	= dt * (dupFact * lclins[maxF] * rclins[maxF]); // duplication part of second equation on paper page 6
+					dupProb 	= dt * (dupFact * lins[lco + maxF] * lins[rco + maxF]); // duplication part of second equation on paper page 6
 					// here f refers to different arcs/lineages of species tree in LowerEdgeGeneration
 					// v is the left child of u in G and w is the right child of u in G. in code v refers to u in theory. 
 					// Transfer part of second equation on paper page 6
-					for (int f = 0; f < lclins.length; ++f) {
+					for (int f = 0; f < na; ++f) {
 						if (maxF == f){
-							transProbSum += dt * (trFact * (lclins[maxF] * rclins[f] ));
-							transProbSum += dt * (trFact * (rclins[maxF] * lclins[f] ));
+							transProbSum += dt * (trFact * (lins[lco + maxF] * lins[rco + f] ));
+							transProbSum += dt * (trFact * (lins[rco + maxF] * lins[lco + f] ));
 
 						}
 						else{
-							transProbUtoW[f] += dt * (trFact * (lclins[maxF] * rclins[f] ));
-							transProbUtoV[f] += dt * (trFact * (rclins[maxF] * lclins[f] ));
+							transProbUtoW[f] += dt * (trFact * (lins[lco + maxF] * lins[rco + f] ));
+							transProbUtoV[f] += dt * (trFact * (lins[rco + maxF] * lins[lco + f] ));
 							transProb[f] += transProbUtoV[f]  + transProbUtoW[f];
 
 							if( maxProbAtf < transProb[f]){
@@ -503,7 +667,6 @@ public class RealisationSampler implements Sampleable {
 				} 
 				else {
 					// Case with top time edge. No transfer possible.
-					ats[0] = dt * dupFact * lclins[0] * rclins[0];
 					//					System.out.println("Duplication");
 					//System.out.println("\n"+v+"\t F["+maxF+"]\tt\t["+ t[0] + ", "+ t[1]+ "]\t dupProb ["+ats[0]+ "]  Duplication" );
 
@@ -532,9 +695,10 @@ public class RealisationSampler implements Sampleable {
 	 * @param arcTimes arc times of sampled tree.
 	 * @param isDups type of point. True if its duplication.
 	 * @param isTrans type of point. True if its transfer.
+	 * @param prng pseudo-random number generator.
 	 */
 
-	private void getSamplePointLTG(int v, int[][] placements, int [][] fromTo, int[][] edgePlacements, double[] absTimes, double[] arcTimes, boolean[] isDups, boolean[] isTrans) {
+	private void getSamplePointLTG(int v, int[][] placements, int [][] fromTo, int[][] edgePlacements, double[] absTimes, double[] arcTimes, boolean[] isDups, boolean[] isTrans, Random prng) {
 
 		// Get placement of parent of v in S'.
 		int[] s;
@@ -546,8 +710,8 @@ public class RealisationSampler implements Sampleable {
 		
 		double sTime = reconcHelper.getTime(s);
 		double l = lengths.get(v);
-		double[] lins = this.belows.get(v).get(s[0], s[1]);
-		int sz = lins.length;
+		double[] lins = this.belows.getValues();
+		int sz = this.belows.getNoOfArcs(s[0]);
 		int[] t = this.reconcHelper.getLoLim(v);
 		double tempCps=0.0;
 
@@ -580,11 +744,6 @@ public class RealisationSampler implements Sampleable {
 			// store arcs at each epoch  in arraylist
 			ArrayList<Integer> speciesArcs = new ArrayList<Integer>();
 
-			// Reset values.
-			for (int i = 0; i < sz; ++i) {
-				lins[i] = 0.0;
-			}
-
 			// We always ignore last time index for at-probs of current epoch,
 			// since such values are correctly stored at index 0 of next epoch.
 			if (reconcHelper.isLastEpochTime(t)) {
@@ -598,43 +757,45 @@ public class RealisationSampler implements Sampleable {
 				double rateDens = substPD.getPDF(l / (sTime - reconcHelper.getTime(t)));
 
 				// For each edge e where lineage can start at time s.
-				double[] ats = this.ats.get(v).get(t[0], t[1]);
+				double[] ats = this.ats.getValues();
+				int ao = this.ats.getOffset(v, t[0], t[1]);
+				int na = this.ats.getNoOfArcs(t[0]);
 
 				if (!this.G.isRoot(v)){
 
 					int e= edgePlacements[this.G.getParent(v)][0];
-					lins[e]=tempCps;
+					double cp = tempCps;
 					// For each edge f where u can be placed at time t.
-					for (int f = 0; f < ats.length; ++f) {
-						double p= dltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[f];
-						lins[e] += p;
+					for (int f = 0; f < na; ++f) {
+						double p= dltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[ao + f];
+						cp += p;
 						prob.add(p);
 						ys.add(t);  // added after May 23
-						cps.add(lins[e]); // added after May 23
+						cps.add(cp); // added after May 23
 						arcF.add(f);
-						speciesArcs.add(ats.length);
+						speciesArcs.add(na);
 						arraylistE.add(e);
 						index++;
 					}
-					tempCps=lins[e];
+					tempCps=cp;
 
 				}else{
 
 					for (int e = 0; e < sz; ++e) {
-						lins[e]=tempCps;
+						double cp = tempCps;
 						// For each edge f where u can be placed at time t.
-						for (int f = 0; f < ats.length; ++f) {
-							double p= dltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[f];
-							lins[e] += p;
+						for (int f = 0; f < na; ++f) {
+							double p= dltProbs.getOneToOneProbs().get(t[0], t[1], f, s[0], s[1], e) * rateDens * ats[ao + f];
+							cp += p;
 							prob.add(p);
 							ys.add(t);  // added after May 23
-							cps.add(lins[e]); // added after May 23
+							cps.add(cp); // added after May 23
 							arcF.add(f);
-							speciesArcs.add(ats.length);
+							speciesArcs.add(na);
 							arraylistE.add(e);
 							index++;
 						}
-						tempCps=lins[e];
+						tempCps=cp;
 					}
 
 				}// else end here
@@ -648,12 +809,12 @@ public class RealisationSampler implements Sampleable {
 			// Sample a point in the host tree.
 			if (sumProbAtDifferentLineagesE < 1e-256) {
 				// No signal: choose a point uniformly.
-				idx = Math.abs(this.prng.nextInt(ys.size()));
+				idx = Math.abs(prng.nextInt(ys.size()));
 				t = ys.get(idx);
 			} else {
 
 				// Sample according to probabilities of placements.
-				double rnd = this.prng.nextDouble() * cps.get(cps.size()-1);
+				double rnd = prng.nextDouble() * cps.get(cps.size()-1);
 				idx = 0;
 				while (cps.get(idx) < rnd && idx < ys.size()) {
 					++idx;
@@ -684,42 +845,44 @@ public class RealisationSampler implements Sampleable {
 				int lc = G.getLeftChild(v);
 				int rc = G.getRightChild(v);
 				double dt = reconcHelper.getTimestep(t[0]);	 // get timestep for epoch identifier
-				double[] ats = this.ats.get(v).get(t[0], t[1]);
+				double[] ats = this.ats.getValues();
+				int ao = this.ats.getOffset(v, t[0], t[1]);
+				int na = this.ats.getNoOfArcs(t[0]);
 				double dupFact = 2 * dltProbs.getDuplicationRate();
-				int adjFact = (this.dltProbs.getTransferProbabilityAdjustment() ? ats.length - 1 : 1);   // Adjust for contemporary species or not.
+				int adjFact = (this.dltProbs.getTransferProbabilityAdjustment() ? na - 1 : 1);   // Adjust for contemporary species or not.
 				double trFact = this.dltProbs.getTransferRate() / adjFact;
 
-				double[] lclins = belows.get(lc).get(t[0], t[1]);
-				double[] rclins = belows.get(rc).get(t[0], t[1]);
+				int lco = belows.getOffset(lc, t[0], t[1]);
+				int rco = belows.getOffset(rc, t[0], t[1]);
 				
 				double dupProb	=	0.0;
-				double[] transProb= new double[ats.length];
-				double[] transProbUtoW= new double[ats.length];
-				double[] transProbUtoV= new double[ats.length];
+				double[] transProb= new double[na];
+				double[] transProbUtoW= new double[na];
+				double[] transProbUtoV= new double[na];
 
 				double transProbSum= 0.0;
 				double maxLinTransProb= 0.0;
 
 				//if (ats.length > 1 || this.stemDoneFlag== true) {
-				if (ats.length > 1 ) {
+				if (na > 1 ) {
 					double lcsum = 0.0;
-					for (double val : lclins) {
-						lcsum += val;
+					for (int f = 0; f < na; ++f) {
+						lcsum += lins[lco + f];
 					}
 					double rcsum = 0.0;
-					for (double val : rclins) {
-						rcsum += val;
+					for (int f = 0; f < na; ++f) {
+						rcsum += lins[rco + f];
 					}
 					// duplication probability at lineage arcf
-					dupProb 	+= dt * (dupFact * lclins[indexF] * rclins[indexF]); 
+					dupProb 	+= dt * (dupFact * lins[lco + indexF] * lins[rco + indexF]); 
 					
-					for (int f = 0; f < lclins.length; ++f) {
+					for (int f = 0; f < na; ++f) {
 						if (indexF == f){
-							transProbSum += dt * (trFact * (lclins[indexF] * rclins[f] ));
-							transProbSum += dt * (trFact * (rclins[indexF] * lclins[f] ));
+							transProbSum += dt * (trFact * (lins[lco + indexF] * lins[rco + f] ));
+							transProbSum += dt * (trFact * (lins[rco + indexF] * lins[lco + f] ));
 						}else{
-							transProbUtoW[f] += dt * (trFact * (lclins[indexF] * rclins[f] ));
-							transProbUtoV[f] += dt * (trFact * (rclins[indexF] * lclins[f] ));
+							transProbUtoW[f] += dt * (trFact * (lins[lco + indexF] * lins[rco + f] ));
+							transProbUtoV[f] += dt * (trFact * (lins[rco + indexF] * lins[lco + f] ));
 							transProb[f] += transProbUtoV[f]  + transProbUtoW[f];
 
 							if (maxLinTransProb < transProb[f]){
@@ -731,7 +894,7 @@ public class RealisationSampler implements Sampleable {
 					}
 
 					// Generate Random number ranging between (0 to sum(dupProb+transProb) )
-					double rnd = this.prng.nextDouble() * (dupProb+transProbSum);
+					double rnd = prng.nextDouble() * (dupProb+transProbSum);
 					if (rnd < dupProb ){
 						if (! this.G.isRoot(v)) {
 							if (isDups[this.G.getParent(v)] == true && edgePlacements[this.G.getParent(v)][0] != edgePlacements[v][0] ){
@@ -752,9 +915,9 @@ public class RealisationSampler implements Sampleable {
 					}else{						
 						boolean foundFlag= false;
 						// child that receive the transfered lineage will be
-						rnd = this.prng.nextDouble() * (maxLinTransProb/transProbSum);
+						rnd = prng.nextDouble() * (maxLinTransProb/transProbSum);
 
-						for (int f = 0; f < lclins.length; ++f) {
+						for (int f = 0; f < na; ++f) {
 							if (f != indexF){
 								if (rnd <= (transProbUtoW[f]/transProbSum)){  // select the child where V stays but W get transfered to specie lineage e, also Normalizing each component
 									fromTo[v][0]= indexF;
@@ -782,7 +945,6 @@ public class RealisationSampler implements Sampleable {
 
 				} else {
 					// Case with top time edge. No transfer possible.
-					ats[0] = dt * dupFact * lclins[0] * rclins[0];
 					//					System.out.println("Duplication");
 					//System.out.println(v+"\t F["+arcF.get(idx)+"\tt\t["+ t[0] + ", "+ t[1]+ "]\t dupProb ["+ats[0]+ "]\tcps["+cps.get(idx)+"]  Duplication" );
 					isDups[v]=true;
@@ -801,21 +963,131 @@ public class RealisationSampler implements Sampleable {
 
 
 	/**
-	 * Closes the underlying buffer.
+	 * Closes the underlying buffer. In batch mode, first waits for all pending realisations to be written
+	 * and stops the worker threads.
 	 * @throws IOException 
 	 */
 	public void close() throws IOException {
+		if (this.batch != null) {
+			this.batch.pool.shutdown();
+			this.batch.writer.shutdown();
+			try {
+				this.batch.writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.checkWriteError();
+		}
 		this.out.close();
 	}
 
 	/**
-	 * Flushes the underlying buffer.
+	 * Flushes the underlying buffer. In batch mode, first waits for all pending realisations to be written.
 	 * @throws IOException 
 	 */
 	public void flush() throws IOException {
+		if (this.batch != null) {
+			try {
+				this.batch.writer.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						return null;
+					}
+				}).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+			this.checkWriteError();
+		}
 		this.out.flush();
 	}
 
+	/**
+	 * Rethrows any error of the writer thread of batch mode.
+	 * @throws IOException.
+	 */
+	private void checkWriteError() throws IOException {
+		IOException e = this.batch.error;
+		if (e != null) {
+			this.batch.error = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Draws the realisations of a sampling round in batch mode. Each draw uses its own generator, seeded from
+	 * the PRNG of this sampler in order, so that output is reproducible regardless of the number of threads.
+	 * The DP tables are only read, and are not altered until this method returns. For ordinary samples,
+	 * all realisations are submitted for writing to the realisation file, prefixed by the current iteration;
+	 * for other samples, e.g. records of the best state, a single realisation is drawn and not written.
+	 * @param mode sampling mode.
+	 * @return the first realisation on Newick format.
+	 */
+	private String sampleBatch(SamplingMode mode) {
+		try {
+			this.checkWriteError();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write realisations.", e);
+		}
+		final List<Integer> vertices = this.G.getTopologicalOrdering();
+		
+		// A max probability realisation is deterministic, so it is only retrieved once.
+		boolean isOrdinary = (mode == SamplingMode.ORDINARY);
+		int n = (this.maxRealizationFlag == true || !isOrdinary ? 1 : this.noOfRealisations);
+		List<Callable<String>> draws = new ArrayList<Callable<String>>(n);
+		for (int k = 0; k < n; ++k) {
+			final Random drawPRNG = (this.maxRealizationFlag == true ? null : new DrawRandom(this.prng.nextLong()));
+			draws.add(new Callable<String>() {
+				@Override
+				public String call() {
+					// Formatted here, since the guest tree may change once the round is over.
+					Realisation real = (drawPRNG == null ? getMaximumProbabilityRealisation(vertices) : sample(vertices, drawPRNG));
+					return real.toString();
+				}
+			});
+		}
+		final String[] reals = new String[n];
+		try {
+			List<Future<String>> fs = this.batch.pool.invokeAll(draws);
+			for (int k = 0; k < n; ++k) {
+				reals[k] = fs.get(k).get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Realisation sampling was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		
+		if (!isOrdinary) {
+			return reals[0];
+		}
+		
+		// Write asynchronously.
+		final String prefix = this.iteration.getIteration() + "\t";
+		final Batch b = this.batch;
+		final TransferHeatmap hm = this.heatmap;
+		b.writer.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (String real : reals) {
+						out.write(prefix);
+						out.write(real);
+						out.write('\n');
+						if (hm != null) {
+							hm.add(real);
+						}
+					}
+				} catch (IOException e) {
+					b.error = e;
+				}
+			}
+		});
+		return reals[0];
+	}
+
 	/**
 	 * Returns a proper representation of a lower limit.
 	 * @param loLim the lower limit, holding arc and discretisation point in one int.
@@ -842,6 +1114,9 @@ public class RealisationSampler implements Sampleable {
 
 	@Override
 	public String getSampleValue(SamplingMode mode) {
+		if (this.batch != null) {
+			return this.sampleBatch(mode);
+		}
 		StringBuilder str = new StringBuilder(1024);
 
 		// Vertices of G in topological ordering from root to leaves.
@@ -859,6 +1134,9 @@ public class RealisationSampler implements Sampleable {
 		//Realisation real = this.sample(vertices);  // uncomment it when test the random sampling and also when everything is working.
 		// and comment the line above Realisation real = this.getMaximumProbabilityRealisation(vertices);
 		str.append(real.toString());
+		if (this.heatmap != null && mode == SamplingMode.ORDINARY) {
+			this.heatmap.add(str.toString());
+		}
 
 		return str.toString();
 	}
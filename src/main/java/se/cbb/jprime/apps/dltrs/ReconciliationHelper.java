@@ -1,5 +1,7 @@
 package se.cbb.jprime.apps.dltrs;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 import se.cbb.jprime.mcmc.ChangeInfo;
@@ -10,6 +12,7 @@ import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
 import se.cbb.jprime.topology.IntMap;
 import se.cbb.jprime.topology.LeafLeafMap;
 import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.TreeAlgorithms;
 
 /**
  * Keeps track of the various things related to allowed reconciliations
@@ -201,10 +204,40 @@ public class ReconciliationHelper implements ProperDependent, InfoProvider {
 
 	@Override
 	public void cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample) {
-		this.loLims.cache(null);
-		this.upLims.cache(null);
-		this.update();
-		changeInfos.put(this, new ChangeInfo(this, "Reconciliation helper update."));
+		ChangeInfo gci = changeInfos.get(this.g);
+		if (changeInfos.get(this.s) == null && changeInfos.get(this.times) == null &&
+				gci != null && gci.getAffectedElements() != null) {
+			// Lower limits only depend on the subtree of a vertex, whereas upper limits
+			// depend on its depth, so we disclose the latter changes as well.
+			int n = this.g.getNoOfVertices();
+			int[] oldUpLims = new int[n];
+			for (int u = 0; u < n; ++u) {
+				oldUpLims[u] = this.upLims.get(u);
+			}
+			this.loLims.cache(null);
+			this.upLims.cache(null);
+			this.update();
+			ArrayList<Integer> changed = new ArrayList<Integer>();
+			for (int u : gci.getAffectedElements()) {
+				changed.add(u);
+			}
+			for (int u = 0; u < n; ++u) {
+				if (this.upLims.get(u) != oldUpLims[u]) {
+					changed.add(u);
+				}
+			}
+			int[] affected = new int[changed.size()];
+			for (int i = 0; i < affected.length; ++i) {
+				affected[i] = changed.get(i);
+			}
+			affected = TreeAlgorithms.getSpanningRootSubtree(this.g, affected);
+			changeInfos.put(this, new ChangeInfo(this, "Partial reconciliation helper update.", affected));
+		} else {
+			this.loLims.cache(null);
+			this.upLims.cache(null);
+			this.update();
+			changeInfos.put(this, new ChangeInfo(this, "Reconciliation helper update."));
+		}
 	}
 
 	@Override
@@ -219,6 +252,33 @@ public class ReconciliationHelper implements ProperDependent, InfoProvider {
 		this.upLims.restoreCache();
 	}
 
+	/**
+	 * Returns the vertices of G whose planted subtree probabilities are invalidated by a
+	 * local topology change, i.e., the affected vertices and their unaffected children, since
+	 * the planted subtree of a vertex depends on the placements of its parent.
+	 * @param sortedAffectedVertices the affected vertices, closed under ancestry.
+	 * @return the affected vertices followed by their unaffected children.
+	 */
+	public int[] getPlantedVertices(int[] sortedAffectedVertices) {
+		int n = this.g.getNoOfVertices();
+		boolean[] isAffected = new boolean[n];
+		for (int u : sortedAffectedVertices) {
+			isAffected[u] = true;
+		}
+		int[] planted = new int[n];
+		int noOfPlanted = 0;
+		for (int u : sortedAffectedVertices) {
+			planted[noOfPlanted++] = u;
+			if (!this.g.isLeaf(u)) {
+				int lc = this.g.getLeftChild(u);
+				int rc = this.g.getRightChild(u);
+				if (!isAffected[lc]) { planted[noOfPlanted++] = lc; }
+				if (!isAffected[rc]) { planted[noOfPlanted++] = rc; }
+			}
+		}
+		return Arrays.copyOf(planted, noOfPlanted);
+	}
+
 	/**
 	 * Returns the discretised time identifier above another.
 	 * @param pt the epoch identifier and index.
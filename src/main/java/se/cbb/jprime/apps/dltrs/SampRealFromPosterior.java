@@ -208,7 +208,7 @@ public class SampRealFromPosterior implements JPrIMEApp {
 					Quadruple<DoubleParameter, DoubleParameter, DoubleParameter, EpochDLTProbs> dlt = DLTRSParameterParser.getDLTProbs( dtimes, d,l, t);
 					
 					// Substitution model. NOTE: Root arc is turned on!!!!
-					SubstitutionModel sm = new SubstitutionModel("SubstitutionModel", D, siteRates.second, Q, gNamesLengths.first, gNamesLengths.second, gNamesLengths.third, true);
+					SubstitutionModel sm = new SubstitutionModel("SubstitutionModel", D, siteRates.second, Q, gNamesLengths.first, gNamesLengths.second, gNamesLengths.third, true, params.threads);
 
 					// DLTR model.
 					DLTRModel dltr = new DLTRModel(gNamesLengths.first, sNamesTimes.first, rHelper, gNamesLengths.third, dlt.fourth, edgeRatePD.third);
@@ -0,0 +1,185 @@
+package se.cbb.jprime.apps.dltrs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import se.cbb.jprime.io.NewickIOException;
+import se.cbb.jprime.io.PrIMENewickTree;
+import se.cbb.jprime.io.PrIMENewickTreeReader;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
+import se.cbb.jprime.topology.TimesMap;
+import se.cbb.jprime.topology.TopologyException;
+
+/**
+ * Transfer heatmap of DLTRS realisations, i.e., for each point of the discretised host tree and each ordered pair
+ * (from, to) of host arcs, the number of realised transfers. Realisations are added one at a time on
+ * their Newick string format, only matching the transfer tags, so that a realisation file of any size can be streamed
+ * line by line, or realisations can be added live as they are sampled. Adding is thread-safe.
+ * <p/>
+ * Rows correspond to points in order of epochs, columns to pairs <code>from * (n-1) + to'</code>, where n is the number of
+ * host arcs and <code>to'</code> is <code>to</code> with <code>from</code> skipped.
+ *
+ * @author agent.
+ */
+public class TransferHeatmap {
+
+	/** Header of realisation files. */
+	public static final String HOST_TREE_HEADER = "[Host tree:]";
+
+	/** For finding transfer tags: from, to, point epoch and point time index. */
+	private static final Pattern TRANSFER_TAG = Pattern.compile("\\[&&PRIME VERTEXTYPE=Transfer FROMTOLINEAGE=\\((\\d+),(\\d+),-?\\d+\\)[^\\]]*DISCPT=\\((\\d+),(\\d+)\\)");
+
+	/** For each epoch, the row of its first point. */
+	private int[] epochOffsets;
+
+	/** Number of host arcs. */
+	private int noOfArcs;
+
+	/** Counts, indexed by point and pair of arcs. */
+	private int[][] counts;
+
+	/** Number of added realisations. */
+	private int noOfRealisations = 0;
+
+	/**
+	 * Constructor.
+	 * @param times discretised host tree.
+	 */
+	public TransferHeatmap(RBTreeEpochDiscretiser times) {
+		int n = times.getNoOfEpochs();
+		this.epochOffsets = new int[n];
+		for (int i = 1; i < n; ++i) {
+			this.epochOffsets[i] = this.epochOffsets[i - 1] + times.getEpoch(i - 1).getNoOfPoints();
+		}
+		this.noOfArcs = times.getNoOfVertices();   // Arcs are identified by their head vertex.
+		this.counts = new int[times.getTotalNoOfPoints()][this.noOfArcs * (this.noOfArcs - 1)];
+	}
+
+	/**
+	 * Adds the transfers of a realisation.
+	 * @param realisation the realisation on Newick format.
+	 */
+	public void add(String realisation) {
+		Matcher m = TRANSFER_TAG.matcher(realisation);
+		synchronized (this) {
+			while (m.find()) {
+				int from = Integer.parseInt(m.group(1));
+				int to = Integer.parseInt(m.group(2));
+				if (from == to) { continue; }
+				int row = this.epochOffsets[Integer.parseInt(m.group(3))] + Integer.parseInt(m.group(4));
+				this.counts[row][from * (this.noOfArcs - 1) + (from < to ? to - 1 : to)]++;
+			}
+			this.noOfRealisations++;
+		}
+	}
+
+	/**
+	 * Adds the realisation of a line of a realisation file, i.e., its last tab-separated field.
+	 * Lines without a realisation are ignored.
+	 * @param line the line.
+	 */
+	public void addLine(String line) {
+		if (line.startsWith(HOST_TREE_HEADER) || line.indexOf("[&&PRIME") < 0) {
+			return;
+		}
+		this.add(line.substring(line.lastIndexOf('\t') + 1));
+	}
+
+	/**
+	 * Adds the realisations of all remaining lines of a stream.
+	 * @param in the stream.
+	 * @throws IOException.
+	 */
+	public void addAll(BufferedReader in) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			this.addLine(line);
+		}
+	}
+
+	/**
+	 * Returns the number of added realisations.
+	 * @return the number of realisations.
+	 */
+	public synchronized int getNoOfRealisations() {
+		return this.noOfRealisations;
+	}
+
+	/**
+	 * Returns the count of a point and pair of host arcs.
+	 * @param epochNo the epoch of the point.
+	 * @param idx the time index of the point in the epoch.
+	 * @param from the arc transferred from.
+	 * @param to the arc transferred to.
+	 * @return the count.
+	 */
+	public synchronized int get(int epochNo, int idx, int from, int to) {
+		return this.counts[this.epochOffsets[epochNo] + idx][from * (this.noOfArcs - 1) + (from < to ? to - 1 : to)];
+	}
+
+	/**
+	 * Writes the heatmap, one row per point.
+	 * @param out the output stream.
+	 * @throws IOException.
+	 */
+	public synchronized void write(BufferedWriter out) throws IOException {
+		out.write("#HeatMap: [colums: epochs+disc_points x rows:transfers_from_to ] (time points x Species Edge/Vertex No) = value (count(realized vertices))\n");
+		for (int[] row : this.counts) {
+			for (int c : row) {
+				out.write(c + "\t");
+			}
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * Writes the heatmap to a file.
+	 * @param f the file.
+	 * @throws IOException.
+	 */
+	public void write(File f) throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(f));
+		try {
+			this.write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Streams a realisation file line by line, creating the discretised host tree from its header.
+	 * @param f the realisation file.
+	 * @return the heatmap.
+	 * @throws IOException.
+	 * @throws NewickIOException.
+	 * @throws TopologyException.
+	 */
+	public static TransferHeatmap read(File f) throws IOException, NewickIOException, TopologyException {
+		BufferedReader in = new BufferedReader(new FileReader(f), 65536);
+		try {
+			String header = in.readLine();
+			if (header == null || !header.startsWith(HOST_TREE_HEADER)) {
+				throw new IOException("Missing host tree header in realisation file " + f + ".");
+			}
+			PrIMENewickTree raw = PrIMENewickTreeReader.readTree(header.substring(HOST_TREE_HEADER.length()), false, true);
+			RBTree s = new RBTree(raw, raw.getTreeName());
+			NamesMap names = raw.getVertexNamesMap(true, "Names");
+			TimesMap times = raw.getTimesMap("Times");
+			RBTreeEpochDiscretiser dtimes = new RBTreeEpochDiscretiser(s, names, times, raw.getTreeNMin(), raw.getTreeNMax(),
+					raw.getTreeDeltaT(), raw.getTreeNRoot());
+			TransferHeatmap heatmap = new TransferHeatmap(dtimes);
+			heatmap.addAll(in);
+			return heatmap;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package se.cbb.jprime.apps.dltrs;
+
+import java.util.Arrays;
+
+import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
+
+/**
+ * Map for storing data for each vertex u of a guest tree and each point of a discretised epoch tree,
+ * i.e., the equivalent of one <code>EpochPtMap</code> per vertex, but with all values in a single flat array.
+ * <p/>
+ * Values are stored as follows: for each vertex u, there is a contiguous block covering
+ * the times of all epochs appended after each other, and for each time,
+ * a contiguous vector of values corresponding to each arc at that time.
+ * Points are referenced by vertex u, epoch number i, time index j in epoch
+ * and arc index k in epoch, and the value resides at <code>getValues()[getOffset(u,i,j) + k]</code>.
+ * The offset tables are precomputed from the discretisation.
+ * <p/>
+ * Caching does not create any objects in the common case. For a cache of all vertices, the
+ * array is swapped with a second array of equal size, i.e., a generation of values. For a cache of certain
+ * vertices, the blocks of those vertices are copied into the second array.
+ *
+ * @author agent.
+ */
+class VertexEpochPtMap {
+
+	/**
+	 * Layout of values.
+	 */
+	private static class Layout {
+
+		/** For each epoch, the number of times. */
+		private int[] noOfTimes;
+
+		/** For each epoch, the number of arcs. */
+		private int[] noOfArcs;
+
+		/** For each epoch, the offset in a vertex's block of its first time. */
+		private int[] offsets;
+
+		/** Number of values per vertex. */
+		private int blockSize;
+
+		/**
+		 * Constructor.
+		 * @param ed the discretised tree.
+		 */
+		private Layout(RBTreeEpochDiscretiser ed) {
+			int n = ed.getNoOfEpochs();
+			this.noOfTimes = new int[n];
+			this.noOfArcs = new int[n];
+			this.offsets = new int[n];
+			this.blockSize = 0;
+			for (int i = 0; i < n; ++i) {
+				this.noOfTimes[i] = ed.getEpoch(i).getNoOfTimes();
+				this.noOfArcs[i] = ed.getEpoch(i).getNoOfArcs();
+				this.offsets[i] = this.blockSize;
+				this.blockSize += this.noOfTimes[i] * this.noOfArcs[i];
+			}
+		}
+
+		/**
+		 * Returns true if this layout corresponds to a discretised tree.
+		 * @param ed the discretised tree.
+		 * @return true if matching.
+		 */
+		private boolean matches(RBTreeEpochDiscretiser ed) {
+			if (ed.getNoOfEpochs() != this.noOfTimes.length) {
+				return false;
+			}
+			for (int i = 0; i < this.noOfTimes.length; ++i) {
+				if (ed.getEpoch(i).getNoOfTimes() != this.noOfTimes[i] || ed.getEpoch(i).getNoOfArcs() != this.noOfArcs[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/** Number of vertices. */
+	private int noOfVertices;
+
+	/** Current layout. */
+	private Layout layout;
+
+	/** Values of all points of all vertices. */
+	private double[] vals;
+
+	/** Second generation of values, holding cached values or kept for reuse. Null if not created. */
+	private double[] other = null;
+
+	/** Layout of cached values. */
+	private Layout cacheLayout = null;
+
+	/** True if all values are cached. */
+	private boolean isFullCache = false;
+
+	/** Cached vertices in case of a partial cache. */
+	private int[] cacheVertices = null;
+
+	/**
+	 * Constructor. Creates a map filled with zeros.
+	 * @param noOfVertices number of vertices of the guest tree.
+	 * @param ed the discretised tree.
+	 */
+	public VertexEpochPtMap(int noOfVertices, RBTreeEpochDiscretiser ed) {
+		this.noOfVertices = noOfVertices;
+		this.layout = new Layout(ed);
+		this.vals = new double[noOfVertices * this.layout.blockSize];
+	}
+
+	/**
+	 * Returns the array holding all current values. Note: the array is replaced by caching and restoring.
+	 * @return the values.
+	 */
+	public double[] getValues() {
+		return this.vals;
+	}
+
+	/**
+	 * Returns the index of the value of the first arc at a certain point.
+	 * @param u the vertex.
+	 * @param i the epoch index.
+	 * @param j the time index in epoch.
+	 * @return the index in the values array.
+	 */
+	public int getOffset(int u, int i, int j) {
+		return (u * this.layout.blockSize + this.layout.offsets[i] + j * this.layout.noOfArcs[i]);
+	}
+
+	/**
+	 * Returns the number of arcs of an epoch, i.e., the number of values per time.
+	 * @param i the epoch index.
+	 * @return the number of arcs.
+	 */
+	public int getNoOfArcs(int i) {
+		return this.layout.noOfArcs[i];
+	}
+
+	/**
+	 * Returns the value at a certain point.
+	 * @param u the vertex.
+	 * @param i the epoch index.
+	 * @param j the time index in epoch.
+	 * @param k the arc index in epoch.
+	 * @return the value at the point.
+	 */
+	public double get(int u, int i, int j, int k) {
+		return this.vals[this.getOffset(u, i, j) + k];
+	}
+
+	/**
+	 * Returns the topmost value of a vertex, i.e. the value at
+	 * the very last time of the last epoch.
+	 * @param u the vertex.
+	 * @return the topmost value.
+	 */
+	public double getTopmost(int u) {
+		int last = this.layout.noOfTimes.length - 1;
+		return this.vals[this.getOffset(u, last, this.layout.noOfTimes[last] - 1)];
+	}
+
+	/**
+	 * Resets all values to zero. If the discretisation has changed, the layout is updated.
+	 * @param ed the discretised tree.
+	 */
+	public void reset(RBTreeEpochDiscretiser ed) {
+		if (this.layout.matches(ed)) {
+			Arrays.fill(this.vals, 0.0);
+		} else {
+			this.layout = new Layout(ed);
+			this.vals = new double[this.noOfVertices * this.layout.blockSize];
+		}
+	}
+
+	/**
+	 * Resets the values of a vertex to zero.
+	 * @param u the vertex.
+	 */
+	public void clear(int u) {
+		int bs = this.layout.blockSize;
+		Arrays.fill(this.vals, u * bs, (u + 1) * bs, 0.0);
+	}
+
+	/**
+	 * Caches the values of certain vertices.
+	 * @param vertices the vertices. Null caches all values.
+	 */
+	public void cache(int[] vertices) {
+		if (this.other == null || this.other.length != this.vals.length) {
+			this.other = new double[this.vals.length];
+		}
+		this.cacheLayout = this.layout;
+		if (vertices == null) {
+			// Swap generations.
+			double[] tmp = this.vals;
+			this.vals = this.other;
+			this.other = tmp;
+			this.isFullCache = true;
+			this.cacheVertices = null;
+		} else {
+			int bs = this.layout.blockSize;
+			for (int u : vertices) {
+				System.arraycopy(this.vals, u * bs, this.other, u * bs, bs);
+			}
+			this.isFullCache = false;
+			this.cacheVertices = vertices;
+		}
+	}
+
+	/**
+	 * Restores the cached values.
+	 */
+	public void restoreCache() {
+		if (this.isFullCache) {
+			double[] tmp = this.vals;
+			this.vals = this.other;
+			this.other = tmp;
+			this.layout = this.cacheLayout;
+		} else if (this.cacheVertices != null) {
+			int bs = this.layout.blockSize;
+			for (int u : this.cacheVertices) {
+				System.arraycopy(this.other, u * bs, this.vals, u * bs, bs);
+			}
+		}
+		this.clearCache();
+	}
+
+	/**
+	 * Clears the cached values. The second generation is kept for reuse.
+	 */
+	public void clearCache() {
+		this.isFullCache = false;
+		this.cacheVertices = null;
+		this.cacheLayout = null;
+	}
+
+	/**
+	 * Returns a string representation of the values of a vertex.
+	 * Index 0 is printed last.
+	 * @param u the vertex.
+	 * @return a string representation.
+	 */
+	public String toString(int u) {
+		StringBuilder oss = new StringBuilder(65536);
+		for (int epi = this.layout.noOfTimes.length - 1; epi >= 0; --epi) {
+			for (int tm = this.layout.noOfTimes[epi] - 1; tm >= 0; --tm) {
+				oss.append("# (").append(epi).append(',').append(tm).append("): ");
+				int o = this.getOffset(u, epi, tm);
+				for (int e = 0; e < this.layout.noOfArcs[epi]; ++e) {
+					oss.append(this.vals[o + e]).append(' ');
+				}
+				oss.append('\n');
+			}
+		}
+		return oss.toString();
+	}
+}
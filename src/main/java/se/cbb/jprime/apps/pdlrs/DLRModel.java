@@ -3,6 +3,7 @@ package se.cbb.jprime.apps.pdlrs;
 import java.util.Arrays;
 import java.util.Map;
 import se.cbb.jprime.io.SampleLogDouble;
+import se.cbb.jprime.io.SnapshotSampleable;
 import se.cbb.jprime.math.Continuous1DPDDependent;
 import se.cbb.jprime.math.LogDouble;
 import se.cbb.jprime.mcmc.ChangeInfo;
@@ -33,7 +34,7 @@ import se.cbb.jprime.topology.TreeAlgorithms;
  * 
  * @author Joel Sjöstrand.
  */
-public class DLRModel implements InferenceModel {
+public class DLRModel implements InferenceModel, SnapshotSampleable {
 
 	/** The guest tree G. */
 	protected RootedBifurcatingTreeParameter g;
@@ -157,6 +158,21 @@ public class DLRModel implements InferenceModel {
 		return this.getDataProbability().toString();
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new LogDouble();
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		((LogDouble) snapshot).set(this.getDataProbability());
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		return snapshot.toString();
+	}
+
 	@Override
 	public LogDouble getDataProbability() {
 		return new LogDouble(this.belows.get(this.g.getRoot(), 0));
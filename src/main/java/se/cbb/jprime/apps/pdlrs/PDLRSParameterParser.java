@@ -6,8 +6,12 @@ import java.util.LinkedHashMap;
 
 import se.cbb.jprime.io.GenePseudogeneMapReader;
 import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.math.RealInterval;
 import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.mcmc.FineProposerStatistics;
 import se.cbb.jprime.mcmc.Iteration;
+import se.cbb.jprime.mcmc.NormalProposer;
+import se.cbb.jprime.mcmc.RealParameter;
 import se.cbb.jprime.misc.Triple;
 import se.cbb.jprime.topology.MPRMap;
 import se.cbb.jprime.topology.NamesMap;
@@ -84,6 +88,23 @@ public class PDLRSParameterParser extends se.cbb.jprime.apps.ParameterParser {
 		return new Triple<DoubleParameter, DoubleParameter, DupLossProbs>(dr, lr, dlProbs);
 	}
 	
+	/**
+	 * Returns a Normal proposer, but restricted to an interval. I.e., a truncated normal distribution.
+	 * @param ps parameters.
+	 * @param interval The truncation 
+	 * @param p MCMC parameter.
+	 * @param iter iterations.
+	 * @param prng PRNG.
+	 * @param tuningCV tuning CV parameter start-stop as an array in string format.
+	 * @return proposer.
+	 */
+	public static NormalProposer getTruncatedNormalProposer(PDLRSParameters ps, RealInterval interval, RealParameter p, Iteration iter, PRNG prng, String tuning) {
+		FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
+		NormalProposer proposer = new NormalProposer(p, interval, getTuningParameter(ps, iter, stats, tuning), prng);
+		proposer.setStatistics(stats);
+		return proposer;
+	}
+	
 	/**
 	 * Returns a realisation sampler.
 	 * @param ps parameters.
@@ -92,6 +92,12 @@ public class PDLRSParameters extends se.cbb.jprime.apps.Parameters {
 					+ "branch swap operation is carried out as [NNI,SPR,Rerooting].")
 	public String tuningGuestTreeMoveWeights = "[0.70,0.25,0.05]";
 
+	/** Number of threads. */
+	@Parameter(names = { "-threads",
+			"--threads" }, description = "Number of threads over which the alignment patterns are split when computing "
+					+ "the substitution model likelihood.")
+	public Integer threads = 1;
+
 	public List<String> getFiles() {
 		return files;
 	}
@@ -152,4 +158,7 @@ public class PDLRSParameters extends se.cbb.jprime.apps.Parameters {
 		return tuningGuestTreeMoveWeights;
 	}
 
+	public Integer getThreads() {
+		return threads;
+	}
 }
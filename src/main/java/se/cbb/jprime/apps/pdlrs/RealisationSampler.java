@@ -84,7 +84,40 @@ public class RealisationSampler implements Sampleable {
 	 * @throws IOException.
 	 */
 	public RealisationSampler(String filename, int noOfRealisations, Iteration iteration, PRNG prng, DLRModel model, NamesMap names) throws IOException {
-		this.out = new BufferedWriter(new FileWriter(filename));
+		this(new BufferedWriter(new FileWriter(filename)), noOfRealisations, iteration, prng, model, names);
+		
+		// Write header.
+		this.out.write("# Host tree: " + this.times.toString() + "\n");
+		if (this.noOfRealisations > 0) {
+			this.out.write("RealisationID\tSubsample\tRealisation\n");
+		}
+	}
+	
+	/**
+	 * Constructor for a sampler of another replica of the same model, e.g. for Metropolis-coupled chains.
+	 * Writes to the same output stream as an existing sampler, with the same number of realisations.
+	 * The stream is not closed by this sampler.
+	 * @param shared the sampler whose output stream is shared.
+	 * @param iteration iteration.
+	 * @param prng pseudo-random number generator.
+	 * @param model the model.
+	 * @param names leaf names of G.
+	 */
+	public RealisationSampler(RealisationSampler shared, Iteration iteration, PRNG prng, DLRModel model, NamesMap names) {
+		this(shared.out, shared.noOfRealisations, iteration, prng, model, names);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param out the output stream.
+	 * @param noOfRealisations number of realisations per sampling round.
+	 * @param iteration iteration.
+	 * @param prng pseudo-random number generator.
+	 * @param model the model.
+	 * @param names leaf names of G.
+	 */
+	private RealisationSampler(BufferedWriter out, int noOfRealisations, Iteration iteration, PRNG prng, DLRModel model, NamesMap names) {
+		this.out = out;
 		this.noOfRealisations = noOfRealisations;
 		this.iteration = iteration;
 		this.prng = prng;
@@ -97,12 +130,6 @@ public class RealisationSampler implements Sampleable {
 		this.dupLossProbs = model.dupLossProbs;
 		this.substPD = model.substPD;
 		this.atsProbs = model.ats;
-		
-		// Write header.
-		this.out.write("# Host tree: " + this.times.toString() + "\n");
-		if (this.noOfRealisations > 0) {
-			this.out.write("RealisationID\tSubsample\tRealisation\n");
-		}
 	}
 	
 	/**
@@ -7,6 +7,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.LinkedHashMap;
@@ -26,10 +27,13 @@ import se.cbb.jprime.math.PRNG;
 import se.cbb.jprime.math.RealInterval;
 import se.cbb.jprime.mcmc.DoubleParameter;
 import se.cbb.jprime.mcmc.FineProposerStatistics;
+import se.cbb.jprime.mcmc.InfoProvider;
 import se.cbb.jprime.mcmc.Iteration;
 import se.cbb.jprime.mcmc.MCMCManager;
+import se.cbb.jprime.mcmc.MultiChainManager;
 import se.cbb.jprime.mcmc.MultiProposerSelector;
 import se.cbb.jprime.mcmc.NormalProposer;
+import se.cbb.jprime.mcmc.ParallelTemperingManager;
 import se.cbb.jprime.mcmc.ProposalAcceptor;
 import se.cbb.jprime.mcmc.Proposer;
 import se.cbb.jprime.mcmc.RealParameterUniformPrior;
@@ -103,8 +107,8 @@ public class pDelirious implements JPrIMEApp {
 			
 			// ================ READ AND CREATE ALL PARAMETERS ================
 			
-			// MCMC chain output and auxiliary info.
-			SampleWriter sampler = PDLRSParameterParser.getOut(params);
+			// MCMC chain output and auxiliary info. Independent runs each have their own output.
+			SampleWriter sampler = (params.runs > 1 ? PDLRSParameterParser.getOut(params, 1) : PDLRSParameterParser.getOut(params));
 			info = PDLRSParameterParser.getInfo(params);
 			info.write("# =========================================================================\n");
 			info.write("# ||                             PRE-RUN INFO                            ||\n");
@@ -115,159 +119,58 @@ public class pDelirious implements JPrIMEApp {
 		    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
 			info.write("# Current time: " + df.format(cal.getTime()) + '\n');
 			
-			// Read S and t.
-			Triple<RBTree, NamesMap, TimesMap> sNamesTimes = PDLRSParameterParser.getHostTree(params, info);
-			
-			// Read guest-to-host leaf map.
-			GuestHostMap gsMap = PDLRSParameterParser.getGSMap(params);
-			
-			
-			// Substitution model first, then sequence alignment D and site rates.
-			SubstitutionMatrixHandler Q = SubstitutionMatrixHandlerFactory.create(params.substitutionModel, 4 * gsMap.getNoOfLeafNames());
-			LinkedHashMap<String, ? extends Sequence<? extends Compound>> sequences = PDLRSParameterParser.getMultialignment(params, Q.getSequenceType());
-			MSAData D = new MSAData(Q.getSequenceType(), sequences);
-			Pair<DoubleParameter, GammaSiteRateHandler> siteRates = PDLRSParameterParser.getSiteRates(params);
-			
 			// Pseudo-random number generator.
 			PRNG prng = PDLRSParameterParser.getPRNG(params);
 			
-			// Read/create G and l.
-			NewickRBTreeSamples guestTreeSamples = null;
-			if (params.guestTreeSet != null) {
-				Double burninProp = Double.parseDouble(params.guestTreeSetBurninProp);
-				Double minCvg = Double.parseDouble(params.guestTreeSetMinCvg);
-				if (params.guestTreeSetWithLengths) {
-					guestTreeSamples = NewickRBTreeSamples.readTreesWithLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
-							params.guestTreeSetFileRelColNo, burninProp, minCvg);
-				} else {
-					guestTreeSamples = NewickRBTreeSamples.readTreesWithoutLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
-							params.guestTreeSetFileRelColNo, burninProp, minCvg);
-				}
-			}
-			Triple<RBTree, NamesMap, DoubleMap> gNamesLengths = PDLRSParameterParser.getGuestTreeAndLengths(params, gsMap, prng, sequences, info, guestTreeSamples, D);
+			// ================ CREATE MCMC CHAIN(S) ================
 			
-			DoubleMap pgSwitches = new DoubleMap("G-PGSwitches", gNamesLengths.first.getNoOfVertices(), 1);
-			IntMap edgeModels = new IntMap("EdgeModels", gNamesLengths.first.getNoOfVertices(), 1);
-			List<Integer> leaves = gNamesLengths.first.getLeaves();
-			for(int leaf: leaves){
-				pgSwitches.set(leaf, 0.5);
-				edgeModels.set(leaf, 2);
+			if (params.resume != null && params.sampleRealisations != null) {
+				throw new IllegalArgumentException("Realisation sampling is not supported when resuming from a checkpoint.");
 			}
-			System.out.println("Gene tree have "+gNamesLengths.first.getNoOfVertices()+ " vertices");
-			
-			
-			// Read number of iterations and thinning factor.
-			Iteration iter = PDLRSParameterParser.getIteration(params);
-			Thinner thinner = PDLRSParameterParser.getThinner(params, iter);
-			
-			// Sigma (mapping between G and S).
-			MPRMap mprMap = new MPRMap(gsMap, gNamesLengths.first, gNamesLengths.second, sNamesTimes.first, sNamesTimes.second);
-			
-			// Read probability distribution for iid guest tree edge rates (molecular clock relaxation). 
-			Triple<DoubleParameter, DoubleParameter, Continuous1DPDDependent> edgeRatePD = PDLRSParameterParser.getEdgeRatePD(params);
-			
-			// Create discretisation of S.
-			RBTreeArcDiscretiser dtimes = PDLRSParameterParser.getDiscretizer(params, sNamesTimes.first, sNamesTimes.second, sNamesTimes.third, gNamesLengths.first);
-			
-			// Create reconciliation helper.
-			ReconciliationHelper rHelper = PDLRSParameterParser.getReconciliationHelper(params, gNamesLengths.first, sNamesTimes.first, dtimes, mprMap);
-			
-			// Duplication-loss probabilities over discretised S.
-			Triple<DoubleParameter, DoubleParameter, DupLossProbs> dupLoss = PDLRSParameterParser.getDupLossProbs(params, mprMap, sNamesTimes.first, gNamesLengths.first, dtimes);
-			
-			// ================ CREATE MODELS, PROPOSERS, ETC. ================
-			
-			// Priors. We only have them for parameters which might cause issues.
-			RealInterval priorRange = new RealInterval(1e-16, 1e16, false, false);
-			RealParameterUniformPrior edgeRateMeanPrior = new RealParameterUniformPrior(edgeRatePD.first, priorRange);
-			RealParameterUniformPrior edgeRateCVPrior = new RealParameterUniformPrior(edgeRatePD.second, priorRange);
-			RealParameterUniformPrior lengthsPrior = new RealParameterUniformPrior(gNamesLengths.third, priorRange);
-			
-			// Substitution model. NOTE: Root arc is turned on!!!!
-			SubstitutionModel sm = new SubstitutionModel("SubstitutionModel", D, siteRates.second, Q, gNamesLengths.first, gNamesLengths.second, gNamesLengths.third, true);
-			
-			// DLR model.
-			DLRModel dlr = new DLRModel(gNamesLengths.first, sNamesTimes.first, rHelper, gNamesLengths.third, dupLoss.third, edgeRatePD.third);
-			
-			// Realisation sampler.
-			RealisationSampler realisationSampler = PDLRSParameterParser.getRealisationSampler(params, iter, prng, dlr, gNamesLengths.second);
-			
-			// Proposers.
-			NormalProposer dupRateProposer = PDLRSParameterParser.getNormalProposer(params, dupLoss.first, iter, prng, params.tuningDupRate);
-			NormalProposer lossRateProposer = PDLRSParameterParser.getNormalProposer(params, dupLoss.second, iter, prng, params.tuningLossRate);
-			NormalProposer edgeRateMeanProposer = PDLRSParameterParser.getNormalProposer(params, edgeRatePD.first, iter, prng, params.tuningEdgeRateMean);
-			NormalProposer edgeRateCVProposer = PDLRSParameterParser.getNormalProposer(params, edgeRatePD.second, iter, prng, params.tuningEdgeRateCV);
-			NormalProposer siteRateShapeProposer = PDLRSParameterParser.getNormalProposer(params, siteRates.first, iter, prng, params.tuningSiteRateShape);
-			Proposer guestTreeProposer = PDLRSParameterParser.getBranchSwapper(params, gNamesLengths.first, gNamesLengths.third, mprMap, iter, prng, guestTreeSamples);
-			NormalProposer lengthsProposer = PDLRSParameterParser.getNormalProposer(params, gNamesLengths.third, iter, prng, params.tuningLengths);
-			double[] lengthsWeights = SampleDoubleArray.toDoubleArray(params.tuningLengthsSelectorWeights);
-			lengthsProposer.setSubParameterWeights(lengthsWeights);
-			
-			// Proposer selector.
-			MultiProposerSelector selector = PDLRSParameterParser.getSelector(params, prng);
-			selector.add(dupRateProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightDupRate, iter));
-			selector.add(lossRateProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightLossRate, iter));
-			selector.add(edgeRateMeanProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateMean, iter));
-			selector.add(edgeRateCVProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateCV, iter));
-			selector.add(siteRateShapeProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightSiteRateShape, iter));
-			selector.add(guestTreeProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightG, iter));
-			selector.add(lengthsProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightLengths, iter));
-			
-			// Inactivate fixed proposers.
-			if (params.dupRate != null        && params.dupRate.matches("FIXED|Fixed|fixed"))        { dupRateProposer.setEnabled(false); }
-			if (params.lossRate != null       && params.lossRate.matches("FIXED|Fixed|fixed"))       { lossRateProposer.setEnabled(false); }
-			if (params.edgeRatePDMean != null && params.edgeRatePDMean.matches("FIXED|Fixed|fixed")) { edgeRateMeanProposer.setEnabled(false); }
-			if (params.edgeRatePDCV != null   && params.edgeRatePDCV.matches("FIXED|Fixed|fixed"))   { edgeRateCVProposer.setEnabled(false); }
-			if (params.siteRateCats == 1      || params.siteRateShape.matches("FIXED|Fixed|fixed"))  { siteRateShapeProposer.setEnabled(false); }
-			if (params.guestTreeFixed)                                                               { guestTreeProposer.setEnabled(false); }
-			if (params.lengthsFixed)                                                                 { lengthsProposer.setEnabled(false); }
-			
-			// Proposal acceptor.
-			ProposalAcceptor acceptor = PDLRSParameterParser.getAcceptor(params, prng);
-			
-			// Overall statistics.
-			FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
-			
-			// ================ SETUP MCMC HIERARCHY ================
-			
-			MCMCManager manager = new MCMCManager(iter, thinner, selector, acceptor, sampler, prng, stats);
-			manager.setDebugMode(params.debug);
-			
-			manager.addModel(edgeRateMeanPrior);
-			manager.addModel(edgeRateCVPrior);
-			manager.addModel(lengthsPrior);
-			manager.addModel(sm);
-			manager.addModel(dlr);
-			
-			manager.addSampleable(iter);
-			manager.addSampleable(manager);			// Overall likelihood.
-			//manager.addSampleable(edgeRateMeanPrior);
-			//manager.addSampleable(edgeRateCVPrior);
-			//manager.addSampleable(lengthsPrior);
-			manager.addSampleable(sm);
-			manager.addSampleable(dlr);
-			manager.addSampleable(dupLoss.first);
-			manager.addSampleable(dupLoss.second);
-			manager.addSampleable(edgeRatePD.first);
-			manager.addSampleable(edgeRatePD.second);
-			if (siteRateShapeProposer.isEnabled()) {
-				manager.addSampleable(siteRates.first);
-			}
-			manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second));
-			if (params.outputLengths) {
-				manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second, gNamesLengths.third));
+			Pair<MCMCManager, RealisationSampler> chain = createChain(params, sampler, info, prng, null);
+			MCMCManager manager = chain.first;
+			RealisationSampler realisationSampler = chain.second;
+			
+			// Additional Metropolis-coupled chains, if any.
+			ParallelTemperingManager ptManager = PDLRSParameterParser.getParallelTemperingManager(params, sampler, prng);
+			if (ptManager != null) {
+				ptManager.addChain(manager);
+				BufferedWriter noInfo = new BufferedWriter(new StringWriter());
+				for (int i = 1; i < params.chains; ++i) {
+					ptManager.addChain(createChain(params, sampler, noInfo, ptManager.getReplicaPRNG(), chain).first);
+				}
 			}
-			if (realisationSampler != null) {
-				manager.addSampleable(realisationSampler);
+			
+			// Additional independent runs, if any.
+			MultiChainManager mcManager = PDLRSParameterParser.getMultiChainManager(params, prng, info);
+			ArrayList<SampleWriter> runSamplers = new ArrayList<SampleWriter>();
+			if (mcManager != null) {
+				if (params.sampleRealisations != null) {
+					throw new IllegalArgumentException("Realisation sampling is not supported for multiple independent runs.");
+				}
+				mcManager.addChain(manager);
+				BufferedWriter noInfo = new BufferedWriter(new StringWriter());
+				for (int r = 2; r <= params.runs; ++r) {
+					SampleWriter runSampler = PDLRSParameterParser.getOut(params, r);
+					runSamplers.add(runSampler);
+					mcManager.addChain(createChain(params, runSampler, noInfo, mcManager.getChainPRNG(), null).first);
+				}
 			}
+			InfoProvider topManager = (ptManager != null ? ptManager : (mcManager != null ? mcManager : manager));
 			
 			// ================ WRITE PRE-INFO ================
 			info.write("# MCMC manager:\n");
-			info.write(manager.getPreInfo("# \t"));
+			info.write(topManager.getPreInfo("# \t"));
 			info.flush();   // Don't close, maybe use stdout for both sampling and info...
 			
 			// ================ RUN ================
-			manager.run();
+			if (ptManager != null) {
+				ptManager.run();
+			} else if (mcManager != null) {
+				mcManager.run();
+			} else {
+				manager.run();
+			}
 			
 			// ================ WRITE POST-INFO ================
 			info.write("# =========================================================================\n");
@@ -275,9 +178,10 @@ public class pDelirious implements JPrIMEApp {
 			info.write("# =========================================================================\n");
 			info.write("# pDELIRIOUS\n");
 			info.write("# MCMC manager:\n");
-			info.write(manager.getPostInfo("# \t"));
+			info.write(topManager.getPostInfo("# \t"));
 			info.flush();
 			sampler.close();
+			for (SampleWriter runSampler : runSamplers) { runSampler.close(); }
 			info.close();
 			if (realisationSampler != null) { realisationSampler.close(); }
 			
@@ -301,5 +205,174 @@ public class pDelirious implements JPrIMEApp {
 		}
 	}
 	
-	
+	/**
+	 * Reads the data and creates all parameters, models, proposers, etc. of an MCMC chain.
+	 * Invoked once for every Metropolis-coupled chain or independent run, so that each chain has its own objects.
+	 * @param params parameters.
+	 * @param sampler output of drawn samples.
+	 * @param info auxiliary info output.
+	 * @param prng PRNG of the chain.
+	 * @param first the first chain and its realisation sampler when creating an additional Metropolis-coupled
+	 *        chain; null when creating the first chain.
+	 * @return the chain and its realisation sampler (null if realisations are not sampled).
+	 * @throws Exception.
+	 */
+	private Pair<MCMCManager, RealisationSampler> createChain(PDLRSParameters params, SampleWriter sampler, BufferedWriter info,
+			PRNG prng, Pair<MCMCManager, RealisationSampler> first) throws Exception {
+		// Read S and t.
+		Triple<RBTree, NamesMap, TimesMap> sNamesTimes = PDLRSParameterParser.getHostTree(params, info);
+		
+		// Read guest-to-host leaf map.
+		GuestHostMap gsMap = PDLRSParameterParser.getGSMap(params);
+		
+		
+		// Substitution model first, then sequence alignment D and site rates.
+		SubstitutionMatrixHandler Q = SubstitutionMatrixHandlerFactory.create(params.substitutionModel, 4 * gsMap.getNoOfLeafNames());
+		LinkedHashMap<String, ? extends Sequence<? extends Compound>> sequences = PDLRSParameterParser.getMultialignment(params, Q.getSequenceType());
+		MSAData D = new MSAData(Q.getSequenceType(), sequences);
+		Pair<DoubleParameter, GammaSiteRateHandler> siteRates = PDLRSParameterParser.getSiteRates(params);
+		
+		// Read/create G and l.
+		NewickRBTreeSamples guestTreeSamples = null;
+		if (params.guestTreeSet != null) {
+			Double burninProp = Double.parseDouble(params.guestTreeSetBurninProp);
+			Double minCvg = Double.parseDouble(params.guestTreeSetMinCvg);
+			if (params.guestTreeSetWithLengths) {
+				guestTreeSamples = NewickRBTreeSamples.readTreesWithLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
+						params.guestTreeSetFileRelColNo, burninProp, minCvg);
+			} else {
+				guestTreeSamples = NewickRBTreeSamples.readTreesWithoutLengths(new File(params.guestTreeSet), params.guestTreeSetFileHasHeader,
+						params.guestTreeSetFileRelColNo, burninProp, minCvg);
+			}
+		}
+		Triple<RBTree, NamesMap, DoubleMap> gNamesLengths = PDLRSParameterParser.getGuestTreeAndLengths(params, gsMap, prng, sequences, info, guestTreeSamples, D);
+		
+		DoubleMap pgSwitches = new DoubleMap("G-PGSwitches", gNamesLengths.first.getNoOfVertices(), 1);
+		IntMap edgeModels = new IntMap("EdgeModels", gNamesLengths.first.getNoOfVertices(), 1);
+		List<Integer> leaves = gNamesLengths.first.getLeaves();
+		for(int leaf: leaves){
+			pgSwitches.set(leaf, 0.5);
+			edgeModels.set(leaf, 2);
+		}
+		System.out.println("Gene tree have "+gNamesLengths.first.getNoOfVertices()+ " vertices");
+		
+		
+		// Read number of iterations and thinning factor.
+		Iteration iter = PDLRSParameterParser.getIteration(params);
+		Thinner thinner = PDLRSParameterParser.getThinner(params, iter);
+		
+		// Sigma (mapping between G and S).
+		MPRMap mprMap = new MPRMap(gsMap, gNamesLengths.first, gNamesLengths.second, sNamesTimes.first, sNamesTimes.second);
+		
+		// Read probability distribution for iid guest tree edge rates (molecular clock relaxation). 
+		Triple<DoubleParameter, DoubleParameter, Continuous1DPDDependent> edgeRatePD = PDLRSParameterParser.getEdgeRatePD(params);
+		
+		// Create discretisation of S.
+		RBTreeArcDiscretiser dtimes = PDLRSParameterParser.getDiscretizer(params, sNamesTimes.first, sNamesTimes.second, sNamesTimes.third, gNamesLengths.first);
+		
+		// Create reconciliation helper.
+		ReconciliationHelper rHelper = PDLRSParameterParser.getReconciliationHelper(params, gNamesLengths.first, sNamesTimes.first, dtimes, mprMap);
+		
+		// Duplication-loss probabilities over discretised S.
+		Triple<DoubleParameter, DoubleParameter, DupLossProbs> dupLoss = PDLRSParameterParser.getDupLossProbs(params, mprMap, sNamesTimes.first, gNamesLengths.first, dtimes);
+		
+		// ================ CREATE MODELS, PROPOSERS, ETC. ================
+		
+		// Priors. We only have them for parameters which might cause issues.
+		RealInterval priorRange = new RealInterval(1e-16, 1e16, false, false);
+		RealParameterUniformPrior edgeRateMeanPrior = new RealParameterUniformPrior(edgeRatePD.first, priorRange);
+		RealParameterUniformPrior edgeRateCVPrior = new RealParameterUniformPrior(edgeRatePD.second, priorRange);
+		RealParameterUniformPrior lengthsPrior = new RealParameterUniformPrior(gNamesLengths.third, priorRange);
+		
+		// Substitution model. NOTE: Root arc is turned on!!!!
+		SubstitutionModel sm = new SubstitutionModel("SubstitutionModel", D, siteRates.second, Q, gNamesLengths.first, gNamesLengths.second, gNamesLengths.third, true, params.threads);
+		
+		// DLR model.
+		DLRModel dlr = new DLRModel(gNamesLengths.first, sNamesTimes.first, rHelper, gNamesLengths.third, dupLoss.third, edgeRatePD.third);
+		
+		// Realisation sampler.
+		RealisationSampler realisationSampler = (first == null ? PDLRSParameterParser.getRealisationSampler(params, iter, prng, dlr, gNamesLengths.second) :
+			(first.second == null ? null : new RealisationSampler(first.second, iter, prng, dlr, gNamesLengths.second)));
+		
+		// Proposers.
+		NormalProposer dupRateProposer = PDLRSParameterParser.getNormalProposer(params, dupLoss.first, iter, prng, params.tuningDupRate);
+		NormalProposer lossRateProposer = PDLRSParameterParser.getNormalProposer(params, dupLoss.second, iter, prng, params.tuningLossRate);
+		NormalProposer edgeRateMeanProposer = PDLRSParameterParser.getNormalProposer(params, edgeRatePD.first, iter, prng, params.tuningEdgeRateMean);
+		NormalProposer edgeRateCVProposer = PDLRSParameterParser.getNormalProposer(params, edgeRatePD.second, iter, prng, params.tuningEdgeRateCV);
+		NormalProposer siteRateShapeProposer = PDLRSParameterParser.getNormalProposer(params, siteRates.first, iter, prng, params.tuningSiteRateShape);
+		Proposer guestTreeProposer = PDLRSParameterParser.getBranchSwapper(params, gNamesLengths.first, gNamesLengths.third, mprMap, iter, prng, guestTreeSamples);
+		RealInterval lengthsBounds = new RealInterval(0, 10, true, true); // Branchlengths should be limited to this open (true, true) interval. Main point: do no allow lengths >10.
+		NormalProposer lengthsProposer = PDLRSParameterParser.getTruncatedNormalProposer(params, lengthsBounds, gNamesLengths.third, iter, prng, params.tuningLengths);
+		double[] lengthsWeights = SampleDoubleArray.toDoubleArray(params.tuningLengthsSelectorWeights);
+		lengthsProposer.setSubParameterWeights(lengthsWeights);
+		
+		// Proposer selector.
+		MultiProposerSelector selector = PDLRSParameterParser.getSelector(params, prng);
+		selector.add(dupRateProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightDupRate, iter));
+		selector.add(lossRateProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightLossRate, iter));
+		selector.add(edgeRateMeanProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateMean, iter));
+		selector.add(edgeRateCVProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightEdgeRateCV, iter));
+		selector.add(siteRateShapeProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightSiteRateShape, iter));
+		selector.add(guestTreeProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightG, iter));
+		selector.add(lengthsProposer, PDLRSParameterParser.getProposerWeight(params.tuningWeightLengths, iter));
+		PDLRSParameterParser.addBranchLengthGridProposer(params, selector, sm, lengthsBounds, iter, prng);
+		PDLRSParameterParser.setAdaptiveWeights(params, selector, iter);
+		
+		// Inactivate fixed proposers.
+		if (params.dupRate != null        && params.dupRate.matches("FIXED|Fixed|fixed"))        { dupRateProposer.setEnabled(false); }
+		if (params.lossRate != null       && params.lossRate.matches("FIXED|Fixed|fixed"))       { lossRateProposer.setEnabled(false); }
+		if (params.edgeRatePDMean != null && params.edgeRatePDMean.matches("FIXED|Fixed|fixed")) { edgeRateMeanProposer.setEnabled(false); }
+		if (params.edgeRatePDCV != null   && params.edgeRatePDCV.matches("FIXED|Fixed|fixed"))   { edgeRateCVProposer.setEnabled(false); }
+		if (params.siteRateCats == 1      || params.siteRateShape.matches("FIXED|Fixed|fixed"))  { siteRateShapeProposer.setEnabled(false); }
+		if (params.guestTreeFixed)                                                               { guestTreeProposer.setEnabled(false); }
+		if (params.lengthsFixed)                                                                 { lengthsProposer.setEnabled(false); }
+		
+		// Proposal acceptor.
+		ProposalAcceptor acceptor = PDLRSParameterParser.getAcceptor(params, prng);
+		
+		// Overall statistics.
+		FineProposerStatistics stats = new FineProposerStatistics(iter, 8);
+		
+		// ================ SETUP MCMC HIERARCHY ================
+		
+		MCMCManager manager = new MCMCManager(iter, thinner, selector, acceptor, sampler, prng, stats);
+		manager.setDebugMode(params.debug);
+		manager.setConcurrentUpdates(params.concurrentUpdates);
+		manager.setEarlyAbort(params.earlyAbort);
+		if (first == null) {
+			PDLRSParameterParser.setCheckpointing(params, manager);
+			PDLRSParameterParser.setMetrics(params, manager);
+		}
+		
+		manager.addModel(edgeRateMeanPrior);
+		manager.addModel(edgeRateCVPrior);
+		manager.addModel(lengthsPrior);
+		manager.addModel(sm);
+		manager.addModel(dlr);
+		
+		manager.addSampleable(iter);
+		manager.addSampleable(manager);			// Overall likelihood.
+		//manager.addSampleable(edgeRateMeanPrior);
+		//manager.addSampleable(edgeRateCVPrior);
+		//manager.addSampleable(lengthsPrior);
+		manager.addSampleable(sm);
+		manager.addSampleable(dlr);
+		manager.addSampleable(dupLoss.first);
+		manager.addSampleable(dupLoss.second);
+		manager.addSampleable(edgeRatePD.first);
+		manager.addSampleable(edgeRatePD.second);
+		if (siteRateShapeProposer.isEnabled()) {
+			manager.addSampleable(siteRates.first);
+		}
+		manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second));
+		if (params.outputLengths) {
+			manager.addSampleable(new RBTreeSampleWrapper(gNamesLengths.first, gNamesLengths.second, gNamesLengths.third));
+		}
+		if (realisationSampler != null) {
+			manager.addSampleable(realisationSampler);
+		}
+		
+		return new Pair<MCMCManager, RealisationSampler>(manager, realisationSampler);
+	}
+
 }
@@ -0,0 +1,296 @@
+package se.cbb.jprime.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Sample writer which formats and writes samples on a background thread. When sampling, the MCMC thread
+ * only copies the current state into a slot of a preallocated ring buffer, after which the writer thread
+ * formats the slot and writes it. Sampleables implementing <code>SnapshotSampleable</code> are copied
+ * as primitive state; for other sampleables, the sample value string is retrieved on the MCMC thread.
+ * <p/>
+ * When the ring buffer is full, sampling blocks until the writer thread has caught up. Writing strings,
+ * flushing and closing first wait for all pending samples to be written, so the output is identical
+ * to that of an ordinary <code>SampleWriter</code>. Pending samples are also drained upon JVM shutdown, e.g.
+ * on SIGTERM. An I/O error on the writer thread is rethrown on the next invocation by the MCMC thread.
+ * <p/>
+ * Snapshots are created once per slot and list of sampleables, so that several chains, e.g. Metropolis-coupled
+ * replicas taking turns at being sampled, may share the writer.
+ *
+ * @author agent.
+ */
+public class AsyncSampleWriter extends SampleWriter {
+
+	/**
+	 * Ring buffer slot.
+	 */
+	private static class Slot {
+
+		/** Sampleables of the sample. */
+		private List<Sampleable> sampleables = null;
+
+		/** Snapshots of snapshot sampleables. Null for other sampleables. */
+		private Object[] snapshots = null;
+
+		/** Sample values. Set on the MCMC thread for other sampleables. */
+		private String[] values = new String[0];
+
+		/** Snapshots of each list of sampleables seen so far. */
+		private IdentityHashMap<List<Sampleable>, Object[]> snapshotsOfLists = new IdentityHashMap<List<Sampleable>, Object[]>(4);
+
+		/**
+		 * Prepares the slot for a sample of a list of sampleables.
+		 * @param sampleables the sampleables.
+		 */
+		private void setSampleables(List<Sampleable> sampleables) {
+			if (this.sampleables == sampleables) { return; }
+			this.sampleables = sampleables;
+			this.snapshots = this.snapshotsOfLists.get(sampleables);
+			if (this.snapshots == null) {
+				this.snapshots = new Object[sampleables.size()];
+				for (int i = 0; i < this.snapshots.length; ++i) {
+					if (sampleables.get(i) instanceof SnapshotSampleable) {
+						this.snapshots[i] = ((SnapshotSampleable) sampleables.get(i)).createSnapshot();
+					}
+				}
+				this.snapshotsOfLists.put(sampleables, this.snapshots);
+			}
+			if (this.values.length != sampleables.size()) {
+				this.values = new String[sampleables.size()];
+			}
+		}
+	}
+
+	/** Ring buffer. */
+	private Slot[] slots;
+
+	/** Ring buffer capacity. */
+	private int capacity;
+
+	/** Index of the next slot to fill. */
+	private int head = 0;
+
+	/** Index of the next slot to write. */
+	private int tail = 0;
+
+	/** Number of filled slots, including the one being written. */
+	private int count = 0;
+
+	/** True when closed. */
+	private boolean isClosed = false;
+
+	/** Error of the writer thread. */
+	private IOException error = null;
+
+	/** Writer thread. */
+	private Thread writer;
+
+	/** Shutdown hook draining pending samples. */
+	private Thread shutdownHook;
+
+	/**
+	 * Constructor.
+	 * @param out stream to sample to.
+	 * @param flushFactor governs how often automatic sampling is performed.
+	 * @param capacity ring buffer capacity, i.e., maximum number of pending samples.
+	 */
+	public AsyncSampleWriter(BufferedWriter out, int flushFactor, int capacity) {
+		super(out, flushFactor);
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid ring buffer capacity for asynchronous sample writer.");
+		}
+		this.capacity = capacity;
+		this.slots = new Slot[capacity];
+		for (int k = 0; k < capacity; ++k) {
+			this.slots[k] = new Slot();
+		}
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				AsyncSampleWriter.this.runWriter();
+			}
+		}, "AsyncSampleWriter");
+		this.writer.setDaemon(true);
+		this.writer.start();
+		this.shutdownHook = new Thread() {
+			@Override
+			public void run() {
+				try {
+					AsyncSampleWriter.this.drain();
+					AsyncSampleWriter.super.flush();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+	}
+
+	/**
+	 * Constructor. Uses the default encoding and a fairly high default buffer size.
+	 * @param f the file to write to.
+	 * @param flushFactor governs how often automatic sampling is performed.
+	 * @param append true to append to the file, e.g. when resuming a chain; false to overwrite it.
+	 * @param capacity ring buffer capacity, i.e., maximum number of pending samples.
+	 * @throws IOException if output stream cannot be connected to f.
+	 */
+	public AsyncSampleWriter(File f, int flushFactor, boolean append, int capacity) throws IOException {
+		this(new BufferedWriter(new FileWriter(f, append), DEFAULT_BUFFER_SIZE), flushFactor, capacity);
+	}
+
+	@Override
+	public void writeSampleHeader(List<Sampleable> sampleables) throws IOException {
+		this.drain();
+		super.writeSampleHeader(sampleables);
+	}
+
+	@Override
+	public void writeSample(List<Sampleable> sampleables, Sampleable.SamplingMode mode) throws IOException {
+		Slot slot;
+		synchronized (this) {
+			while (this.count == this.capacity && this.error == null) {
+				this.await();
+			}
+			this.checkError();
+			slot = this.slots[this.head];
+		}
+
+		// Copy the state. The slot is not accessed by the writer thread until published.
+		slot.setSampleables(sampleables);
+		for (int i = 0; i < slot.values.length; ++i) {
+			Sampleable s = sampleables.get(i);
+			if (slot.snapshots[i] != null) {
+				((SnapshotSampleable) s).copySnapshot(slot.snapshots[i], mode);
+			} else {
+				slot.values[i] = s.getSampleValue(mode);
+			}
+		}
+
+		// Publish.
+		synchronized (this) {
+			this.head = (this.head + 1) % this.capacity;
+			this.count++;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Main loop of the writer thread.
+	 */
+	private void runWriter() {
+		while (true) {
+			Slot slot;
+			synchronized (this) {
+				while (this.count == 0 && !this.isClosed) {
+					this.await();
+				}
+				if (this.count == 0) {
+					return;
+				}
+				slot = this.slots[this.tail];
+			}
+
+			// Format and write.
+			try {
+				String[] sample = new String[slot.values.length];
+				for (int i = 0; i < sample.length; ++i) {
+					sample[i] = (slot.snapshots[i] != null ?
+							((SnapshotSampleable) slot.sampleables.get(i)).getSnapshotValue(slot.snapshots[i]) : slot.values[i]);
+					slot.values[i] = null;
+				}
+				this.writeValues(this.getConcise() != null ? this.abbreviate(sample) : sample);
+			} catch (IOException e) {
+				synchronized (this) {
+					this.error = e;
+				}
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					this.error = new IOException("Could not write sample.", e);
+				}
+			}
+
+			// Release the slot.
+			synchronized (this) {
+				this.tail = (this.tail + 1) % this.capacity;
+				this.count--;
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits for notification, treating interruption as a request to stop waiting.
+	 */
+	private void await() {
+		try {
+			this.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(new InterruptedIOException("Interrupted while waiting for asynchronous sample writer."));
+		}
+	}
+
+	/**
+	 * Rethrows any error of the writer thread.
+	 * @throws IOException.
+	 */
+	private void checkError() throws IOException {
+		if (this.error != null) {
+			IOException e = this.error;
+			this.error = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until all pending samples have been written.
+	 * @throws IOException if the writer thread failed.
+	 */
+	public synchronized void drain() throws IOException {
+		while (this.count > 0) {
+			this.await();
+		}
+		this.checkError();
+	}
+
+	@Override
+	public void writeString(String str) throws IOException {
+		this.drain();
+		super.writeString(str);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.drain();
+		super.flush();
+	}
+
+	/**
+	 * Writes all pending samples, stops the writer thread and closes the underlying output stream.
+	 * @throws IOException.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.drain();
+		synchronized (this) {
+			this.isClosed = true;
+			this.notifyAll();
+		}
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+		} catch (IllegalStateException e) {
+			// Shutdown already in progress.
+		}
+		super.close();
+	}
+}
@@ -9,7 +9,7 @@ import se.cbb.jprime.topology.RBTree;
  * 
  * @author Joel Sjöstrand.
  */
-public class RBTreeSampleWrapper implements Sampleable {
+public class RBTreeSampleWrapper implements SnapshotSampleable {
 
 	/** Tree. */
 	private RBTree tree;
@@ -41,6 +41,22 @@ public class RBTreeSampleWrapper implements Sampleable {
 		this.lengths = lengths;
 	}
 	
+	/**
+	 * Returns the tree.
+	 * @return the tree.
+	 */
+	public RBTree getTree() {
+		return this.tree;
+	}
+	
+	/**
+	 * Returns the names of the tree.
+	 * @return the names.
+	 */
+	public NamesMap getNamesMap() {
+		return this.names;
+	}
+	
 	@Override
 	public Class<?> getSampleType() {
 		return SampleNewickTree.class;
@@ -63,4 +79,31 @@ public class RBTreeSampleWrapper implements Sampleable {
 		}
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new Object[] { new RBTree(this.tree), (this.lengths == null ? null : new DoubleMap(this.lengths)) };
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		Object[] s = (Object[]) snapshot;
+		((RBTree) s[0]).copyTopology(this.tree);
+		if (this.lengths != null) {
+			((DoubleMap) s[1]).copyValues(this.lengths);
+		}
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		Object[] s = (Object[]) snapshot;
+		try {
+			if (this.lengths == null) {
+				return SampleNewickTree.toString((RBTree) s[0], names);
+			}
+			return SampleNewickTree.toString((RBTree) s[0], names, (DoubleMap) s[1]);
+		} catch (NewickIOException ex) {
+			throw new RuntimeException("Could not assemble Newick tree from RBTree.");
+		}
+	}
+
 }
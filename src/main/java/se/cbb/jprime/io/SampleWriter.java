@@ -84,6 +84,17 @@ public class SampleWriter implements Sampler {
 		this(new BufferedWriter(new FileWriter(f), DEFAULT_BUFFER_SIZE), flushFactor);
 	}
 	
+	/**
+	 * Constructor. Uses the default encoding and a fairly high default buffer size.
+	 * @param f the file to write to.
+	 * @param flushFactor governs how often automatic sampling is performed.
+	 * @param append true to append to the file, e.g. when resuming a chain; false to overwrite it.
+	 * @throws IOException if output stream cannot be connected to f.
+	 */
+	public SampleWriter(File f, int flushFactor, boolean append) throws IOException {
+		this(new BufferedWriter(new FileWriter(f, append), DEFAULT_BUFFER_SIZE), flushFactor);
+	}
+	
 	/**
 	 * Constructor. Uses the desired buffer size.
 	 * @param f the file to write to.
@@ -147,8 +158,15 @@ public class SampleWriter implements Sampler {
 	
 	@Override
 	public void writeSample(List<Sampleable> sampleables, Sampleable.SamplingMode mode) throws IOException {
-		String[] sample = this.getValue(sampleables, this.conciseSymbol != null, mode);
-		
+		this.writeValues(this.getValue(sampleables, this.conciseSymbol != null, mode));
+	}
+	
+	/**
+	 * Writes a sample consisting of already retrieved values, possibly abbreviated.
+	 * @param sample the sample values.
+	 * @throws IOException.
+	 */
+	protected void writeValues(String[] sample) throws IOException {
 		for (int i = 0; i < sample.length - 1; ++i) {
 			this.out.write(sample[i]);
 			this.out.write(this.delim);
@@ -168,6 +186,7 @@ public class SampleWriter implements Sampler {
 	 * Flushes the underlying output stream.
 	 * @throws IOException.
 	 */
+	@Override
 	public void flush() throws IOException {
 		this.out.flush();
 	}
@@ -195,22 +214,27 @@ public class SampleWriter implements Sampler {
 		for (int i = 0; i < sample.length; ++i) {
 			sample[i] = sampleables.get(i).getSampleValue(mode);
 		}
-		
-		// If desired, exchange unchanged parameters for symbol.
-		if (doConcise) {
-			if (this.lastSample == null) {
-				this.lastSample = sample;
-			} else {
-				for (int i = 0; i < sample.length; ++i) {
-					if (sample[i].equals(this.lastSample[i])) {
-						this.lastSample[i] = this.conciseSymbol;
-					} else {
-						this.lastSample[i] = sample[i];
-					}
-					String[] tmp = this.lastSample;
-					this.lastSample = sample;    // lastSample now up-to-date and non-abbreviated.
-					sample = tmp;                // sample now abbreviated.
+		return (doConcise ? this.abbreviate(sample) : sample);
+	}
+	
+	/**
+	 * Exchanges the parts of a sample unchanged since the previous sample for the concise symbol.
+	 * @param sample the sample values.
+	 * @return the abbreviated sample.
+	 */
+	protected String[] abbreviate(String[] sample) {
+		if (this.lastSample == null) {
+			this.lastSample = sample;
+		} else {
+			for (int i = 0; i < sample.length; ++i) {
+				if (sample[i].equals(this.lastSample[i])) {
+					this.lastSample[i] = this.conciseSymbol;
+				} else {
+					this.lastSample[i] = sample[i];
 				}
+				String[] tmp = this.lastSample;
+				this.lastSample = sample;    // lastSample now up-to-date and non-abbreviated.
+				sample = tmp;                // sample now abbreviated.
 			}
 		}
 		return sample;
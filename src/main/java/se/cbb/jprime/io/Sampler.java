@@ -34,6 +34,12 @@ public interface Sampler {
 	 */
 	public void writeString(String str) throws IOException;
 	
+	/**
+	 * Flushes any buffered output.
+	 * @throws IOException.
+	 */
+	public void flush() throws IOException;
+	
 	/**
 	 * Returns the sample header.
 	 * @param sampleables the objects to sample from (processed in list order).
@@ -0,0 +1,35 @@
+package se.cbb.jprime.io;
+
+/**
+ * Interface for sampleable objects which can copy their current state into a preallocated snapshot,
+ * to be formatted later, possibly by another thread. This is used by <code>AsyncSampleWriter</code>
+ * to keep formatting out of the MCMC thread.
+ * <p/>
+ * For any snapshot, <code>getSnapshotValue(...)</code> must return exactly what <code>getSampleValue(...)</code>
+ * would have returned at the time the snapshot was copied.
+ *
+ * @author agent.
+ */
+public interface SnapshotSampleable extends Sampleable {
+
+	/**
+	 * Creates a snapshot object large enough to hold the state of this object.
+	 * @return the snapshot.
+	 */
+	public Object createSnapshot();
+
+	/**
+	 * Copies the current state into a snapshot. Should not create any objects.
+	 * @param snapshot a snapshot previously created by this object.
+	 * @param mode sampling mode.
+	 */
+	public void copySnapshot(Object snapshot, SamplingMode mode);
+
+	/**
+	 * Returns the sample value of a snapshot. May be invoked by another thread than the one
+	 * which copied the snapshot.
+	 * @param snapshot the snapshot.
+	 * @return the value.
+	 */
+	public String getSnapshotValue(Object snapshot);
+}
@@ -94,6 +94,70 @@ public final class LogDouble implements Comparable<LogDouble> {
 		}
 	}
 	
+	/**
+	 * Sets this LogDouble to a value. Does not yield a new instance.
+	 * @param d the actual value, i.e. non-logged.
+	 * @return this LogDouble, not a new instance.
+	 */
+	public LogDouble set(double d) {
+		assert !Double.isNaN(d);
+		this.sign = signOf(d);
+		this.p = logAbs(d);
+		return this;
+	}
+	
+	/**
+	 * Sets this LogDouble to the value of another LogDouble. Does not yield a new instance.
+	 * @param q the LogDouble to copy.
+	 * @return this LogDouble, not a new instance.
+	 */
+	public LogDouble set(LogDouble q) {
+		assert !Double.isNaN(q.p);
+		this.p = q.p;
+		this.sign = q.sign;
+		return this;
+	}
+	
+	/**
+	 * Sets this LogDouble from an already logged value. Does not yield a new instance.
+	 * @param logProb the log-value. Of no importance if sign == 0.
+	 * @param sign the sign: 1 = positive, 0 = zero, -1 = negative.
+	 * @return this LogDouble, not a new instance.
+	 */
+	public LogDouble set(double logProb, int sign) {
+		assert !Double.isNaN(logProb);
+		assert (sign >= -1 && sign <= 1);
+		if (sign == 0) {
+			this.p = Double.NEGATIVE_INFINITY;    // Dummy.
+			this.sign = 0;
+		} else {
+			this.p = logProb;
+			this.sign = (sign < 0 ? -1 : 1);
+		}
+		return this;
+	}
+	
+	/**
+	 * Helper. Returns the sign of a double, as stored in a LogDouble.
+	 * @param d the value.
+	 * @return the sign: 1 = positive, 0 = zero, -1 = negative.
+	 */
+	private static int signOf(double d) {
+		return (d > 0.0 ? 1 : (d == 0.0 ? 0 : -1));
+	}
+	
+	/**
+	 * Helper. Returns log(|d|) of a double, as stored in a LogDouble.
+	 * @param d the value.
+	 * @return the log-value; Double.NEGATIVE_INFINITY if d is 0.
+	 */
+	private static double logAbs(double d) {
+		if (d > 0.0) {
+			return Math.log(d);
+		}
+		return (d == 0.0 ? Double.NEGATIVE_INFINITY : Math.log(-d));
+	}
+	
 	/**
 	 * Returns log(|v|) for the actual value v. If v==sign==0, the returned
 	 * value may be anything (although commonly Double.NEGATIVE_INFINITY).
@@ -261,8 +325,18 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return this LogDouble, not a new instance.
 	 */
 	public LogDouble mult(LogDouble q) {
-		this.sign *= q.sign;
-		this.p = (this.sign == 0 ? 0.0 : this.p + q.p);
+		return this.mult(q.p, q.sign);
+	}
+	
+	/**
+	 * Helper. Multiplies this LogDouble with a value in log-form.
+	 * @param qp the log-value.
+	 * @param qs the sign.
+	 * @return this LogDouble, not a new instance.
+	 */
+	private LogDouble mult(double qp, int qs) {
+		this.sign *= qs;
+		this.p = (this.sign == 0 ? 0.0 : this.p + qp);
 		assert !Double.isNaN(this.p);
 		//assert !Double.isInfinite(this.p);
 		return this;
@@ -275,7 +349,8 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return this LogDouble, not a new instance.
 	 */
 	public LogDouble mult(double q) {
-		return this.mult(new LogDouble(q));
+		assert !Double.isNaN(q);
+		return this.mult(logAbs(q), signOf(q));
 	}
 	
 	/**
@@ -305,11 +380,21 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return this LogDouble, not a new instance.
 	 */
 	public LogDouble div(LogDouble q) {
-		if (q.sign == 0) {
+		return this.div(q.p, q.sign);
+	}
+	
+	/**
+	 * Helper. Divides this LogDouble with a value in log-form.
+	 * @param qp the log-value.
+	 * @param qs the sign.
+	 * @return this LogDouble, not a new instance.
+	 */
+	private LogDouble div(double qp, int qs) {
+		if (qs == 0) {
 			throw new ArithmeticException("Division by zero attempted in LogDouble.");
 		}
-		this.sign *= q.sign;
-		this.p = (this.sign == 0 ? 0.0 : this.p - q.p);
+		this.sign *= qs;
+		this.p = (this.sign == 0 ? 0.0 : this.p - qp);
 		assert !Double.isNaN(this.p);
 		//assert !Double.isInfinite(this.p);
 		return this;
@@ -322,7 +407,8 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return this LogDouble, not a new instance.
 	 */
 	public LogDouble div(double q) {
-		return this.div(new LogDouble(q));
+		assert !Double.isNaN(q);
+		return this.div(logAbs(q), signOf(q));
 	}
 	
 	/**
@@ -517,15 +603,25 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if greater than q.
 	 */
 	public boolean greaterThan(LogDouble q) {
-		if (this.sign == q.sign) {
+		return this.greaterThan(q.p, q.sign);
+	}
+	
+	/**
+	 * Helper. Compares this LogDouble with a value in log-form.
+	 * @param qp the log-value.
+	 * @param qs the sign.
+	 * @return the outcome of the comparison.
+	 */
+	private boolean greaterThan(double qp, int qs) {
+		if (this.sign == qs) {
 			switch (this.sign) {
 			case 0:  return false;
-			case 1:  return (this.p > q.p);
-			case -1: return (this.p < q.p);
+			case 1:  return (this.p > qp);
+			case -1: return (this.p < qp);
 			default: throw new ArithmeticException("Sign of LogDouble instance has illegal value.");
 			}
 		}
-		return (this.sign > q.sign);
+		return (this.sign > qs);
 	}
 	
 	/**
@@ -534,7 +630,8 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if greater than q.
 	 */
 	public boolean greaterThan(double q) {
-		return this.greaterThan(new LogDouble(q));
+		assert !Double.isNaN(q);
+		return this.greaterThan(logAbs(q), signOf(q));
 	}
 	
 	/**
@@ -543,15 +640,25 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if greater than or equals q.
 	 */
 	public boolean greaterThanOrEquals(LogDouble q) {
-		if (this.sign == q.sign) {
+		return this.greaterThanOrEquals(q.p, q.sign);
+	}
+	
+	/**
+	 * Helper. Compares this LogDouble with a value in log-form.
+	 * @param qp the log-value.
+	 * @param qs the sign.
+	 * @return the outcome of the comparison.
+	 */
+	private boolean greaterThanOrEquals(double qp, int qs) {
+		if (this.sign == qs) {
 			switch (this.sign) {
 			case 0:  return true;
-			case 1:  return (this.p >= q.p);
-			case -1: return (this.p <= q.p);
+			case 1:  return (this.p >= qp);
+			case -1: return (this.p <= qp);
 			default: throw new ArithmeticException("Sign of LogDouble instance has illegal value.");
 			}
 		}
-		return (this.sign > q.sign);
+		return (this.sign > qs);
 	}
 	
 	/**
@@ -560,7 +667,8 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if greater than or equals q.
 	 */
 	public boolean greaterThanOrEquals(double q) {
-		return this.greaterThanOrEquals(new LogDouble(q));
+		assert !Double.isNaN(q);
+		return this.greaterThanOrEquals(logAbs(q), signOf(q));
 	}
 	
 	/**
@@ -569,15 +677,25 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if less than q.
 	 */
 	public boolean lessThan(LogDouble q) {
-		if (this.sign == q.sign) {
+		return this.lessThan(q.p, q.sign);
+	}
+	
+	/**
+	 * Helper. Compares this LogDouble with a value in log-form.
+	 * @param qp the log-value.
+	 * @param qs the sign.
+	 * @return the outcome of the comparison.
+	 */
+	private boolean lessThan(double qp, int qs) {
+		if (this.sign == qs) {
 			switch (this.sign) {
 			case 0:  return false;
-			case 1:  return (this.p < q.p);
-			case -1: return (this.p > q.p);
+			case 1:  return (this.p < qp);
+			case -1: return (this.p > qp);
 			default: throw new ArithmeticException("Sign of LogDouble instance has illegal value.");
 			}
 		}
-		return (this.sign < q.sign);
+		return (this.sign < qs);
 	}
 	
 	/**
@@ -586,7 +704,8 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if less than q.
 	 */
 	public boolean lessThan(double q) {
-		return this.lessThan(new LogDouble(q));
+		assert !Double.isNaN(q);
+		return this.lessThan(logAbs(q), signOf(q));
 	}
 	
 	/**
@@ -595,15 +714,25 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if less than or equals q.
 	 */
 	public boolean lessThanOrEquals(LogDouble q) {
-		if (this.sign == q.sign) {
+		return this.lessThanOrEquals(q.p, q.sign);
+	}
+	
+	/**
+	 * Helper. Compares this LogDouble with a value in log-form.
+	 * @param qp the log-value.
+	 * @param qs the sign.
+	 * @return the outcome of the comparison.
+	 */
+	private boolean lessThanOrEquals(double qp, int qs) {
+		if (this.sign == qs) {
 			switch (this.sign) {
 			case 0:  return true;
-			case 1:  return (this.p <= q.p);
-			case -1: return (this.p >= q.p);
+			case 1:  return (this.p <= qp);
+			case -1: return (this.p >= qp);
 			default: throw new ArithmeticException("Sign of LogDouble instance has illegal value.");
 			}
 		}
-		return (this.sign < q.sign);
+		return (this.sign < qs);
 	}
 	
 	/**
@@ -612,7 +741,8 @@ public final class LogDouble implements Comparable<LogDouble> {
 	 * @return true if less than or equals q.
 	 */
 	public boolean lessThanOrEquals(double q) {
-		return this.lessThanOrEquals(new LogDouble(q));
+		assert !Double.isNaN(q);
+		return this.lessThanOrEquals(logAbs(q), signOf(q));
 	}
 
 	/**
@@ -0,0 +1,278 @@
+package se.cbb.jprime.math;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-free counterpart of <code>LogDouble</code> for use in hot loops. Instead of
+ * objects, numbers are kept as elements of two parallel primitive arrays: one holding
+ * log-values p = log(|v|), and one holding signs (1 = positive, 0 = zero, -1 = negative)
+ * of the actual values v. All operations update an element in-place, and mirror those of
+ * <code>LogDouble</code> exactly, so that results are identical.
+ *
+ * @author agent.
+ */
+public final class LogDoubleArrays {
+
+	/**
+	 * Not instantiable.
+	 */
+	private LogDoubleArrays() {
+	}
+
+	/**
+	 * Sets an element to 0.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 */
+	public static void setZero(double[] p, int[] s, int i) {
+		p[i] = Double.NEGATIVE_INFINITY;
+		s[i] = 0;
+	}
+
+	/**
+	 * Sets all elements to 0.
+	 * @param p log-values.
+	 * @param s signs.
+	 */
+	public static void setZero(double[] p, int[] s) {
+		Arrays.fill(p, Double.NEGATIVE_INFINITY);
+		Arrays.fill(s, 0);
+	}
+
+	/**
+	 * Sets an element from an actual (non-logged) value.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @param d the actual value.
+	 */
+	public static void set(double[] p, int[] s, int i, double d) {
+		assert !Double.isNaN(d);
+		if (d > 0.0) {
+			p[i] = Math.log(d);
+			s[i] = 1;
+		} else if (d == 0.0) {
+			p[i] = Double.NEGATIVE_INFINITY;
+			s[i] = 0;
+		} else {
+			p[i] = Math.log(-d);
+			s[i] = -1;
+		}
+	}
+
+	/**
+	 * Sets an element from a <code>LogDouble</code>.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @param q the value.
+	 */
+	public static void set(double[] p, int[] s, int i, LogDouble q) {
+		p[i] = q.getLogValue();
+		s[i] = q.getSign();
+	}
+
+	/**
+	 * Returns an element as a new <code>LogDouble</code>.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @return the value.
+	 */
+	public static LogDouble get(double[] p, int[] s, int i) {
+		return new LogDouble(p[i], s[i]);
+	}
+
+	/**
+	 * Returns the actual (non-logged) value of an element.
+	 * There may be a loss of precision.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @return the actual value.
+	 */
+	public static double getValue(double[] p, int[] s, int i) {
+		switch (s[i]) {
+		case 1:
+			return Math.exp(p[i]);
+		case 0:
+			return 0.0;
+		case -1:
+			return -Math.exp(p[i]);
+		default:
+			throw new ArithmeticException("Sign of log-double array element has illegal value.");
+		}
+	}
+
+	/**
+	 * Adds a value, given in log-form, to an element.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @param qp the log-value of the term.
+	 * @param qs the sign of the term.
+	 */
+	public static void add(double[] p, int[] s, int i, double qp, int qs) {
+		assert !Double.isNaN(p[i]);
+		assert !Double.isNaN(qp);
+		switch (s[i] * qs) {
+		case 1:
+			// Sign does not change.
+			p[i] = addLogs(p[i], qp);
+			break;
+		case 0:
+			if (s[i] == 0) {
+				p[i] = qp;
+				s[i] = qs;
+			}
+			break;
+		case -1:
+			if (p[i] > qp) {
+				p[i] = p[i] + StrictMath.log1p(-Math.exp(qp - p[i]));
+			} else if (p[i] == qp) {
+				s[i] = 0;
+				p[i] = 0.0;   // Dummy.
+			} else {
+				p[i] = qp + StrictMath.log1p(-Math.exp(p[i] - qp));
+				s[i] *= -1;
+			}
+			break;
+		default:
+			throw new ArithmeticException("Sign of log-double array element has illegal value.");
+		}
+		assert !Double.isNaN(p[i]);
+	}
+
+	/**
+	 * Adds another element to an element.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @param qp log-values of term.
+	 * @param qs signs of term.
+	 * @param j element index of term.
+	 */
+	public static void add(double[] p, int[] s, int i, double[] qp, int[] qs, int j) {
+		add(p, s, i, qp[j], qs[j]);
+	}
+
+	/**
+	 * Multiplies an element with an actual (non-logged) value.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @param d the factor.
+	 */
+	public static void mult(double[] p, int[] s, int i, double d) {
+		assert !Double.isNaN(d);
+		if (d > 0.0) {
+			mult(p, s, i, Math.log(d), 1);
+		} else if (d == 0.0) {
+			mult(p, s, i, Double.NEGATIVE_INFINITY, 0);
+		} else {
+			mult(p, s, i, Math.log(-d), -1);
+		}
+	}
+
+	/**
+	 * Multiplies an element with a value given in log-form.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @param i element index.
+	 * @param qp the log-value of the factor.
+	 * @param qs the sign of the factor.
+	 */
+	public static void mult(double[] p, int[] s, int i, double qp, int qs) {
+		s[i] *= qs;
+		p[i] = (s[i] == 0 ? 0.0 : p[i] + qp);
+		assert !Double.isNaN(p[i]);
+	}
+
+	/**
+	 * Sets an element to the product of two other elements, i.e., c[k] = a[i] * b[j].
+	 * @param cp log-values of result.
+	 * @param cs signs of result.
+	 * @param k element index of result.
+	 * @param ap log-values of first factor.
+	 * @param as signs of first factor.
+	 * @param i element index of first factor.
+	 * @param bp log-values of second factor.
+	 * @param bs signs of second factor.
+	 * @param j element index of second factor.
+	 */
+	public static void mult(double[] cp, int[] cs, int k, double[] ap, int[] as, int i, double[] bp, int[] bs, int j) {
+		int sign = as[i] * bs[j];
+		cp[k] = (sign == 0 ? 0.0 : ap[i] + bp[j]);
+		cs[k] = sign;
+		assert !Double.isNaN(cp[k]);
+	}
+
+	/**
+	 * Returns log(exp(a) + exp(b)) for two log-values of positive numbers.
+	 * @param a first log-value.
+	 * @param b second log-value.
+	 * @return the log of the sum.
+	 */
+	public static double addLogs(double a, double b) {
+		// Ported from PrIME, see LogDouble.
+		if (a > b) {
+			return a + StrictMath.log1p(Math.exp(b - a));
+		}
+		return b + StrictMath.log1p(Math.exp(a - b));
+	}
+
+	/**
+	 * Returns the log of the sum of a range of positive numbers given in log-form, i.e.,
+	 * log(exp(p[from]) + ... + exp(p[to-1])), using the max-shift trick. Returns
+	 * Double.NEGATIVE_INFINITY for an empty range.
+	 * @param p log-values.
+	 * @param from first element index.
+	 * @param to element index after last element.
+	 * @return the log of the sum.
+	 */
+	public static double logSumExp(double[] p, int from, int to) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = from; i < to; ++i) {
+			max = Math.max(max, p[i]);
+		}
+		if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY) {
+			return max;
+		}
+		double sum = 0.0;
+		for (int i = from; i < to; ++i) {
+			sum += Math.exp(p[i] - max);
+		}
+		return max + Math.log(sum);
+	}
+
+	/**
+	 * Converts an array of <code>LogDouble</code> instances into log-values and signs.
+	 * @param vals the values.
+	 * @param p log-values, with at least the same length as vals.
+	 * @param s signs, with at least the same length as vals.
+	 */
+	public static void fromLogDoubles(LogDouble[] vals, double[] p, int[] s) {
+		for (int i = 0; i < vals.length; ++i) {
+			if (vals[i] == null) {
+				setZero(p, s, i);
+			} else {
+				set(p, s, i, vals[i]);
+			}
+		}
+	}
+
+	/**
+	 * Converts log-values and signs into an array of new <code>LogDouble</code> instances.
+	 * @param p log-values.
+	 * @param s signs.
+	 * @return the values.
+	 */
+	public static LogDouble[] toLogDoubles(double[] p, int[] s) {
+		LogDouble[] vals = new LogDouble[p.length];
+		for (int i = 0; i < p.length; ++i) {
+			vals[i] = new LogDouble(p[i], s[i]);
+		}
+		return vals;
+	}
+}
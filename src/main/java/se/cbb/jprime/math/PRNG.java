@@ -1,5 +1,9 @@
 package se.cbb.jprime.math;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.util.Arrays;
 
@@ -7,6 +11,7 @@ import org.uncommons.maths.random.MersenneTwisterRNG;
 import org.uncommons.maths.random.SeedException;
 import org.uncommons.maths.random.SeedGenerator;
 
+import se.cbb.jprime.mcmc.Checkpointable;
 import se.cbb.jprime.mcmc.InfoProvider;
 
 /**
@@ -16,11 +21,17 @@ import se.cbb.jprime.mcmc.InfoProvider;
  * 
  * @author Joel Sjöstrand.
  */
-public class PRNG extends MersenneTwisterRNG implements InfoProvider {
+public class PRNG extends MersenneTwisterRNG implements InfoProvider, Checkpointable {
 
 	/** Eclipse-generated serial version UID. */
 	private static final long serialVersionUID = 310669248550266600L;
 	
+	/** Second of the pair of Gaussian values produced by the polar method. */
+	private double nextNextGaussian;
+	
+	/** True if there is a pending second Gaussian value. */
+	private boolean haveNextNextGaussian = false;
+	
 	/**
 	 * Makes sure the byte array seed is 16-bytes.
 	 * @param seed the seed.
@@ -128,11 +139,28 @@ public class PRNG extends MersenneTwisterRNG implements InfoProvider {
 		return b;
 	}
 	
+	/**
+	 * Returns a normally distributed value. Identical to the polar method of <code>java.util.Random</code>,
+	 * but implemented here so that the pending second value is part of the state written to checkpoints.
+	 * @return the value.
+	 */
 	@Override
-	public double nextGaussian() {
-		double b = super.nextGaussian();
-		//System.out.println("nextGaussian(): " + b);
-		return b;
+	public synchronized double nextGaussian() {
+		if (this.haveNextNextGaussian) {
+			this.haveNextNextGaussian = false;
+			return this.nextNextGaussian;
+		}
+		double v1, v2, s;
+		do {
+			v1 = 2 * this.nextDouble() - 1;
+			v2 = 2 * this.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		this.nextNextGaussian = v2 * multiplier;
+		this.haveNextNextGaussian = true;
+		//System.out.println("nextGaussian(): " + v1 * multiplier);
+		return v1 * multiplier;
 	}
 	
 	@Override
@@ -154,4 +182,50 @@ public class PRNG extends MersenneTwisterRNG implements InfoProvider {
 		super.nextBytes(bytes);
 		//System.out.println("nextBytes(bytes): ");
 	}
+	
+	@Override
+	public synchronized void writeCheckpoint(DataOutputStream out) throws IOException {
+		try {
+			int[] mt = (int[]) getTwisterField("mt").get(this);
+			out.writeInt(mt.length);
+			for (int i : mt) {
+				out.writeInt(i);
+			}
+			out.writeInt(getTwisterField("mtIndex").getInt(this));
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Cannot access the state of the PRNG.", e);
+		}
+		out.writeBoolean(this.haveNextNextGaussian);
+		out.writeDouble(this.nextNextGaussian);
+	}
+	
+	@Override
+	public synchronized void readCheckpoint(DataInputStream in) throws IOException {
+		try {
+			int[] mt = (int[]) getTwisterField("mt").get(this);
+			if (in.readInt() != mt.length) {
+				throw new IOException("Checkpoint size mismatch for PRNG.");
+			}
+			for (int i = 0; i < mt.length; ++i) {
+				mt[i] = in.readInt();
+			}
+			getTwisterField("mtIndex").setInt(this, in.readInt());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Cannot access the state of the PRNG.", e);
+		}
+		this.haveNextNextGaussian = in.readBoolean();
+		this.nextNextGaussian = in.readDouble();
+	}
+	
+	/**
+	 * Returns a private field of the underlying Mersenne twister, which does not expose its state.
+	 * @param name the field name.
+	 * @return the field.
+	 * @throws NoSuchFieldException.
+	 */
+	private static Field getTwisterField(String name) throws NoSuchFieldException {
+		Field f = MersenneTwisterRNG.class.getDeclaredField(name);
+		f.setAccessible(true);
+		return f;
+	}
 }
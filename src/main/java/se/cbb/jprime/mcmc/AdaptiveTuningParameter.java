@@ -0,0 +1,179 @@
+package se.cbb.jprime.mcmc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Represents a <code>TuningParameter</code>, typically the CV of a proposal distribution, which
+ * is adapted during burn-in so that the acceptance ratio of its proposer approaches a target value.
+ * Whenever the proposer has made a batch of new proposals, the value is updated by a stochastic
+ * approximation (Robbins-Monro) step on log-scale:
+ * <pre>
+ *   log(value) += (acceptedInBatch / proposalsInBatch - targetAcceptanceRatio) / k^0.6,
+ * </pre>
+ * where k is the number of adaptations so far. I.e., too many accepted proposals yield larger
+ * steps and vice versa, and the adaptation diminishes over time. After the last adaptation
+ * iteration, the value is frozen, so that the remainder of the chain is an ordinary MCMC chain.
+ * The value is always kept within [minValue,maxValue].
+ * <p/>
+ * The acceptance ratio is read from the proposer's <code>ProposerStatistics</code>, which consequently
+ * must not be shared by other proposers.
+ *
+ * @author agent.
+ */
+public class AdaptiveTuningParameter implements TuningParameter, IterationListener, Checkpointable {
+
+	/** Default number of proposals between adaptations. */
+	public static final int DEFAULT_BATCH_SIZE = 50;
+
+	/** Exponent of the diminishing adaptation step size. */
+	public static final double STEP_SIZE_DECAY = 0.6;
+
+	/** Statistics of the proposer using this tuning parameter. */
+	protected ProposerStatistics stats;
+
+	/** The start value. */
+	protected double startValue;
+
+	/** The minimum value. */
+	protected double minValue;
+
+	/** The maximum value. */
+	protected double maxValue;
+
+	/** Desired acceptance ratio. */
+	protected double targetAcceptanceRatio;
+
+	/** The last iteration at which adaptation may occur. */
+	protected int adaptationEnd;
+
+	/** Number of proposals between adaptations. */
+	protected int batchSize;
+
+	/** The current value. */
+	protected double value;
+
+	/** Number of adaptations performed. */
+	protected int noOfAdaptations;
+
+	/** Number of proposals of the proposer at the last adaptation. */
+	protected int lastNoOfProposals;
+
+	/** Number of accepted proposals of the proposer at the last adaptation. */
+	protected int lastNoOfAccepted;
+
+	/**
+	 * Constructor.
+	 * @param iter the iteration object on which adaptation is based.
+	 * @param stats the statistics of the proposer using this tuning parameter.
+	 * @param startValue value at iteration 0.
+	 * @param minValue minimum value.
+	 * @param maxValue maximum value.
+	 * @param targetAcceptanceRatio the acceptance ratio to aim for, in (0,1).
+	 * @param adaptationEnd the last iteration at which the value may change.
+	 * @param batchSize the number of proposals between adaptations.
+	 */
+	public AdaptiveTuningParameter(Iteration iter, ProposerStatistics stats, double startValue, double minValue, double maxValue,
+			double targetAcceptanceRatio, int adaptationEnd, int batchSize) {
+		if (iter == null || stats == null) {
+			throw new IllegalArgumentException("Iteration object and statistics of adaptive tuning parameter must not be null.");
+		}
+		if (minValue <= 0.0 || minValue > startValue || startValue > maxValue || Double.isInfinite(maxValue)) {
+			throw new IllegalArgumentException("Start value of adaptive tuning parameter must lie in a positive finite range.");
+		}
+		if (targetAcceptanceRatio <= 0.0 || targetAcceptanceRatio >= 1.0) {
+			throw new IllegalArgumentException("Target acceptance ratio of adaptive tuning parameter must be in (0,1).");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size of adaptive tuning parameter must be positive.");
+		}
+		this.stats = stats;
+		this.startValue = startValue;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.targetAcceptanceRatio = targetAcceptanceRatio;
+		this.adaptationEnd = adaptationEnd;
+		this.batchSize = batchSize;
+		this.value = startValue;
+		this.noOfAdaptations = 0;
+		this.lastNoOfProposals = stats.getNoOfProposals();
+		this.lastNoOfAccepted = stats.getNoOfAcceptedProposals();
+		iter.addIterationListener(this);
+	}
+
+	@Override
+	public double getValue() {
+		return this.value;
+	}
+
+	@Override
+	public double getMinValue() {
+		return this.minValue;
+	}
+
+	@Override
+	public double getMaxValue() {
+		return this.maxValue;
+	}
+
+	/**
+	 * Returns the number of adaptations performed.
+	 * @return the number of adaptations.
+	 */
+	public int getNoOfAdaptations() {
+		return this.noOfAdaptations;
+	}
+
+	@Override
+	public void incrementPerformed(int iterCurr, int iterTotal) {
+		if (iterCurr > this.adaptationEnd) {
+			return;
+		}
+		int n = this.stats.getNoOfProposals() - this.lastNoOfProposals;
+		if (n < this.batchSize) {
+			return;
+		}
+		int a = this.stats.getNoOfAcceptedProposals() - this.lastNoOfAccepted;
+		this.noOfAdaptations++;
+		double step = (a / (double) n - this.targetAcceptanceRatio) / Math.pow(this.noOfAdaptations, STEP_SIZE_DECAY);
+		this.value = Math.min(Math.max(this.value * Math.exp(step), this.minValue), this.maxValue);
+		this.lastNoOfProposals += n;
+		this.lastNoOfAccepted += a;
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeDouble(this.value);
+		out.writeInt(this.noOfAdaptations);
+		out.writeInt(this.lastNoOfProposals);
+		out.writeInt(this.lastNoOfAccepted);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		this.value = in.readDouble();
+		this.noOfAdaptations = in.readInt();
+		this.lastNoOfProposals = in.readInt();
+		this.lastNoOfAccepted = in.readInt();
+	}
+
+	@Override
+	public String getPreInfo(String prefix) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(prefix).append("ADAPTIVE TUNING PARAMETER\n");
+		sb.append(prefix).append("Start value: ").append(this.startValue).append(", range: [").append(this.minValue).append(',').append(this.maxValue).append("]\n");
+		sb.append(prefix).append("Target acceptance ratio: ").append(this.targetAcceptanceRatio).append('\n');
+		sb.append(prefix).append("Adaptation until iteration: ").append(this.adaptationEnd).append(", batch size: ").append(this.batchSize).append('\n');
+		return sb.toString();
+	}
+
+	@Override
+	public String getPostInfo(String prefix) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(prefix).append("ADAPTIVE TUNING PARAMETER\n");
+		sb.append(prefix).append("Final value: ").append(this.value).append(" after ").append(this.noOfAdaptations).append(" adaptations\n");
+		return sb.toString();
+	}
+
+}
@@ -1,5 +1,9 @@
 package se.cbb.jprime.mcmc;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import se.cbb.jprime.io.SampleBoolean;
 
 /**
@@ -7,7 +11,7 @@ import se.cbb.jprime.io.SampleBoolean;
  * 
  * @author Joel Sjöstrand.
  */
-public class BooleanParameter implements StateParameter {
+public class BooleanParameter implements StateParameter, Checkpointable {
 
 	/** Name. */
 	protected String name;
@@ -72,6 +76,16 @@ public class BooleanParameter implements StateParameter {
 		return SampleBoolean.toString(this.value);
 	}
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeBoolean(this.value);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		this.value = in.readBoolean();
+	}
+
 	@Override
 	public Class<?> getSampleType() {
 		return SampleBoolean.class;
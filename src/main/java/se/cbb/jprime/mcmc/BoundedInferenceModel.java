@@ -0,0 +1,39 @@
+package se.cbb.jprime.mcmc;
+
+import java.util.Map;
+
+import se.cbb.jprime.math.LogDouble;
+
+/**
+ * Interface for inference models which can provide an upper bound of their data probability without
+ * being updated, e.g., 1 for the likelihood of discrete observations, and which may abort an update as soon as
+ * it is evident that the data probability falls below a required minimum. This enables <code>MCMCManager</code>
+ * to evaluate such models last, and to stop evaluating them when the proposed state
+ * cannot be accepted, see <code>MCMCManager.setEarlyAbort()</code>.
+ * <p/>
+ * Implementations should be sinks of the dependency DAG, i.e., no other dependent may rely on them,
+ * since they are not necessarily updated every iteration their parents change.
+ * 
+ * @author agent.
+ */
+public interface BoundedInferenceModel extends InferenceModel {
+
+	/**
+	 * Returns an upper bound of the data probability over all states of the parents of the model.
+	 * Invoked repeatedly during evaluation, so implementations should not create a new instance.
+	 * @return the upper bound. Must not be modified by the caller.
+	 */
+	public LogDouble getDataProbabilityUpperBound();
+	
+	/**
+	 * Equivalent to <code>cacheAndUpdate(changeInfos, willSample)</code>, except that the update may be aborted
+	 * as soon as it is evident that the data probability falls below a minimum. If aborted, the data probability is
+	 * undefined, and the proposed state will be rejected. Either way, the model must add its change info,
+	 * so that it is subsequently restored.
+	 * @param changeInfos all changes made so far, see <code>ProperDependent</code>.
+	 * @param willSample true if the pending state will be sampled; false if not sampled.
+	 * @param minDataProbability the minimum data probability. Owned by the caller, who may reuse it, so it must not be retained.
+	 * @return true if the model has been completely updated; false if aborted.
+	 */
+	public boolean cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample, LogDouble minDataProbability);
+}
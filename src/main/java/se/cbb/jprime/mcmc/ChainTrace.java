@@ -0,0 +1,277 @@
+package se.cbb.jprime.mcmc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import se.cbb.jprime.io.RBTreeSampleWrapper;
+import se.cbb.jprime.io.SampleDouble;
+import se.cbb.jprime.io.SampleLogDouble;
+import se.cbb.jprime.io.Sampleable;
+import se.cbb.jprime.io.Sampler;
+import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+
+/**
+ * Sampler decorator which, apart from passing on all output to an underlying sampler,
+ * keeps the samples of an MCMC chain in memory for computing convergence diagnostics.
+ * The following are recorded:
+ * <ul>
+ * <li>all sampleables of type <code>SampleDouble</code> and <code>SampleLogDouble</code>, the latter in log-form.</li>
+ * <li>the clades (rooted splits) of the first <code>RBTreeSampleWrapper</code> sampleable, if any. These are read
+ *     directly from the wrapped tree rather than from its Newick output.</li>
+ * </ul>
+ * Not thread-safe.
+ *
+ * @author agent.
+ */
+public class ChainTrace implements Sampler {
+
+	/** Underlying sampler. */
+	protected Sampler sampler;
+
+	/** Names of recorded real-valued sampleables. */
+	protected ArrayList<String> names = new ArrayList<String>(16);
+
+	/** Indices in the sampleable list of recorded real-valued sampleables. */
+	protected int[] indices;
+
+	/** For each recorded real-valued sampleable, true if it is a LogDouble. */
+	protected boolean[] isLogDouble;
+
+	/** Index in the sampleable list of the recorded tree; -1 if none. */
+	protected int treeIndex = -1;
+
+	/** Samples, indexed by sampleable and sample number. */
+	protected double[][] values;
+
+	/** Sampled clades, each clade denoted by its index in <code>cladeKeys</code>. */
+	protected ArrayList<int[]> trees = new ArrayList<int[]>(1024);
+
+	/** Clade keys: the sorted leaf names of the clade. */
+	protected ArrayList<String> cladeKeys = new ArrayList<String>(256);
+
+	/** Clade indices, hashed by leaf set, see <code>leafNames</code>. */
+	protected HashMap<BitSet, Integer> cladeIndices = new HashMap<BitSet, Integer>(256);
+
+	/** Leaf names of the recorded tree in sorted order; leaf sets have the corresponding bits set. */
+	protected String[] leafNames;
+
+	/** Bit of each leaf name, hashed by name. */
+	protected HashMap<String, Integer> leafBits;
+
+	/** Number of samples. */
+	protected int noOfSamples = 0;
+
+	/**
+	 * Constructor.
+	 * @param sampler the underlying sampler.
+	 */
+	public ChainTrace(Sampler sampler) {
+		this.sampler = sampler;
+	}
+
+	@Override
+	public void writeSampleHeader(List<Sampleable> sampleables) throws IOException {
+		this.sampler.writeSampleHeader(sampleables);
+	}
+
+	@Override
+	public void writeSample(List<Sampleable> sampleables, Sampleable.SamplingMode mode) throws IOException {
+		this.sampler.writeSample(sampleables, mode);
+		this.record(sampleables, mode);
+	}
+
+	@Override
+	public void writeString(String str) throws IOException {
+		this.sampler.writeString(str);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.sampler.flush();
+	}
+
+	@Override
+	public String getSampleHeader(List<Sampleable> sampleables) {
+		return this.sampler.getSampleHeader(sampleables);
+	}
+
+	@Override
+	public String getSample(List<Sampleable> sampleables, Sampleable.SamplingMode mode) {
+		return this.sampler.getSample(sampleables, mode);
+	}
+
+	/**
+	 * Records the current state.
+	 * @param sampleables the objects to sample from.
+	 * @param mode sampling mode.
+	 */
+	protected void record(List<Sampleable> sampleables, Sampleable.SamplingMode mode) {
+		if (this.indices == null) {
+			this.initialise(sampleables);
+		}
+		if (this.noOfSamples == this.values[0].length) {
+			for (int j = 0; j < this.values.length; ++j) {
+				this.values[j] = Arrays.copyOf(this.values[j], 2 * this.noOfSamples);
+			}
+		}
+		for (int j = 0; j < this.indices.length; ++j) {
+			String s = sampleables.get(this.indices[j]).getSampleValue(mode);
+			this.values[j][this.noOfSamples] = (this.isLogDouble[j] ? LogDouble.parseLogDouble(s).getLogValue() : Double.parseDouble(s));
+		}
+		if (this.treeIndex >= 0) {
+			RBTreeSampleWrapper w = (RBTreeSampleWrapper) sampleables.get(this.treeIndex);
+			this.trees.add(this.getClades(w.getTree(), w.getNamesMap()));
+		}
+		this.noOfSamples++;
+	}
+
+	/**
+	 * Determines which sampleables to record.
+	 * @param sampleables the objects to sample from.
+	 */
+	private void initialise(List<Sampleable> sampleables) {
+		ArrayList<Integer> idx = new ArrayList<Integer>(sampleables.size());
+		ArrayList<Boolean> isLog = new ArrayList<Boolean>(sampleables.size());
+		for (int i = 0; i < sampleables.size(); ++i) {
+			Sampleable s = sampleables.get(i);
+			if (s.getSampleType() == SampleDouble.class || s.getSampleType() == SampleLogDouble.class) {
+				idx.add(i);
+				isLog.add(s.getSampleType() == SampleLogDouble.class);
+				this.names.add(s.getSampleHeader());
+			} else if (s instanceof RBTreeSampleWrapper && this.treeIndex < 0) {
+				this.treeIndex = i;
+			}
+		}
+		this.indices = new int[idx.size()];
+		this.isLogDouble = new boolean[idx.size()];
+		for (int j = 0; j < this.indices.length; ++j) {
+			this.indices[j] = idx.get(j);
+			this.isLogDouble[j] = isLog.get(j);
+		}
+		this.values = new double[this.indices.length][1024];
+	}
+
+	/**
+	 * Returns the non-trivial clades of a tree.
+	 * @param tree the tree.
+	 * @param names the leaf names of the tree.
+	 * @return the clade indices.
+	 */
+	private int[] getClades(RBTree tree, NamesMap names) {
+		if (this.leafNames == null) {
+			List<Integer> leaves = tree.getLeaves();
+			this.leafNames = new String[leaves.size()];
+			for (int i = 0; i < this.leafNames.length; ++i) {
+				this.leafNames[i] = names.get(leaves.get(i));
+			}
+			Arrays.sort(this.leafNames);
+			this.leafBits = new HashMap<String, Integer>(this.leafNames.length * 2);
+			for (int i = 0; i < this.leafNames.length; ++i) {
+				this.leafBits.put(this.leafNames[i], i);
+			}
+		}
+		ArrayList<Integer> clades = new ArrayList<Integer>(this.leafNames.length);
+		this.addClades(tree, names, tree.getRoot(), clades);
+		int[] ret = new int[clades.size()];
+		for (int i = 0; i < ret.length; ++i) {
+			ret[i] = clades.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * Recursively adds the clades of the subtree rooted at a vertex, excluding the leaves
+	 * and the complete leaf set.
+	 * @param tree the tree.
+	 * @param names the leaf names of the tree.
+	 * @param x the subtree root.
+	 * @param clades the list to add clade indices to.
+	 * @return the leaf set of the subtree.
+	 */
+	private BitSet addClades(RBTree tree, NamesMap names, int x, ArrayList<Integer> clades) {
+		if (tree.isLeaf(x)) {
+			BitSet leaves = new BitSet(this.leafNames.length);
+			leaves.set(this.leafBits.get(names.get(x)));
+			return leaves;
+		}
+		BitSet leaves = this.addClades(tree, names, tree.getLeftChild(x), clades);
+		leaves.or(this.addClades(tree, names, tree.getRightChild(x), clades));
+		int sz = leaves.cardinality();
+		if (sz > 1 && sz < this.leafNames.length) {
+			Integer idx = this.cladeIndices.get(leaves);
+			if (idx == null) {
+				idx = this.cladeKeys.size();
+				StringBuilder key = new StringBuilder(sz * 8);
+				for (int i = leaves.nextSetBit(0); i >= 0; i = leaves.nextSetBit(i + 1)) {
+					key.append(key.length() == 0 ? "" : ",").append(this.leafNames[i]);
+				}
+				this.cladeKeys.add(key.toString());
+				this.cladeIndices.put((BitSet) leaves.clone(), idx);
+			}
+			clades.add(idx);
+		}
+		return leaves;
+	}
+
+	/**
+	 * Returns the number of recorded samples.
+	 * @return the number of samples.
+	 */
+	public int getNoOfSamples() {
+		return this.noOfSamples;
+	}
+
+	/**
+	 * Returns the names of the recorded real-valued sampleables.
+	 * @return the names.
+	 */
+	public List<String> getNames() {
+		return this.names;
+	}
+
+	/**
+	 * Returns the samples of a recorded real-valued sampleable. The array may be longer
+	 * than the number of samples.
+	 * @param j the index of the sampleable among the recorded real-valued sampleables.
+	 * @return the samples.
+	 */
+	public double[] getValues(int j) {
+		return this.values[j];
+	}
+
+	/**
+	 * Returns true if a tree is recorded.
+	 * @return true if trees are recorded.
+	 */
+	public boolean hasTrees() {
+		return (this.treeIndex >= 0);
+	}
+
+	/**
+	 * Returns the frequencies of clades in a range of the sampled trees.
+	 * @param from the first sample.
+	 * @param to the sample after the last sample.
+	 * @return the frequencies, hashed by clade key.
+	 */
+	public HashMap<String, Double> getCladeFrequencies(int from, int to) {
+		int[] cnts = new int[this.cladeKeys.size()];
+		for (int i = from; i < to; ++i) {
+			for (int c : this.trees.get(i)) {
+				cnts[c]++;
+			}
+		}
+		HashMap<String, Double> freqs = new HashMap<String, Double>(cnts.length * 2);
+		for (int c = 0; c < cnts.length; ++c) {
+			if (cnts[c] > 0) {
+				freqs.put(this.cladeKeys.get(c), cnts[c] / (double) (to - from));
+			}
+		}
+		return freqs;
+	}
+}
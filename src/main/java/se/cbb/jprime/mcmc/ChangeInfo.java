@@ -115,4 +115,13 @@ public class ChangeInfo {
 	public int[] getAffectedElements() {
 		return this.affectedElements;
 	}
+	
+	/**
+	 * Sets the affected elements, so that a proposer or dependent may reuse
+	 * the same instance between iterations. The array is not copied.
+	 * @param affectedElements the affected elements. May be null.
+	 */
+	public void setAffectedElements(int[] affectedElements) {
+		this.affectedElements = affectedElements;
+	}
 }
@@ -0,0 +1,142 @@
+package se.cbb.jprime.mcmc;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map of change infos used by <code>MCMCManager</code>, where the dependents of the chain are
+ * registered up front and their change infos are kept in an array indexed by dependent.
+ * Thus, neither lookups nor insertions nor clearing allocate any objects. Unregistered dependents
+ * are held in an ordinary hash map.
+ * <p/>
+ * Like for a <code>HashMap</code>, a dependent may be mapped to null, i.e., be present without change info.
+ * Registered dependents may be inserted concurrently as long as no two threads insert the same dependent.
+ *
+ * @author agent.
+ */
+public class ChangeInfoMap extends AbstractMap<Dependent, ChangeInfo> {
+
+	/** Index of each registered dependent. */
+	protected IdentityHashMap<Dependent, Integer> indices;
+
+	/** Change info of each registered dependent. */
+	protected ChangeInfo[] values;
+
+	/** True for each registered dependent which is present. */
+	protected boolean[] isPresent;
+
+	/** Unregistered dependents. */
+	protected HashMap<Dependent, ChangeInfo> others;
+
+	/**
+	 * Constructor.
+	 * @param dependents the dependents to register.
+	 */
+	public ChangeInfoMap(Collection<? extends Dependent> dependents) {
+		this.indices = new IdentityHashMap<Dependent, Integer>(dependents.size() * 2);
+		for (Dependent dep : dependents) {
+			if (!this.indices.containsKey(dep)) {
+				this.indices.put(dep, this.indices.size());
+			}
+		}
+		this.values = new ChangeInfo[this.indices.size()];
+		this.isPresent = new boolean[this.indices.size()];
+		this.others = new HashMap<Dependent, ChangeInfo>(4);
+	}
+
+	@Override
+	public ChangeInfo get(Object key) {
+		Integer i = this.indices.get(key);
+		if (i != null) {
+			return this.values[i];
+		}
+		synchronized (this.others) {
+			return (this.others.isEmpty() ? null : this.others.get(key));
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		Integer i = this.indices.get(key);
+		if (i != null) {
+			return this.isPresent[i];
+		}
+		synchronized (this.others) {
+			return this.others.containsKey(key);
+		}
+	}
+
+	@Override
+	public ChangeInfo put(Dependent key, ChangeInfo value) {
+		Integer i = this.indices.get(key);
+		if (i != null) {
+			ChangeInfo old = this.values[i];
+			this.values[i] = value;
+			this.isPresent[i] = true;
+			return old;
+		}
+		synchronized (this.others) {
+			return this.others.put(key, value);
+		}
+	}
+
+	@Override
+	public ChangeInfo remove(Object key) {
+		Integer i = this.indices.get(key);
+		if (i != null) {
+			ChangeInfo old = this.values[i];
+			this.values[i] = null;
+			this.isPresent[i] = false;
+			return old;
+		}
+		synchronized (this.others) {
+			return this.others.remove(key);
+		}
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(this.values, null);
+		Arrays.fill(this.isPresent, false);
+		synchronized (this.others) {
+			if (!this.others.isEmpty()) {
+				this.others.clear();
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		int sz = 0;
+		for (boolean b : this.isPresent) {
+			if (b) { ++sz; }
+		}
+		synchronized (this.others) {
+			return (sz + this.others.size());
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the entries. Unlike for other maps, changes to the returned set
+	 * are not reflected in this map.
+	 * @return the entries.
+	 */
+	@Override
+	public Set<Map.Entry<Dependent, ChangeInfo>> entrySet() {
+		HashMap<Dependent, ChangeInfo> all = new HashMap<Dependent, ChangeInfo>(this.size() * 2);
+		for (Map.Entry<Dependent, Integer> kv : this.indices.entrySet()) {
+			if (this.isPresent[kv.getValue()]) {
+				all.put(kv.getKey(), this.values[kv.getValue()]);
+			}
+		}
+		synchronized (this.others) {
+			all.putAll(this.others);
+		}
+		return all.entrySet();
+	}
+}
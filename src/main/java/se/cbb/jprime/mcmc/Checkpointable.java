@@ -0,0 +1,31 @@
+package se.cbb.jprime.mcmc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Interface for objects whose state may be written to and restored from a binary checkpoint,
+ * so that an MCMC chain may be resumed with an identical trajectory, see <code>MCMCManager</code>.
+ * Only the mutable state is included: the object restoring the checkpoint is assumed to
+ * have been created with the same settings (names, sizes, etc.) as the object writing it.
+ * Cached values are not included.
+ *
+ * @author agent.
+ */
+public interface Checkpointable {
+
+	/**
+	 * Writes the current state.
+	 * @param out the output stream.
+	 * @throws IOException.
+	 */
+	public void writeCheckpoint(DataOutputStream out) throws IOException;
+
+	/**
+	 * Replaces the current state with one read from a checkpoint.
+	 * @param in the input stream.
+	 * @throws IOException if unable to read or if the checkpoint does not match this object.
+	 */
+	public void readCheckpoint(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,187 @@
+package se.cbb.jprime.mcmc;
+
+import java.util.List;
+
+/**
+ * Convergence diagnostics for samples of one or more MCMC chains:
+ * <ul>
+ * <li>split-R^ (potential scale reduction factor, Gelman et al., Bayesian Data Analysis, 3rd ed.), computed
+ *     by splitting each chain in halves, so that non-stationarity within a single chain is detected as well.</li>
+ * <li>effective sample size (ESS), using Geyer's initial positive sequence estimator of the autocorrelation time.</li>
+ * <li>average standard deviation of split frequencies (ASDSF) of sampled trees across chains.</li>
+ * </ul>
+ *
+ * @author agent.
+ */
+public class ConvergenceDiagnostics {
+
+	/**
+	 * Maximum lag of the autocorrelations summed when estimating the ESS. This keeps the cost of an
+	 * estimate at O(n * MAX_LAG) for n samples, rather than O(n^2) for chains that mix poorly.
+	 */
+	public static final int MAX_LAG = 1000;
+
+	/**
+	 * Computes split-R^ for a real-valued parameter.
+	 * @param traces the samples of each chain.
+	 * @param from the index of the first sample of each chain to consider, e.g. to discard burn-in.
+	 * @param to the index after the last sample of each chain to consider.
+	 * @return the split-R^; NaN if there are fewer than 4 samples per chain or no within-chain variation.
+	 */
+	public static double splitRHat(List<double[]> traces, int from, int to) {
+		int half = (to - from) / 2;
+		if (half < 2) {
+			return Double.NaN;
+		}
+		int m = 2 * traces.size();
+		double[] means = new double[m];
+		double[] vars = new double[m];
+		int j = 0;
+		for (double[] trace : traces) {
+			// The first and last halves of the chain. The middle element is discarded for odd n.
+			for (int offset : new int[] { from, to - half }) {
+				double mean = 0.0;
+				for (int i = offset; i < offset + half; ++i) {
+					mean += trace[i];
+				}
+				mean /= half;
+				double var = 0.0;
+				for (int i = offset; i < offset + half; ++i) {
+					var += (trace[i] - mean) * (trace[i] - mean);
+				}
+				means[j] = mean;
+				vars[j] = var / (half - 1);
+				j++;
+			}
+		}
+		double mean = 0.0;
+		double W = 0.0;
+		for (int k = 0; k < m; ++k) {
+			mean += means[k];
+			W += vars[k];
+		}
+		mean /= m;
+		W /= m;
+		if (W <= 0.0) {
+			return Double.NaN;
+		}
+		double B = 0.0;
+		for (int k = 0; k < m; ++k) {
+			B += (means[k] - mean) * (means[k] - mean);
+		}
+		B *= half / (double) (m - 1);
+		double varPlus = (half - 1) / (double) half * W + B / half;
+		return Math.sqrt(varPlus / W);
+	}
+
+	/**
+	 * Computes the effective sample size of a real-valued parameter for a single chain.
+	 * Autocorrelations are summed up to lag <code>MAX_LAG</code> at most. For a chain still correlated
+	 * at that lag, the autocorrelation time is thus underestimated and the ESS overestimated.
+	 * @param trace the samples.
+	 * @param from the index of the first sample to consider, e.g. to discard burn-in.
+	 * @param to the index after the last sample to consider.
+	 * @return the ESS; NaN if there are fewer than 4 samples or no variation.
+	 */
+	public static double ess(double[] trace, int from, int to) {
+		int n = to - from;
+		if (n < 4) {
+			return Double.NaN;
+		}
+		double mean = 0.0;
+		for (int i = from; i < to; ++i) {
+			mean += trace[i];
+		}
+		mean /= n;
+		double c0 = autocovariance(trace, from, to, mean, 0);
+		if (c0 <= 0.0) {
+			return Double.NaN;
+		}
+
+		// Sum pairs of consecutive autocorrelations for as long as the pair sums are positive.
+		double tau = -1.0;
+		int maxLag = Math.min(n - 1, MAX_LAG);
+		for (int t = 0; t + 1 <= maxLag; t += 2) {
+			double pair = (autocovariance(trace, from, to, mean, t) + autocovariance(trace, from, to, mean, t + 1)) / c0;
+			if (pair <= 0.0) {
+				break;
+			}
+			tau += 2.0 * pair;
+		}
+		return n / Math.max(tau, 1.0 / n);
+	}
+
+	/**
+	 * Computes the ESS of a real-valued parameter over several chains as the sum of the chains' ESS.
+	 * @param traces the samples of each chain.
+	 * @param from the index of the first sample of each chain to consider, e.g. to discard burn-in.
+	 * @param to the index after the last sample of each chain to consider.
+	 * @return the ESS; NaN if it could not be computed for some chain.
+	 */
+	public static double ess(List<double[]> traces, int from, int to) {
+		double sum = 0.0;
+		for (double[] trace : traces) {
+			sum += ess(trace, from, to);
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the ASDSF of sampled trees over several chains. Splits
+	 * whose frequency is lower than a threshold in all chains are ignored.
+	 * @param freqs split frequencies, indexed by chain in the first dimension and split in the second. All chains
+	 *        must use the same split indices.
+	 * @param minFreq minimum frequency of a split in some chain for it to be considered, e.g. 0.1.
+	 * @return the ASDSF; NaN if there are fewer than two chains or no split is frequent enough.
+	 */
+	public static double asdsf(double[][] freqs, double minFreq) {
+		int m = freqs.length;
+		if (m < 2) {
+			return Double.NaN;
+		}
+		int noOfSplits = 0;
+		for (double[] f : freqs) {
+			noOfSplits = Math.max(noOfSplits, f.length);
+		}
+		double sum = 0.0;
+		int cnt = 0;
+		for (int s = 0; s < noOfSplits; ++s) {
+			double max = 0.0;
+			double mean = 0.0;
+			for (int k = 0; k < m; ++k) {
+				double f = (s < freqs[k].length ? freqs[k][s] : 0.0);
+				max = Math.max(max, f);
+				mean += f;
+			}
+			if (max < minFreq) {
+				continue;
+			}
+			mean /= m;
+			double var = 0.0;
+			for (int k = 0; k < m; ++k) {
+				double f = (s < freqs[k].length ? freqs[k][s] : 0.0);
+				var += (f - mean) * (f - mean);
+			}
+			sum += Math.sqrt(var / (m - 1));
+			cnt++;
+		}
+		return (cnt == 0 ? Double.NaN : sum / cnt);
+	}
+
+	/**
+	 * Computes the (biased) autocovariance at a certain lag.
+	 * @param trace the samples.
+	 * @param from the index of the first sample.
+	 * @param to the index after the last sample.
+	 * @param mean the sample mean.
+	 * @param lag the lag.
+	 * @return the autocovariance.
+	 */
+	private static double autocovariance(double[] trace, int from, int to, double mean, int lag) {
+		double sum = 0.0;
+		for (int i = from; i + lag < to; ++i) {
+			sum += (trace[i] - mean) * (trace[i + lag] - mean);
+		}
+		return sum / (to - from);
+	}
+}
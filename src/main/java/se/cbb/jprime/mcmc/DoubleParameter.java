@@ -1,6 +1,11 @@
 package se.cbb.jprime.mcmc;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import se.cbb.jprime.io.SampleDouble;
+import se.cbb.jprime.io.SnapshotSampleable;
 import se.cbb.jprime.math.ScaleTransformation;
 
 /**
@@ -8,7 +13,7 @@ import se.cbb.jprime.math.ScaleTransformation;
  * 
  * @author Joel Sjöstrand.
  */
-public class DoubleParameter implements RealParameter {
+public class DoubleParameter implements RealParameter, SnapshotSampleable, Checkpointable {
 
 	/** Name. */
 	protected String name;
@@ -86,6 +91,31 @@ public class DoubleParameter implements RealParameter {
 			SampleDouble.toString(this.scale.getUnscaled(this.value)));
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new double[1];
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		((double[]) snapshot)[0] = (this.scale == null ? this.value : this.scale.getUnscaled(this.value));
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		return SampleDouble.toString(((double[]) snapshot)[0]);
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeDouble(this.value);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		this.value = in.readDouble();
+	}
+
 	@Override
 	public Class<?> getSampleType() {
 		return SampleDouble.class;
@@ -1,5 +1,8 @@
 package se.cbb.jprime.mcmc;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Map.Entry;
 
 /**
@@ -106,6 +109,28 @@ public class FineProposerStatistics extends ProposerStatistics implements Iterat
 		return this.noOfRejectedPerWindow[window];
 	}
 	
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		super.writeCheckpoint(out);
+		out.writeInt(this.noOfAcceptedPerWindow.length);
+		for (int w = 0; w < this.noOfAcceptedPerWindow.length; ++w) {
+			out.writeInt(this.noOfAcceptedPerWindow[w]);
+			out.writeInt(this.noOfRejectedPerWindow[w]);
+		}
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		super.readCheckpoint(in);
+		if (in.readInt() != this.noOfAcceptedPerWindow.length) {
+			throw new IOException("Checkpoint mismatch for number of proposer statistics windows.");
+		}
+		for (int w = 0; w < this.noOfAcceptedPerWindow.length; ++w) {
+			this.noOfAcceptedPerWindow[w] = in.readInt();
+			this.noOfRejectedPerWindow[w] = in.readInt();
+		}
+	}
+
 	@Override
 	public String getPreInfo(String prefix) {
 		return (prefix + "FINE-DETAILED PROPOSER STATISTICS\n");
@@ -116,6 +141,9 @@ public class FineProposerStatistics extends ProposerStatistics implements Iterat
 		StringBuilder sb = new StringBuilder();
 		sb.append(prefix).append("FINE-DETAILED PROPOSER STATISTICS\n");
 		sb.append(prefix).append("Acceptance ratio: ").append(this.noOfAccepted).append(" / ").append(this.getNoOfProposals()).append(" = ").append(this.getAcceptanceRatio()).append("\n");
+		if (this.totalTime > 0) {
+			sb.append(prefix).append("Mean time per proposal (ms): ").append(this.totalTime / 1e6 / this.getNoOfProposals()).append("\n");
+		}
 		sb.append(prefix).append("Acceptance ratios per window:\n");
 		String prefixt = prefix + '\t';
 		for (int i = 0; i < this.noOfAcceptedPerWindow.length; ++i) {
@@ -129,7 +157,9 @@ public class FineProposerStatistics extends ProposerStatistics implements Iterat
 			for (Entry<String, int[]> kv : this.accRejByKey.entrySet()) {
 				int acc = kv.getValue()[0];
 				int rej = kv.getValue()[1];
-				sb.append(prefix).append(kv.getKey()).append('\t').append(acc).append(" / ").append(acc+rej).append(" = ").append(acc/(double)(acc+rej)).append("\n");
+				sb.append(prefix).append(kv.getKey()).append('\t').append(acc).append(" / ").append(acc+rej).append(" = ").append(acc/(double)(acc+rej));
+				this.appendTime(sb, kv.getKey(), acc + rej);
+				sb.append("\n");
 			}
 		}
 		return sb.toString();
@@ -1,5 +1,9 @@
 package se.cbb.jprime.mcmc;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import se.cbb.jprime.io.SampleInt;
 
 /**
@@ -7,7 +11,7 @@ import se.cbb.jprime.io.SampleInt;
  * 
  * @author Joel Sjöstrand.
  */
-public class IntParameter implements StateParameter {
+public class IntParameter implements StateParameter, Checkpointable {
 
 	/** Name. */
 	protected String name;
@@ -72,6 +76,16 @@ public class IntParameter implements StateParameter {
 		return SampleInt.toString(this.value);
 	}
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeInt(this.value);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		this.value = in.readInt();
+	}
+
 	@Override
 	public Class<?> getSampleType() {
 		return SampleInt.class;
@@ -1,9 +1,12 @@
 package se.cbb.jprime.mcmc;
 
-import java.util.LinkedList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import se.cbb.jprime.io.SampleInt;
-import se.cbb.jprime.io.Sampleable;
+import se.cbb.jprime.io.SnapshotSampleable;
 
 /**
  * Holds the current and total number of iterations k for e.g. an MCMC chain.
@@ -13,7 +16,7 @@ import se.cbb.jprime.io.Sampleable;
  * 
  * @author Joel Sjöstrand.
  */
-public class Iteration implements Sampleable, InfoProvider {
+public class Iteration implements SnapshotSampleable, InfoProvider, Checkpointable {
 
 	/** The total number of iterations, start iteration 0 excluded. */
 	private int totalNoOfIterations;
@@ -22,7 +25,7 @@ public class Iteration implements Sampleable, InfoProvider {
 	private int currentIteration;
 	
 	/** Subscribers to changes to this object. */
-	private LinkedList<IterationListener> listeners;
+	private ArrayList<IterationListener> listeners;
 	
 	/** Flag determining whether listeners should be notified or not. */
 	private boolean notifyListeners;
@@ -46,7 +49,7 @@ public class Iteration implements Sampleable, InfoProvider {
 		}
 		this.totalNoOfIterations = totalNoOfIterations;
 		this.currentIteration = initialIteration;
-		this.listeners = new LinkedList<IterationListener>();
+		this.listeners = new ArrayList<IterationListener>(8);
 		this.notifyListeners = true;
 	}
 	
@@ -106,8 +109,8 @@ public class Iteration implements Sampleable, InfoProvider {
 		}
 		this.currentIteration++;
 		if (this.notifyListeners) {
-			for (IterationListener i : this.listeners) {
-				i.incrementPerformed(this.currentIteration, this.totalNoOfIterations);
+			for (int i = 0; i < this.listeners.size(); ++i) {
+				this.listeners.get(i).incrementPerformed(this.currentIteration, this.totalNoOfIterations);
 			}
 		}
 		return true;
@@ -136,6 +139,47 @@ public class Iteration implements Sampleable, InfoProvider {
 		return SampleInt.toString(this.currentIteration);
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new int[1];
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		((int[]) snapshot)[0] = this.currentIteration;
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		return SampleInt.toString(((int[]) snapshot)[0]);
+	}
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeInt(this.currentIteration);
+	}
+
+	/**
+	 * Restores the current iteration. Listeners are notified as if the
+	 * iteration had just been incremented to the restored value.
+	 * The total number of iterations is not affected, so that a resumed chain may be extended.
+	 * @param in the input stream.
+	 * @throws IOException.
+	 */
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		int iter = in.readInt();
+		if (iter < 0 || iter > this.totalNoOfIterations) {
+			throw new IOException("Checkpoint iteration " + iter + " is out of range.");
+		}
+		this.currentIteration = iter;
+		if (this.notifyListeners && iter > 0) {
+			for (int i = 0; i < this.listeners.size(); ++i) {
+				this.listeners.get(i).incrementPerformed(this.currentIteration, this.totalNoOfIterations);
+			}
+		}
+	}
+
 	@Override
 	public String getPreInfo(String prefix) {
 		StringBuilder sb = new StringBuilder();
@@ -1,17 +1,38 @@
 package se.cbb.jprime.mcmc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import se.cbb.jprime.apps.JPrIMEStarter;
 import se.cbb.jprime.io.SampleLogDouble;
 import se.cbb.jprime.io.Sampleable;
 import se.cbb.jprime.io.Sampler;
+import se.cbb.jprime.io.SnapshotSampleable;
 import se.cbb.jprime.math.LogDouble;
 import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.misc.SharedForkJoinPools;
 
 /**
  * MCMC framework class for handling a plain non-hierarchical MCMC chain (MC^2).
@@ -57,10 +78,24 @@ import se.cbb.jprime.math.PRNG;
  * </li>
  * <li>Go to 1 or finish.</li>
  * </ol>
+ * Optionally, see <code>setConcurrentUpdates()</code>, the dependencies are instead grouped into levels
+ * of the DAG, where no dependency relies on another of the same level. The levels are then updated
+ * in order, with the dependencies of a level being updated concurrently.
+ * <p/>
+ * Optionally, see <code>setEarlyAbort()</code>, the acceptance threshold is drawn prior to evaluating the
+ * proposed state. Models implementing <code>BoundedInferenceModel</code> are then updated after all other
+ * dependents, one at a time, and the iteration is rejected as soon as the threshold cannot be attained
+ * even if the remaining such models reach their upper bounds.
+ * <p/>
+ * Optionally, see <code>setCheckpointing()</code> and <code>setResumeFile()</code>, the state of the chain
+ * is periodically written to a checkpoint file from which a later run may be resumed. The state comprises the
+ * iteration, the PRNG, the state parameters, statistics and any <code>Checkpointable</code> tuning
+ * parameters and proposer selector, so that a resumed chain follows the same trajectory as an uninterrupted one. Dependents are not
+ * included, but fully recomputed on resume.
  * 
  * @author Joel Sjöstrand.
  */
-public class MCMCManager implements Sampleable, InfoProvider {
+public class MCMCManager implements SnapshotSampleable, InfoProvider {
 
 	/** Iteration of MCMC chain. */
 	protected Iteration iteration;
@@ -98,6 +133,15 @@ public class MCMCManager implements Sampleable, InfoProvider {
 	/** Best seen overall (unnormalised) posterior density so far. */
 	protected LogDouble bestPosteriorDensity;
 
+	/** Overall (unnormalised) posterior density of the proposed state. Swapped with the current density on acceptance. */
+	protected LogDouble proposedDensity = new LogDouble(1.0);
+
+	/** Heated posterior density of the proposed state, for chains with heat other than 1. */
+	protected LogDouble heatedProposedDensity = new LogDouble(1.0);
+
+	/** Heated posterior density of the current state, for chains with heat other than 1. */
+	protected LogDouble heatedPosteriorDensity = new LogDouble(1.0);
+
 	/** Best seen state so far. */
 	protected String bestState;
 
@@ -116,6 +160,81 @@ public class MCMCManager implements Sampleable, InfoProvider {
 	/** Debug flag. */
 	protected boolean doDebug = false;
 
+	/** Heat, i.e., inverse temperature, of the chain. 1 for an ordinary chain. */
+	protected double heat = 1.0;
+
+	/** Change infos of the current iteration. */
+	protected ChangeInfoMap changeInfos = new ChangeInfoMap(Collections.<Dependent>emptyList());
+
+	/** Parent dependents of each proper dependent, in topological order. */
+	protected Dependent[][] parents = new Dependent[0][];
+
+	/** Statistics categories by number of used proposers, created on demand. */
+	protected String[] usedProposersCategories = new String[0];
+
+	/** Proposals of the current iteration. */
+	protected ArrayList<Proposal> proposals = new ArrayList<Proposal>(16);
+
+	/** True to update independent dependents concurrently. */
+	protected boolean doConcurrentUpdates = false;
+
+	/** Proper dependents grouped by level in the dependency DAG. Null unless updated concurrently. */
+	protected ArrayList<ArrayList<UpdateTask>> levels = null;
+
+	/** Update tasks of a level which are due in the current iteration. */
+	protected ArrayList<UpdateTask> dueUpdates = new ArrayList<UpdateTask>(16);
+
+	/** Shared pool of worker threads for concurrent updates, see <code>SharedForkJoinPools</code>. Null unless updated concurrently. */
+	protected ForkJoinPool updatePool = null;
+
+	/** Sampling flag of the current iteration, read by update tasks. */
+	protected boolean willSampleUpdate = false;
+
+	/** True to abort the evaluation of proposed states as soon as acceptance is impossible. */
+	protected boolean doEarlyAbort = false;
+
+	/** Models evaluated last, for early abort. Empty unless early abort is enabled. */
+	protected ArrayList<BoundedInferenceModel> boundedModels = new ArrayList<BoundedInferenceModel>(4);
+
+	/** For each proper dependent (in topological order), true if it is among the bounded models. */
+	protected boolean[] isBoundedDependent = new boolean[0];
+
+	/** For each model, true if it is among the bounded models. */
+	protected boolean[] isBoundedModel = new boolean[0];
+
+	/** Work variable for early abort: best attainable density of the remaining bounded models. */
+	protected LogDouble boundedRest = new LogDouble(1.0);
+
+	/** Work variable for early abort: best attainable posterior density. */
+	protected LogDouble boundedBest = new LogDouble(1.0);
+
+	/** Number of iterations in which the evaluation was aborted early. */
+	protected int noOfEarlyAborts = 0;
+
+	/** File to which checkpoints are written. Null if checkpointing is disabled. */
+	protected File checkpointFile = null;
+
+	/** Number of iterations between checkpoints. */
+	protected int checkpointInterval = 0;
+
+	/** Checkpoint file from which the chain is resumed. Null if the chain is started afresh. */
+	protected File resumeFile = null;
+
+	/** Time spent per proposer and dependent. Created when the chain is initialised. */
+	protected PerformanceStatistics perfStats = null;
+
+	/** Output to which performance statistics are streamed. Null if not streamed. */
+	protected BufferedWriter metricsOut = null;
+
+	/** Number of iterations between streamed performance statistics. */
+	protected int metricsInterval = 0;
+
+	/** Checkpoint file format identifier. */
+	private static final int CHECKPOINT_MAGIC = 0x4A50434B;
+
+	/** Checkpoint file format version. */
+	private static final int CHECKPOINT_VERSION = 3;
+
 	/**
 	 * Constructor.
 	 * @param iteration iteration object of the chain.
@@ -209,6 +328,84 @@ public class MCMCManager implements Sampleable, InfoProvider {
 				this.properDependents.add((ProperDependent) dep);
 			}
 		}
+		this.parents = new Dependent[this.properDependents.size()][];
+		for (int i = 0; i < this.parents.length; ++i) {
+			this.parents[i] = this.properDependents.get(i).getParentDependents();
+		}
+		ArrayList<Dependent> all = new ArrayList<Dependent>(this.parameters.size() + this.properDependents.size());
+		all.addAll(this.parameters);
+		all.addAll(this.properDependents);
+		this.changeInfos = new ChangeInfoMap(all);
+		if (this.doConcurrentUpdates) {
+			this.updateLevels();
+		}
+
+		// Models which are evaluated last, in the order they were added.
+		this.boundedModels.clear();
+		this.isBoundedModel = new boolean[this.models.size()];
+		if (this.doEarlyAbort) {
+			for (int i = 0; i < this.models.size(); ++i) {
+				InferenceModel m = this.models.get(i);
+				if (m instanceof BoundedInferenceModel) {
+					this.boundedModels.add((BoundedInferenceModel) m);
+					this.isBoundedModel[i] = true;
+				}
+			}
+		}
+		this.isBoundedDependent = new boolean[this.properDependents.size()];
+		for (int d = 0; d < this.isBoundedDependent.length; ++d) {
+			this.isBoundedDependent[d] = this.boundedModels.contains(this.properDependents.get(d));
+		}
+	}
+
+	/**
+	 * Groups the proper dependents into levels of the dependency DAG, so that no dependent relies on another
+	 * of the same or a later level. Each dependent is placed as late as possible, i.e., all models
+	 * end up in the last level and may be updated concurrently.
+	 */
+	private void updateLevels() {
+		int n = this.properDependents.size();
+		HashMap<Dependent, Integer> idx = new HashMap<Dependent, Integer>(n * 2);
+		for (int i = 0; i < n; ++i) {
+			idx.put(this.properDependents.get(i), i);
+		}
+
+		// Longest path from a source (in topological order), and number of levels.
+		int[] depth = new int[n];
+		int noOfLevels = 0;
+		for (int i = 0; i < n; ++i) {
+			for (Dependent par : this.properDependents.get(i).getParentDependents()) {
+				Integer j = idx.get(par);
+				if (j != null) {
+					depth[i] = Math.max(depth[i], depth[j] + 1);
+				}
+			}
+			noOfLevels = Math.max(noOfLevels, depth[i] + 1);
+		}
+
+		// Latest possible level (in reverse topological order).
+		int[] level = new int[n];
+		Arrays.fill(level, noOfLevels - 1);
+		for (int i = n - 1; i >= 0; --i) {
+			for (Dependent par : this.properDependents.get(i).getParentDependents()) {
+				Integer j = idx.get(par);
+				if (j != null) {
+					level[j] = Math.min(level[j], level[i] - 1);
+				}
+			}
+		}
+
+		this.levels = new ArrayList<ArrayList<UpdateTask>>(noOfLevels);
+		for (int l = 0; l < noOfLevels; ++l) {
+			this.levels.add(new ArrayList<UpdateTask>(4));
+		}
+		int maxWidth = 1;
+		for (int i = 0; i < n; ++i) {
+			ArrayList<UpdateTask> lev = this.levels.get(level[i]);
+			lev.add(new UpdateTask(this.properDependents.get(i), i));
+			maxWidth = Math.max(maxWidth, lev.size());
+		}
+		this.updatePool = (maxWidth > 1 ? SharedForkJoinPools.get(maxWidth) : null);
 	}
 
 	/**
@@ -238,21 +435,160 @@ public class MCMCManager implements Sampleable, InfoProvider {
 		this.doDebug = isOn;
 	}
 
+	/**
+	 * Turns on/off concurrent updates of dependents which do not rely on each other,
+	 * e.g. the substitution model and the DLR model, see class description.
+	 * Must be set prior to running the chain.
+	 * @param isOn true to update concurrently; false to update sequentially in topological order.
+	 */
+	public void setConcurrentUpdates(boolean isOn) {
+		this.doConcurrentUpdates = isOn;
+	}
+
+	/**
+	 * Turns on/off early abort of the evaluation of proposed states, see class description. Saves time
+	 * when expensive models, e.g. the substitution model, are bounded and most proposals are rejected.
+	 * Since the uniform variate of the acceptor is drawn earlier, the chain does not follow the same trajectory as
+	 * without early abort, even for the same seed. Must be set prior to running the chain.
+	 * @param isOn true to enable early abort; false to always evaluate all models.
+	 */
+	public void setEarlyAbort(boolean isOn) {
+		if (isOn && !(this.proposalAcceptor instanceof ThresholdProposalAcceptor)) {
+			throw new IllegalArgumentException("Early abort requires an acceptor with an acceptance threshold, e.g. Metropolis-Hastings.");
+		}
+		this.doEarlyAbort = isOn;
+	}
+
+	/**
+	 * Enables periodic checkpointing of the chain, see class description. A checkpoint is also written
+	 * if the run is terminated by a SIGTERM signal. Must be set prior to running the chain.
+	 * @param f the checkpoint file. It is replaced atomically at every checkpoint.
+	 * @param interval the number of iterations between checkpoints.
+	 */
+	public void setCheckpointing(File f, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Invalid checkpoint interval: " + interval + ".");
+		}
+		this.checkpointFile = f;
+		this.checkpointInterval = interval;
+	}
+
+	/**
+	 * Sets a checkpoint file from which the chain is resumed. The chain must have been set up
+	 * in the very same way as the one which wrote the checkpoint. When resumed, no sample header or
+	 * initial sample is written. Must be set prior to running the chain.
+	 * @param f the checkpoint file.
+	 */
+	public void setResumeFile(File f) {
+		this.resumeFile = f;
+	}
+
+	/**
+	 * Enables streaming of performance statistics, see <code>PerformanceStatistics</code>, as lines of JSON
+	 * with cumulative values. Must be set prior to running the chain.
+	 * @param out the output. Closed when the chain finishes.
+	 * @param interval the number of iterations between lines.
+	 */
+	public void setMetricsOutput(BufferedWriter out, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Invalid performance statistics interval: " + interval + ".");
+		}
+		this.metricsOut = out;
+		this.metricsInterval = interval;
+	}
+
+	/**
+	 * Returns the statistics of the time spent per proposer and dependent.
+	 * @return the statistics; null if the chain has not been initialised.
+	 */
+	public PerformanceStatistics getPerformanceStatistics() {
+		return this.perfStats;
+	}
+
+	/**
+	 * Sets the heat, i.e., the inverse temperature, of the chain. The chain then samples from the posterior
+	 * raised to the heat, which flattens the posterior for heats less than 1. Used for the heated chains
+	 * of Metropolis-coupled MCMC, see <code>ParallelTemperingManager</code>. Sampled densities are always
+	 * those of the ordinary posterior.
+	 * @param heat the heat, 0 &lt; heat &lt;= 1. Default is 1, i.e., an ordinary chain.
+	 */
+	public void setHeat(double heat) {
+		if (heat <= 0.0 || heat > 1.0) {
+			throw new IllegalArgumentException("Invalid MCMC chain heat: " + heat + ".");
+		}
+		this.heat = heat;
+	}
+
+	/**
+	 * Returns the heat, i.e., the inverse temperature, of the chain.
+	 * @return the heat.
+	 */
+	public double getHeat() {
+		return this.heat;
+	}
+
+	/**
+	 * Returns the current overall (unnormalised) posterior density. Note that this
+	 * is not raised to the heat of the chain.
+	 * @return the posterior density.
+	 */
+	public LogDouble getPosteriorDensity() {
+		return this.posteriorDensity;
+	}
+
+	/**
+	 * Returns the fields included in each sampling-tuple.
+	 * @return the sampleables.
+	 */
+	public ArrayList<Sampleable> getSampleables() {
+		return this.sampleables;
+	}
+
+	/**
+	 * Returns the iteration object of the chain.
+	 * @return the iteration.
+	 */
+	public Iteration getIteration() {
+		return this.iteration;
+	}
+
 	/**
 	 * Starts and executes the MCMC chain.
 	 * @throws IOException if unable to produce sampling output.
 	 */
 	public void run() throws IOException,  ArithmeticException{	
+		this.initialise(true);
+		this.runIterations(Integer.MAX_VALUE, true);
+
+		// Post-run stuff.
+		this.finish();
+	}
+
+	/**
+	 * Prepares the chain for iterating. Updates the topological ordering of the dependency DAG and
+	 * computes the initial posterior density, assuming all objects are up-to-date. If a resume file
+	 * has been set, the state of the chain is first restored from it.
+	 * @param doWriteSamples true to write the sample header and initial sample (if the thinner so dictates).
+	 * @throws IOException if unable to produce sampling output or to restore the checkpoint.
+	 */
+	public void initialise(boolean doWriteSamples) throws IOException {
 		
 		// Update the topological ordering of the dependency DAG.
 		this.updateDependencyStructure();
+		this.perfStats = new PerformanceStatistics(this.proposerSelector.getProposers(), this.properDependents);
 
-		// Write sample header.
-		this.sampler.writeSampleHeader(this.sampleables);
+		// Restore state or write sample header.
+		boolean isResumed = (this.resumeFile != null);
+		if (isResumed) {
+			this.readCheckpoint(this.resumeFile);
+			doWriteSamples = false;
+		} else if (doWriteSamples) {
+			this.sampler.writeSampleHeader(this.sampleables);
+		}
 
 		// First time, assume all objects are up-to-date and compute initial posterior density.
 		this.posteriorDensity = new LogDouble(1.0);
-		boolean willSample = this.thinner.doSample();
+		boolean willSample = doWriteSamples && this.thinner.doSample();
 		for (InferenceModel m : this.models) {
 
 
@@ -262,25 +598,36 @@ public class MCMCManager implements Sampleable, InfoProvider {
 		if (willSample) {
 			this.sampler.writeSample(this.sampleables, SamplingMode.ORDINARY);
 		}
-		this.bestPosteriorDensity = this.posteriorDensity;
-		this.bestState = this.sampler.getSample(this.sampleables, SamplingMode.MAX_RECORD);
-
-		// Iterate.
+		if (!isResumed) {
+			this.bestPosteriorDensity = new LogDouble(this.posteriorDensity);
+			this.bestState = this.sampler.getSample(this.sampleables, SamplingMode.MAX_RECORD);
+		}
 		this.startTime = System.nanoTime();
-		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>(16);
-		ArrayList<Proposal> proposals = new ArrayList<Proposal>(16);
+	}
+
+	/**
+	 * Executes a number of iterations of the chain, or fewer if the chain is finished or aborted
+	 * prior to that. <code>initialise()</code> must have been invoked first.
+	 * @param noOfIterations the maximum number of iterations.
+	 * @param doWriteSamples true to write samples when the thinner so dictates; false to never write samples.
+	 * @return true if the chain may continue; false if it has finished or been aborted.
+	 * @throws IOException if unable to produce sampling output.
+	 */
+	public boolean runIterations(int noOfIterations, boolean doWriteSamples) throws IOException, ArithmeticException {
 		try {
-			while (this.iteration.increment()) {
+			for (int i = 0; i < noOfIterations; ++i) {
+				if (!this.iteration.increment()) {
+					return false;
+				}
 
 				// Clear lists.
-				changeInfos.clear();
-				proposals.clear();
+				this.changeInfos.clear();
+				this.proposals.clear();
 
 				// Query whether this is a sample iteration or not.
-				willSample = this.thinner.doSample();
+				boolean willSample = doWriteSamples && this.thinner.doSample();
 
 				// Get proposer(s) to use.
-				;
 				ArrayList<Proposer> shakeItBaby = this.proposerSelector.getDisjointProposers();
 				
 				// Debug info.
@@ -295,32 +642,51 @@ public class MCMCManager implements Sampleable, InfoProvider {
 				}
 
 				// Perturb state parameters.
-				for (Proposer proposer : shakeItBaby) {
-					Proposal proposal = proposer.cacheAndPerturb(changeInfos);
-					proposals.add(proposal);
+				long startTime = System.nanoTime();
+				for (int j = 0; j < shakeItBaby.size(); ++j) {
+					Proposer proposer = shakeItBaby.get(j);
+					long t = System.nanoTime();
+					Proposal proposal = proposer.cacheAndPerturb(this.changeInfos);
+					this.perfStats.addProposal(this.perfStats.getIndex(proposer), System.nanoTime() - t);
+					this.proposals.add(proposal);
 				}
 
 				// Update in topological order, but only if deemed necessary.
-				for (ProperDependent dep : this.properDependents) {
-					for (Dependent parent : dep.getParentDependents()) {
-						if (changeInfos.get(parent) != null) {
-							dep.cacheAndUpdate(changeInfos, willSample);
-							break;
+				// Bounded models are deferred in case of early abort.
+				if (this.levels == null) {
+					for (int d = 0; d < this.properDependents.size(); ++d) {
+						ProperDependent dep = this.properDependents.get(d);
+						if (this.hasChangedParent(d) && !this.isBoundedDependent[d]) {
+							long t = System.nanoTime();
+							dep.cacheAndUpdate(this.changeInfos, willSample);
+							this.perfStats.addUpdate(d, System.nanoTime() - t, this.changeInfos.get(dep));
 						}
 					}
+				} else {
+					this.updateConcurrently(willSample);
 				}
 
 				// Get posterior density of proposed state.
-				LogDouble newPosteriorDensity = new LogDouble(1.0);
-				for (InferenceModel m : this.models) {
-					newPosteriorDensity.mult(m.getDataProbability());
+				LogDouble newPosteriorDensity = this.proposedDensity.set(1.0);
+				for (int j = 0; j < this.models.size(); ++j) {
+					InferenceModel m = this.models.get(j);
+					if (!this.isBoundedModel[j]) {
+						newPosteriorDensity.mult(m.getDataProbability());
+					}
 				}
 
 				// Finally, decide whether to accept or reject.
 				boolean doAccept = false;
 				try {
-					if(newPosteriorDensity.greaterThan(0.0)){
-						doAccept = this.proposalAcceptor.acceptProposedState(newPosteriorDensity, this.posteriorDensity, proposals);
+					if (this.doEarlyAbort) {
+						doAccept = this.evaluateBoundedModels(newPosteriorDensity, willSample);
+					} else if (newPosteriorDensity.greaterThan(0.0)) {
+						if (this.heat == 1.0) {
+							doAccept = this.proposalAcceptor.acceptProposedState(newPosteriorDensity, this.posteriorDensity, this.proposals);
+						} else {
+							doAccept = this.proposalAcceptor.acceptProposedState(this.heatedProposedDensity.set(newPosteriorDensity).pow(this.heat),
+									this.heatedPosteriorDensity.set(this.posteriorDensity).pow(this.heat), this.proposals);
+						}
 						//System.out.println();
 //						for (InferenceModel m : this.models) {	
 //							System.out.println( m.toString() + "\t prob:" + m.getDataProbability(this.prng) );
@@ -340,54 +706,361 @@ public class MCMCManager implements Sampleable, InfoProvider {
 
 				// Update accordingly.
 				if (doAccept) {
-					stats.increment(true, "" + shakeItBaby.size() + " used proposers");
-					for (Proposer proposer : shakeItBaby) {
+					stats.increment(true, this.getUsedProposersCategory(shakeItBaby.size()));
+					for (int j = 0; j < shakeItBaby.size(); ++j) {
+						Proposer proposer = shakeItBaby.get(j);
+						long t = System.nanoTime();
 						proposer.clearCache();
+						this.perfStats.addProposerTime(this.perfStats.getIndex(proposer), System.nanoTime() - t);
 					}
-					for (ProperDependent dep : this.properDependents) {
-						if (changeInfos.get(dep) != null) {
+					for (int d = 0; d < this.properDependents.size(); ++d) {
+						ProperDependent dep = this.properDependents.get(d);
+						if (this.changeInfos.get(dep) != null) {
+							long t = System.nanoTime();
 							dep.clearCache(willSample);
+							this.perfStats.addDependentTime(d, System.nanoTime() - t);
 						}
 					}
+					this.proposedDensity = this.posteriorDensity;
 					this.posteriorDensity = newPosteriorDensity;
 					if (this.bestPosteriorDensity.lessThan(newPosteriorDensity)) {
-						this.bestPosteriorDensity = newPosteriorDensity;
+						this.bestPosteriorDensity.set(newPosteriorDensity);
 						this.bestState = this.sampler.getSample(this.sampleables, SamplingMode.MAX_RECORD);
 					}
 				} else {
-					stats.increment(false, "" + shakeItBaby.size() + " used proposers");
-					for (Proposer proposer : shakeItBaby) {
+					stats.increment(false, this.getUsedProposersCategory(shakeItBaby.size()));
+					for (int j = 0; j < shakeItBaby.size(); ++j) {
+						Proposer proposer = shakeItBaby.get(j);
+						long t = System.nanoTime();
 						proposer.restoreCache();
+						this.perfStats.addProposerTime(this.perfStats.getIndex(proposer), System.nanoTime() - t);
 					}
-					for (ProperDependent dep: this.properDependents) {
-						if (changeInfos.get(dep) != null) {
+					for (int d = 0; d < this.properDependents.size(); ++d) {
+						ProperDependent dep = this.properDependents.get(d);
+						if (this.changeInfos.get(dep) != null) {
+							long t = System.nanoTime();
 							dep.restoreCache(willSample);
+							this.perfStats.addDependentTime(d, System.nanoTime() - t);
 						}
 					}
 				}
 
+				// Attribute the time spent evenly to the used proposers.
+				long time = (System.nanoTime() - startTime) / shakeItBaby.size();
+				for (int j = 0; j < shakeItBaby.size(); ++j) {
+					ProposerStatistics ps = shakeItBaby.get(j).getStatistics();
+					if (ps != null) {
+						ps.addTime(time);
+					}
+				}
+
 				// Debug info.
 				if (this.doDebug) {
 					this.sampler.writeString(doAccept ? " ...cached state deleted.\n" : " ...cached state reinstated.\n");
 				}
 				
+				// Sample, if desired.
+				if (willSample) {
+					this.sampler.writeSample(this.sampleables, SamplingMode.ORDINARY);
+				}
+				
 				if (JPrIMEStarter.shutDown) {
 					// SIGTERM signal received, time to stop running
+					if (this.checkpointFile != null) {
+						this.writeCheckpoint();
+					}
 					this.endTime = System.nanoTime();
-					return;
+					return false;
 				}
 				
-				// Sample, if desired.
-				if (willSample) {
-					this.sampler.writeSample(this.sampleables, SamplingMode.ORDINARY);
+				// Stream performance statistics, if desired.
+				if (this.metricsOut != null && this.iteration.getIteration() % this.metricsInterval == 0) {
+					this.perfStats.writeJSON(this.metricsOut, this.iteration.getIteration(), System.nanoTime() - this.startTime);
+				}
+				
+				// Checkpoint, if desired.
+				if (this.checkpointFile != null && this.iteration.getIteration() % this.checkpointInterval == 0) {
+					this.writeCheckpoint();
 				}
 			}
 		} catch (RunAbortedException rae) {
 			this.runAbortedMessage = rae.getMessage();
+			return false;
 		}
+		return true;
+	}
 
-		// Post-run stuff.
+	/**
+	 * Returns true if any of the parents of a proper dependent has changed in the current iteration.
+	 * @param dep the index of the proper dependent.
+	 * @return true if a parent has changed.
+	 */
+	private boolean hasChangedParent(int dep) {
+		Dependent[] pars = this.parents[dep];
+		if (pars == null) {
+			return false;
+		}
+		for (int i = 0; i < pars.length; ++i) {
+			if (this.changeInfos.get(pars[i]) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the statistics category of iterations with a certain number of used proposers.
+	 * @param n the number of used proposers.
+	 * @return the category.
+	 */
+	private String getUsedProposersCategory(int n) {
+		if (n >= this.usedProposersCategories.length) {
+			this.usedProposersCategories = Arrays.copyOf(this.usedProposersCategories, n + 1);
+		}
+		if (this.usedProposersCategories[n] == null) {
+			this.usedProposersCategories[n] = "" + n + " used proposers";
+		}
+		return this.usedProposersCategories[n];
+	}
+
+	/**
+	 * Draws the acceptance threshold of the proposed state and then updates and evaluates the bounded models
+	 * one at a time, as long as the threshold may still be attained, see class description.
+	 * @param density the posterior density of the proposed state over all other models. Multiplied in place
+	 *        with the densities of the evaluated bounded models.
+	 * @param willSample true if the pending state will be sampled.
+	 * @return true if the proposed state is accepted; false if rejected.
+	 */
+	private boolean evaluateBoundedModels(LogDouble density, boolean willSample) {
+		LogDouble old = (this.heat == 1.0 ? this.posteriorDensity : this.heatedPosteriorDensity.set(this.posteriorDensity).pow(this.heat));
+		LogDouble threshold = ((ThresholdProposalAcceptor) this.proposalAcceptor).drawAcceptanceThreshold(old, this.proposals);
+		if (threshold == null) {
+			return false;
+		}
+		
+		// Threshold of the (unheated) posterior density.
+		LogDouble target = (this.heat == 1.0 ? threshold : threshold.pow(1.0 / this.heat));
+		for (int i = 0; i < this.boundedModels.size(); ++i) {
+			BoundedInferenceModel m = this.boundedModels.get(i);
+			
+			// Best attainable density of the remaining models, given that they reach their upper bounds.
+			LogDouble rest = this.boundedRest.set(1.0);
+			for (int j = i + 1; j < this.boundedModels.size(); ++j) {
+				rest.mult(this.boundedModels.get(j).getDataProbabilityUpperBound());
+			}
+			LogDouble best = this.boundedBest.set(density).mult(rest).mult(m.getDataProbabilityUpperBound());
+			if (!best.greaterThan(0.0) || best.lessThan(target)) {
+				this.noOfEarlyAborts++;
+				return false;
+			}
+			int d = this.perfStats.getIndex(m);
+			if (this.hasChangedParent(d)) {
+				// Minimum density of the model: target / (density * rest).
+				LogDouble min = this.boundedBest.set(target).div(rest.mult(density));
+				long t = System.nanoTime();
+				boolean isAttainable = m.cacheAndUpdate(this.changeInfos, willSample, min);
+				this.perfStats.addUpdate(d, System.nanoTime() - t, this.changeInfos.get(m));
+				if (!isAttainable) {
+					this.noOfEarlyAborts++;
+					return false;
+				}
+			}
+			density.mult(m.getDataProbability());
+		}
+		return (density.greaterThan(0.0) && density.greaterThanOrEquals(target));
+	}
+
+	/**
+	 * Updates the dependents level by level, where those of a level which are due
+	 * for an update are updated concurrently.
+	 * @param willSample true if the pending state will be sampled.
+	 */
+	private void updateConcurrently(boolean willSample) {
+		this.willSampleUpdate = willSample;
+		for (int l = 0; l < this.levels.size(); ++l) {
+			ArrayList<UpdateTask> level = this.levels.get(l);
+			this.dueUpdates.clear();
+			for (int i = 0; i < level.size(); ++i) {
+				UpdateTask task = level.get(i);
+				if (this.hasChangedParent(task.index) && !this.isBoundedDependent[task.index]) {
+					this.dueUpdates.add(task);
+				}
+			}
+			if (this.dueUpdates.size() == 1) {
+				this.dueUpdates.get(0).call();
+			} else if (this.dueUpdates.size() > 1) {
+				try {
+					for (Future<Void> f : this.updatePool.invokeAll(this.dueUpdates)) {
+						f.get();
+					}
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Concurrent update of dependents was interrupted.", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the current state of the chain to the checkpoint file, see class description. The sampler is
+	 * flushed first, so that the output is in line with the checkpoint. The checkpoint is written to a temporary
+	 * file which then replaces the previous checkpoint, so that a valid checkpoint remains should the run be killed.
+	 * @throws IOException if unable to write the checkpoint.
+	 */
+	public void writeCheckpoint() throws IOException {
+		this.sampler.flush();
+		File tmp = new File(this.checkpointFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeInt(CHECKPOINT_VERSION);
+			this.iteration.writeCheckpoint(out);
+			this.prng.writeCheckpoint(out);
+			out.writeDouble(this.bestPosteriorDensity.getLogValue());
+			out.writeInt(this.bestPosteriorDensity.getSign());
+			byte[] best = this.bestState.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(best.length);
+			out.write(best);
+			out.writeInt(this.parameters.size());
+			for (StateParameter p : this.parameters) {
+				if (!(p instanceof Checkpointable)) {
+					throw new IOException("Cannot checkpoint state parameter " + p.getName() + ".");
+				}
+				out.writeUTF(p.getName());
+				((Checkpointable) p).writeCheckpoint(out);
+			}
+			this.stats.writeCheckpoint(out);
+			List<Proposer> proposers = this.proposerSelector.getProposers();
+			out.writeInt(proposers.size());
+			for (Proposer proposer : proposers) {
+				ProposerStatistics ps = proposer.getStatistics();
+				out.writeBoolean(ps != null);
+				if (ps != null) {
+					ps.writeCheckpoint(out);
+				}
+				List<TuningParameter> tps = proposer.getTuningParameters();
+				if (tps != null) {
+					for (TuningParameter tp : tps) {
+						if (tp instanceof Checkpointable) {
+							((Checkpointable) tp).writeCheckpoint(out);
+						}
+					}
+				}
+			}
+			out.writeBoolean(this.proposerSelector instanceof Checkpointable);
+			if (this.proposerSelector instanceof Checkpointable) {
+				((Checkpointable) this.proposerSelector).writeCheckpoint(out);
+			}
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(tmp.toPath(), this.checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), this.checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Restores the state of the chain from a checkpoint, see class description, and
+	 * brings all dependents up-to-date with the restored state parameters.
+	 * @param f the checkpoint file.
+	 * @throws IOException if unable to read the checkpoint or if it does not match the chain.
+	 */
+	protected void readCheckpoint(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try {
+			if (in.readInt() != CHECKPOINT_MAGIC) {
+				throw new IOException("Invalid checkpoint file: " + f + ".");
+			}
+			int version = in.readInt();
+			if (version != CHECKPOINT_VERSION) {
+				throw new IOException("Unsupported checkpoint file version: " + version + ".");
+			}
+			this.iteration.readCheckpoint(in);
+			this.prng.readCheckpoint(in);
+			double bestLog = in.readDouble();
+			this.bestPosteriorDensity = new LogDouble(bestLog, in.readInt());
+			byte[] best = new byte[in.readInt()];
+			in.readFully(best);
+			this.bestState = new String(best, StandardCharsets.UTF_8);
+			if (in.readInt() != this.parameters.size()) {
+				throw new IOException("Checkpoint does not match the number of state parameters of the chain.");
+			}
+			for (StateParameter p : this.parameters) {
+				String name = in.readUTF();
+				if (!name.equals(p.getName()) || !(p instanceof Checkpointable)) {
+					throw new IOException("Checkpoint does not match state parameter " + p.getName() + ".");
+				}
+				((Checkpointable) p).readCheckpoint(in);
+			}
+			this.stats.readCheckpoint(in);
+			List<Proposer> proposers = this.proposerSelector.getProposers();
+			if (in.readInt() != proposers.size()) {
+				throw new IOException("Checkpoint does not match the number of proposers of the chain.");
+			}
+			for (Proposer proposer : proposers) {
+				ProposerStatistics ps = proposer.getStatistics();
+				if (in.readBoolean() != (ps != null)) {
+					throw new IOException("Checkpoint does not match the statistics of proposer " + proposer.toString() + ".");
+				}
+				if (ps != null) {
+					ps.readCheckpoint(in);
+				}
+				List<TuningParameter> tps = proposer.getTuningParameters();
+				if (tps != null) {
+					for (TuningParameter tp : tps) {
+						if (tp instanceof Checkpointable) {
+							((Checkpointable) tp).readCheckpoint(in);
+						}
+					}
+				}
+			}
+			if (in.readBoolean() != (this.proposerSelector instanceof Checkpointable)) {
+				throw new IOException("Checkpoint does not match the proposer selector of the chain.");
+			}
+			if (this.proposerSelector instanceof Checkpointable) {
+				((Checkpointable) this.proposerSelector).readCheckpoint(in);
+			}
+		} finally {
+			in.close();
+		}
+
+		// Update all dependents as if every state parameter had changed.
+		this.changeInfos.clear();
+		for (StateParameter p : this.parameters) {
+			this.changeInfos.put(p, new ChangeInfo(p, "Restored from checkpoint."));
+		}
+		for (int d = 0; d < this.properDependents.size(); ++d) {
+			if (this.hasChangedParent(d)) {
+				this.properDependents.get(d).cacheAndUpdate(this.changeInfos, false);
+			}
+		}
+		for (ProperDependent dep : this.properDependents) {
+			if (this.changeInfos.get(dep) != null) {
+				dep.clearCache(false);
+			}
+		}
+		this.changeInfos.clear();
+	}
+
+	/**
+	 * Marks the end of the run for timing purposes, and writes the final streamed performance
+	 * statistics, if any. Invoked by <code>run()</code>, but must be invoked explicitly when the chain has
+	 * been executed by means of <code>runIterations()</code>.
+	 * @throws IOException if unable to write the performance statistics.
+	 */
+	public void finish() throws IOException {
 		this.endTime = System.nanoTime();
+		if (this.metricsOut != null) {
+			this.perfStats.writeJSON(this.metricsOut, this.iteration.getIteration(), this.endTime - this.startTime);
+			this.metricsOut.close();
+			this.metricsOut = null;
+		}
 	}
 
 	@Override
@@ -405,6 +1078,21 @@ public class MCMCManager implements Sampleable, InfoProvider {
 		return this.posteriorDensity.toString();
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new LogDouble();
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		((LogDouble) snapshot).set(this.posteriorDensity);
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		return snapshot.toString();
+	}
+
 	@Override
 	public String getPreInfo(String prefix) {
 		StringBuilder sb = new StringBuilder(65536);
@@ -424,6 +1112,18 @@ public class MCMCManager implements Sampleable, InfoProvider {
 			sb.append(prefix).append("Model ").append(i++).append(":\n");
 			sb.append(mod.getPreInfo(prefix + '\t'));
 		}
+		if (this.doConcurrentUpdates) {
+			sb.append(prefix).append("Concurrent updates of independent dependents: on\n");
+		}
+		if (this.doEarlyAbort) {
+			sb.append(prefix).append("Early abort of proposed state evaluation: on\n");
+		}
+		if (this.resumeFile != null) {
+			sb.append(prefix).append("Resumed from checkpoint: ").append(this.resumeFile).append('\n');
+		}
+		if (this.checkpointFile != null) {
+			sb.append(prefix).append("Checkpoint file: ").append(this.checkpointFile).append(", interval: ").append(this.checkpointInterval).append('\n');
+		}
 		sb.append(prefix).append("Overall statistics:\n");
 		sb.append(this.stats.getPreInfo(prefix + '\t'));
 		return sb.toString();
@@ -464,8 +1164,45 @@ public class MCMCManager implements Sampleable, InfoProvider {
 			sb.append(prefix).append("Model ").append(i++).append(":\n");
 			sb.append(mod.getPostInfo(prefix + '\t'));
 		}
+		if (this.doEarlyAbort) {
+			sb.append(prefix).append("Early aborted evaluations of proposed states: ").append(this.noOfEarlyAborts).append('\n');
+		}
 		sb.append(prefix).append("Statistics:\n");
 		sb.append(this.stats.getPostInfo(prefix + '\t'));
+		if (this.perfStats != null) {
+			sb.append(prefix).append("Performance statistics:\n");
+			sb.append(this.perfStats.getPostInfo(prefix + '\t'));
+		}
 		return sb.toString();
 	}
+
+	/**
+	 * Task for updating a proper dependent on a worker thread.
+	 */
+	protected class UpdateTask implements Callable<Void> {
+
+		/** The dependent. */
+		protected final ProperDependent dep;
+
+		/** The index of the dependent among the proper dependents. */
+		protected final int index;
+
+		/**
+		 * Constructor.
+		 * @param dep the dependent.
+		 * @param index the index of the dependent among the proper dependents.
+		 */
+		protected UpdateTask(ProperDependent dep, int index) {
+			this.dep = dep;
+			this.index = index;
+		}
+
+		@Override
+		public Void call() {
+			long t = System.nanoTime();
+			this.dep.cacheAndUpdate(changeInfos, willSampleUpdate);
+			perfStats.addUpdate(this.index, System.nanoTime() - t, changeInfos.get(this.dep));
+			return null;
+		}
+	}
 }
@@ -12,10 +12,19 @@ import se.cbb.jprime.math.PRNG;
  * 
  * @author Joel Sjöstrand.
  */
-public class MetropolisHastingsAcceptor implements ProposalAcceptor {
+public class MetropolisHastingsAcceptor implements ThresholdProposalAcceptor {
 
 	/** Pseudo-random number generator. */
 	private PRNG prng;
+	
+	/** Acceptance ratio, reused between invocations. */
+	private LogDouble ratio = new LogDouble(1.0);
+	
+	/** Proposal density ratio, reused between invocations. */
+	private LogDouble densityRatio = new LogDouble(1.0);
+	
+	/** Acceptance threshold, reused between invocations. */
+	private LogDouble threshold = new LogDouble(1.0);
 
 	/**
 	 * Constructor.
@@ -36,16 +45,45 @@ public class MetropolisHastingsAcceptor implements ProposalAcceptor {
 	public boolean acceptProposedState(LogDouble proposedStateLikelihood,
 			LogDouble oldStateLikelihood, List<Proposal> proposals) throws RunAbortedException {
 		
-		LogDouble a = proposedStateLikelihood.divToNew(oldStateLikelihood);
+		LogDouble a = this.ratio.set(proposedStateLikelihood).div(oldStateLikelihood);
 		if (proposals != null) {
-			for (Proposal prop : proposals) {
+			for (int i = 0; i < proposals.size(); ++i) {
+				Proposal prop = proposals.get(i);
 				if (!prop.isValid()) {
 					return false;
 				}
-				a.mult(((MetropolisHastingsProposal) prop).getDensityRatio());
+				MetropolisHastingsProposal mhp = (MetropolisHastingsProposal) prop;
+				a.mult(this.densityRatio.set(mhp.getBackwardDensity()).div(mhp.getForwardDensity()));
+			}
+		}
+		return a.greaterThanOrEquals(prng.nextDouble());   // Accounts also for case a >= 1.0.
+	}
+	
+	/**
+	 * Draws the threshold a proposed state x' must attain to be accepted according to the Metropolis-Hastings sampling
+	 * scheme, i.e., u P(x) q(x'|x) / q(x|x') for a uniform variate u.
+	 * @param oldStateLikelihood the likelihood P(x) of the old state x.
+	 * @param proposals details the proposals made for going from x to x'. Elements must be of type <code>MetropolisHastingsProposal</code>.
+	 * @return the threshold, reused between invocations; null if the proposal is invalid or x' cannot be reached.
+	 */
+	@Override
+	public LogDouble drawAcceptanceThreshold(LogDouble oldStateLikelihood, List<Proposal> proposals) {
+		LogDouble ratio = this.ratio.set(1.0);
+		if (proposals != null) {
+			for (int i = 0; i < proposals.size(); ++i) {
+				Proposal prop = proposals.get(i);
+				if (!prop.isValid()) {
+					return null;
+				}
+				MetropolisHastingsProposal mhp = (MetropolisHastingsProposal) prop;
+				ratio.mult(this.densityRatio.set(mhp.getBackwardDensity()).div(mhp.getForwardDensity()));
 			}
 		}
-		return a.greaterThanOrEquals(new LogDouble(prng.nextDouble()));   // Accounts also for case a >= 1.0.
+		LogDouble threshold = this.threshold.set(prng.nextDouble());
+		if (ratio.isZero()) {
+			return null;
+		}
+		return threshold.mult(oldStateLikelihood).div(ratio);
 	}
 	
 	@Override
@@ -101,6 +101,21 @@ public class MetropolisHastingsProposal implements Proposal {
 		return this.backwardDensity;
 	}
 
+	/**
+	 * Resets the densities of this proposal, so that a proposer may reuse the same
+	 * instance between iterations rather than creating a new one.
+	 * @param forwardDensity the "forward" proposal density Q(x';x).
+	 * @param backwardDensity the "backward" proposal density Q(x;x').
+	 * @param noOfPerturbedSubParams the number of perturbed sub-parameters.
+	 * @return this proposal.
+	 */
+	public MetropolisHastingsProposal set(LogDouble forwardDensity, LogDouble backwardDensity, int noOfPerturbedSubParams) {
+		this.forwardDensity = forwardDensity;
+		this.backwardDensity = backwardDensity;
+		this.noOfSubParams = noOfPerturbedSubParams;
+		return this;
+	}
+
 	/**
 	 * Returns the ratio Q(x;x')/Q(x';x) for the old state x and the new state
 	 * x', i.e. the ratio between the "backward" and "forward" proposal densities
@@ -0,0 +1,321 @@
+package se.cbb.jprime.mcmc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import se.cbb.jprime.math.PRNG;
+
+/**
+ * MCMC framework class for running a number of independent <code>MCMCManager</code> chains
+ * of the same model concurrently on a thread pool within a single process. Every chain must be built from its
+ * own, independent objects (state parameters, dependents, iteration, proposers, PRNG, sampler etc.).
+ * <p/>
+ * Every c-th iteration, convergence diagnostics are computed over the samples drawn so far,
+ * excluding a burn-in proportion, see <code>ConvergenceDiagnostics</code>:
+ * <ul>
+ * <li>the maximum split-R^ and the minimum ESS over all real-valued sampleables.</li>
+ * <li>the ASDSF of the first sampled tree.</li>
+ * </ul>
+ * The diagnostics are written to an output stream, and, optionally, the run is stopped early
+ * once all thresholds are met.
+ *
+ * @author agent.
+ */
+public class MultiChainManager implements InfoProvider {
+
+	/** Minimum clade frequency in some chain for it to be included in the ASDSF. */
+	public static final double ASDSF_MIN_FREQ = 0.1;
+
+	/** Chains. */
+	protected ArrayList<MCMCManager> chains;
+
+	/** Pseudo-random number generator for chain seeds. */
+	protected PRNG prng;
+
+	/** Samples of each chain. */
+	protected ArrayList<ChainTrace> traces;
+
+	/** Number of iterations between convergence checks. */
+	protected int checkInterval;
+
+	/** Proportion of samples discarded as burn-in when computing diagnostics. */
+	protected double burninProp;
+
+	/** Maximum split-R^ for convergence. */
+	protected double maxRHat;
+
+	/** Minimum ESS for convergence. */
+	protected double minESS;
+
+	/** Maximum ASDSF for convergence. */
+	protected double maxASDSF;
+
+	/** True to stop once converged. */
+	protected boolean doStopWhenConverged;
+
+	/** Output stream for diagnostics. Null if not used. */
+	protected BufferedWriter out;
+
+	/** Most recent diagnostics: maximum split-R^, minimum ESS, ASDSF. */
+	protected double[] lastDiagnostics = new double[] { Double.NaN, Double.NaN, Double.NaN };
+
+	/** Iteration at which convergence was first reached; -1 if not reached. */
+	protected int convergenceIteration = -1;
+
+	/** Time at run start in ns. */
+	protected long startTime = -1;
+
+	/** Time at run end in ns. */
+	protected long endTime = -1;
+
+	/**
+	 * Constructor.
+	 * @param prng pseudo-random number generator for seeding the chains.
+	 * @param checkInterval number of iterations between convergence checks, &gt; 0.
+	 * @param burninProp proportion of samples discarded as burn-in when computing diagnostics, in [0,1).
+	 * @param maxRHat maximum split-R^ for convergence.
+	 * @param minESS minimum ESS for convergence.
+	 * @param maxASDSF maximum ASDSF for convergence.
+	 * @param doStopWhenConverged true to stop once all thresholds are met.
+	 * @param out output stream for diagnostics. May be null.
+	 */
+	public MultiChainManager(PRNG prng, int checkInterval, double burninProp, double maxRHat, double minESS, double maxASDSF,
+			boolean doStopWhenConverged, BufferedWriter out) {
+		if (checkInterval < 1) {
+			throw new IllegalArgumentException("Invalid convergence check interval: " + checkInterval + ".");
+		}
+		if (burninProp < 0.0 || burninProp >= 1.0) {
+			throw new IllegalArgumentException("Invalid burn-in proportion: " + burninProp + ".");
+		}
+		this.chains = new ArrayList<MCMCManager>(8);
+		this.traces = new ArrayList<ChainTrace>(8);
+		this.prng = prng;
+		this.checkInterval = checkInterval;
+		this.burninProp = burninProp;
+		this.maxRHat = maxRHat;
+		this.minESS = minESS;
+		this.maxASDSF = maxASDSF;
+		this.doStopWhenConverged = doStopWhenConverged;
+		this.out = out;
+	}
+
+	/**
+	 * Adds a chain. Its samples are recorded for diagnostics by decorating its sampler.
+	 * @param chain the chain.
+	 */
+	public void addChain(MCMCManager chain) {
+		ChainTrace trace = new ChainTrace(chain.sampler);
+		chain.sampler = trace;
+		this.chains.add(chain);
+		this.traces.add(trace);
+	}
+
+	/**
+	 * Returns a new PRNG for a chain, seeded from the PRNG of this manager,
+	 * so that runs are reproducible given the seed of the latter.
+	 * @return the PRNG.
+	 */
+	public PRNG getChainPRNG() {
+		return new PRNG(BigInteger.valueOf(this.prng.nextLong()));
+	}
+
+	/**
+	 * Starts and executes all chains.
+	 * @throws IOException if unable to produce sampling output.
+	 */
+	public void run() throws IOException {
+		int n = this.chains.size();
+		if (n == 0) {
+			throw new IllegalStateException("Cannot run without chains.");
+		}
+		for (MCMCManager chain : this.chains) {
+			chain.initialise(true);
+		}
+		if (this.out != null) {
+			this.out.write("# Iteration\tMaxSplitRHat\tMinESS\tASDSF\n");
+		}
+
+		this.startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(n);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(n);
+			for (final MCMCManager chain : this.chains) {
+				tasks.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return chain.runIterations(checkInterval, true);
+					}
+				});
+			}
+			boolean doContinue = true;
+			int lastCheck = this.chains.get(0).getIteration().getIteration();
+			while (doContinue) {
+				for (Future<Boolean> f : executor.invokeAll(tasks)) {
+					if (!f.get()) {
+						doContinue = false;
+					}
+				}
+				int it = this.chains.get(0).getIteration().getIteration();
+				if (it == lastCheck) {
+					break;
+				}
+				lastCheck = it;
+				this.computeDiagnostics();
+				if (this.isConverged() && this.convergenceIteration < 0) {
+					this.convergenceIteration = it;
+					if (this.doStopWhenConverged) {
+						doContinue = false;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Multiple chain run was interrupted.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			executor.shutdown();
+			for (MCMCManager chain : this.chains) {
+				chain.finish();
+			}
+			this.endTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Computes the convergence diagnostics over the samples drawn so far and writes them to the output stream.
+	 * @throws IOException.
+	 */
+	protected void computeDiagnostics() throws IOException {
+		int to = Integer.MAX_VALUE;
+		for (ChainTrace trace : this.traces) {
+			to = Math.min(to, trace.getNoOfSamples());
+		}
+		int from = (int) (this.burninProp * to);
+
+		// Real-valued parameters.
+		double maxRHat = Double.NaN;
+		double minESS = Double.NaN;
+		int noOfParams = this.traces.get(0).getNames().size();
+		for (int j = 0; j < noOfParams; ++j) {
+			List<double[]> vals = new ArrayList<double[]>(this.traces.size());
+			for (ChainTrace trace : this.traces) {
+				vals.add(trace.getValues(j));
+			}
+			double rHat = ConvergenceDiagnostics.splitRHat(vals, from, to);
+			double ess = ConvergenceDiagnostics.ess(vals, from, to);
+			// Constant parameters (NaN) are disregarded.
+			if (!Double.isNaN(rHat)) {
+				maxRHat = (Double.isNaN(maxRHat) ? rHat : Math.max(maxRHat, rHat));
+			}
+			if (!Double.isNaN(ess)) {
+				minESS = (Double.isNaN(minESS) ? ess : Math.min(minESS, ess));
+			}
+		}
+
+		// Trees.
+		double asdsf = Double.NaN;
+		if (this.traces.get(0).hasTrees() && to > from) {
+			HashMap<String, Integer> indices = new HashMap<String, Integer>(256);
+			List<HashMap<String, Double>> chainFreqs = new ArrayList<HashMap<String, Double>>(this.traces.size());
+			for (ChainTrace trace : this.traces) {
+				HashMap<String, Double> freqs = trace.getCladeFrequencies(from, to);
+				for (String key : freqs.keySet()) {
+					if (!indices.containsKey(key)) {
+						indices.put(key, indices.size());
+					}
+				}
+				chainFreqs.add(freqs);
+			}
+			double[][] freqs = new double[this.traces.size()][indices.size()];
+			for (int k = 0; k < freqs.length; ++k) {
+				for (Map.Entry<String, Double> kv : chainFreqs.get(k).entrySet()) {
+					freqs[k][indices.get(kv.getKey())] = kv.getValue();
+				}
+			}
+			asdsf = ConvergenceDiagnostics.asdsf(freqs, ASDSF_MIN_FREQ);
+		}
+
+		this.lastDiagnostics = new double[] { maxRHat, minESS, asdsf };
+		if (this.out != null) {
+			this.out.write("# " + this.chains.get(0).getIteration().getIteration() + '\t' + maxRHat + '\t' + minESS + '\t' + asdsf + '\n');
+			this.out.flush();
+		}
+	}
+
+	/**
+	 * Returns true if the most recent diagnostics meet all thresholds. Diagnostics which could not
+	 * be computed (e.g. the ASDSF when the tree is fixed) are disregarded, but at least one must be available.
+	 * @return true if converged.
+	 */
+	public boolean isConverged() {
+		double rHat = this.lastDiagnostics[0];
+		double ess = this.lastDiagnostics[1];
+		double asdsf = this.lastDiagnostics[2];
+		if (Double.isNaN(rHat) && Double.isNaN(ess) && Double.isNaN(asdsf)) {
+			return false;
+		}
+		return ((Double.isNaN(rHat) || rHat <= this.maxRHat) &&
+				(Double.isNaN(ess) || ess >= this.minESS) &&
+				(Double.isNaN(asdsf) || asdsf <= this.maxASDSF));
+	}
+
+	@Override
+	public String getPreInfo(String prefix) {
+		StringBuilder sb = new StringBuilder(65536);
+		sb.append(prefix).append("MULTIPLE CHAIN MANAGER\n");
+		sb.append(prefix).append("Number of independent chains: ").append(this.chains.size()).append('\n');
+		sb.append(prefix).append("Convergence check interval: ").append(this.checkInterval).append('\n');
+		sb.append(prefix).append("Burn-in proportion: ").append(this.burninProp).append('\n');
+		sb.append(prefix).append("Convergence thresholds: split-R^ <= ").append(this.maxRHat).append(", ESS >= ").append(this.minESS)
+		.append(", ASDSF <= ").append(this.maxASDSF).append('\n');
+		sb.append(prefix).append("Stop when converged: ").append(this.doStopWhenConverged).append('\n');
+		for (int i = 0; i < this.chains.size(); ++i) {
+			sb.append(prefix).append("Chain ").append(i + 1).append(":\n");
+			sb.append(this.chains.get(i).getPreInfo(prefix + '\t'));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String getPostInfo(String prefix) {
+		StringBuilder sb = new StringBuilder(65536);
+		sb.append(prefix).append("MULTIPLE CHAIN MANAGER\n");
+		long ns = this.endTime - this.startTime;
+		double s = (double) ns / 1000000000.0;
+		double m = s / 60.0;
+		double h = m / 60.0;
+		DecimalFormat df = new DecimalFormat("#.##");
+		sb.append(prefix).append("Wall time: ")
+		.append(ns).append(" ns = ")
+		.append(df.format(s)).append(" s = ")
+		.append(df.format(m)).append(" min = ")
+		.append(df.format(h)).append(" h\n");
+		sb.append(prefix).append("Final max split-R^: ").append(this.lastDiagnostics[0]).append('\n');
+		sb.append(prefix).append("Final min ESS: ").append(this.lastDiagnostics[1]).append('\n');
+		sb.append(prefix).append("Final ASDSF: ").append(this.lastDiagnostics[2]).append('\n');
+		sb.append(prefix).append("Converged at iteration: ").append(this.convergenceIteration < 0 ? "not converged" : this.convergenceIteration).append('\n');
+		for (int i = 0; i < this.chains.size(); ++i) {
+			sb.append(prefix).append("Chain ").append(i + 1).append(":\n");
+			sb.append(this.chains.get(i).getPostInfo(prefix + '\t'));
+		}
+		return sb.toString();
+	}
+}
@@ -1,5 +1,8 @@
 package se.cbb.jprime.mcmc;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -13,26 +16,83 @@ import se.cbb.jprime.math.PRNG;
  * 10% of the time. However, there is no guarantee that exactly these
  * numbers will be achieved in practice (due to that they may
  * act on the same parameters).
+ * <p/>
+ * Optionally, see <code>setAdaptiveWeights()</code>, the weights are adapted during burn-in.
+ * At regular intervals, the efficiency of each proposer is estimated as its acceptance ratio per
+ * unit of cost, and its weight is scaled by a factor moved towards its efficiency relative to the weighted
+ * mean efficiency, bounded by [MIN_ADAPTIVE_FACTOR,MAX_ADAPTIVE_FACTOR]. The adaptation diminishes over
+ * time and the factors are frozen after burn-in, so that the remainder of the chain is an ordinary MCMC chain.
+ * By default, the cost of a proposal is the cost declared when adding its proposer (1 unless specified),
+ * so that the chain is reproducible for a given seed. Alternatively, the cost may be the wall time reported
+ * to the proposer's <code>ProposerStatistics</code>, in which case the chain is not reproducible.
+ * Note that the acceptance ratio is a meaningful measure only for proposers with a fixed proposal scale:
+ * a proposer whose scale is itself adapted towards a target acceptance ratio will have that ratio regardless
+ * of how well it mixes.
  * 
  * @author Joel Sjöstrand.
  */
-public class MultiProposerSelector implements ProposerSelector {
+public class MultiProposerSelector implements ProposerSelector, IterationListener, Checkpointable {
 
 	/** The maximum number of attempts at trying to add another proposer when selecting. */
 	public static final int MAX_NO_OF_ATTEMPTS = 100;
 	
+	/** Minimum factor by which adaptation may scale a proposer's weight. */
+	public static final double MIN_ADAPTIVE_FACTOR = 0.5;
+	
+	/** Maximum factor by which adaptation may scale a proposer's weight. */
+	public static final double MAX_ADAPTIVE_FACTOR = 2.0;
+	
+	/** Exponent of the diminishing adaptation step size. */
+	public static final double STEP_SIZE_DECAY = 0.6;
+	
 	/** All proposers to choose from. */
 	private ArrayList<Proposer> proposers;
 	
 	/** Weight for each proposer. */
 	private ArrayList<ProposerWeight> weights;
 	
+	/** Declared cost of a proposal of each proposer. */
+	private ArrayList<Double> costs;
+	
 	/** PRNG. */
 	private PRNG prng;
 	
 	/** Cumulative number-of-proposers weights, normalised as [0,...,1]. Null if not used. */
 	private double[] cumNoWeights;
 	
+	/** Adapted factor of each proposer's weight. Null if weights are not adapted. */
+	private double[] factors;
+	
+	/** The last iteration at which weights may be adapted. */
+	private int adaptationEnd;
+	
+	/** Number of iterations between adaptations. */
+	private int adaptationInterval;
+	
+	/** True to use the measured wall time as cost rather than the declared costs. */
+	private boolean useWallTime;
+	
+	/** Number of adaptations performed. */
+	private int noOfAdaptations;
+	
+	/** Number of proposals of each proposer at the last adaptation. */
+	private int[] lastNoOfProposals;
+	
+	/** Number of accepted proposals of each proposer at the last adaptation. */
+	private int[] lastNoOfAccepted;
+	
+	/** Time spent by each proposer at the last adaptation. */
+	private long[] lastTime;
+	
+	/** Selected proposers, reused between invocations. */
+	private ArrayList<Proposer> selProps = new ArrayList<Proposer>(4);
+	
+	/** State parameters of the selected proposers, reused between invocations. */
+	private ArrayList<StateParameter> selParams = new ArrayList<StateParameter>(8);
+	
+	/** Accumulated weights of the proposers, reused between invocations. */
+	private double[] accWeights = new double[0];
+	
 	/**
 	 * Creates an instance where only one proposer at a time is invoked.
 	 * @param prng the PRNG used for random selection.
@@ -40,6 +100,7 @@ public class MultiProposerSelector implements ProposerSelector {
 	public MultiProposerSelector(PRNG prng) {
 		this.proposers = new ArrayList<Proposer>(16);
 		this.weights = new ArrayList<ProposerWeight>(16);
+		this.costs = new ArrayList<Double>(16);
 		this.prng = prng;
 		this.cumNoWeights = new double[] { 1.0 };
 	}
@@ -58,6 +119,7 @@ public class MultiProposerSelector implements ProposerSelector {
 		}
 		this.proposers = new ArrayList<Proposer>(16);
 		this.weights = new ArrayList<ProposerWeight>(16);
+		this.costs = new ArrayList<Double>(16);
 		this.prng = prng;
 		this.cumNoWeights = new double[noWeights.length];
 		double tot = 0.0;
@@ -75,12 +137,126 @@ public class MultiProposerSelector implements ProposerSelector {
 	}
 	
 	/**
-	 * Adds a proposer to the available set to draw from.
+	 * Adds a proposer to the available set to draw from, with proposal cost 1.
 	 * @param proposer the proposer to add.
 	 */
 	public void add(Proposer proposer, ProposerWeight weight) {
+		this.add(proposer, weight, 1.0);
+	}
+	
+	/**
+	 * Adds a proposer to the available set to draw from.
+	 * @param proposer the proposer to add.
+	 * @param weight the weight of the proposer.
+	 * @param cost the relative cost of a proposal, used only when adapting weights.
+	 */
+	public void add(Proposer proposer, ProposerWeight weight, double cost) {
+		if (cost <= 0.0) {
+			throw new IllegalArgumentException("Proposer cost in multi proposer selector must be positive.");
+		}
 		this.proposers.add(proposer);
 		this.weights.add(weight);
+		this.costs.add(cost);
+	}
+	
+	/**
+	 * Enables adaptation of the proposer weights during burn-in, see class description,
+	 * using the declared proposer costs.
+	 * Must be invoked after all proposers have been added. Proposers lacking statistics
+	 * keep their weights.
+	 * @param iter the iteration object on which adaptation is based.
+	 * @param adaptationEnd the last iteration at which weights may change.
+	 * @param interval the number of iterations between adaptations.
+	 */
+	public void setAdaptiveWeights(Iteration iter, int adaptationEnd, int interval) {
+		this.setAdaptiveWeights(iter, adaptationEnd, interval, false);
+	}
+	
+	/**
+	 * Enables adaptation of the proposer weights during burn-in, see class description.
+	 * Must be invoked after all proposers have been added. Proposers lacking statistics
+	 * keep their weights. Note: with wall time as cost, the chain is not reproducible for a given seed,
+	 * nor when resumed from a checkpoint.
+	 * @param iter the iteration object on which adaptation is based.
+	 * @param adaptationEnd the last iteration at which weights may change.
+	 * @param interval the number of iterations between adaptations.
+	 * @param useWallTime true to use the measured wall time of proposals as cost; false to use the declared costs.
+	 */
+	public void setAdaptiveWeights(Iteration iter, int adaptationEnd, int interval, boolean useWallTime) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Adaptation interval of multi proposer selector must be positive.");
+		}
+		int n = this.proposers.size();
+		this.factors = new double[n];
+		Arrays.fill(this.factors, 1.0);
+		this.adaptationEnd = adaptationEnd;
+		this.adaptationInterval = interval;
+		this.useWallTime = useWallTime;
+		this.noOfAdaptations = 0;
+		this.lastNoOfProposals = new int[n];
+		this.lastNoOfAccepted = new int[n];
+		this.lastTime = new long[n];
+		iter.addIterationListener(this);
+	}
+	
+	/**
+	 * Returns the adapted factor of a proposer's weight.
+	 * @param i the index of the proposer, in order of addition.
+	 * @return the factor; 1 if weights are not adapted.
+	 */
+	public double getAdaptiveFactor(int i) {
+		return (this.factors == null ? 1.0 : this.factors[i]);
+	}
+	
+	@Override
+	public void incrementPerformed(int iterCurr, int iterTotal) {
+		if (this.factors == null || iterCurr > this.adaptationEnd || iterCurr % this.adaptationInterval != 0) {
+			return;
+		}
+		
+		// Estimate efficiencies (acceptance ratio per unit of cost) over the last interval.
+		double[] effs = new double[this.factors.length];
+		double tot = 0.0;
+		double totW = 0.0;
+		for (int i = 0; i < effs.length; ++i) {
+			effs[i] = Double.NaN;
+			ProposerStatistics ps = this.proposers.get(i).getStatistics();
+			if (ps == null) {
+				continue;
+			}
+			int n = ps.getNoOfProposals() - this.lastNoOfProposals[i];
+			int a = ps.getNoOfAcceptedProposals() - this.lastNoOfAccepted[i];
+			long t = (this.useWallTime ? ps.getTotalTime() - this.lastTime[i] : 0);
+			double cost = (this.useWallTime ? t / (double) n : this.costs.get(i));
+			if (n > 0 && cost > 0.0) {
+				effs[i] = ((a + 0.5) / (n + 1.0)) / cost;
+				double w = this.weights.get(i).getValue() * this.factors[i];
+				tot += w * effs[i];
+				totW += w;
+			}
+			this.lastNoOfProposals[i] += n;
+			this.lastNoOfAccepted[i] += a;
+			this.lastTime[i] += t;
+		}
+		if (totW <= 0.0) {
+			return;
+		}
+		
+		// Move the factors towards the relative efficiencies on log-scale.
+		double mean = tot / totW;
+		this.noOfAdaptations++;
+		double gamma = 1.0 / Math.pow(this.noOfAdaptations, STEP_SIZE_DECAY);
+		for (int i = 0; i < effs.length; ++i) {
+			if (!Double.isNaN(effs[i])) {
+				double target = Math.min(Math.max(effs[i] / mean, MIN_ADAPTIVE_FACTOR), MAX_ADAPTIVE_FACTOR);
+				this.factors[i] *= Math.pow(target / this.factors[i], gamma);
+			}
+		}
+	}
+	
+	@Override
+	public List<Proposer> getProposers() {
+		return this.proposers;
 	}
 	
 	@Override
@@ -104,14 +280,16 @@ public class MultiProposerSelector implements ProposerSelector {
 //			return ts;
 //		}
 		// Special cases for speed.
+		ArrayList<Proposer> selProps = this.selProps;
+		selProps.clear();
 		if (this.proposers.size() == 1) {
-			return new ArrayList<Proposer>(this.proposers);
+			selProps.add(this.proposers.get(0));
+			return selProps;
 		}
 		
 		if (this.cumNoWeights.length == 1) {
-			ArrayList<Proposer> ts = new ArrayList<Proposer>(1);
-			ts.add(this.proposers.get(prng.nextInt(this.proposers.size())));
-			return ts;
+			selProps.add(this.proposers.get(prng.nextInt(this.proposers.size())));
+			return selProps;
 		}
 		
 		
@@ -126,10 +304,13 @@ public class MultiProposerSelector implements ProposerSelector {
 		while (d > this.cumNoWeights[noOfProps-1]) { ++noOfProps; }
 		//System.out.println("noOfProps: "+ noOfProps);
 		// Compute an accumulated weight array for the current proposer weights.
-		double[] accWeights = new double[this.proposers.size()];
+		if (this.accWeights.length != this.proposers.size()) {
+			this.accWeights = new double[this.proposers.size()];
+		}
+		double[] accWeights = this.accWeights;
 		double tot = 0.0;
 		for (int i = 0; i < accWeights.length; ++i) {
-			tot += this.weights.get(i).getValue();
+			tot += (this.factors == null ? this.weights.get(i).getValue() : this.weights.get(i).getValue() * this.factors[i]);
 			accWeights[i] = tot;
 		}
 		for (int i = 0; i < accWeights.length; ++i) {
@@ -140,8 +321,8 @@ public class MultiProposerSelector implements ProposerSelector {
 		// Try to add proposers.
 //		HashSet<Proposer> selProps = new HashSet<Proposer>(noOfProps);
 //		HashSet<StateParameter> selParams = new HashSet<StateParameter>(noOfProps * 2);
-		ArrayList<Proposer> selProps = new ArrayList<Proposer>(noOfProps);
-		ArrayList<StateParameter> selParams = new ArrayList<StateParameter>(noOfProps * 2);
+		ArrayList<StateParameter> selParams = this.selParams;
+		selParams.clear();
 		int attempts = 0;
 
 		while (attempts < MAX_NO_OF_ATTEMPTS && selProps.size() < noOfProps) {
@@ -190,28 +371,70 @@ public class MultiProposerSelector implements ProposerSelector {
 		//System.out.println("p.getParameters"+ p.getParameters().toString());
 		
 		// If corresponding state parameters not already selected, add the proposer.
-		for (StateParameter sp : p.getParameters()) {
-			if (selParams.contains(sp)) {
+		List<StateParameter> ps = p.getParameters();
+		for (int j = 0; j < ps.size(); ++j) {
+			if (selParams.contains(ps.get(j))) {
 				return false;
 			}
 		}
 		selProps.add(p);
-		for (StateParameter sp : p.getParameters()) {
-			selParams.add(sp);
+		for (int j = 0; j < ps.size(); ++j) {
+			selParams.add(ps.get(j));
 		}
 		return true;
 	}
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeBoolean(this.factors != null);
+		if (this.factors != null) {
+			out.writeInt(this.factors.length);
+			out.writeInt(this.noOfAdaptations);
+			for (int i = 0; i < this.factors.length; ++i) {
+				out.writeDouble(this.factors[i]);
+				out.writeInt(this.lastNoOfProposals[i]);
+				out.writeInt(this.lastNoOfAccepted[i]);
+				out.writeLong(this.lastTime[i]);
+			}
+		}
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		if (in.readBoolean() != (this.factors != null)) {
+			throw new IOException("Checkpoint mismatch for adaptive proposer weights.");
+		}
+		if (this.factors != null) {
+			if (in.readInt() != this.factors.length) {
+				throw new IOException("Checkpoint mismatch for number of adaptive proposer weights.");
+			}
+			this.noOfAdaptations = in.readInt();
+			for (int i = 0; i < this.factors.length; ++i) {
+				this.factors[i] = in.readDouble();
+				this.lastNoOfProposals[i] = in.readInt();
+				this.lastNoOfAccepted[i] = in.readInt();
+				this.lastTime[i] = in.readLong();
+			}
+		}
+	}
+
 	@Override
 	public String getPreInfo(String prefix) {
 		StringBuilder sb = new StringBuilder();
 		sb.append(prefix).append("MULTI-PROPOSER SELECTOR\n");
 		sb.append(prefix).append("Cumulative no.-of-proposer weights: ").append(Arrays.toString(this.cumNoWeights)).append('\n');
+		if (this.factors != null) {
+			sb.append(prefix).append("Adaptive weights until iteration: ").append(this.adaptationEnd).append(", interval: ").append(this.adaptationInterval)
+				.append(", cost: ").append(this.useWallTime ? "wall time" : "declared").append('\n');
+		}
 		for (int i = 0; i < this.proposers.size(); ++i) {
 			sb.append(prefix).append("Proposer ").append(i+1).append(":\n");
 			sb.append(this.proposers.get(i).getPreInfo(prefix + '\t'));
 			sb.append(prefix).append("Proposer ").append(i+1).append("'s weight:\n");
 			sb.append(this.weights.get(i).getPreInfo(prefix + '\t'));
+			if (this.factors != null && !this.useWallTime) {
+				sb.append(prefix).append("Proposer ").append(i+1).append("'s cost: ").append(this.costs.get(i)).append('\n');
+			}
 		}
 		return sb.toString();
 	}
@@ -223,6 +446,9 @@ public class MultiProposerSelector implements ProposerSelector {
 		for (int i = 0; i < this.proposers.size(); ++i) {
 			sb.append(prefix).append("Proposer ").append(i+1).append(":\n");
 			sb.append(this.proposers.get(i).getPostInfo(prefix + '\t'));
+			if (this.factors != null) {
+				sb.append(prefix).append("Proposer ").append(i+1).append("'s adapted weight factor: ").append(this.factors[i]).append('\n');
+			}
 		}
 		return sb.toString();
 	}
@@ -56,6 +56,33 @@ public class NormalProposer implements Proposer {
 	/** On/off switch. */
 	private boolean isEnabled;
 	
+	/** The perturbed parameter as a list, see <code>getParameters()</code>. */
+	private ArrayList<StateParameter> params;
+	
+	/** Buffers for the indices of the perturbed sub-parameters, indexed by the number of sub-parameters. */
+	private int[][] indicesBuffers;
+	
+	/** Buffer for the sub-parameters which may still be selected. */
+	private int[] candidates;
+	
+	/** Proposal distribution, reused between proposals. */
+	private NormalDistribution pd;
+	
+	/** Forward proposal density, reused between proposals. */
+	private LogDouble forward;
+	
+	/** Backward proposal density, reused between proposals. */
+	private LogDouble backward;
+	
+	/** Proposal, reused between proposals. */
+	private MetropolisHastingsProposal proposal;
+	
+	/** Change info, reused between proposals. */
+	private ChangeInfo changeInfo;
+	
+	/** Statistics categories by number of perturbed sub-parameters, created on demand. */
+	private String[] categories;
+	
 	/**
 	 * Constructor. Creates a normal proposal distribution.
 	 * @param param state parameter perturbed by this proposer.
@@ -78,6 +105,17 @@ public class NormalProposer implements Proposer {
 		this.prng = prng;
 		this.cumSubParamWeights = new double[] { 1.0 };
 		this.isEnabled = true;
+		this.params = new ArrayList<StateParameter>(1);
+		this.params.add(param);
+		int k = param.getNoOfSubParameters();
+		this.indicesBuffers = new int[k + 1][];
+		this.candidates = new int[k];
+		this.pd = new NormalDistribution(0.0, 1.0);
+		this.forward = new LogDouble(1.0);
+		this.backward = new LogDouble(1.0);
+		this.proposal = new MetropolisHastingsProposal(this, this.forward, this.backward, this.params, 0);
+		this.changeInfo = new ChangeInfo(param, "Perturbed by NormalProposer");
+		this.categories = new String[k + 1];
 	}
 	
 	/**
@@ -99,9 +137,7 @@ public class NormalProposer implements Proposer {
 //	}
 //	
 	public ArrayList<StateParameter> getParameters() {
-		ArrayList<StateParameter> ps = new ArrayList<StateParameter>(1);
-		ps.add(this.param);
-		return ps;
+		return this.params;
 	}
 
 	@Override
@@ -161,14 +197,15 @@ public class NormalProposer implements Proposer {
 		int[] indices;
 		if (k == 1) {
 			// Only one to choose from.
-			indices = new int[] { 0 };
+			indices = this.getIndicesBuffer(1);
+			indices[0] = 0;
 		} else if (m == 1) {
 			// Only one to choose.
-			indices = new int[1];
+			indices = this.getIndicesBuffer(1);
 			indices[0] = this.prng.nextInt(k);
 		} else if (m == k && this.cumSubParamWeights[m-2] == 0.0) {
 			// All should be chosen.
-			indices = new int[k];
+			indices = this.getIndicesBuffer(k);
 			for (int i = 0; i < k; ++i) { indices[i] = i; }
 		} else {
 			// Remaining cases.
@@ -176,11 +213,15 @@ public class NormalProposer implements Proposer {
 			double d = this.prng.nextDouble();
 
 			while (d > this.cumSubParamWeights[no-1]) { ++no; }
-			indices = new int[no];
-			ArrayList<Integer> l = new ArrayList<Integer>(k);
-			for (int i = 0; i < k; ++i) { l.add(i); }
+			indices = this.getIndicesBuffer(no);
+			int[] l = this.candidates;
+			for (int i = 0; i < k; ++i) { l[i] = i; }
+			int sz = k;
 			for (int i = 0; i < no; ++i) {
-				indices[i] = l.remove(this.prng.nextInt(l.size()));			
+				int j = this.prng.nextInt(sz);
+				indices[i] = l[j];
+				System.arraycopy(l, j + 1, l, j, sz - j - 1);
+				--sz;
 			}
 		}
 		
@@ -188,8 +229,9 @@ public class NormalProposer implements Proposer {
 		this.param.cache(indices);
 		
 		// Perturb all chosen sub-parameters.
-		LogDouble forward = new LogDouble(1.0);
-		LogDouble backward = new LogDouble(1.0);
+		LogDouble forward = this.forward.set(1.0);
+		LogDouble backward = this.backward.set(1.0);
+		NormalDistribution pd = this.pd;
 		for (int i = 0; i < indices.length; ++i) {
 			
 			// Compute variance for current proposal distribution.
@@ -197,7 +239,8 @@ public class NormalProposer implements Proposer {
 			double stdev = Math.max(Math.abs(xOld * this.proposalCV.getValue()), 1e-16);
 			
 			// Sample a new value.
-			NormalDistribution pd = new NormalDistribution(xOld, Math.pow(stdev, 2));
+			pd.setMean(xOld);
+			pd.setVariance(Math.pow(stdev, 2));
 			double x = Double.NaN;
 			int tries = 0;
 			do {
@@ -206,7 +249,7 @@ public class NormalProposer implements Proposer {
 				++tries;
 				if (tries > 100) {
 					// Abort with invalid proposal.
-					return new MetropolisHastingsProposal(this, this.param);
+					return this.proposal.set(forward.set(1.0), backward.set(0.0), 0);
 				}
 			} while (!this.interval.isWithin(x));
 			
@@ -220,7 +263,7 @@ public class NormalProposer implements Proposer {
 			if (!Double.isInfinite(b)) {
 				nonTails -= (1.0 - pd.getCDF(b));
 			}
-			forward.mult(new LogDouble(Math.max(pd.getPDF(x) / nonTails, 0.0)));
+			forward.mult(Math.max(pd.getPDF(x) / nonTails, 0.0));
 			
 			// Obtain "backward" density.
 			stdev = Math.max(Math.abs(x * this.proposalCV.getValue()), 1e-16);
@@ -233,22 +276,47 @@ public class NormalProposer implements Proposer {
 			if (!Double.isInfinite(b)) {
 				nonTails -= (1.0 - pd.getCDF(b));
 			}
-			backward.mult(new LogDouble(Math.max(pd.getPDF(xOld) / nonTails, 0.0)));
+			backward.mult(Math.max(pd.getPDF(xOld) / nonTails, 0.0));
 		}
 		this.noPerturbed = indices.length;
 		
 		// Set change info.
-		changeInfos.put(this.param, new ChangeInfo(this.param, "Perturbed by NormalProposer", indices));
+		this.changeInfo.setAffectedElements(indices);
+		changeInfos.put(this.param, this.changeInfo);
 		
 		// Generate proposal object.
-		return new MetropolisHastingsProposal(this, forward, backward, this.param, indices.length);
+		return this.proposal.set(forward, backward, indices.length);
+	}
+	
+	/**
+	 * Returns the buffer for the indices of a certain number of perturbed sub-parameters.
+	 * @param n the number of sub-parameters.
+	 * @return the buffer, of length n.
+	 */
+	private int[] getIndicesBuffer(int n) {
+		if (this.indicesBuffers[n] == null) {
+			this.indicesBuffers[n] = new int[n];
+		}
+		return this.indicesBuffers[n];
+	}
+	
+	/**
+	 * Returns the statistics category of proposals with a certain number of perturbed sub-parameters.
+	 * @param n the number of sub-parameters.
+	 * @return the category.
+	 */
+	private String getCategory(int n) {
+		if (this.categories[n] == null) {
+			this.categories[n] = "" + n + " perturbed sub-parameters";
+		}
+		return this.categories[n];
 	}
 
 	@Override
 	public void clearCache() {
 		if (this.stats != null) {
 			if (this.param.getNoOfSubParameters() > 1) {
-				this.stats.increment(true, "" + this.noPerturbed + " perturbed sub-parameters");
+				this.stats.increment(true, this.getCategory(this.noPerturbed));
 			} else {
 				this.stats.increment(true);
 			}
@@ -260,7 +328,7 @@ public class NormalProposer implements Proposer {
 	public void restoreCache() {
 		if (this.stats != null) {
 			if (this.param.getNoOfSubParameters() > 1) {
-				this.stats.increment(false, "" + this.noPerturbed + " perturbed sub-parameters");
+				this.stats.increment(false, this.getCategory(this.noPerturbed));
 			} else {
 				this.stats.increment(false);
 			}
@@ -0,0 +1,270 @@
+package se.cbb.jprime.mcmc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import se.cbb.jprime.io.Sampler;
+import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.math.PRNG;
+
+/**
+ * MCMC framework class for Metropolis-coupled MCMC (MC^3), also known as parallel tempering.
+ * Runs a number of replicas of the same model as <code>MCMCManager</code> chains concurrently,
+ * each chain on its own thread. Every replica must be built from its own, independent objects
+ * (state parameters, dependents, iteration, proposers, PRNG, etc.), typically by invoking the
+ * same set-up code once per replica.
+ * <p/>
+ * Temperature rank k is assigned the heat (inverse temperature) 1/(1 + k*dT) for a heating
+ * increment dT, so that rank 0 is the ordinary "cold" chain. Every s-th iteration, an exchange
+ * of states between a random pair of adjacent ranks is attempted. Rather than copying states between
+ * replicas, their heats are exchanged, which is equivalent. Consequently, the replica holding the cold
+ * rank changes over time, and only that replica writes samples (through the shared <code>Sampler</code>).
+ * All replicas should therefore have the same sampleables, in the same order.
+ * <p/>
+ * Replicas are run in lockstep between exchange attempts, so the iteration numbers of all
+ * replicas are always in agreement.
+ *
+ * @author agent.
+ */
+public class ParallelTemperingManager implements InfoProvider {
+
+	/** Replicas. */
+	protected ArrayList<MCMCManager> chains;
+
+	/** Heating increment dT. */
+	protected double heating;
+
+	/** Number of iterations between exchange attempts. */
+	protected int swapInterval;
+
+	/** Handles output of drawn samples. */
+	protected Sampler sampler;
+
+	/** Pseudo-random number generator for exchange decisions and replica seeds. */
+	protected PRNG prng;
+
+	/** For each temperature rank, the index of the replica currently holding it. */
+	protected int[] chainOfRank;
+
+	/** For each rank k, the number of attempted exchanges between k and k+1. */
+	protected int[] noOfSwapAttempts;
+
+	/** For each rank k, the number of accepted exchanges between k and k+1. */
+	protected int[] noOfSwaps;
+
+	/** Time at run start in ns. */
+	protected long startTime = -1;
+
+	/** Time at run end in ns. */
+	protected long endTime = -1;
+
+	/**
+	 * Constructor.
+	 * @param sampler handles output of drawn samples.
+	 * @param prng pseudo-random number generator.
+	 * @param heating heating increment dT, &gt; 0.
+	 * @param swapInterval number of iterations between exchange attempts, &gt; 0.
+	 */
+	public ParallelTemperingManager(Sampler sampler, PRNG prng, double heating, int swapInterval) {
+		if (heating <= 0.0) {
+			throw new IllegalArgumentException("Invalid parallel tempering heating increment: " + heating + ".");
+		}
+		if (swapInterval < 1) {
+			throw new IllegalArgumentException("Invalid parallel tempering swap interval: " + swapInterval + ".");
+		}
+		this.chains = new ArrayList<MCMCManager>(8);
+		this.sampler = sampler;
+		this.prng = prng;
+		this.heating = heating;
+		this.swapInterval = swapInterval;
+	}
+
+	/**
+	 * Adds a replica. The first replica added is initially the cold chain.
+	 * @param chain the replica.
+	 */
+	public void addChain(MCMCManager chain) {
+		this.chains.add(chain);
+	}
+
+	/**
+	 * Returns a new PRNG for a replica, seeded from the PRNG of this manager,
+	 * so that runs are reproducible given the seed of the latter.
+	 * @return the PRNG.
+	 */
+	public PRNG getReplicaPRNG() {
+		return new PRNG(BigInteger.valueOf(this.prng.nextLong()));
+	}
+
+	/**
+	 * Returns the heat of a temperature rank.
+	 * @param rank the rank, 0 being the cold chain.
+	 * @return the heat.
+	 */
+	public double getHeat(int rank) {
+		return 1.0 / (1.0 + rank * this.heating);
+	}
+
+	/**
+	 * Returns the replica currently holding the cold rank.
+	 * @return the cold chain.
+	 */
+	public MCMCManager getColdChain() {
+		return this.chains.get(this.chainOfRank[0]);
+	}
+
+	/**
+	 * Starts and executes all replicas.
+	 * @throws IOException if unable to produce sampling output.
+	 */
+	public void run() throws IOException {
+		int n = this.chains.size();
+		if (n == 0) {
+			throw new IllegalStateException("Cannot run parallel tempering without chains.");
+		}
+		this.chainOfRank = new int[n];
+		this.noOfSwapAttempts = new int[n];
+		this.noOfSwaps = new int[n];
+		for (int k = 0; k < n; ++k) {
+			this.chainOfRank[k] = k;
+			this.chains.get(k).setHeat(this.getHeat(k));
+			this.chains.get(k).initialise(k == 0);
+		}
+
+		this.startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(n);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(n);
+			for (final MCMCManager chain : this.chains) {
+				tasks.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return chain.runIterations(swapInterval, chain == getColdChain());
+					}
+				});
+			}
+			boolean doContinue = true;
+			while (doContinue) {
+				for (Future<Boolean> f : executor.invokeAll(tasks)) {
+					if (!f.get()) {
+						doContinue = false;
+					}
+				}
+				if (doContinue && n > 1) {
+					this.attemptSwap();
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Parallel tempering was interrupted.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			// Stop the replica threads also if a replica failed, before finishing the chains.
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for (MCMCManager chain : this.chains) {
+				chain.finish();
+			}
+			this.endTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Attempts to exchange the states of the replicas holding a random pair of adjacent ranks k and k+1,
+	 * by exchanging their heats. The exchange is accepted with probability min(1, (p(x')/p(x))^(b-b')),
+	 * where p(x), b and p(x'), b' are the posterior densities and heats of the two replicas.
+	 */
+	protected void attemptSwap() {
+		int k = this.prng.nextInt(this.chains.size() - 1);
+		MCMCManager a = this.chains.get(this.chainOfRank[k]);
+		MCMCManager b = this.chains.get(this.chainOfRank[k + 1]);
+		this.noOfSwapAttempts[k]++;
+		if (getSwapProbability(a, b) >= this.prng.nextDouble()) {
+			this.noOfSwaps[k]++;
+			int tmp = this.chainOfRank[k];
+			this.chainOfRank[k] = this.chainOfRank[k + 1];
+			this.chainOfRank[k + 1] = tmp;
+			double heat = a.getHeat();
+			a.setHeat(b.getHeat());
+			b.setHeat(heat);
+		}
+	}
+
+	/**
+	 * Returns the probability of accepting an exchange of heats between two replicas,
+	 * min(1, (p(x')/p(x))^(b-b')), where p(x), b and p(x'), b' are the posterior densities and heats of
+	 * the first and second replica respectively.
+	 * @param a the first replica.
+	 * @param b the second replica.
+	 * @return the acceptance probability.
+	 */
+	public static double getSwapProbability(MCMCManager a, MCMCManager b) {
+		LogDouble r = b.getPosteriorDensity().divToNew(a.getPosteriorDensity()).pow(a.getHeat() - b.getHeat());
+		return Math.min(1.0, r.getValue());
+	}
+
+	@Override
+	public String getPreInfo(String prefix) {
+		StringBuilder sb = new StringBuilder(65536);
+		sb.append(prefix).append("PARALLEL TEMPERING MANAGER\n");
+		sb.append(prefix).append("Number of chains: ").append(this.chains.size()).append('\n');
+		sb.append(prefix).append("Heating increment: ").append(this.heating).append('\n');
+		sb.append(prefix).append("Swap interval: ").append(this.swapInterval).append('\n');
+		sb.append(prefix).append("Pseudo-random number generator:\n");
+		sb.append(this.prng.getPreInfo(prefix + '\t'));
+		for (int i = 0; i < this.chains.size(); ++i) {
+			sb.append(prefix).append("Chain ").append(i + 1).append(" (initial heat ").append(this.getHeat(i)).append("):\n");
+			sb.append(this.chains.get(i).getPreInfo(prefix + '\t'));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String getPostInfo(String prefix) {
+		StringBuilder sb = new StringBuilder(65536);
+		sb.append(prefix).append("PARALLEL TEMPERING MANAGER\n");
+		long ns = this.endTime - this.startTime;
+		double s = (double) ns / 1000000000.0;
+		double m = s / 60.0;
+		double h = m / 60.0;
+		DecimalFormat df = new DecimalFormat("#.##");
+		sb.append(prefix).append("Wall time: ")
+		.append(ns).append(" ns = ")
+		.append(df.format(s)).append(" s = ")
+		.append(df.format(m)).append(" min = ")
+		.append(df.format(h)).append(" h\n");
+		if (this.chainOfRank != null) {
+			sb.append(prefix).append("Exchanges between adjacent heats (accepted / attempted):\n");
+			for (int k = 0; k < this.chains.size() - 1; ++k) {
+				sb.append(prefix).append('\t').append(this.getHeat(k)).append(" <-> ").append(this.getHeat(k + 1)).append(": ")
+				.append(this.noOfSwaps[k]).append(" / ").append(this.noOfSwapAttempts[k]).append('\n');
+			}
+		}
+		for (int i = 0; i < this.chains.size(); ++i) {
+			MCMCManager chain = this.chains.get(i);
+			sb.append(prefix).append("Chain ").append(i + 1).append(" (final heat ").append(chain.getHeat()).append("):\n");
+			sb.append(chain.getPostInfo(prefix + '\t'));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,245 @@
+package se.cbb.jprime.mcmc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Keeps track of where the time of an MCMC chain is spent, see <code>MCMCManager</code>:
+ * <ul>
+ * <li>for each proposer, the number of proposals and the time spent perturbing, clearing and restoring.</li>
+ * <li>for each proper dependent, the number of updates and the time spent updating, clearing and restoring.
+ *     Updates are classified as full or partial based on the <code>ChangeInfo</code> the dependent
+ *     produced: partial if it details the affected elements, full otherwise.</li>
+ * </ul>
+ * Times are measured in wall-clock nanoseconds. Counters of distinct proposers and dependents
+ * may be incremented concurrently.
+ *
+ * @author agent.
+ */
+public class PerformanceStatistics implements InfoProvider {
+
+	/** Proposers. */
+	protected List<Proposer> proposers;
+
+	/** Proper dependents. */
+	protected List<ProperDependent> dependents;
+
+	/** Index of each proposer and dependent. */
+	protected IdentityHashMap<Object, Integer> indices;
+
+	/** Number of proposals of each proposer. */
+	protected int[] noOfProposals;
+
+	/** Time spent by each proposer. */
+	protected long[] proposerTimes;
+
+	/** Number of full updates of each dependent. */
+	protected int[] noOfFullUpdates;
+
+	/** Number of partial updates of each dependent. */
+	protected int[] noOfPartialUpdates;
+
+	/** Number of updates of each dependent which did not produce any change info. */
+	protected int[] noOfVoidUpdates;
+
+	/** Time spent by each dependent. */
+	protected long[] dependentTimes;
+
+	/**
+	 * Constructor.
+	 * @param proposers the proposers to track.
+	 * @param dependents the proper dependents to track.
+	 */
+	public PerformanceStatistics(List<Proposer> proposers, List<ProperDependent> dependents) {
+		this.proposers = proposers;
+		this.dependents = dependents;
+		this.indices = new IdentityHashMap<Object, Integer>((proposers.size() + dependents.size()) * 2);
+		for (int i = 0; i < proposers.size(); ++i) {
+			this.indices.put(proposers.get(i), i);
+		}
+		for (int i = 0; i < dependents.size(); ++i) {
+			this.indices.put(dependents.get(i), i);
+		}
+		this.noOfProposals = new int[proposers.size()];
+		this.proposerTimes = new long[proposers.size()];
+		this.noOfFullUpdates = new int[dependents.size()];
+		this.noOfPartialUpdates = new int[dependents.size()];
+		this.noOfVoidUpdates = new int[dependents.size()];
+		this.dependentTimes = new long[dependents.size()];
+	}
+
+	/**
+	 * Returns the index of a tracked proposer or dependent.
+	 * @param o the proposer or dependent.
+	 * @return the index, in order of the lists provided at construction.
+	 */
+	public int getIndex(Object o) {
+		return this.indices.get(o);
+	}
+
+	/**
+	 * Adds a proposal.
+	 * @param proposer the index of the proposer.
+	 * @param time the time spent perturbing.
+	 */
+	public void addProposal(int proposer, long time) {
+		this.noOfProposals[proposer]++;
+		this.proposerTimes[proposer] += time;
+	}
+
+	/**
+	 * Adds time spent by a proposer other than when perturbing, e.g. when clearing or restoring its cache.
+	 * @param proposer the index of the proposer.
+	 * @param time the time spent.
+	 */
+	public void addProposerTime(int proposer, long time) {
+		this.proposerTimes[proposer] += time;
+	}
+
+	/**
+	 * Adds an update of a dependent.
+	 * @param dependent the index of the dependent.
+	 * @param time the time spent updating.
+	 * @param info the change info produced by the dependent. May be null.
+	 */
+	public void addUpdate(int dependent, long time, ChangeInfo info) {
+		if (info == null) {
+			this.noOfVoidUpdates[dependent]++;
+		} else if (info.getAffectedElements() == null) {
+			this.noOfFullUpdates[dependent]++;
+		} else {
+			this.noOfPartialUpdates[dependent]++;
+		}
+		this.dependentTimes[dependent] += time;
+	}
+
+	/**
+	 * Adds time spent by a dependent other than when updating, e.g. when clearing or restoring its cache.
+	 * @param dependent the index of the dependent.
+	 * @param time the time spent.
+	 */
+	public void addDependentTime(int dependent, long time) {
+		this.dependentTimes[dependent] += time;
+	}
+
+	/**
+	 * Returns the number of proposals of a proposer.
+	 * @param proposer the index of the proposer.
+	 * @return the number of proposals.
+	 */
+	public int getNoOfProposals(int proposer) {
+		return this.noOfProposals[proposer];
+	}
+
+	/**
+	 * Returns the time spent by a proposer.
+	 * @param proposer the index of the proposer.
+	 * @return the time in nanoseconds.
+	 */
+	public long getProposerTime(int proposer) {
+		return this.proposerTimes[proposer];
+	}
+
+	/**
+	 * Returns the number of full updates of a dependent.
+	 * @param dependent the index of the dependent.
+	 * @return the number of full updates.
+	 */
+	public int getNoOfFullUpdates(int dependent) {
+		return this.noOfFullUpdates[dependent];
+	}
+
+	/**
+	 * Returns the number of partial updates of a dependent.
+	 * @param dependent the index of the dependent.
+	 * @return the number of partial updates.
+	 */
+	public int getNoOfPartialUpdates(int dependent) {
+		return this.noOfPartialUpdates[dependent];
+	}
+
+	/**
+	 * Returns the time spent by a dependent.
+	 * @param dependent the index of the dependent.
+	 * @return the time in nanoseconds.
+	 */
+	public long getDependentTime(int dependent) {
+		return this.dependentTimes[dependent];
+	}
+
+	/**
+	 * Writes the current statistics as a single line of JSON.
+	 * @param out the output.
+	 * @param iteration the current iteration.
+	 * @param elapsedTime the elapsed time of the run in nanoseconds.
+	 * @throws IOException if unable to write.
+	 */
+	public void writeJSON(BufferedWriter out, int iteration, long elapsedTime) throws IOException {
+		StringBuilder sb = new StringBuilder(256 + 128 * (this.proposers.size() + this.dependents.size()));
+		sb.append("{\"iteration\":").append(iteration).append(",\"time_ms\":").append(elapsedTime / 1e6).append(",\"proposers\":[");
+		for (int i = 0; i < this.proposers.size(); ++i) {
+			sb.append(i == 0 ? "{" : ",{");
+			sb.append("\"name\":\"").append(escape(this.proposers.get(i).toString())).append('"');
+			sb.append(",\"proposals\":").append(this.noOfProposals[i]);
+			sb.append(",\"time_ms\":").append(this.proposerTimes[i] / 1e6).append('}');
+		}
+		sb.append("],\"dependents\":[");
+		for (int i = 0; i < this.dependents.size(); ++i) {
+			sb.append(i == 0 ? "{" : ",{");
+			sb.append("\"name\":\"").append(escape(this.dependents.get(i).getClass().getSimpleName())).append('"');
+			sb.append(",\"full\":").append(this.noOfFullUpdates[i]);
+			sb.append(",\"partial\":").append(this.noOfPartialUpdates[i]);
+			sb.append(",\"void\":").append(this.noOfVoidUpdates[i]);
+			sb.append(",\"time_ms\":").append(this.dependentTimes[i] / 1e6).append('}');
+		}
+		sb.append("]}\n");
+		out.write(sb.toString());
+		out.flush();
+	}
+
+	/**
+	 * Escapes a string for inclusion in JSON.
+	 * @param s the string.
+	 * @return the escaped string.
+	 */
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 8);
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String getPreInfo(String prefix) {
+		return (prefix + "PERFORMANCE STATISTICS\n");
+	}
+
+	@Override
+	public String getPostInfo(String prefix) {
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append(prefix).append("PERFORMANCE STATISTICS\n");
+		sb.append(prefix).append("Proposers (proposals, time in ms):\n");
+		for (int i = 0; i < this.proposers.size(); ++i) {
+			sb.append(prefix).append('\t').append(this.proposers.get(i).toString()).append('\t').append(this.noOfProposals[i])
+				.append('\t').append(this.proposerTimes[i] / 1e6).append('\n');
+		}
+		sb.append(prefix).append("Dependents (full updates, partial updates, updates without change info, time in ms):\n");
+		for (int i = 0; i < this.dependents.size(); ++i) {
+			sb.append(prefix).append('\t').append(i + 1).append(". ").append(this.dependents.get(i).getClass().getSimpleName())
+				.append('\t').append(this.noOfFullUpdates[i]).append('\t').append(this.noOfPartialUpdates[i])
+				.append('\t').append(this.noOfVoidUpdates[i]).append('\t').append(this.dependentTimes[i] / 1e6).append('\n');
+		}
+		return sb.toString();
+	}
+
+}
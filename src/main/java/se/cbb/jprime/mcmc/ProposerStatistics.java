@@ -1,5 +1,8 @@
 package se.cbb.jprime.mcmc;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
@@ -12,7 +15,7 @@ import java.util.TreeMap;
  * 
  * @author Joel Sjöstrand.
  */
-public class ProposerStatistics implements InfoProvider {
+public class ProposerStatistics implements InfoProvider, Checkpointable {
 
 	/** Overall number of accepted proposals. */
 	protected int noOfAccepted;
@@ -23,6 +26,15 @@ public class ProposerStatistics implements InfoProvider {
 	/** Hash for key-specific acceptance/rejections. */
 	protected TreeMap<String, int[]>  accRejByKey;
 	
+	/** Overall time in nanoseconds spent on proposals. */
+	protected long totalTime;
+	
+	/** Hash for key-specific time in nanoseconds spent on proposals. */
+	protected TreeMap<String, long[]> timeByKey;
+	
+	/** Sub-category of the latest proposal outcome. Null if none. */
+	protected String lastCategory;
+	
 	/**
 	 * Constructor.
 	 */
@@ -30,6 +42,9 @@ public class ProposerStatistics implements InfoProvider {
 		this.noOfAccepted = 0;
 		this.noOfRejected = 0;
 		this.accRejByKey = new TreeMap<String, int[]>();
+		this.totalTime = 0;
+		this.timeByKey = new TreeMap<String, long[]>();
+		this.lastCategory = null;
 	}
 	
 	/**
@@ -75,6 +90,31 @@ public class ProposerStatistics implements InfoProvider {
 		return (this.noOfRejected / (double) (this.noOfAccepted + this.noOfRejected));
 	}
 	
+	/**
+	 * Returns the overall time spent on proposals, as reported by <code>addTime()</code>.
+	 * @return the time in nanoseconds.
+	 */
+	public long getTotalTime() {
+		return this.totalTime;
+	}
+	
+	/**
+	 * Adds the time spent on a proposal, i.e., perturbing, updating dependents and accepting or rejecting.
+	 * The time is also attributed to the sub-category of the latest proposal outcome, if any.
+	 * @param time the time in nanoseconds.
+	 */
+	public void addTime(long time) {
+		this.totalTime += time;
+		if (this.lastCategory != null) {
+			long[] t = this.timeByKey.get(this.lastCategory);
+			if (t == null) {
+				t = new long[1];
+				this.timeByKey.put(this.lastCategory, t);
+			}
+			t[0] += time;
+		}
+	}
+	
 	/**
 	 * Adds a proposal outcome.
 	 * @param wasAccepted true if new state was accepted; false if rejected.
@@ -85,6 +125,7 @@ public class ProposerStatistics implements InfoProvider {
 		} else {
 			++this.noOfRejected;
 		}
+		this.lastCategory = null;
 	}
 	
 	/**
@@ -94,6 +135,7 @@ public class ProposerStatistics implements InfoProvider {
 	 */
 	public void increment(boolean wasAccepted, String category) {
 		this.increment(wasAccepted);
+		this.lastCategory = category;
 		int[] cat = this.accRejByKey.get(category);
 		if (cat == null) {
 			cat = new int[2];
@@ -105,6 +147,56 @@ public class ProposerStatistics implements InfoProvider {
 	}
 	
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeInt(this.noOfAccepted);
+		out.writeInt(this.noOfRejected);
+		out.writeLong(this.totalTime);
+		out.writeInt(this.accRejByKey.size());
+		for (Entry<String, int[]> kv : this.accRejByKey.entrySet()) {
+			out.writeUTF(kv.getKey());
+			out.writeInt(kv.getValue()[0]);
+			out.writeInt(kv.getValue()[1]);
+		}
+		out.writeInt(this.timeByKey.size());
+		for (Entry<String, long[]> kv : this.timeByKey.entrySet()) {
+			out.writeUTF(kv.getKey());
+			out.writeLong(kv.getValue()[0]);
+		}
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		this.noOfAccepted = in.readInt();
+		this.noOfRejected = in.readInt();
+		this.totalTime = in.readLong();
+		this.accRejByKey.clear();
+		int n = in.readInt();
+		for (int i = 0; i < n; ++i) {
+			String key = in.readUTF();
+			this.accRejByKey.put(key, new int[] { in.readInt(), in.readInt() });
+		}
+		this.timeByKey.clear();
+		n = in.readInt();
+		for (int i = 0; i < n; ++i) {
+			String key = in.readUTF();
+			this.timeByKey.put(key, new long[] { in.readLong() });
+		}
+	}
+
+	/**
+	 * Helper. Appends the mean time per proposal of a sub-category, if measured.
+	 * @param sb the string builder.
+	 * @param category the sub-category.
+	 * @param noOfProposals the number of proposals of the sub-category.
+	 */
+	protected void appendTime(StringBuilder sb, String category, int noOfProposals) {
+		long[] t = this.timeByKey.get(category);
+		if (t != null) {
+			sb.append("\tmean time per proposal (ms): ").append(t[0] / 1e6 / noOfProposals);
+		}
+	}
+
 	@Override
 	public String getPreInfo(String prefix) {
 		return (prefix + "PROPOSER STATISTICS\n");
@@ -115,13 +207,18 @@ public class ProposerStatistics implements InfoProvider {
 		StringBuilder sb = new StringBuilder();
 		sb.append(prefix).append("PROPOSER STATISTICS\n");
 		sb.append(prefix).append("Acceptance ratio: ").append(this.noOfAccepted).append(" / ").append(this.getNoOfProposals()).append(" = ").append(this.getAcceptanceRatio()).append("\n");
+		if (this.totalTime > 0) {
+			sb.append(prefix).append("Mean time per proposal (ms): ").append(this.totalTime / 1e6 / this.getNoOfProposals()).append("\n");
+		}
 		if (!this.accRejByKey.isEmpty()) {
 			sb.append(prefix).append("Acceptance ratios for sub-categories:\n");
 			prefix += '\t';
 			for (Entry<String, int[]> kv : this.accRejByKey.entrySet()) {
 				int acc = kv.getValue()[0];
 				int rej = kv.getValue()[1];
-				sb.append(prefix).append(kv.getKey()).append('\t').append(acc).append(" / ").append(acc+rej).append(" = ").append(acc/(double)(acc+rej)).append("\n");
+				sb.append(prefix).append(kv.getKey()).append('\t').append(acc).append(" / ").append(acc+rej).append(" = ").append(acc/(double)(acc+rej));
+				this.appendTime(sb, kv.getKey(), acc + rej);
+				sb.append("\n");
 			}
 		}
 		return sb.toString();
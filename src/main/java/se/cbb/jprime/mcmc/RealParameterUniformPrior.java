@@ -18,7 +18,7 @@ import se.cbb.jprime.math.RealInterval;
  * 
  * @author Joel Sjöstrand.
  */
-public class RealParameterUniformPrior implements InferenceModel {
+public class RealParameterUniformPrior implements BoundedInferenceModel {
 	
 	/** Parameter for prior. */
 	private RealParameter param;
@@ -30,10 +30,16 @@ public class RealParameterUniformPrior implements InferenceModel {
 	private boolean doUseActual;
 	
 	/** Prior. */
-	private LogDouble priorProbability;
+	private LogDouble priorProbability = new LogDouble(1.0);
 	
-	/** Cache. */
-	private LogDouble priorProbabilityCache = null;
+	/** Cache. Swapped with the prior on update and restore, so that no instances are created. */
+	private LogDouble priorProbabilityCache = new LogDouble(1.0);
+	
+	/** Change info, reused between updates. */
+	private ChangeInfo changeInfo = new ChangeInfo(this, "Full uniform prior update.");
+	
+	/** Upper bound of the prior. */
+	private LogDouble upperBound = new LogDouble(1.0);
 	
 	/**
 	 * Constructor.
@@ -54,9 +60,9 @@ public class RealParameterUniformPrior implements InferenceModel {
 
 	@Override
 	public void cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample) {
-		this.priorProbabilityCache = new LogDouble(this.priorProbability);
+		this.swap();
 		this.update();
-		changeInfos.put(this, new ChangeInfo(this, "Full uniform prior update."));
+		changeInfos.put(this, this.changeInfo);
 	}
 	
 	/**
@@ -64,12 +70,12 @@ public class RealParameterUniformPrior implements InferenceModel {
 	 */
 	private void update() {
 		// At the moment, we go through the lot of subparameters, even if only parts have changed.
-		this.priorProbability = new LogDouble(1.0);
+		this.priorProbability.set(1.0);
 		if (this.doUseActual) {
 			double density = 1.0 / this.interval.getWidth();
 			for (int i = 0; i < this.param.getNoOfSubParameters(); ++i) {
 				if (!this.interval.isWithin(this.param.getValue(i))) {
-					this.priorProbability = new LogDouble(0.0);
+					this.priorProbability.set(0.0);
 						break;
 				} else {
 					this.priorProbability.mult(density);
@@ -78,7 +84,7 @@ public class RealParameterUniformPrior implements InferenceModel {
 		} else {
 			for (int i = 0; i < this.param.getNoOfSubParameters(); ++i) {
 				if (!this.interval.isWithin(this.param.getValue(i))) {
-					this.priorProbability = new LogDouble(0.0);
+					this.priorProbability.set(0.0);
 					break;
 				}
 			}
@@ -87,13 +93,32 @@ public class RealParameterUniformPrior implements InferenceModel {
 
 	@Override
 	public void clearCache(boolean willSample) {
-		this.priorProbabilityCache = null;
+		// The cache is kept as buffer for the next update.
 	}
 
 	@Override
 	public void restoreCache(boolean willSample) {
+		this.swap();
+	}
+	
+	/**
+	 * Swaps the prior and its cache.
+	 */
+	private void swap() {
+		LogDouble tmp = this.priorProbability;
 		this.priorProbability = this.priorProbabilityCache;
-		this.priorProbabilityCache = null;
+		this.priorProbabilityCache = tmp;
+	}
+
+	@Override
+	public boolean cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample, LogDouble minDataProbability) {
+		this.cacheAndUpdate(changeInfos, willSample);
+		return true;
+	}
+
+	@Override
+	public LogDouble getDataProbabilityUpperBound() {
+		return this.upperBound;
 	}
 
 	@Override
@@ -140,6 +165,7 @@ public class RealParameterUniformPrior implements InferenceModel {
 	 */
 	public void returnActualPriorProbability(boolean doUseActual) {
 		this.doUseActual = doUseActual;
+		this.upperBound = (doUseActual ? new LogDouble(1.0 / this.interval.getWidth()).pow(this.param.getNoOfSubParameters()) : new LogDouble(1.0));
 	}
 
 	@Override
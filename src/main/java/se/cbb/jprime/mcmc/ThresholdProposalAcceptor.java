@@ -0,0 +1,25 @@
+package se.cbb.jprime.mcmc;
+
+import java.util.List;
+
+import se.cbb.jprime.math.LogDouble;
+
+/**
+ * Interface for proposal acceptors which can decide beforehand the minimum likelihood a proposed state must attain
+ * to be accepted, so that the evaluation of the proposed state may be aborted as soon as it is evident that
+ * it falls short, see <code>MCMCManager.setEarlyAbort()</code>.
+ * 
+ * @author agent.
+ */
+public interface ThresholdProposalAcceptor extends ProposalAcceptor {
+
+	/**
+	 * Randomly draws the acceptance threshold of a proposed state x', i.e., x' should be accepted
+	 * if and only if P(x') is positive and greater than or equal to the threshold.
+	 * Replaces <code>acceptProposedState()</code> for the current proposal.
+	 * @param oldStateLikelihood the likelihood P(x) of the old state x.
+	 * @param proposals details the proposals made for going from x to x'.
+	 * @return the threshold, which may be reused between invocations; null if x' should be rejected regardless of its likelihood.
+	 */
+	public LogDouble drawAcceptanceThreshold(LogDouble oldStateLikelihood, List<Proposal> proposals);
+}
@@ -0,0 +1,41 @@
+package se.cbb.jprime.misc;
+
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds fork-join pools shared by all objects requesting the same level of parallelism, e.g.
+ * the substitution models of every chain of a Metropolis-coupled or multi-run analysis. Pools are created lazily,
+ * use daemon worker threads, and live for the duration of the JVM, so that objects need not
+ * shut down pools of their own, and the number of threads does not grow with the number of objects.
+ *
+ * @author agent.
+ */
+public class SharedForkJoinPools {
+
+	/** Pools by parallelism. */
+	private static final HashMap<Integer, ForkJoinPool> POOLS = new HashMap<Integer, ForkJoinPool>(4);
+
+	/**
+	 * Private constructor.
+	 */
+	private SharedForkJoinPools() {
+	}
+
+	/**
+	 * Returns the shared pool of a certain parallelism, creating it if necessary.
+	 * @param noOfThreads number of worker threads, at least 1.
+	 * @return the pool.
+	 */
+	public static synchronized ForkJoinPool get(int noOfThreads) {
+		if (noOfThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads for shared pool: " + noOfThreads + ".");
+		}
+		ForkJoinPool pool = POOLS.get(noOfThreads);
+		if (pool == null) {
+			pool = new ForkJoinPool(noOfThreads);
+			POOLS.put(noOfThreads, pool);
+		}
+		return pool;
+	}
+}
@@ -0,0 +1,52 @@
+package se.cbb.jprime.seqevo;
+
+/**
+ * Likelihood kernel specialised for amino acids, i.e., an alphabet size of 20.
+ * The element-wise product is stored in the temporary vector, after which the rows of P
+ * are processed four at a time, so that four independent sums are accumulated per pass
+ * rather than a single dependent chain. Each row is still summed in column order, so the
+ * result is identical to that of the generic kernel.
+ * See <code>LikelihoodKernel</code>.
+ * 
+ * @author agent.
+ */
+public class AminoAcidLikelihoodKernel implements LikelihoodKernel {
+
+	@Override
+	public void multiplyWithP(double[] P, int p, double[] L, int left, int right, int curr, int noOfPatterns, double[] tmp) {
+		for (int i = 0; i < noOfPatterns; ++i) {
+			for (int k = 0; k < 20; ++k) {
+				tmp[k] = L[left + k] * L[right + k];
+			}
+			for (int s = 0, r0 = p; s < 20; s += 4, r0 += 80) {
+				int r1 = r0 + 20;
+				int r2 = r0 + 40;
+				int r3 = r0 + 60;
+				double x = tmp[0];
+				double y0 = P[r0] * x;
+				double y1 = P[r1] * x;
+				double y2 = P[r2] * x;
+				double y3 = P[r3] * x;
+				for (int k = 1; k < 20; ++k) {
+					x = tmp[k];
+					y0 += P[r0 + k] * x;
+					y1 += P[r1 + k] * x;
+					y2 += P[r2 + k] * x;
+					y3 += P[r3 + k] * x;
+				}
+				L[curr + s] = y0;
+				L[curr + s + 1] = y1;
+				L[curr + s + 2] = y2;
+				L[curr + s + 3] = y3;
+			}
+			left += 20;
+			right += 20;
+			curr += 20;
+		}
+	}
+
+	@Override
+	public int getAlphabetSize() {
+		return 20;
+	}
+}
@@ -0,0 +1,392 @@
+package se.cbb.jprime.seqevo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.math.RealInterval;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
+import se.cbb.jprime.mcmc.MetropolisHastingsProposal;
+import se.cbb.jprime.mcmc.Proposal;
+import se.cbb.jprime.mcmc.Proposer;
+import se.cbb.jprime.mcmc.ProposerStatistics;
+import se.cbb.jprime.mcmc.StateParameter;
+import se.cbb.jprime.mcmc.TuningParameter;
+import se.cbb.jprime.topology.DoubleMap;
+
+/**
+ * Gibbs-style proposer for the branch lengths of a substitution model. A vertex x is chosen uniformly, after which
+ * the sequence likelihood is evaluated as a function of the branch length of x on a grid covering the domain, see
+ * <code>SubstitutionModel.computeBranchLengthLogLikelihoods()</code>. The grid consists of K log-spaced cells, after
+ * which the region where the likelihood is within a threshold of its maximum is refined into K linearly spaced cells.
+ * A new length is drawn from the resulting piecewise constant approximation of the conditional distribution, where
+ * the density of each cell is given by the likelihood at its midpoint.
+ * <p/>
+ * Since the grid does not depend on the current length of x, the proposal is an independence proposal,
+ * and the forward and backward densities are both obtained from the same grid. Other factors of the posterior
+ * such as priors and the models generating the lengths are accounted for by the Metropolis-Hastings ratio.
+ *
+ * @author agent.
+ */
+public class BranchLengthGridProposer implements Proposer {
+
+	/** Log-likelihood threshold below the maximum for the region which is refined. */
+	public static final double REFINEMENT_THRESHOLD = 10.0;
+
+	/** Smallest relative density of a cell, so that no length has zero proposal density. */
+	public static final double MIN_RELATIVE_DENSITY = 1e-10;
+
+	/** Smallest positive edge of the log-spaced grid, relative to the upper bound of the domain. */
+	public static final double MIN_RELATIVE_EDGE = 1e-7;
+
+	/** Substitution model. */
+	private SubstitutionModel sm;
+
+	/** Branch lengths. */
+	private DoubleMap lengths;
+
+	/** Domain of the branch lengths. */
+	private RealInterval interval;
+
+	/** Number of cells K of the coarse grid and of the refined region. */
+	private int K;
+
+	/** Pseudo-random number generator. */
+	private PRNG prng;
+
+	/** Statistics. */
+	private ProposerStatistics stats = null;
+
+	/** On/off switch. */
+	private boolean isEnabled;
+
+	/** Perturbed parameters. */
+	private ArrayList<StateParameter> params;
+
+	/** Edges of coarse grid. */
+	private double[] coarseEdges;
+
+	/** Midpoints of the coarse grid, also used for the refined region. */
+	private double[] mids;
+
+	/** Log-likelihoods of the coarse grid midpoints, also used for the refined region. */
+	private double[] logLs;
+
+	/** Edges of final grid. */
+	private double[] edges;
+
+	/** Log-likelihoods of final grid midpoints. */
+	private double[] cellLogLs;
+
+	/** Number of cells of final grid. */
+	private int noOfCells;
+
+	/** Cumulative weights of final grid. */
+	private double[] cumWeights;
+
+	/** Total weight of final grid. */
+	private double totalWeight;
+
+	/** Perturbed vertex. */
+	private int[] vertex;
+
+	/** Forward density. */
+	private LogDouble forward;
+
+	/** Backward density. */
+	private LogDouble backward;
+
+	/** Proposal object. */
+	private MetropolisHastingsProposal proposal;
+
+	/**
+	 * Constructor.
+	 * @param sm the substitution model, which holds the perturbed branch lengths.
+	 * @param interval domain of branch lengths. Must have a finite upper bound.
+	 * @param K number of cells of the coarse grid and of the refined region.
+	 * @param prng pseudo-random number generator.
+	 */
+	public BranchLengthGridProposer(SubstitutionModel sm, RealInterval interval, int K, PRNG prng) {
+		if (interval.getLowerBound() < 0.0 || Double.isInfinite(interval.getUpperBound()) ||
+				interval.getUpperBound() <= interval.getLowerBound()) {
+			throw new IllegalArgumentException("Invalid interval for branch length grid proposer.");
+		}
+		if (K < 2) {
+			throw new IllegalArgumentException("Invalid number of cells for branch length grid proposer.");
+		}
+		this.sm = sm;
+		this.lengths = sm.getBranchLengths();
+		this.interval = interval;
+		this.K = K;
+		this.prng = prng;
+		this.isEnabled = true;
+		this.params = new ArrayList<StateParameter>(1);
+		this.params.add(this.lengths);
+		this.vertex = new int[1];
+		this.forward = new LogDouble(1.0);
+		this.backward = new LogDouble(1.0);
+		this.proposal = new MetropolisHastingsProposal(this, this.forward, this.backward, this.lengths, 1);
+
+		// Coarse grid: log-spaced from the lower bound, with the first cell covering lengths near it.
+		double a = interval.getLowerBound();
+		double b = interval.getUpperBound();
+		double lo = Math.max(a, b * MIN_RELATIVE_EDGE);
+		this.coarseEdges = new double[K + 1];
+		this.coarseEdges[0] = a;
+		int first = (lo > a ? 1 : 0);
+		for (int k = first; k <= K; ++k) {
+			this.coarseEdges[k] = lo * Math.pow(b / lo, (double) (k - first) / (K - first));
+		}
+		this.coarseEdges[K] = b;
+		this.mids = new double[K];
+		this.logLs = new double[K];
+		this.edges = new double[2 * K + 1];
+		this.cellLogLs = new double[2 * K];
+		this.cumWeights = new double[2 * K];
+	}
+
+	@Override
+	public ArrayList<StateParameter> getParameters() {
+		return this.params;
+	}
+
+	@Override
+	public int getNoOfParameters() {
+		return 1;
+	}
+
+	@Override
+	public int getNoOfSubParameters() {
+		return 1;
+	}
+
+	@Override
+	public ProposerStatistics getStatistics() {
+		return this.stats;
+	}
+
+	@Override
+	public void setStatistics(ProposerStatistics stats) {
+		this.stats = stats;
+	}
+
+	@Override
+	public List<TuningParameter> getTuningParameters() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Proposal cacheAndPerturb(Map<Dependent, ChangeInfo> changeInfos) {
+		int x = this.prng.nextInt(this.lengths.getSize());
+		double old = this.lengths.get(x);
+		if (!this.interval.isWithin(old)) {
+			// Abort with invalid proposal.
+			return new MetropolisHastingsProposal(this, this.lengths);
+		}
+
+		this.computeGrid(x);
+
+		// Sample a cell, then a length uniformly within it.
+		double tot = this.totalWeight;
+		double u = this.prng.nextDouble() * tot;
+		int c = 0;
+		while (c < this.noOfCells - 1 && u > this.cumWeights[c]) { ++c; }
+		double l = this.edges[c] + this.prng.nextDouble() * (this.edges[c + 1] - this.edges[c]);
+		if (!this.interval.isWithin(l)) {
+			// Only possible for open bounds.
+			return new MetropolisHastingsProposal(this, this.lengths);
+		}
+
+		// Cache and perturb.
+		this.vertex[0] = x;
+		this.lengths.cache(this.vertex);
+		this.lengths.set(x, l);
+		this.forward.set(this.cellLogLs[c] / tot);
+		this.backward.set(this.cellLogLs[this.getCell(old)] / tot);
+		changeInfos.put(this.lengths, new ChangeInfo(this.lengths, "Perturbed by BranchLengthGridProposer", this.vertex));
+		return this.proposal.set(this.forward, this.backward, 1);
+	}
+
+	/**
+	 * Computes the final grid and its cell densities for the branch length of a vertex.
+	 * Only depends on the lengths of the other vertices.
+	 * @param x the vertex.
+	 */
+	void computeGrid(int x) {
+		// Evaluate the coarse grid and determine the region to refine.
+		for (int k = 0; k < this.K; ++k) {
+			this.mids[k] = (this.coarseEdges[k] + this.coarseEdges[k + 1]) / 2;
+		}
+		this.sm.computeBranchLengthLogLikelihoods(x, this.mids, this.logLs);
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < this.K; ++k) {
+			max = Math.max(max, this.logLs[k]);
+		}
+		int f = this.K;
+		int t = -1;
+		for (int k = 0; k < this.K; ++k) {
+			if (this.logLs[k] >= max - REFINEMENT_THRESHOLD) {
+				f = Math.min(f, k);
+				t = k;
+			}
+		}
+		if (t < 0) {
+			// Likelihood vanishes everywhere: use the coarse grid as is.
+			f = 0;
+			t = this.K - 1;
+		}
+		f = Math.max(f - 1, 0);
+		t = Math.min(t + 1, this.K - 1);
+
+		// Final grid: coarse cells below the region, refined region, coarse cells above the region.
+		this.noOfCells = 0;
+		for (int k = 0; k < f; ++k) {
+			this.addCell(this.coarseEdges[k], this.logLs[k]);
+		}
+		double lo = this.coarseEdges[f];
+		double hi = this.coarseEdges[t + 1];
+		int above = this.noOfCells + this.K;
+		for (int k = t + 1; k < this.K; ++k) {
+			this.edges[above + k - t - 1] = this.coarseEdges[k];
+			this.cellLogLs[above + k - t - 1] = this.logLs[k];
+		}
+		for (int k = 0; k < this.K; ++k) {
+			this.edges[this.noOfCells + k] = lo + (hi - lo) * k / this.K;
+			this.mids[k] = lo + (hi - lo) * (k + 0.5) / this.K;
+		}
+		this.sm.computeBranchLengthLogLikelihoods(x, this.mids, this.logLs);
+		System.arraycopy(this.logLs, 0, this.cellLogLs, this.noOfCells, this.K);
+		this.noOfCells = above + this.K - t - 1;
+		this.edges[this.noOfCells] = this.interval.getUpperBound();
+
+		// Cumulative weights.
+		max = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < this.noOfCells; ++c) {
+			max = Math.max(max, this.cellLogLs[c]);
+		}
+		double tot = 0.0;
+		for (int c = 0; c < this.noOfCells; ++c) {
+			double d = (max == Double.NEGATIVE_INFINITY ? 1.0 : Math.max(Math.exp(this.cellLogLs[c] - max), MIN_RELATIVE_DENSITY));
+			this.cellLogLs[c] = d;
+			tot += d * (this.edges[c + 1] - this.edges[c]);
+			this.cumWeights[c] = tot;
+		}
+		this.totalWeight = tot;
+	}
+
+	/**
+	 * Returns the proposal density of a length, according to the last computed grid.
+	 * @param l the length.
+	 * @return the density.
+	 */
+	double getDensity(double l) {
+		return this.cellLogLs[this.getCell(l)] / this.totalWeight;
+	}
+
+	/**
+	 * Returns the number of cells of the last computed grid.
+	 * @return the number of cells.
+	 */
+	int getNoOfCells() {
+		return this.noOfCells;
+	}
+
+	/**
+	 * Returns an edge of the last computed grid.
+	 * @param c the edge index, in [0,noOfCells].
+	 * @return the edge.
+	 */
+	double getEdge(int c) {
+		return this.edges[c];
+	}
+
+	/**
+	 * Appends a cell to the final grid.
+	 * @param lower the lower edge of the cell.
+	 * @param logL the log-likelihood of the cell.
+	 */
+	private void addCell(double lower, double logL) {
+		this.edges[this.noOfCells] = lower;
+		this.cellLogLs[this.noOfCells] = logL;
+		this.noOfCells++;
+	}
+
+	/**
+	 * Returns the cell of the final grid containing a length.
+	 * @param l the length.
+	 * @return the cell.
+	 */
+	private int getCell(double l) {
+		int lo = 0;
+		int hi = this.noOfCells - 1;
+		while (lo < hi) {
+			int m = (lo + hi + 1) >>> 1;
+			if (this.edges[m] <= l) {
+				lo = m;
+			} else {
+				hi = m - 1;
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	public void clearCache() {
+		if (this.stats != null) {
+			this.stats.increment(true);
+		}
+		this.lengths.clearCache();
+	}
+
+	@Override
+	public void restoreCache() {
+		if (this.stats != null) {
+			this.stats.increment(false);
+		}
+		this.lengths.restoreCache();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return this.isEnabled;
+	}
+
+	@Override
+	public void setEnabled(boolean isActive) {
+		this.isEnabled = isActive;
+	}
+
+	@Override
+	public String getPreInfo(String prefix) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(prefix).append("BRANCH LENGTH GRID PROPOSER\n");
+		sb.append(prefix).append("Perturbed parameter: ").append(this.lengths.getName()).append('\n');
+		sb.append(prefix).append("Is active: ").append(this.isEnabled).append("\n");
+		sb.append(prefix).append("Domain: ").append(this.interval.toString()).append('\n');
+		sb.append(prefix).append("Number of grid cells: ").append(this.K).append('\n');
+		if (this.stats != null) {
+			sb.append(prefix).append("Statistics:\n").append(this.stats.getPreInfo(prefix + '\t'));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String getPostInfo(String prefix) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(prefix).append("BRANCH LENGTH GRID PROPOSER\n");
+		sb.append(prefix).append("Perturbed parameter: ").append(this.lengths.getName()).append('\n');
+		if (this.stats != null) {
+			sb.append(prefix).append("Statistics:\n").append(this.stats.getPostInfo(prefix + '\t'));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "BranchLengthGridProposer perturbing " + this.lengths.getName();
+	}
+}
@@ -0,0 +1,46 @@
+package se.cbb.jprime.seqevo;
+
+/**
+ * Likelihood kernel for an arbitrary alphabet size, e.g. for codons.
+ * See <code>LikelihoodKernel</code>.
+ * 
+ * @author agent.
+ */
+public class GenericLikelihoodKernel implements LikelihoodKernel {
+
+	/** Alphabet size. */
+	private final int n;
+	
+	/**
+	 * Constructor.
+	 * @param alphabetSize alphabet size.
+	 */
+	public GenericLikelihoodKernel(int alphabetSize) {
+		this.n = alphabetSize;
+	}
+	
+	@Override
+	public void multiplyWithP(double[] P, int p, double[] L, int left, int right, int curr, int noOfPatterns, double[] tmp) {
+		int n = this.n;
+		for (int i = 0; i < noOfPatterns; ++i) {
+			for (int s = 0; s < n; ++s) {
+				tmp[s] = L[left + s] * L[right + s];
+			}
+			for (int s = 0, row = p; s < n; ++s, row += n) {
+				double sum = 0.0;
+				for (int k = 0; k < n; ++k) {
+					sum += P[row + k] * tmp[k];
+				}
+				L[curr + s] = sum;
+			}
+			left += n;
+			right += n;
+			curr += n;
+		}
+	}
+
+	@Override
+	public int getAlphabetSize() {
+		return this.n;
+	}
+}
@@ -0,0 +1,35 @@
+package se.cbb.jprime.seqevo;
+
+/**
+ * Interface for the inner loop of Felsenstein's pruning algorithm, operating
+ * on flat arrays as stored by <code>PatternLikelihoods</code> and <code>TransitionMatrices</code>.
+ * For a vertex with children l and r, and a range of patterns, it computes for each pattern
+ * the vector P*(L_l .* L_r), where .* denotes element-wise multiplication.
+ * <p/>
+ * Implementations are expected to be allocation-free, and may be specialised for a
+ * certain alphabet size. See <code>SequenceType.getLikelihoodKernel()</code>.
+ * 
+ * @author agent.
+ */
+public interface LikelihoodKernel {
+
+	/**
+	 * Computes curr = P*(left .* right) for consecutive patterns, each pattern's
+	 * vector stored with a stride of the alphabet size.
+	 * @param P array holding the transition probability matrix in row-major format.
+	 * @param p start index of P.
+	 * @param L array holding the likelihoods.
+	 * @param left start index of the first pattern of the left child.
+	 * @param right start index of the first pattern of the right child.
+	 * @param curr start index of the first pattern of the vertex itself. Must not overlap the children.
+	 * @param noOfPatterns number of patterns.
+	 * @param tmp temporary vector of at least the alphabet size, owned by the caller.
+	 */
+	public void multiplyWithP(double[] P, int p, double[] L, int left, int right, int curr, int noOfPatterns, double[] tmp);
+	
+	/**
+	 * Returns the alphabet size which this kernel handles.
+	 * @return the alphabet size.
+	 */
+	public int getAlphabetSize();
+}
@@ -0,0 +1,33 @@
+package se.cbb.jprime.seqevo;
+
+/**
+ * Likelihood kernel specialised for nucleotides, i.e., an alphabet size of 4.
+ * The matrix-vector product is fully unrolled.
+ * See <code>LikelihoodKernel</code>.
+ * 
+ * @author agent.
+ */
+public class NucleotideLikelihoodKernel implements LikelihoodKernel {
+
+	@Override
+	public void multiplyWithP(double[] P, int p, double[] L, int left, int right, int curr, int noOfPatterns, double[] tmp) {
+		for (int i = 0; i < noOfPatterns; ++i) {
+			double x0 = L[left] * L[right];
+			double x1 = L[left + 1] * L[right + 1];
+			double x2 = L[left + 2] * L[right + 2];
+			double x3 = L[left + 3] * L[right + 3];
+			L[curr] = P[p] * x0 + P[p + 1] * x1 + P[p + 2] * x2 + P[p + 3] * x3;
+			L[curr + 1] = P[p + 4] * x0 + P[p + 5] * x1 + P[p + 6] * x2 + P[p + 7] * x3;
+			L[curr + 2] = P[p + 8] * x0 + P[p + 9] * x1 + P[p + 10] * x2 + P[p + 11] * x3;
+			L[curr + 3] = P[p + 12] * x0 + P[p + 13] * x1 + P[p + 14] * x2 + P[p + 15] * x3;
+			left += 4;
+			right += 4;
+			curr += 4;
+		}
+	}
+
+	@Override
+	public int getAlphabetSize() {
+		return 4;
+	}
+}
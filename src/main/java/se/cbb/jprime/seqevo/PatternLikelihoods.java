@@ -1,94 +1,231 @@
 package se.cbb.jprime.seqevo;
 
-import org.ejml.data.DenseMatrix64F;
-import org.jfree.util.PublicCloneable;
-
 /**
  * Holds the likelihoods of column patterns across one or more site rate categories
- * for a subtree.
+ * for every subtree of a tree.
  * Used e.g. by <code>SubstitutionModel</code>.
  * <p/>
- * For each unique pattern i and site rate category j, there is a vector r.
- * Each element in r corresponds to a state s in the 
+ * For each vertex x, unique pattern i and site rate category j, there is a vector r.
+ * Each element in r corresponds to a state s in the
  * Markov substitution model, representing the probability of the Markov process starting
- * with s at the root of the subtree of interest, and yielding the state pattern
+ * with s at the root of the planted subtree of x, and yielding the state pattern
  * corresponding to position i at the leaves of the subtree (under the site rate of category j).
- * 
+ * <p/>
+ * All vectors are stored in a single contiguous array ordered by
+ * vertex, site rate category, pattern and state, so that the vector of (x,i,j)
+ * starts at <code>getOffset(x,j) + i * getAlphabetSize()</code>. Every vertex has two
+ * slots, "current" and "cached". Caching a vertex merely swaps which slot is current,
+ * so that the old values are retained untouched in the other slot while the new values are computed.
+ * Restoring swaps back. Consequently, a cached vertex must be fully recomputed before
+ * it is read.
+ * <p/>
+ * To avoid underflow on large trees, each vector may be scaled. For every vertex x, site rate category j and
+ * pattern i, the natural logarithm of the accumulated scaling factor of the planted subtree of x is stored
+ * in a separate array with the same slot layout, starting at <code>getScalingOffset(x,j) + i</code>.
+ * The true likelihoods are thus the stored vector times the exponential of this value.
+ *
  * @author Joel Sjöstrand.
  * @author Bengt Sennblad.
  */
-public class PatternLikelihoods  implements PublicCloneable {
-	
-	/** Likelihoods, [i][j] for pattern i and site rate category j. */
-	private DenseMatrix64F[][] likelihoods;
-	
+public class PatternLikelihoods {
+
+	/** Likelihoods of both slots of all vertices. Slot k of vertex x starts at (2x+k)*blockSize. */
+	private final double[] likelihoods;
+
+	/** Log-scale factors of both slots of all vertices. Slot k of vertex x starts at (2x+k)*noOfSiteRates*noOfPatterns. */
+	private final double[] scalings;
+
+	/** Current slot, 0 or 1, of each vertex. */
+	private final int[] slots;
+
+	/** Flags vertices which have had their slots swapped since the last clear or restore. */
+	private final boolean[] isCached;
+
+	/** Vertices which have had their slots swapped since the last clear or restore. */
+	private final int[] cacheVertices;
+
+	/** Number of valid elements in cacheVertices. */
+	private int noOfCacheVertices;
+
+	/** Number of vertices. */
+	private final int noOfVertices;
+
+	/** Number of unique patterns. */
+	private final int noOfPatterns;
+
+	/** Number of site rate categories. */
+	private final int noOfSiteRates;
+
 	/** Alphabet size. */
-	private int alphabetSize;
-	
+	private final int alphabetSize;
+
+	/** Number of elements of a single site rate category of a slot, i.e., noOfPatterns * alphabetSize. */
+	private final int categorySize;
+
+	/** Number of elements of a single slot of a vertex, i.e., noOfSiteRates * categorySize. */
+	private final int blockSize;
+
 	/**
 	 * Constructor.
+	 * @param noOfVertices no. of vertices.
 	 * @param noOfPatterns no. of unique patterns.
 	 * @param noOfSiteRates no of site rate categories.
 	 * @param alphabetSize alphabet size.
 	 */
-	public PatternLikelihoods(int noOfPatterns, int noOfSiteRates, int alphabetSize) {
-		this.likelihoods = new DenseMatrix64F[noOfPatterns][noOfSiteRates];
+	public PatternLikelihoods(int noOfVertices, int noOfPatterns, int noOfSiteRates, int alphabetSize) {
+		long size = 2L * noOfVertices * noOfSiteRates * noOfPatterns * alphabetSize;
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many patterns, site rate categories and vertices to store the pattern likelihoods: " + size + " elements required.");
+		}
+		this.noOfVertices = noOfVertices;
+		this.noOfPatterns = noOfPatterns;
+		this.noOfSiteRates = noOfSiteRates;
 		this.alphabetSize = alphabetSize;
-		for (int i = 0; i < noOfPatterns; ++i) {
-			for (int j = 0; j < noOfSiteRates; ++j) {
-				this.likelihoods[i][j] = new DenseMatrix64F(alphabetSize, 1);
-			}
+		this.categorySize = noOfPatterns * alphabetSize;
+		this.blockSize = noOfSiteRates * this.categorySize;
+		this.likelihoods = new double[(int) size];
+		this.scalings = new double[2 * noOfVertices * noOfSiteRates * noOfPatterns];
+		this.slots = new int[noOfVertices];
+		this.isCached = new boolean[noOfVertices];
+		this.cacheVertices = new int[noOfVertices];
+		this.noOfCacheVertices = 0;
+	}
+
+	/**
+	 * Returns the underlying array of all likelihoods. Use <code>getOffset()</code>
+	 * for indexing.
+	 * @return the likelihoods.
+	 */
+	public double[] getLikelihoods() {
+		return this.likelihoods;
+	}
+
+	/**
+	 * Returns the start index in the likelihoods array of the current vector of
+	 * vertex x, site rate category j and the first pattern. Subsequent patterns follow
+	 * with a stride of the alphabet size.
+	 * @param x vertex.
+	 * @param j site rate index.
+	 * @return the offset.
+	 */
+	public int getOffset(int x, int j) {
+		return (2 * x + this.slots[x]) * this.blockSize + j * this.categorySize;
+	}
+
+	/**
+	 * Returns the start index in the likelihoods array of the current vector of
+	 * vertex x, pattern i and site rate category j.
+	 * @param x vertex.
+	 * @param i pattern index.
+	 * @param j site rate index.
+	 * @return the offset.
+	 */
+	public int getOffset(int x, int i, int j) {
+		return this.getOffset(x, j) + i * this.alphabetSize;
+	}
+
+	/**
+	 * Returns the underlying array of all accumulated log-scale factors. Use <code>getScalingOffset()</code>
+	 * for indexing.
+	 * @return the log-scale factors.
+	 */
+	public double[] getScalings() {
+		return this.scalings;
+	}
+
+	/**
+	 * Returns the start index in the log-scale factors array of the current slot of
+	 * vertex x, site rate category j and the first pattern. Subsequent patterns follow
+	 * with a stride of 1.
+	 * @param x vertex.
+	 * @param j site rate index.
+	 * @return the offset.
+	 */
+	public int getScalingOffset(int x, int j) {
+		return ((2 * x + this.slots[x]) * this.noOfSiteRates + j) * this.noOfPatterns;
+	}
+
+	/**
+	 * Caches a vertex by swapping its current slot. The new current slot
+	 * must be fully recomputed. Caching an already cached vertex has no effect.
+	 * @param x the vertex.
+	 */
+	public void cache(int x) {
+		if (!this.isCached[x]) {
+			this.isCached[x] = true;
+			this.slots[x] ^= 1;
+			this.cacheVertices[this.noOfCacheVertices++] = x;
 		}
 	}
-	
+
 	/**
-	 * Copy constructor. Deep-copies the likelihoods.
-	 * @param pl the object to copy.
+	 * Caches a part of or all vertices. See <code>cache(int)</code>.
+	 * @param vertices the vertices. Null will cache all vertices.
 	 */
-	public PatternLikelihoods(PatternLikelihoods pl) {
-		this.alphabetSize = pl.alphabetSize;
-		int m = pl.likelihoods.length;
-		int n = pl.likelihoods[0].length;
-		this.likelihoods = new DenseMatrix64F[m][n];
-		for (int i = 0; i < m; ++i) {
-			for (int j = 0; j < n; ++j) {
-				this.likelihoods[i][j] = new DenseMatrix64F(pl.likelihoods[i][j]);
+	public void cache(int[] vertices) {
+		if (vertices == null) {
+			for (int x = 0; x < this.noOfVertices; ++x) {
+				this.cache(x);
 			}
+		} else {
+			for (int x : vertices) {
+				this.cache(x);
+			}
+		}
+	}
+
+	/**
+	 * Clears the cache, i.e., keeps the current slots.
+	 */
+	public void clearCache() {
+		for (int k = 0; k < this.noOfCacheVertices; ++k) {
+			this.isCached[this.cacheVertices[k]] = false;
 		}
+		this.noOfCacheVertices = 0;
 	}
-	
+
 	/**
-	 * Returns the likelihoods of pattern i and site rate category j.
-	 * @param i pattern index.
-	 * @param j site rate index.
-	 * @return the likelihoods of pattern i for site rate j.
+	 * Restores the cache, i.e., swaps back to the slots prior to caching.
 	 */
-	public DenseMatrix64F get(int i, int j) {
-		return this.likelihoods[i][j];
+	public void restoreCache() {
+		for (int k = 0; k < this.noOfCacheVertices; ++k) {
+			int x = this.cacheVertices[k];
+			this.isCached[x] = false;
+			this.slots[x] ^= 1;
+		}
+		this.noOfCacheVertices = 0;
 	}
-	
+
 	/**
-	 * Public clone method. Returns a copy of this object with deep-cloned likelihoods.
-	 * @return this object.
+	 * Returns the number of vertices.
+	 * @return the number of vertices.
 	 */
-	public Object clone() {
-		return new PatternLikelihoods(this);
+	public int getNoOfVertices() {
+		return this.noOfVertices;
 	}
-	
+
 	/**
 	 * Returns the number of patterns.
 	 * @return the number of patterns.
 	 */
 	public int getNoOfPatterns() {
-		return this.likelihoods.length;
+		return this.noOfPatterns;
 	}
-	
+
 	/**
 	 * Returns the number of site rates.
 	 * @return the number of site rates.
 	 */
 	public int getNoOfSiteRateCategories() {
-		return this.likelihoods[0].length;
+		return this.noOfSiteRates;
+	}
+
+	/**
+	 * Returns the alphabet size.
+	 * @return the alphabet size.
+	 */
+	public int getAlphabetSize() {
+		return this.alphabetSize;
 	}
-	
+
 }
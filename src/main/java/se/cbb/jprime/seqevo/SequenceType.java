@@ -200,6 +200,22 @@ public enum SequenceType {
 		return this.leafLike[i];
 	}
 	
+	/**
+	 * Returns a likelihood kernel for the alphabet of this type, specialised
+	 * for nucleotides and amino acids, and generic otherwise.
+	 * @return the kernel.
+	 */
+	public LikelihoodKernel getLikelihoodKernel() {
+		switch (this) {
+		case DNA:
+			return new NucleotideLikelihoodKernel();
+		case AMINO_ACID:
+			return new AminoAcidLikelihoodKernel();
+		default:
+			return new GenericLikelihoodKernel(this.getAlphabetSize());
+		}
+	}
+	
 	/** 
 	 * Returns (roughly) how likely it is that the given sequence came 
 	 * from the present alphabet? The alternative alphabet is
@@ -255,6 +255,152 @@ public class SubstitutionMatrixHandler implements InfoProvider {
 		}
 	}
 
+	/**
+	 * Computes P=exp(Qw) into a caller-owned array in row-major format, see
+	 * <code>updateTransitionMatrix()</code>. Neither the current P nor the
+	 * cache is affected, and the eigensystem is only read, so the method may be invoked
+	 * concurrently as long as each caller has its own arrays.
+	 * Precondition: w <= 100.
+	 * @param w the "time" (or branch length) over which Q acts.
+	 * @param expE scratch array of size dim.
+	 * @param result array to hold P of size dim*dim.
+	 * @param offset start index of P in result.
+	 */
+	public void computeTransitionMatrix(double w, double[] expE, double[] result, int offset) {
+		if (w > MAX_MARKOV_TIME) {
+			throw new IllegalArgumentException("Bug: In substitution model, cannot compute transition probability matrix P for too large Markov time w=" + w + ".");
+		}
+		int n = this.alphabetSize;
+		double[] e = this.E.data;
+		double[] v = this.V.data;
+		double[] iv = this.iV.data;
+		for (int m = 0; m < n; ++m) {
+			expE[m] = Math.exp(e[m] * w);
+		}
+		for (int i = 0; i < n; ++i) {
+			for (int k = 0; k < n; ++k) {
+				double sum = v[i * n] * (expE[0] * iv[k]);
+				for (int m = 1; m < n; ++m) {
+					sum += v[i * n + m] * (expE[m] * iv[m * n + k]);
+				}
+				result[offset + i * n + k] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Performs matrix-vector multiplication y=P*x on flat arrays for a P
+	 * obtained from <code>computeTransitionMatrix()</code>.
+	 * @param P array holding P of size dim*dim in row-major format.
+	 * @param pOffset start index of P.
+	 * @param X array holding operand vector x of size dim.
+	 * @param xOffset start index of x in X.
+	 * @param Y array holding resulting vector y=P*x of size dim. Must not overlap x.
+	 * @param yOffset start index of y in Y.
+	 */
+	public void multiplyWithP(double[] P, int pOffset, double[] X, int xOffset, double[] Y, int yOffset) {
+		int n = this.alphabetSize;
+		for (int i = 0, row = pOffset; i < n; ++i, row += n) {
+			double sum = 0.0;
+			for (int k = 0; k < n; ++k) {
+				sum += P[row + k] * X[xOffset + k];
+			}
+			Y[yOffset + i] = sum;
+		}
+	}
+
+	/**
+	 * Returns the likelihood for a certain leaf state on flat arrays for a P
+	 * obtained from <code>computeTransitionMatrix()</code>. This corresponds to the state's
+	 * column in P (and analogously for ambiguity characters).
+	 * @param P array holding P of size dim*dim in row-major format.
+	 * @param pOffset start index of P.
+	 * @param state the state's integer index.
+	 * @param result array to hold the column values of size dim.
+	 * @param offset start index in result.
+	 */
+	public void getLeafLikelihood(double[] P, int pOffset, int state, double[] result, int offset) {
+		if (state < this.alphabetSize) {
+			for (int i = 0; i < this.alphabetSize; ++i) {
+				result[offset + i] = P[pOffset + i * this.alphabetSize + state];
+			}
+		} else {
+			// Ambiguity state.
+			this.multiplyWithP(P, pOffset, this.sequenceType.getLeafLikelihood(state).data, 0, result, offset);
+		}
+	}
+
+	/**
+	 * Returns the sum of the element-wise product Pi*x, i.e., the likelihood of a vector x
+	 * weighted by the stationary frequencies.
+	 * @param X array holding vector x of size dim.
+	 * @param xOffset start index of x in X.
+	 * @return the sum.
+	 */
+	public double sumWithPi(double[] X, int xOffset) {
+		double[] pi = this.Pi.data;
+		double sum = 0.0;
+		for (int i = 0; i < this.alphabetSize; ++i) {
+			sum += pi[i] * X[xOffset + i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Copies the stationary frequencies Pi into an array.
+	 * @param result array to hold Pi of size dim.
+	 * @param offset start index in result.
+	 */
+	public void getStationaryFrequencies(double[] result, int offset) {
+		System.arraycopy(this.Pi.data, 0, result, offset, this.alphabetSize);
+	}
+
+	/**
+	 * Projects a pair of vectors x and y onto the eigensystem of Q, so that the bilinear form
+	 * x'*P*y for P=exp(Qw) may subsequently be computed for any time w in linear time as
+	 * sum_m c_m*exp(e_m*w), where e_m are the eigenvalues, see <code>computeEigenExponentials()</code>.
+	 * Since P=V*diag(exp(E*w))*iV, c=(V'*x).*(iV*y).
+	 * @param X array holding vector x of size dim.
+	 * @param xOffset start index of x in X.
+	 * @param Y array holding vector y of size dim.
+	 * @param yOffset start index of y in Y.
+	 * @param tmp scratch array of size dim.
+	 * @param result array to hold c of size dim. May overlap x or y.
+	 * @param offset start index of c in result.
+	 */
+	public void projectOnEigensystem(double[] X, int xOffset, double[] Y, int yOffset, double[] tmp, double[] result, int offset) {
+		int n = this.alphabetSize;
+		double[] v = this.V.data;
+		double[] iv = this.iV.data;
+		for (int m = 0; m < n; ++m) {
+			double a = 0.0;
+			double b = 0.0;
+			for (int i = 0; i < n; ++i) {
+				a += X[xOffset + i] * v[i * n + m];
+				b += iv[m * n + i] * Y[yOffset + i];
+			}
+			tmp[m] = a * b;
+		}
+		System.arraycopy(tmp, 0, result, offset, n);
+	}
+
+	/**
+	 * Computes exp(e_m*w) for each eigenvalue e_m of Q, see <code>projectOnEigensystem()</code>.
+	 * Precondition: w <= 100.
+	 * @param w the "time" (or branch length) over which Q acts.
+	 * @param result array to hold the exponentials of size dim.
+	 * @param offset start index in result.
+	 */
+	public void computeEigenExponentials(double w, double[] result, int offset) {
+		if (w > MAX_MARKOV_TIME) {
+			throw new IllegalArgumentException("Bug: In substitution model, cannot compute transition probabilities for too large Markov time w=" + w + ".");
+		}
+		double[] e = this.E.data;
+		for (int m = 0; m < this.alphabetSize; ++m) {
+			result[offset + m] = Math.exp(e[m] * w);
+		}
+	}
+
 	/**
 	 * Element-wise multiplication Y=Pi*X.
 	 * @param X operand matrix (typically vector) of size (dim,ncol).
@@ -1,19 +1,22 @@
 package se.cbb.jprime.seqevo;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-
-import org.ejml.data.DenseMatrix64F;
-import org.ejml.ops.CommonOps;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import se.cbb.jprime.io.SampleLogDouble;
+import se.cbb.jprime.io.SnapshotSampleable;
 import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.mcmc.BoundedInferenceModel;
 import se.cbb.jprime.mcmc.ChangeInfo;
 import se.cbb.jprime.mcmc.Dependent;
-import se.cbb.jprime.mcmc.InferenceModel;
+import se.cbb.jprime.misc.SharedForkJoinPools;
 import se.cbb.jprime.topology.DoubleMap;
-import se.cbb.jprime.topology.GenericMap;
 import se.cbb.jprime.topology.NamesMap;
 import se.cbb.jprime.topology.RBTree;
 import se.cbb.jprime.topology.TreeAlgorithms;
@@ -31,12 +34,37 @@ import se.cbb.jprime.topology.TreeAlgorithms;
  * <code>CacheSubstitutionModel</code> and not <code>FastCacheSubstitutionModel</code>
  * since the latter was stated unsuitable for tree topology changes in the C++ CMake
  * default settings. /Joel
+ * <p/>
+ * To avoid underflow on large trees, the partial likelihoods may be rescaled.
+ * Scaling is switched on adaptively the first time a pattern likelihood at the root
+ * falls below <code>MIN_UNSCALED_LIKELIHOOD</code>, and the model is then recomputed. Thereafter,
+ * any vector whose largest element falls below <code>SCALING_THRESHOLD</code>
+ * is divided by that element, and the log-scale factors are accumulated up the tree.
+ * <p/>
+ * The likelihood of a pattern never exceeds the smallest stationary probability of the states of its leaves.
+ * This yields an upper bound of the model likelihood, and makes it possible to abort a (single-threaded) update as soon as
+ * the likelihood is evident to fall below a required minimum, see <code>BoundedInferenceModel</code>. The patterns
+ * are then processed in chunks, and the bounds of the remaining chunks are checked after each chunk.
+ * <p/>
+ * The likelihood may also be evaluated as a function of a single branch length, all else being equal, see
+ * <code>computeBranchLengthLogLikelihoods()</code>. For the arc of a vertex x, the vectors above and below the arc are
+ * obtained from the current partial likelihoods and projected onto the eigensystem of Q, after which the likelihood of
+ * any length is computed in time linear in the number of patterns, site rate categories and states.
  * 
  * @author Bengt Sennblad.
  * @author Lars Arvestad.
  * @author Joel Sjöstrand.
  */
-public class SubstitutionModel implements InferenceModel {
+public class SubstitutionModel implements BoundedInferenceModel, SnapshotSampleable {
+
+	/** Smallest root pattern likelihood accepted before switching on scaling. */
+	public static final double MIN_UNSCALED_LIKELIHOOD = 1e-250;
+	
+	/** When scaling, vectors whose largest element is below this value are rescaled. */
+	public static final double SCALING_THRESHOLD = 1e-100;
+	
+	/** Number of chunks of patterns processed one at a time by bounded updates. */
+	public static final int NO_OF_BOUNDED_CHUNKS = 8;
 
 	/** Model name. */
 	private String name;
@@ -64,22 +92,91 @@ public class SubstitutionModel implements InferenceModel {
     
     /**
      * For each vertex n of V(T), holds the likelihoods for the planted subtree
-     * T^n. Each such element is an array with rows corresponding to unique patterns and
-     * columns corresponding to site rate categories. Each element in such an array holds a
-     * vector with likelihoods corresponding to the states of the sequence type alphabet. */
-    private GenericMap<PatternLikelihoods> likelihoods;
+     * T^n, for each site rate category and unique pattern, as a
+     * vector with likelihoods corresponding to the states of the sequence type alphabet.
+     * Stored in a flat array; see <code>PatternLikelihoods</code>. */
+    private PatternLikelihoods likelihoods;
+    
+    /** For each vertex n of V(T), holds the transition probability matrices of each site rate category for the arc of n. */
+    private TransitionMatrices transitionMatrices;
+    
+    /** Inner loop of the pruning algorithm, specialised for the alphabet. */
+    private LikelihoodKernel kernel;
+    
+    /** For each unique pattern, the position of its first occurrence in the MSA. */
+    private int[] patternPositions;
+    
+    /** For each unique pattern, its number of occurrences in the MSA. */
+    private int[] patternCounts;
     
     /** Model likelihood. */
     private LogDouble modelLikelihood;
     
-    /** Cached likelihood. */
-    private LogDouble cacheModelLikelihood = null;
+    /** Cached likelihood. Swapped with the likelihood on update and restore, so that no instances are created. */
+    private LogDouble cacheModelLikelihood;
 
-    /** Temporary matrix used during computations. */
-    private DenseMatrix64F tmp;
+    /** True if the partial likelihoods are rescaled to avoid underflow. */
+    private boolean doScale;
+    
+    /** Number of threads used for computing the likelihoods. */
+    private int noOfThreads;
+    
+    /** Shared pool of worker threads. Null if single-threaded. */
+    private ForkJoinPool pool;
+    
+    /** Disjoint pattern ranges covering all unique patterns, each with its own scratch space. */
+    private List<PatternBlock> blocks;
+    
+    /** For each unique pattern, the log of the upper bound of its likelihood, accounting for its number of occurrences. */
+    private double[] patternLogBounds;
+    
+    /** Log of the upper bound of the model likelihood. */
+    private double logUpperBound;
+    
+    /** Upper bound of the model likelihood. */
+    private LogDouble upperBound;
+    
+    /** Change info of full updates, reused between updates. */
+    private ChangeInfo fullChangeInfo;
+    
+    /** Change info of partial updates, reused between updates. */
+    private ChangeInfo partialChangeInfo;
+    
+    /** Scratch array for finding affected vertices. */
+    private boolean[] isAffected;
+    
+    /** Scratch array for finding affected vertices. */
+    private int[] affectedBuffer;
+    
+    /** For each number of affected vertices, reused array holding them. Created on demand. */
+    private int[][] affectedArrays;
+    
+    /** Disjoint pattern ranges covering all unique patterns for bounded updates. Null if multi-threaded. */
+    private List<PatternBlock> chunks;
     
     /**
-     * Constructor.
+     * For each site rate category and unique pattern, scratch vector used when evaluating the likelihood as a function of a
+     * single branch length. Created on demand.
+     */
+    private double[] arcVectors = null;
+    
+    /** For each site rate category and unique pattern, log-scale factor of arcVectors. Created on demand. */
+    private double[] arcScalings = null;
+    
+    /** Scratch vector used alongside arcVectors. Created on demand. */
+    private double[] arcTmp = null;
+    
+    /** Scratch vector for the vector below an arc. Created on demand. */
+    private double[] arcBelow = null;
+    
+    /** For each site rate category, scratch vector for the exponentials of the eigenvalues. Created on demand. */
+    private double[] arcExps = null;
+    
+    /** Scratch path from a vertex to the root. Created on demand. */
+    private int[] arcPath = null;
+    
+    /**
+     * Constructor. Single-threaded.
      * @param name model name.
      * @param D sequence data (MSA).
      * @param siteRates site rate categories.
@@ -92,6 +189,27 @@ public class SubstitutionModel implements InferenceModel {
      */
     public SubstitutionModel(String name, MSAData D, GammaSiteRateHandler siteRates, SubstitutionMatrixHandler Q,
     		RBTree T, NamesMap names, DoubleMap branchLengths, boolean useRootArc) {
+    	this(name, D, siteRates, Q, T, names, branchLengths, useRootArc, 1);
+    }
+    
+    /**
+     * Constructor.
+     * @param name model name.
+     * @param D sequence data (MSA).
+     * @param siteRates site rate categories.
+     * @param Q data transition matrix Q (and P).
+     * @param T tree.
+     * @param names leaf names of T.
+     * @param branchLengths branch lengths of T.
+     * @param useRootArc if true, utilises the root arc ("stem") branch length when computing model
+     *        likelihood; if false, discards the root arc.
+     * @param noOfThreads number of threads over which the unique patterns are split, e.g. 1.
+     */
+    public SubstitutionModel(String name, MSAData D, GammaSiteRateHandler siteRates, SubstitutionMatrixHandler Q,
+    		RBTree T, NamesMap names, DoubleMap branchLengths, boolean useRootArc, int noOfThreads) {
+    	if (noOfThreads < 1) {
+    		throw new IllegalArgumentException("Invalid number of threads for substitution model: " + noOfThreads + ".");
+    	}
     	this.name = name;
     	this.D = D;
     	this.siteRates = siteRates;
@@ -104,198 +222,650 @@ public class SubstitutionModel implements InferenceModel {
     	int noOfPatterns = D.getPatterns().size();
     	int noOfSiteRates = siteRates.getNoOfCategories();
     	int alphabetSize = Q.getAlphabetSize();
-    	this.likelihoods = new GenericMap<PatternLikelihoods>(names + "Likelihoods", noOfVertices);
+    	this.likelihoods = new PatternLikelihoods(noOfVertices, noOfPatterns, noOfSiteRates, alphabetSize);
+    	this.transitionMatrices = new TransitionMatrices(Q, siteRates, noOfVertices);
+    	this.kernel = Q.getSequenceType().getLikelihoodKernel();
+    	this.patternPositions = new int[noOfPatterns];
+    	this.patternCounts = new int[noOfPatterns];
+    	int i = 0;
+    	for (int[] pattern : D.getPatterns().values()) {
+    		this.patternPositions[i] = pattern[0];
+    		this.patternCounts[i] = pattern[1];
+    		i++;
+    	}
+    	this.updatePatternLogBounds();
     	this.modelLikelihood = new LogDouble(0.0);
-    	this.tmp = new DenseMatrix64F(alphabetSize, 1);
-    	for (int n = 0; n < noOfVertices; ++n) {
-    		this.likelihoods.set(n, new PatternLikelihoods(noOfPatterns, noOfSiteRates, alphabetSize));
+    	this.cacheModelLikelihood = new LogDouble(0.0);
+    	this.fullChangeInfo = new ChangeInfo(this, "SubstitutionModel - full update");
+    	this.partialChangeInfo = new ChangeInfo(this, "SubstitutionModel - partial update", null);
+    	this.isAffected = new boolean[noOfVertices];
+    	this.affectedBuffer = new int[noOfVertices];
+    	this.affectedArrays = new int[noOfVertices + 1][];
+    	this.doScale = false;
+    	
+    	// Split patterns into equally sized blocks, one per thread.
+    	this.noOfThreads = Math.max(1, Math.min(noOfThreads, noOfPatterns));
+    	this.blocks = new ArrayList<PatternBlock>(this.noOfThreads);
+    	for (int k = 0; k < this.noOfThreads; ++k) {
+    		this.blocks.add(new PatternBlock(k * noOfPatterns / this.noOfThreads, (k + 1) * noOfPatterns / this.noOfThreads));
     	}
-    	this.updateLikelihood(this.T.getRoot(), true);
-		this.computeModelLikelihood();
+    	this.pool = (this.noOfThreads > 1 ? SharedForkJoinPools.get(this.noOfThreads) : null);
+    	if (this.pool == null) {
+    		int noOfChunks = Math.min(NO_OF_BOUNDED_CHUNKS, noOfPatterns);
+    		this.chunks = new ArrayList<PatternBlock>(noOfChunks);
+    		for (int k = 0; k < noOfChunks; ++k) {
+    			this.chunks.add(new PatternBlock(k * noOfPatterns / noOfChunks, (k + 1) * noOfPatterns / noOfChunks));
+    		}
+    	}
+    	this.updateTransitionMatrices(null, true);
+    	this.transitionMatrices.clearCache();
+    	this.update(null, null);
+    	this.likelihoods.clearCache();
+    }
+
+    /**
+     * Computes the upper bounds of the pattern likelihoods. Since the process is stationary, the probability
+     * of a single leaf state is its stationary probability, which bounds the likelihood of the entire pattern.
+     */
+    private void updatePatternLogBounds() {
+    	int noOfPatterns = this.patternPositions.length;
+    	this.patternLogBounds = new double[noOfPatterns];
+    	this.logUpperBound = 0.0;
+    	for (int i = 0; i < noOfPatterns; ++i) {
+    		double min = 1.0;
+    		for (int seqIdx = 0; seqIdx < this.D.getNoOfSequences(); ++seqIdx) {
+    			min = Math.min(min, this.Q.sumWithPi(this.D.getLeafLikelihood(seqIdx, this.patternPositions[i]).data, 0));
+    		}
+    		this.patternLogBounds[i] = Math.log(min) * this.patternCounts[i];
+    		this.logUpperBound += this.patternLogBounds[i];
+    	}
+    	this.upperBound = new LogDouble(this.logUpperBound, 1);
     }
 
     @Override
 	public void cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample) {
+    	this.cacheAndUpdate(changeInfos, willSample, null);
+	}
+    
+    @Override
+    public boolean cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample, LogDouble minDataProbability) {
     	// Find out which parents have changed.
     	ChangeInfo tInfo = changeInfos.get(this.T);
     	ChangeInfo blInfo = changeInfos.get(this.branchLengths);
 		ChangeInfo siteRateInfo = changeInfos.get(this.siteRates);
-		if (tInfo != null || siteRateInfo != null || (blInfo != null && blInfo.getAffectedElements() == null)) {
-			// Full update if tree or site rates have changed, or if undisclosed
-			// branch lengths changes.
-			this.fullUpdate();
-			changeInfos.put(this, new ChangeInfo(this, "SubstitutionModel - full update"));
-		} else if (blInfo != null && blInfo.getAffectedElements() != null) {
-			// Partial update if disclosed branch length changes.
+		if (siteRateInfo != null || (tInfo != null && tInfo.getAffectedElements() == null) ||
+				(blInfo != null && blInfo.getAffectedElements() == null)) {
+			// Full update if site rates have changed, or if undisclosed
+			// tree or branch lengths changes.
+			changeInfos.put(this, this.fullChangeInfo);
+			return this.fullUpdate(siteRateInfo != null, minDataProbability);
+		} else if (tInfo != null || blInfo != null) {
+			// Partial update if disclosed tree or branch length changes, e.g. NNI or SPR,
+			// since the likelihoods of a vertex only depend on its subtree.
 			// Get reverse-topological-ordered affected vertices.
-			int[] allAffected = TreeAlgorithms.getSpanningRootSubtree(this.T, blInfo.getAffectedElements());
-			this.partialUpdate(allAffected);
-			changeInfos.put(this, new ChangeInfo(this, "SubstitutionModel - partial update", allAffected));
+			int[] changed = (tInfo == null ? blInfo.getAffectedElements() : (blInfo == null ? tInfo.getAffectedElements() :
+				ChangeInfo.getUnion(new int[][] { tInfo.getAffectedElements(), blInfo.getAffectedElements() })));
+			int[] allAffected = this.getAffectedVertices(changed);
+			this.partialChangeInfo.setAffectedElements(allAffected);
+			changeInfos.put(this, this.partialChangeInfo);
+			return this.partialUpdate(allAffected, minDataProbability);
 		}
+		return true;
 	}
     
     /**
      * Performs a full update.
+     * @param siteRatesChanged true if the site rates have changed.
+     * @param minL minimum required likelihood. Null if not applicable.
+     * @return true if completely updated; false if aborted.
      */
-    private void fullUpdate() {
-		this.cacheModelLikelihood = new LogDouble(this.modelLikelihood);
-		try {
-			this.likelihoods.cache(null);
-		} catch (CloneNotSupportedException e) {
-			throw new RuntimeException(e);
-		}
-		this.updateLikelihood(this.T.getRoot(), true);
-		this.computeModelLikelihood();
+    private boolean fullUpdate(boolean siteRatesChanged, LogDouble minL) {
+		this.swapLikelihoods();
+		this.likelihoods.cache(null);
+		this.updateTransitionMatrices(null, siteRatesChanged);
+		return this.update(null, minL);
     }
     
     /**
      * Performs a partial update.
      * @param affectedVertices vertices to update, in reverse topological order (leaves to root).
+     * @param minL minimum required likelihood. Null if not applicable.
+     * @return true if completely updated; false if aborted.
      */
-    private void partialUpdate(int[] affectedVertices) {
-    	this.cacheModelLikelihood = new LogDouble(this.modelLikelihood);
-		try {
-			this.likelihoods.cache(affectedVertices);
-		} catch (CloneNotSupportedException e) {
-			throw new RuntimeException(e);
-		}
-		for (int n : affectedVertices) {
-			this.updateLikelihood(n, false);
-		}
-		this.computeModelLikelihood();
+    private boolean partialUpdate(int[] affectedVertices, LogDouble minL) {
+    	this.swapLikelihoods();
+		this.likelihoods.cache(affectedVertices);
+		this.updateTransitionMatrices(affectedVertices, false);
+		return this.update(affectedVertices, minL);
+    }
+    
+    /**
+     * Swaps the likelihood and its cache.
+     */
+    private void swapLikelihoods() {
+    	LogDouble tmp = this.modelLikelihood;
+    	this.modelLikelihood = this.cacheModelLikelihood;
+    	this.cacheModelLikelihood = tmp;
+    }
+    
+    /**
+     * Returns the vertices spanned by changed vertices and the root, in reverse topological order.
+     * @param changed the changed vertices.
+     * @return the vertices, in an array which is reused by subsequent invocations.
+     */
+    private int[] getAffectedVertices(int[] changed) {
+    	int n = TreeAlgorithms.getSpanningRootSubtree(this.T, changed, this.isAffected, this.affectedBuffer);
+    	if (this.affectedArrays[n] == null) {
+    		this.affectedArrays[n] = new int[n];
+    	}
+    	System.arraycopy(this.affectedBuffer, 0, this.affectedArrays[n], 0, n);
+    	return this.affectedArrays[n];
+    }
+    
+    /**
+     * Recomputes the transition probability matrices of vertices whose branch lengths have changed.
+     * @param vertices the vertices to consider. Null considers all vertices.
+     * @param siteRatesChanged true to recompute all considered vertices since the site rates have changed.
+     */
+    private void updateTransitionMatrices(int[] vertices, boolean siteRatesChanged) {
+    	if (vertices == null) {
+    		for (int n = 0; n < this.T.getNoOfVertices(); ++n) {
+    			if (this.useRootArc || !this.T.isRoot(n)) {
+    				this.transitionMatrices.update(n, this.branchLengths.get(n), siteRatesChanged);
+    			}
+    		}
+    	} else {
+    		for (int n : vertices) {
+    			if (this.useRootArc || !this.T.isRoot(n)) {
+    				this.transitionMatrices.update(n, this.branchLengths.get(n), siteRatesChanged);
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Updates the likelihoods of all pattern blocks, concurrently if multi-threaded,
+     * and reduces the block likelihoods into the overall model likelihood. If single-threaded
+     * and a minimum likelihood is given, the update may be aborted.
+     * @param affectedVertices vertices to update, in reverse topological order. Null
+     *        updates all vertices.
+     * @param minL minimum required likelihood. Null if not applicable.
+     * @return true if completely updated; false if aborted.
+     */
+    private boolean update(int[] affectedVertices, LogDouble minL) {
+    	if (minL != null && this.chunks != null) {
+    		Boolean isComplete = this.computeChunks(affectedVertices, minL.getLogValue());
+    		if (isComplete != null) {
+    			return isComplete;
+    		}
+    	}
+    	this.computeBlocks(affectedVertices);
+    	if (!this.doScale) {
+    		for (int k = 0; k < this.blocks.size(); ++k) {
+    			if (this.blocks.get(k).isUnderflowing) {
+    				// Switch on scaling for good and recompute every vertex.
+    				// Only the current slots are overwritten, so the cache stays valid.
+    				this.doScale = true;
+    				this.likelihoods.cache(null);
+    				this.computeBlocks(null);
+    				break;
+    			}
+    		}
+    	}
+    	return true;
+    }
+    
+    /**
+     * Computes the likelihoods chunk by chunk, and aborts as soon as the likelihood is evident to fall below
+     * a minimum considering the upper bounds of the remaining chunks.
+     * @param affectedVertices vertices to update, in reverse topological order. Null
+     *        updates all vertices.
+     * @param minLogL log of the minimum required likelihood.
+     * @return true if completely updated; false if aborted; null if scaling must be switched on,
+     *         in which case the update must be redone in its entirety.
+     */
+    private Boolean computeChunks(int[] affectedVertices, double minLogL) {
+    	double logL = 0.0;
+    	double logBound = this.logUpperBound;
+    	for (int k = 0; k < this.chunks.size(); ++k) {
+    		PatternBlock chunk = this.chunks.get(k);
+    		chunk.affectedVertices = affectedVertices;
+    		LogDouble chunkL = chunk.call();
+    		if (!this.doScale && chunk.isUnderflowing) {
+    			return null;
+    		}
+    		logL += chunkL.getLogValue();
+    		logBound -= chunk.logUpperBound;
+    		if (logL + logBound < minLogL) {
+    			this.modelLikelihood.set(0.0);
+    			return false;
+    		}
+    	}
+    	this.modelLikelihood.set(logL, logL == Double.NEGATIVE_INFINITY ? 0 : 1);
+    	return true;
+    }
+    
+    /**
+     * Computes the likelihoods of all pattern blocks, concurrently if multi-threaded,
+     * and reduces the block likelihoods into the overall model likelihood.
+     * @param affectedVertices vertices to update, in reverse topological order. Null
+     *        updates all vertices.
+     */
+    private void computeBlocks(int[] affectedVertices) {
+    	for (int k = 0; k < this.blocks.size(); ++k) {
+    		this.blocks.get(k).affectedVertices = affectedVertices;
+    	}
+    	if (this.pool == null) {
+    		this.modelLikelihood.set(this.blocks.get(0).call());
+    	} else {
+    		try {
+    			this.modelLikelihood.set(1.0);
+    			for (Future<LogDouble> blockL : this.pool.invokeAll(this.blocks)) {
+    				this.modelLikelihood.mult(blockL.get());
+    			}
+    		} catch (InterruptedException e) {
+    			throw new RuntimeException("Substitution model update was interrupted.", e);
+    		} catch (ExecutionException e) {
+    			throw new RuntimeException(e.getCause());
+    		}
+    	}
+    }
+    
+    /**
+     * Computes the likelihoods of a range of unique patterns. Each block owns
+     * its own temporary vector, and only reads the transition matrices, so that
+     * blocks can be processed concurrently.
+     */
+    private class PatternBlock implements Callable<LogDouble> {
+    	
+    	/** First pattern of range. */
+    	private final int from;
+    	
+    	/** Pattern after last pattern of range. */
+    	private final int to;
+    	
+    	/** Temporary vector used during computations. */
+    	private final double[] tmp;
+    	
+    	/** Vertices to update in reverse topological order, or null for all. */
+    	private int[] affectedVertices;
+    	
+    	/** True if a pattern likelihood fell below MIN_UNSCALED_LIKELIHOOD without scaling. */
+    	private boolean isUnderflowing;
+    	
+    	/** Log of the upper bound of the likelihood of the range. */
+    	private final double logUpperBound;
+    	
+    	/** Likelihood of the range, reused between computations. */
+    	private final LogDouble likelihood;
+    	
+    	/**
+    	 * Constructor.
+    	 * @param from first pattern of range.
+    	 * @param to pattern after last pattern of range.
+    	 */
+    	PatternBlock(int from, int to) {
+    		int alphabetSize = Q.getAlphabetSize();
+    		this.from = from;
+    		this.to = to;
+    		this.tmp = new double[alphabetSize];
+    		double bound = 0.0;
+    		for (int i = from; i < to; ++i) {
+    			bound += patternLogBounds[i];
+    		}
+    		this.logUpperBound = bound;
+    		this.likelihood = new LogDouble(1.0);
+    	}
+    	
+    	@Override
+    	public LogDouble call() {
+    		if (this.affectedVertices == null) {
+    			this.updateLikelihood(T.getRoot(), true);
+    		} else {
+    			for (int n : this.affectedVertices) {
+    				this.updateLikelihood(n, false);
+    			}
+    		}
+    		return this.computeLikelihood();
+    	}
+    	
+    	/**
+    	 * Computes the likelihood of the patterns of this block by consulting the root likelihood
+    	 * and the stationary state frequencies. The likelihood data structures must be up-to-date.
+    	 * The pattern likelihoods are accumulated in log space as primitives.
+    	 * @return the likelihood, reused between computations.
+    	 */
+    	private LogDouble computeLikelihood() {
+    		
+    		// Get root likelihood.
+    		int n = T.getRoot();
+    		double[] L = likelihoods.getLikelihoods();
+    		double[] S = likelihoods.getScalings();
+    		int noOfSiteRates = siteRates.getNoOfCategories();
+    		int alphabetSize = Q.getAlphabetSize();
+    		double logNoOfSiteRates = Math.log(noOfSiteRates);
+    		
+    		double blockL = 0.0;
+    		this.isUnderflowing = false;
+    		
+    		// For each unique pattern i.
+    		for (int i = this.from; i < this.to; ++i) {
+    			
+    			// For each site rate category j.
+    			double logPatternL;
+    			if (doScale) {
+    				// Categories may have been scaled differently: use the largest scale as reference.
+    				double maxScale = Double.NEGATIVE_INFINITY;
+    				for (int j = 0; j < noOfSiteRates; ++j) {
+    					maxScale = Math.max(maxScale, S[likelihoods.getScalingOffset(n, j) + i]);
+    				}
+    				double patternL = 0.0;
+    				for (int j = 0; j < noOfSiteRates; ++j) {
+    					double scale = S[likelihoods.getScalingOffset(n, j) + i] - maxScale;
+    					patternL += Q.sumWithPi(L, likelihoods.getOffset(n, j) + i * alphabetSize) * Math.exp(scale);
+    				}
+    				logPatternL = Math.log(patternL) + maxScale;
+    			} else {
+    				double patternL = 0.0;
+    				for (int j = 0; j < noOfSiteRates; ++j) {
+    					
+    					// Multiply with stationary frequencies (that's our assumption for evolution start).
+    					patternL += Q.sumWithPi(L, likelihoods.getOffset(n, j) + i * alphabetSize);
+    				}
+    				if (patternL < MIN_UNSCALED_LIKELIHOOD) {
+    					this.isUnderflowing = true;
+    				}
+    				logPatternL = Math.log(patternL);
+    			}
+    			
+    			// Pr[site rate category] = 1 / # of categories.
+    			// Multiply with overall likelihood, accounting for # of actual columns of pattern.
+    			blockL += (logPatternL - logNoOfSiteRates) * patternCounts[i];
+    		}
+    		return this.likelihood.set(blockL, blockL == Double.NEGATIVE_INFINITY ? 0 : 1);
+    	}
+    	
+    	/**
+    	 * DP method which updates the likelihood column vectors for a subtree.
+    	 * @param n vertex root of subtree.
+    	 * @param doRecurse true to process entire subtree rooted at n; false to only do n.
+    	 */
+    	private void updateLikelihood(int n, boolean doRecurse) {
+    		if (T.isLeaf(n)) {
+    			this.updateLeafLikelihood(n);
+    		} else {
+    			
+    			// Process kids first.
+    			int lc = T.getLeftChild(n);
+    			int rc = T.getRightChild(n);
+    			if (doRecurse) {
+    				this.updateLikelihood(lc, true);
+    				this.updateLikelihood(rc, true);
+    			}
+    			
+    			// Get likelihood and transition matrix storage.
+    			double[] L = likelihoods.getLikelihoods();
+    			double[] P = transitionMatrices.getMatrices();
+    			int alphabetSize = Q.getAlphabetSize();
+    			
+    			// Just a special case: we discard evolution over the stem arc if desired (when doUseP = false).
+    			boolean doUseP = (useRootArc || !T.isRoot(n));
+    			
+    			// Compute Pr[Dk | T, l, r(j)] for each site rate category j.
+    			for (int j = 0; j < siteRates.getNoOfCategories(); j++) {
+    				
+    				// Get start of site rate-specific P matrix, and current and child likelihoods.
+    				int p = (doUseP ? transitionMatrices.getOffset(n, j) : -1);
+    				int offset = this.from * alphabetSize;
+    				int curr = likelihoods.getOffset(n, j) + offset;
+    				int left = likelihoods.getOffset(lc, j) + offset;
+    				int right = likelihoods.getOffset(rc, j) + offset;
+    				
+    				// Lastly, process each unique pattern.
+    				if (doUseP) {
+    					kernel.multiplyWithP(P, p, L, left, right, curr, this.to - this.from, this.tmp);
+    				} else {
+    					// Only element-wise multiplication, curr = left .* right.
+    					for (int k = 0, sz = (this.to - this.from) * alphabetSize; k < sz; ++k) {
+    						L[curr + k] = L[left + k] * L[right + k];
+    					}
+    				}
+    				if (doScale) {
+    					this.rescale(L, curr, likelihoods.getScalingOffset(n, j), likelihoods.getScalingOffset(lc, j),
+    							likelihoods.getScalingOffset(rc, j));
+    				}
+    			}
+    		}
+    	}
+    	
+    	/**
+    	 * Rescales the freshly computed vectors of a vertex for a site rate category, and stores
+    	 * the accumulated log-scale factors, i.e., those of the children plus the vertex's own.
+    	 * @param L likelihoods.
+    	 * @param curr start of the vector of the first pattern of this block.
+    	 * @param s scaling offset of the vertex.
+    	 * @param sl scaling offset of the left child.
+    	 * @param sr scaling offset of the right child.
+    	 */
+    	private void rescale(double[] L, int curr, int s, int sl, int sr) {
+    		double[] S = likelihoods.getScalings();
+    		int alphabetSize = Q.getAlphabetSize();
+    		for (int i = this.from; i < this.to; ++i) {
+    			double max = 0.0;
+    			for (int k = 0; k < alphabetSize; ++k) {
+    				max = Math.max(max, L[curr + k]);
+    			}
+    			double scale = S[sl + i] + S[sr + i];
+    			if (max < SCALING_THRESHOLD && max > 0.0) {
+    				double inv = 1.0 / max;
+    				for (int k = 0; k < alphabetSize; ++k) {
+    					L[curr + k] *= inv;
+    				}
+    				scale += Math.log(max);
+    			}
+    			S[s + i] = scale;
+    			curr += alphabetSize;
+    		}
+    	}
+    	
+    	/**
+    	 * DP method which updates the likelihoods column vector for a leaf vertex.
+    	 * @param n leaf vertex.
+    	 */
+    	private void updateLeafLikelihood(int n) {
+    		
+    		// Set up likelihood and transition matrix storage.
+    		double[] L = likelihoods.getLikelihoods();
+    		double[] P = transitionMatrices.getMatrices();
+    		int alphabetSize = Q.getAlphabetSize();
+    		
+    		// Get sequence index for this vertex.
+    		int seqIdx = D.getSequenceIndex(names.get(n));
+    		
+    		// Loop over rate categories.
+    		for (int j = 0; j < siteRates.getNoOfCategories(); j++) {
+    			
+    			// Get site rate-specific P matrix.
+    			int p = transitionMatrices.getOffset(n, j);
+    			
+    			// Loop over each unique pattern, using the position of its first occurrence.
+    			int curr = likelihoods.getOffset(n, j) + this.from * alphabetSize;
+    			for (int i = this.from; i < this.to; ++i) {
+    				int state = D.getIntState(seqIdx, patternPositions[i]);
+    				Q.getLeafLikelihood(P, p, state, L, curr);
+    				curr += alphabetSize;
+    			}
+    			
+    			// Leaves are never scaled.
+    			if (doScale) {
+    				int s = likelihoods.getScalingOffset(n, j);
+    				Arrays.fill(likelihoods.getScalings(), s + this.from, s + this.to, 0.0);
+    			}
+    		}
+    	}
     }
 
-	
+
 	/**
-	 * Computes the overall model likelihood by consulting the root likelihood
-	 * and the stationary state frequencies. The likelihood data structures must be up-to-date.
+	 * Computes the log-likelihood of the model as a function of the branch length of a single vertex x, all
+	 * else being equal, for a number of candidate lengths. The model must be up-to-date, and is not affected.
+	 * The vector above the arc of x is computed by descending from the root to x, after which both the vector above and
+	 * the vector below the arc are projected onto the eigensystem of Q for every site rate category and pattern.
+	 * Thereafter, each candidate length only requires computing the exponentials of the eigenvalues.
+	 * @param x the vertex.
+	 * @param lengths the candidate branch lengths of x.
+	 * @param logLs array to hold the log-likelihood of each candidate length.
 	 */
-	private void computeModelLikelihood() {
+	public void computeBranchLengthLogLikelihoods(int x, double[] lengths, double[] logLs) {
+		if (!this.useRootArc && this.T.isRoot(x)) {
+			// Root arc is discarded.
+			Arrays.fill(logLs, 0, lengths.length, this.modelLikelihood.getLogValue());
+			return;
+		}
+		int noOfPatterns = this.patternCounts.length;
+		int noOfSiteRates = this.siteRates.getNoOfCategories();
+		int n = this.Q.getAlphabetSize();
+		if (this.arcVectors == null) {
+			this.arcVectors = new double[noOfSiteRates * noOfPatterns * n];
+			this.arcScalings = new double[noOfSiteRates * noOfPatterns];
+			this.arcTmp = new double[n];
+			this.arcBelow = new double[n];
+			this.arcExps = new double[noOfSiteRates * n];
+			this.arcPath = new int[this.T.getNoOfVertices()];
+		}
+		double[] W = this.arcVectors;
+		double[] WS = this.arcScalings;
+		double[] L = this.likelihoods.getLikelihoods();
+		double[] S = this.likelihoods.getScalings();
+		double[] P = this.transitionMatrices.getMatrices();
+		double[] tmp = this.arcTmp;
+		int[] path = this.arcPath;
 		
-		// Get root likelihood and patterns.
-		LinkedHashMap<String, int[]> patterns = this.D.getPatterns();
-		int n = this.T.getRoot();
-		PatternLikelihoods pl = this.likelihoods.get(n);
+		// Vector above the root arc: the stationary frequencies.
+		for (int k = 0; k < noOfSiteRates * noOfPatterns; ++k) {
+			this.Q.getStationaryFrequencies(W, k * n);
+		}
+		Arrays.fill(WS, 0.0);
 		
-		// Reset model likelihood.
-		this.modelLikelihood = new LogDouble(1.0);
+		// Descend to x, for each vertex v on the path obtaining the vector above its child c towards x
+		// as (P_v' * above_v) .* below_s, where s is the sibling of c.
+		int depth = 0;
+		path[0] = x;
+		while (!this.T.isRoot(path[depth])) {
+			path[depth + 1] = this.T.getParent(path[depth]);
+			++depth;
+		}
+		for (int d = depth; d > 0; --d) {
+			int c = path[d - 1];
+			int v = path[d];
+			int sib = this.T.getSibling(c);
+			boolean doUseP = (this.useRootArc || !this.T.isRoot(v));
+			for (int j = 0; j < noOfSiteRates; ++j) {
+				int p = (doUseP ? this.transitionMatrices.getOffset(v, j) : -1);
+				for (int i = 0; i < noOfPatterns; ++i) {
+					int w = (j * noOfPatterns + i) * n;
+					int ls = this.likelihoods.getOffset(sib, i, j);
+					if (doUseP) {
+						for (int k = 0; k < n; ++k) {
+							double sum = 0.0;
+							for (int m = 0; m < n; ++m) {
+								sum += P[p + m * n + k] * W[w + m];
+							}
+							tmp[k] = sum;
+						}
+					} else {
+						System.arraycopy(W, w, tmp, 0, n);
+					}
+					double max = 0.0;
+					for (int k = 0; k < n; ++k) {
+						tmp[k] *= L[ls + k];
+						max = Math.max(max, tmp[k]);
+					}
+					
+					// Keep the vector normalised, accumulating the log-scale factors.
+					if (max > 0.0) {
+						double inv = 1.0 / max;
+						for (int k = 0; k < n; ++k) {
+							W[w + k] = tmp[k] * inv;
+						}
+						WS[j * noOfPatterns + i] += Math.log(max);
+					} else {
+						Arrays.fill(W, w, w + n, 0.0);
+					}
+					if (this.doScale) {
+						WS[j * noOfPatterns + i] += S[this.likelihoods.getScalingOffset(sib, j) + i];
+					}
+				}
+			}
+		}
 		
-		// For each unique pattern i.
-		int i = 0;
-		for (Entry<String, int[]> pattern : patterns.entrySet()) {
-			
-			// For each site rate category j.
-			LogDouble patternL = new LogDouble(0.0);
-			for (int j = 0; j < pl.getNoOfSiteRateCategories(); ++j) {
-				DenseMatrix64F curr = pl.get(i, j);
-				
-				// Multiply with stationary frequencies (that's our assumption for evolution start).
-				this.Q.multiplyWithPi(curr, this.tmp);
-				patternL.add(CommonOps.elementSum(this.tmp));
+		// Project the vectors above and below the arc of x onto the eigensystem.
+		double[] below = this.arcBelow;
+		int seqIdx = (this.T.isLeaf(x) ? this.D.getSequenceIndex(this.names.get(x)) : -1);
+		int lc = (this.T.isLeaf(x) ? -1 : this.T.getLeftChild(x));
+		int rc = (this.T.isLeaf(x) ? -1 : this.T.getRightChild(x));
+		for (int j = 0; j < noOfSiteRates; ++j) {
+			for (int i = 0; i < noOfPatterns; ++i) {
+				int w = (j * noOfPatterns + i) * n;
+				if (seqIdx >= 0) {
+					System.arraycopy(this.D.getLeafLikelihood(seqIdx, this.patternPositions[i]).data, 0, below, 0, n);
+				} else {
+					int l = this.likelihoods.getOffset(lc, i, j);
+					int r = this.likelihoods.getOffset(rc, i, j);
+					for (int k = 0; k < n; ++k) {
+						below[k] = L[l + k] * L[r + k];
+					}
+					if (this.doScale) {
+						WS[j * noOfPatterns + i] += S[this.likelihoods.getScalingOffset(lc, j) + i] + S[this.likelihoods.getScalingOffset(rc, j) + i];
+					}
+				}
+				this.Q.projectOnEigensystem(W, w, below, 0, tmp, W, w);
 			}
-			
-			// Pr[site rate category] = 1 / # of categories.
-			patternL.div((double) this.siteRates.getNoOfCategories());
-			
-			// # of actual columns of pattern.
-			int noOfOccs = pattern.getValue()[1];
-			
-			// Multiply with overall likelihood.
-			this.modelLikelihood.mult(patternL.pow(noOfOccs));
-			i++;
 		}
-	}
-
-	/**
-	 * DP method which updates the likelihood column vectors for a subtree.
-	 * @param n vertex root of subtree.
-	 * @param doRecurse true to process entire subtree rooted at n; false to only do n.
-	 */
-	private void updateLikelihood(int n, boolean doRecurse) {
-		if (this.T.isLeaf(n)) {
-			this.updateLeafLikelihood(n);
-		} else {
-			
-			// Process kids first.
-			if (doRecurse) {
-				this.updateLikelihood(this.T.getLeftChild(n), true);
-				this.updateLikelihood(this.T.getRightChild(n), true);
+		
+		// Evaluate each candidate length.
+		double[] expE = this.arcExps;
+		double logNoOfSiteRates = Math.log(noOfSiteRates);
+		for (int g = 0; g < lengths.length; ++g) {
+			for (int j = 0; j < noOfSiteRates; ++j) {
+				this.Q.computeEigenExponentials(lengths[g] * this.siteRates.getRate(j), expE, j * n);
 			}
-			
-			// Get data and likelihood storage.
-			LinkedHashMap<String, int[]> patterns = this.D.getPatterns();
-			PatternLikelihoods pl = this.likelihoods.get(n);
-			
-			// Get child likelihoods.
-			PatternLikelihoods pl_l = this.likelihoods.get(this.T.getLeftChild(n));
-			PatternLikelihoods pl_r = this.likelihoods.get(this.T.getRightChild(n));
-			
-			// Just a special case: we discard evolution over the stem arc if desired (when doUseP = false).
-			boolean doUseP = (this.useRootArc || !this.T.isRoot(n));
-			
-			// Compute Pr[Dk | T, l, r(j)] for each site rate category j.
-			for (int j = 0; j < this.siteRates.getNoOfCategories(); j++) {
-				
-				if (doUseP) {
-					// Set up site rate-specific P matrix.
-					double w = this.branchLengths.get(n) * this.siteRates.getRate(j);
-					this.Q.updateTransitionMatrix(w);
+			double logL = 0.0;
+			for (int i = 0; i < noOfPatterns && logL != Double.NEGATIVE_INFINITY; ++i) {
+				double maxScale = Double.NEGATIVE_INFINITY;
+				for (int j = 0; j < noOfSiteRates; ++j) {
+					maxScale = Math.max(maxScale, WS[j * noOfPatterns + i]);
 				}
-				
-				// Lastly, loop over each unique pattern in patterns.
-				for (int i = 0; i < patterns.size(); i++) {
-					DenseMatrix64F left = pl_l.get(i, j);
-					DenseMatrix64F right = pl_r.get(i, j);
-					
-					// Element-wise multiplication, tmp = left .* right.
-					CommonOps.elementMult(left, right, this.tmp);
-					DenseMatrix64F curr = pl.get(i, j);
-					if (doUseP) {
-						this.Q.multiplyWithP(this.tmp, curr);
-					} else {
-						curr.set(this.tmp);
+				double patternL = 0.0;
+				for (int j = 0; j < noOfSiteRates; ++j) {
+					int w = (j * noOfPatterns + i) * n;
+					double sum = 0.0;
+					for (int m = 0; m < n; ++m) {
+						sum += W[w + m] * expE[j * n + m];
 					}
+					patternL += sum * Math.exp(WS[j * noOfPatterns + i] - maxScale);
 				}
+				logL = (patternL > 0.0 ? logL + (Math.log(patternL) + maxScale - logNoOfSiteRates) * this.patternCounts[i] : Double.NEGATIVE_INFINITY);
 			}
+			logLs[g] = logL;
 		}
 	}
 
 	/**
-	 * DP method which updates the likelihoods column vector for a leaf vertex.
-	 * @param n leaf vertex.
+	 * Returns the tree.
+	 * @return the tree.
 	 */
-	private void updateLeafLikelihood(int n) {
-		
-		// Set up data and likelihood storage.
-		LinkedHashMap<String, int[]> patterns = this.D.getPatterns();
-		PatternLikelihoods pl = this.likelihoods.get(n);
-	
-		// Get sequence index for this vertex.
-		int seqIdx = this.D.getSequenceIndex(this.names.get(n));
-		
-		// Loop over rate categories.
-		for (int j = 0; j < this.siteRates.getNoOfCategories(); j++) {
-			
-			// Set up site rate-specific P matrix.
-			double w = this.branchLengths.get(n) * this.siteRates.getRate(j);
-			this.Q.updateTransitionMatrix(w);
-	
-			// Loop over each unique pattern in patterns.
-			int i = 0;
-			for (Entry<String, int[]> pattern : patterns.entrySet()) {
-				
-				// Get position of pattern's first occurrence in partition.
-				int pos = pattern.getValue()[0];
-				
-				// Compute likelihood.
-				DenseMatrix64F curr = pl.get(i, j);
-				int state = this.D.getIntState(seqIdx, pos);
-				this.Q.getLeafLikelihood(state, curr);
-				i++;
-			}
-		}
+	public RBTree getTree() {
+		return this.T;
 	}
 
+	/**
+	 * Returns the branch lengths.
+	 * @return the branch lengths.
+	 */
+	public DoubleMap getBranchLengths() {
+		return this.branchLengths;
+	}
 
 	@Override
 	public Dependent[] getParentDependents() {
@@ -307,15 +877,16 @@ public class SubstitutionModel implements InferenceModel {
 	@Override
 	public void clearCache(boolean willSample) {
 		this.likelihoods.clearCache();
-		this.cacheModelLikelihood = null;
+		this.transitionMatrices.clearCache();
+		// The cached likelihood is kept as buffer for the next update.
 	}
 
 
 	@Override
 	public void restoreCache(boolean willSample) {
 		this.likelihoods.restoreCache();
-		this.modelLikelihood = this.cacheModelLikelihood;
-		this.cacheModelLikelihood = null;
+		this.transitionMatrices.restoreCache();
+		this.swapLikelihoods();
 	}
 
 	@Override
@@ -333,16 +904,45 @@ public class SubstitutionModel implements InferenceModel {
 		return SampleLogDouble.toString(this.modelLikelihood);
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new LogDouble();
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		((LogDouble) snapshot).set(this.modelLikelihood);
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		return SampleLogDouble.toString((LogDouble) snapshot);
+	}
+
+	/**
+	 * Returns true if the partial likelihoods are rescaled, i.e., if underflow has been encountered.
+	 * @return true if scaling.
+	 */
+	boolean isScaling() {
+		return this.doScale;
+	}
+
 	@Override
 	public LogDouble getDataProbability() {
 		return this.modelLikelihood;
 	}
 
+	@Override
+	public LogDouble getDataProbabilityUpperBound() {
+		return this.upperBound;
+	}
+
 	@Override
 	public String getPreInfo(String prefix) {
 		StringBuilder sb = new StringBuilder(4096);
 		sb.append(prefix).append("SUBSTITUTION MODEL\n");
 		sb.append(prefix).append("Including root arc in computations: ").append(this.useRootArc).append('\n');
+		sb.append(prefix).append("Number of threads: ").append(this.noOfThreads).append('\n');
 		sb.append(prefix).append("Multiple sequence alignment data:\n");
 		sb.append(this.D.getPreInfo(prefix + '\t'));
 		sb.append(prefix).append("Discrete site rates:\n");
@@ -0,0 +1,144 @@
+package se.cbb.jprime.seqevo;
+
+import java.util.Arrays;
+
+/**
+ * Holds the transition probability matrices P=exp(Qwr) of every arc of a tree,
+ * one for each discrete site rate category r, where w is the arc's branch length.
+ * Used e.g. by <code>SubstitutionModel</code>.
+ * <p/>
+ * A matrix set of a vertex is only recomputed when its branch length differs from the one
+ * it was computed for, or when explicitly forced (e.g. when the site rates have changed).
+ * All matrices are stored row-major in a single contiguous array. Like
+ * <code>PatternLikelihoods</code>, every vertex has two slots, "current" and "cached", and a
+ * recomputation is written into the non-current slot, which is thereafter made current.
+ * Restoring the cache swaps back.
+ *
+ * @author agent.
+ */
+public class TransitionMatrices {
+
+	/** Transition rate matrix Q. */
+	private final SubstitutionMatrixHandler Q;
+
+	/** Site rate categories. */
+	private final GammaSiteRateHandler siteRates;
+
+	/** Matrices of both slots of all vertices. Slot k of vertex x starts at (2x+k)*blockSize. */
+	private final double[] matrices;
+
+	/** Branch lengths for which the matrices of both slots of all vertices were computed. */
+	private final double[] lengths;
+
+	/** Current slot, 0 or 1, of each vertex. */
+	private final int[] slots;
+
+	/** Flags vertices which have had their slots swapped since the last clear or restore. */
+	private final boolean[] isCached;
+
+	/** Vertices which have had their slots swapped since the last clear or restore. */
+	private final int[] cacheVertices;
+
+	/** Number of valid elements in cacheVertices. */
+	private int noOfCacheVertices;
+
+	/** Number of elements of a single matrix, i.e., alphabetSize^2. */
+	private final int matrixSize;
+
+	/** Number of elements of a single slot of a vertex, i.e., noOfSiteRates * matrixSize. */
+	private final int blockSize;
+
+	/** Temporary vector used for computing the matrices. */
+	private final double[] expE;
+
+	/**
+	 * Constructor. No matrices are computed until requested.
+	 * @param Q transition rate matrix Q.
+	 * @param siteRates site rate categories.
+	 * @param noOfVertices no. of vertices.
+	 */
+	public TransitionMatrices(SubstitutionMatrixHandler Q, GammaSiteRateHandler siteRates, int noOfVertices) {
+		int alphabetSize = Q.getAlphabetSize();
+		this.Q = Q;
+		this.siteRates = siteRates;
+		this.matrixSize = alphabetSize * alphabetSize;
+		this.blockSize = siteRates.getNoOfCategories() * this.matrixSize;
+		this.matrices = new double[2 * noOfVertices * this.blockSize];
+		this.lengths = new double[2 * noOfVertices];
+		Arrays.fill(this.lengths, Double.NaN);
+		this.slots = new int[noOfVertices];
+		this.isCached = new boolean[noOfVertices];
+		this.cacheVertices = new int[noOfVertices];
+		this.noOfCacheVertices = 0;
+		this.expE = new double[alphabetSize];
+	}
+
+	/**
+	 * Returns the underlying array of all matrices. Use <code>getOffset()</code>
+	 * for indexing.
+	 * @return the matrices.
+	 */
+	public double[] getMatrices() {
+		return this.matrices;
+	}
+
+	/**
+	 * Returns the start index in the matrices array of the current P of vertex x and
+	 * site rate category j.
+	 * @param x vertex.
+	 * @param j site rate index.
+	 * @return the offset.
+	 */
+	public int getOffset(int x, int j) {
+		return (2 * x + this.slots[x]) * this.blockSize + j * this.matrixSize;
+	}
+
+	/**
+	 * Makes sure the current matrices of a vertex correspond to a branch length. If not,
+	 * or if forced, the vertex is cached and its matrices recomputed for all site rate categories.
+	 * @param x the vertex.
+	 * @param length the branch length of x.
+	 * @param doForce true to recompute even if the branch length is unchanged.
+	 * @return true if recomputed; false if the current matrices were kept.
+	 */
+	public boolean update(int x, double length, boolean doForce) {
+		if (!doForce && this.lengths[2 * x + this.slots[x]] == length) {
+			return false;
+		}
+		if (!this.isCached[x]) {
+			this.isCached[x] = true;
+			this.slots[x] ^= 1;
+			this.cacheVertices[this.noOfCacheVertices++] = x;
+		}
+		int slot = 2 * x + this.slots[x];
+		int offset = slot * this.blockSize;
+		for (int j = 0; j < this.siteRates.getNoOfCategories(); ++j) {
+			this.Q.computeTransitionMatrix(length * this.siteRates.getRate(j), this.expE, this.matrices, offset);
+			offset += this.matrixSize;
+		}
+		this.lengths[slot] = length;
+		return true;
+	}
+
+	/**
+	 * Clears the cache, i.e., keeps the current slots.
+	 */
+	public void clearCache() {
+		for (int k = 0; k < this.noOfCacheVertices; ++k) {
+			this.isCached[this.cacheVertices[k]] = false;
+		}
+		this.noOfCacheVertices = 0;
+	}
+
+	/**
+	 * Restores the cache, i.e., swaps back to the slots prior to caching.
+	 */
+	public void restoreCache() {
+		for (int k = 0; k < this.noOfCacheVertices; ++k) {
+			int x = this.cacheVertices[k];
+			this.isCached[x] = false;
+			this.slots[x] ^= 1;
+		}
+		this.noOfCacheVertices = 0;
+	}
+}
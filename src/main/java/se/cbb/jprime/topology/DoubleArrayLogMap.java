@@ -2,28 +2,40 @@ package se.cbb.jprime.topology;
 
 import se.cbb.jprime.io.SampleDoubleArrayArray;
 import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.math.LogDoubleArrays;
 import se.cbb.jprime.mcmc.StateParameter;
 
 /**
- * Holds a double array for each vertex of a graph. No generics for the sake of speed.
+ * Holds a LogDouble array for each vertex of a graph. No generics for the sake of speed.
  * See also <code>GenericMap</code>.
- * 
+ * <p/>
+ * To avoid allocation in hot loops, values are not stored as <code>LogDouble</code> objects, but
+ * as a log-value array and a sign array per vertex, see <code>LogDoubleArrays</code>. These may be
+ * accessed directly using <code>getLogValues()</code> and <code>getSigns()</code>. Methods which
+ * take or return <code>LogDouble</code> instances are provided for convenience.
+ *
  * @author Sayyed Auwn Muhammad, Raja Hashim Ali.
  */
 public class DoubleArrayLogMap implements VertexMap, StateParameter {
-	
+
 	/** The name of this map, if any. */
 	protected String name;
-	
-	/** The map values. */
-	protected LogDouble[][] values;
-	
+
+	/** The map log-values. */
+	protected double[][] values;
+
+	/** The map signs. */
+	protected int[][] signs;
+
 	/** Cache vertices. */
 	protected int[] cacheVertices = null;
-	
-	/** Cache values for affected vertices. */
-	protected LogDouble[][] cacheValues = null;
-	
+
+	/** Cache log-values for affected vertices. */
+	protected double[][] cacheValues = null;
+
+	/** Cache signs for affected vertices. */
+	protected int[][] cacheSigns = null;
+
 	/**
 	 * Constructor. Initialises all map values to a null array.
 	 * @param name the map's name.
@@ -31,30 +43,34 @@ public class DoubleArrayLogMap implements VertexMap, StateParameter {
 	 */
 	public DoubleArrayLogMap(String name, int size) {
 		this.name = name;
-		this.values = new LogDouble[size][];
+		this.values = new double[size][];
+		this.signs = new int[size][];
 	}
-	
+
 	/**
 	 * Constructor.
 	 * @param name the map's name.
 	 * @param vals the initial values of this map, indexed by vertex number in the first dimension.
 	 */
 	public DoubleArrayLogMap(String name, LogDouble[][] vals) {
-		this.name = name;
-		this.values = vals;
+		this(name, vals.length);
+		for (int i = 0; i < vals.length; ++i) {
+			this.set(i, vals[i]);
+		}
 	}
-	
+
 	/**
 	 * Copy constructor.
 	 * @param map the map to be copied.
 	 */
 	public DoubleArrayLogMap(DoubleArrayMap map) {
-		this.name = map.name;
-		this.values = new LogDouble[map.values.length][];
+		this(map.name, map.values.length);
 		for (int i = 0; i < this.values.length; ++i) {
 			if (map.values[i] != null) {
-				this.values[i] = new LogDouble[map.values[i].length];
-				System.arraycopy(map.values[i], 0, this.values[i], 0, this.values[i].length);
+				this.allocate(i, map.values[i].length);
+				for (int j = 0; j < map.values[i].length; ++j) {
+					LogDoubleArrays.set(this.values[i], this.signs[i], j, map.values[i][j]);
+				}
 			}
 		}
 	}
@@ -68,46 +84,80 @@ public class DoubleArrayLogMap implements VertexMap, StateParameter {
 	public void setName(String name) {
 		this.name = name;
 	}
-	
+
 	@Override
 	public Object getAsObject(int x) {
-		return this.values[x];
+		return this.get(x);
 	}
 
 	@Override
 	public void setAsObject(int x, Object value) {
-		this.values[x] = (LogDouble[]) value;
+		this.set(x, (LogDouble[]) value);
 	}
 
 	/**
-	 * Returns the element of a vertex.
+	 * Returns the elements of a vertex as new LogDouble instances.
 	 * @param x the vertex.
 	 * @return the values.
 	 */
 	public LogDouble[] get(int x) {
-		return this.values[x];
+		return (this.values[x] == null ? null : LogDoubleArrays.toLogDoubles(this.values[x], this.signs[x]));
 	}
-	
+
 	/**
-	 * Returns the element of the array of a vertex.
+	 * Returns the element of the array of a vertex as a new LogDouble instance.
 	 * No bounds checking.
 	 * @param x the vertex.
 	 * @param i the index in the array of the vertex.
 	 * @return the value.
 	 */
 	public LogDouble get(int x, int i) {
-		return this.values[x][i];
+		return new LogDouble(this.values[x][i], this.signs[x][i]);
+	}
+
+	/**
+	 * Returns the log-values of a vertex. Changes to the array are reflected in the map.
+	 * @param x the vertex.
+	 * @return the log-values.
+	 */
+	public double[] getLogValues(int x) {
+		return this.values[x];
 	}
-	
+
+	/**
+	 * Returns the signs of a vertex. Changes to the array are reflected in the map.
+	 * @param x the vertex.
+	 * @return the signs.
+	 */
+	public int[] getSigns(int x) {
+		return this.signs[x];
+	}
+
+	/**
+	 * Returns the length of the array of a vertex.
+	 * @param x the vertex.
+	 * @return the length.
+	 */
+	public int getLength(int x) {
+		return this.values[x].length;
+	}
+
 	/**
 	 * Sets the element of a vertex.
 	 * @param x the vertex.
 	 * @param vals the values.
 	 */
 	public void set(int x, LogDouble[] vals) {
-		this.values[x] = vals;
+		if (vals == null) {
+			this.values[x] = null;
+			this.signs[x] = null;
+		} else {
+			this.values[x] = new double[vals.length];
+			this.signs[x] = new int[vals.length];
+			LogDoubleArrays.fromLogDoubles(vals, this.values[x], this.signs[x]);
+		}
 	}
-	
+
 	/**
 	 * Sets the element of the array of a vertex.
 	 * No bounds checking.
@@ -116,13 +166,27 @@ public class DoubleArrayLogMap implements VertexMap, StateParameter {
 	 * @param val the value.
 	 */
 	public void set(int x, int i, LogDouble val) {
-		this.values[x][i] = val;
+		LogDoubleArrays.set(this.values[x], this.signs[x], i, val);
+	}
+
+	/**
+	 * Sets all elements of the array of a vertex to 0, making sure the array has
+	 * a certain length. The existing arrays are reused if possible.
+	 * @param x the vertex.
+	 * @param length the array length.
+	 */
+	public void allocate(int x, int length) {
+		if (this.values[x] == null || this.values[x].length != length) {
+			this.values[x] = new double[length];
+			this.signs[x] = new int[length];
+		}
+		LogDoubleArrays.setZero(this.values[x], this.signs[x]);
 	}
 
 	@Override
 	public int getNoOfSubParameters() {
 		int cnt = 0;
-		for (LogDouble[] vec : this.values) {
+		for (double[] vec : this.values) {
 			cnt += (vec == null ? 0 : vec.length);
 		}
 		return cnt;
@@ -134,21 +198,23 @@ public class DoubleArrayLogMap implements VertexMap, StateParameter {
 	 */
 	public void cache(int[] vertices) {
 		if (vertices == null) {
-			this.cacheValues = new LogDouble[this.values.length][];
+			this.cacheValues = new double[this.values.length][];
+			this.cacheSigns = new int[this.values.length][];
 			for (int i = 0; i < this.values.length; ++i) {
 				if (this.values[i] != null) {
-					this.cacheValues[i] = new LogDouble[this.values[i].length];
-					System.arraycopy(this.values[i], 0, this.cacheValues[i], 0, this.values[i].length);
+					this.cacheValues[i] = this.values[i].clone();
+					this.cacheSigns[i] = this.signs[i].clone();
 				}
 			}
 		} else {
 			this.cacheVertices = new int[vertices.length];
 			System.arraycopy(vertices, 0, this.cacheVertices, 0, vertices.length);
-			this.cacheValues = new LogDouble[vertices.length][];
+			this.cacheValues = new double[vertices.length][];
+			this.cacheSigns = new int[vertices.length][];
 			for (int i = 0; i < vertices.length; ++i) {
 				if (this.values[vertices[i]] != null) {
-					this.cacheValues[i] = new LogDouble[this.values[vertices[i]].length];
-					System.arraycopy(this.values[vertices[i]], 0, this.cacheValues[i], 0, this.cacheValues[i].length);
+					this.cacheValues[i] = this.values[vertices[i]].clone();
+					this.cacheSigns[i] = this.signs[vertices[i]].clone();
 				}
 			}
 		}
@@ -160,6 +226,7 @@ public class DoubleArrayLogMap implements VertexMap, StateParameter {
 	public void clearCache() {
 		this.cacheVertices = null;
 		this.cacheValues = null;
+		this.cacheSigns = null;
 	}
 
 	/**
@@ -173,14 +240,16 @@ public class DoubleArrayLogMap implements VertexMap, StateParameter {
 		}
 		if (this.cacheVertices == null) {
 			this.values = this.cacheValues;
-			this.cacheValues = null;
+			this.signs = this.cacheSigns;
 		} else {
 			for (int i = 0; i < this.cacheVertices.length; ++i) {
 				this.values[this.cacheVertices[i]] = this.cacheValues[i];
+				this.signs[this.cacheVertices[i]] = this.cacheSigns[i];
 			}
 			this.cacheVertices = null;
-			this.cacheValues = null;
 		}
+		this.cacheValues = null;
+		this.cacheSigns = null;
 	}
 
 	@Override
@@ -195,7 +264,11 @@ public class DoubleArrayLogMap implements VertexMap, StateParameter {
 
 	@Override
 	public String getSampleValue(SamplingMode mode) {
-		return SampleDoubleArrayArray.toString(this.values);
+		LogDouble[][] vals = new LogDouble[this.values.length][];
+		for (int i = 0; i < vals.length; ++i) {
+			vals[i] = this.get(i);
+		}
+		return SampleDoubleArrayArray.toString(vals);
 	}
 
 	@Override
@@ -1,6 +1,12 @@
 package se.cbb.jprime.topology;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import se.cbb.jprime.io.SampleDoubleArrayArray;
+import se.cbb.jprime.math.LogDoubleArrays;
+import se.cbb.jprime.mcmc.Checkpointable;
 import se.cbb.jprime.mcmc.StateParameter;
 
 /**
@@ -11,7 +17,7 @@ import se.cbb.jprime.mcmc.StateParameter;
  * @author Sayyed Auwn Muhammad.
  * @author Raja Hashim Ali.
  */
-public class DoubleArrayMap implements VertexMap, StateParameter {
+public class DoubleArrayMap implements VertexMap, StateParameter, Checkpointable {
 	
 	/** The name of this map, if any. */
 	protected String name;
@@ -70,10 +76,9 @@ public class DoubleArrayMap implements VertexMap, StateParameter {
 		for (int i = 0; i < this.values.length; ++i) {
 			if (map.values[i] != null) {
 				this.values[i] = new double[map.values[i].length];
-				double[] tempData = new double[map.values[i].length];
-				for(int j = 0; j < tempData.length; j++)
-					tempData[j] = map.values[i][j].getValue();
-				System.arraycopy(tempData, 0, this.values[i], 0, this.values[i].length);
+				for (int j = 0; j < this.values[i].length; ++j) {
+					this.values[i][j] = LogDoubleArrays.getValue(map.values[i], map.signs[i], j);
+				}
 			}
 		}
 	}
@@ -202,6 +207,33 @@ public class DoubleArrayMap implements VertexMap, StateParameter {
 		}
 	}
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeInt(this.values.length);
+		for (double[] vals : this.values) {
+			out.writeInt(vals == null ? -1 : vals.length);
+			if (vals != null) {
+				for (double d : vals) {
+					out.writeDouble(d);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		if (in.readInt() != this.values.length) {
+			throw new IOException("Checkpoint size mismatch for map " + this.name + ".");
+		}
+		for (int i = 0; i < this.values.length; ++i) {
+			int n = in.readInt();
+			this.values[i] = (n < 0 ? null : new double[n]);
+			for (int j = 0; j < n; ++j) {
+				this.values[i][j] = in.readDouble();
+			}
+		}
+	}
+
 	@Override
 	public Class<?> getSampleType() {
 		return SampleDoubleArrayArray.class;
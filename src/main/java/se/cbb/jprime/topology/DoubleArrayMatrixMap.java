@@ -18,6 +18,9 @@ public class DoubleArrayMatrixMap {
 	/** Cache values for affected vertices. */
 	protected double[][][] cacheValues = null;
 	
+	/** True if the cache holds all pairs (x,y) for each cache vertex x, rather than pairs of cache vertices. */
+	protected boolean isRowCache = false;
+	
 	/**
 	 * Constructor. Initialises all map values to a null array.
 	 * @param size the size of the underlying graph, |V(G)|, i.e., the map will
@@ -125,12 +128,34 @@ public class DoubleArrayMatrixMap {
 		}
 	}
 
+	/**
+	 * Caches all pairs (x,y) for which x is one of a set of vertices, and y any vertex.
+	 * May e.g. be used when only the values of pairs with certain first vertices are recomputed.
+	 * @param vertices the first vertices of the pairs.
+	 */
+	public void cacheRows(int[] vertices) {
+		int n = this.values.length;
+		this.cacheVertices = new int[vertices.length];
+		System.arraycopy(vertices, 0, this.cacheVertices, 0, vertices.length);
+		this.cacheValues = new double[vertices.length][n][];
+		this.isRowCache = true;
+		for (int i = 0; i < vertices.length; ++i) {
+			for (int j = 0; j < n; ++j) {
+				if (this.values[vertices[i]][j] != null) {
+					this.cacheValues[i][j] = new double[this.values[vertices[i]][j].length];
+					System.arraycopy(this.values[vertices[i]][j], 0, this.cacheValues[i][j], 0, this.cacheValues[i][j].length);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Clears the cached map. May e.g. be used by a <code>Proposer</code>.
 	 */
 	public void clearCache() {
 		this.cacheVertices = null;
 		this.cacheValues = null;
+		this.isRowCache = false;
 	}
 
 	/**
@@ -145,6 +170,13 @@ public class DoubleArrayMatrixMap {
 		if (this.cacheVertices == null) {
 			this.values = this.cacheValues;
 			this.cacheValues = null;
+		} else if (this.isRowCache) {
+			for (int i = 0; i < this.cacheVertices.length; ++i) {
+				System.arraycopy(this.cacheValues[i], 0, this.values[this.cacheVertices[i]], 0, this.values.length);
+			}
+			this.cacheVertices = null;
+			this.cacheValues = null;
+			this.isRowCache = false;
 		} else {
 			for (int i = 0; i < this.cacheVertices.length; ++i) {
 				for (int j = 0; j < this.cacheVertices.length; ++j) {
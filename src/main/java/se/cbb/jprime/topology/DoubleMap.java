@@ -1,8 +1,13 @@
 package se.cbb.jprime.topology;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
 import se.cbb.jprime.io.SampleDoubleArray;
+import se.cbb.jprime.io.SnapshotSampleable;
+import se.cbb.jprime.mcmc.Checkpointable;
 import se.cbb.jprime.mcmc.RealParameter;
 
 /**
@@ -11,7 +16,7 @@ import se.cbb.jprime.mcmc.RealParameter;
  * 
  * @author Joel Sjöstrand.
  */
-public class DoubleMap implements VertexMap, RealParameter {
+public class DoubleMap implements VertexMap, RealParameter, SnapshotSampleable, Checkpointable {
 	
 	/** The name of this map, if any. */
 	protected String name;
@@ -25,6 +30,12 @@ public class DoubleMap implements VertexMap, RealParameter {
 	/** Cache values for affected vertices. */
 	protected double[] cacheValues = null;
 	
+	/** For each number of cached vertices, reused array for cacheVertices. Created on demand. */
+	private int[][] cacheVerticesBuffers = null;
+	
+	/** For each number of cached vertices, reused array for cacheValues. Created on demand. */
+	private double[][] cacheValuesBuffers = null;
+	
 	/**
 	 * Constructor. Initialises all map values to 0.0.
 	 * @param name the map's name.
@@ -106,6 +117,14 @@ public class DoubleMap implements VertexMap, RealParameter {
 		this.values[x] = val;
 	}
 
+	/**
+	 * Replaces all elements with those of another map of equal size, without creating any objects.
+	 * @param map the map to copy.
+	 */
+	public void copyValues(DoubleMap map) {
+		System.arraycopy(map.values, 0, this.values, 0, this.values.length);
+	}
+
 	@Override
 	public int getNoOfSubParameters() {
 		return this.values.length;
@@ -117,15 +136,51 @@ public class DoubleMap implements VertexMap, RealParameter {
 			this.cacheValues = new double[this.values.length];
 			System.arraycopy(this.values, 0, this.cacheValues, 0, this.values.length);
 		} else {
-			this.cacheVertices = new int[vertices.length];
+			this.cacheVertices = this.getCacheVerticesBuffer(vertices.length);
 			System.arraycopy(vertices, 0, this.cacheVertices, 0, vertices.length);
-			this.cacheValues = new double[vertices.length];
+			this.cacheValues = this.getCacheValuesBuffer(vertices.length);
 			for (int i = 0; i < vertices.length; ++i) {
 				this.cacheValues[i] = this.values[vertices[i]];
 			}
 		}
 	}
 
+	/**
+	 * Returns a reused array for a number of cached vertices.
+	 * @param n the number of vertices.
+	 * @return the array.
+	 */
+	private int[] getCacheVerticesBuffer(int n) {
+		if (n > this.values.length) {
+			return new int[n];
+		}
+		if (this.cacheVerticesBuffers == null) {
+			this.cacheVerticesBuffers = new int[this.values.length + 1][];
+		}
+		if (this.cacheVerticesBuffers[n] == null) {
+			this.cacheVerticesBuffers[n] = new int[n];
+		}
+		return this.cacheVerticesBuffers[n];
+	}
+	
+	/**
+	 * Returns a reused array for the values of a number of cached vertices.
+	 * @param n the number of vertices.
+	 * @return the array.
+	 */
+	private double[] getCacheValuesBuffer(int n) {
+		if (n > this.values.length) {
+			return new double[n];
+		}
+		if (this.cacheValuesBuffers == null) {
+			this.cacheValuesBuffers = new double[this.values.length + 1][];
+		}
+		if (this.cacheValuesBuffers[n] == null) {
+			this.cacheValuesBuffers[n] = new double[n];
+		}
+		return this.cacheValuesBuffers[n];
+	}
+
 	@Override
 	public void clearCache() {
 		this.cacheVertices = null;
@@ -149,6 +204,24 @@ public class DoubleMap implements VertexMap, RealParameter {
 		}
 	}
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeInt(this.values.length);
+		for (double d : this.values) {
+			out.writeDouble(d);
+		}
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		if (in.readInt() != this.values.length) {
+			throw new IOException("Checkpoint size mismatch for map " + this.name + ".");
+		}
+		for (int i = 0; i < this.values.length; ++i) {
+			this.values[i] = in.readDouble();
+		}
+	}
+
 	@Override
 	public Class<?> getSampleType() {
 		return SampleDoubleArray.class;
@@ -164,6 +237,21 @@ public class DoubleMap implements VertexMap, RealParameter {
 		return SampleDoubleArray.toString(this.values);
 	}
 
+	@Override
+	public Object createSnapshot() {
+		return new double[this.values.length];
+	}
+
+	@Override
+	public void copySnapshot(Object snapshot, SamplingMode mode) {
+		System.arraycopy(this.values, 0, snapshot, 0, this.values.length);
+	}
+
+	@Override
+	public String getSnapshotValue(Object snapshot) {
+		return SampleDoubleArray.toString((double[]) snapshot);
+	}
+
 	@Override
 	public double getValue(int idx) {
 		return this.values[idx];
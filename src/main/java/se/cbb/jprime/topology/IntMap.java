@@ -1,8 +1,12 @@
 package se.cbb.jprime.topology;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
 import se.cbb.jprime.io.SampleIntArray;
+import se.cbb.jprime.mcmc.Checkpointable;
 import se.cbb.jprime.mcmc.StateParameter;
 
 /**
@@ -11,7 +15,7 @@ import se.cbb.jprime.mcmc.StateParameter;
  * 
  * @author Joel Sjöstrand.
  */
-public class IntMap implements VertexMap, StateParameter {
+public class IntMap implements VertexMap, StateParameter, Checkpointable {
 	
 	/** The name of this map, if any. */
 	protected String name;
@@ -159,6 +163,24 @@ public class IntMap implements VertexMap, StateParameter {
 		}
 	}
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeInt(this.values.length);
+		for (int i : this.values) {
+			out.writeInt(i);
+		}
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		if (in.readInt() != this.values.length) {
+			throw new IOException("Checkpoint size mismatch for map " + this.name + ".");
+		}
+		for (int i = 0; i < this.values.length; ++i) {
+			this.values[i] = in.readInt();
+		}
+	}
+
 	@Override
 	public Class<?> getSampleType() {
 		return SampleIntArray.class;
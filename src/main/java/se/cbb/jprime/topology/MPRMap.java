@@ -98,12 +98,20 @@ public class MPRMap implements ProperDependent {
 	@Override
 	public void cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos,
 			boolean willSample) {
-		if (changeInfos.get(this.G) != null || changeInfos.get(this.S) != null) {
+		ChangeInfo gci = changeInfos.get(this.G);
+		ChangeInfo sci = changeInfos.get(this.S);
+		if (gci != null || sci != null) {
 			// Full cache and update regardless of children's changes.
 			this.sigmaCache = new int[this.sigma.length];
 			System.arraycopy(this.sigma, 0, this.sigmaCache, 0, this.sigma.length);
 			this.computeSigma(this.G.getRoot());
-			changeInfos.put(this, new ChangeInfo(this, "Updated MPR map (i.e. sigma map)."));
+			if (sci == null && gci.getAffectedElements() != null) {
+				// Sigma may only have changed for the disclosed vertices and their ancestors.
+				int[] affected = TreeAlgorithms.getSpanningRootSubtree(this.G, gci.getAffectedElements());
+				changeInfos.put(this, new ChangeInfo(this, "Updated MPR map (i.e. sigma map) partially.", affected));
+			} else {
+				changeInfos.put(this, new ChangeInfo(this, "Updated MPR map (i.e. sigma map)."));
+			}
 		} else {
 			changeInfos.put(this, null);
 		}
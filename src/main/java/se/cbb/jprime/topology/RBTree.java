@@ -1,5 +1,8 @@
 package se.cbb.jprime.topology;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -8,6 +11,7 @@ import java.util.Set;
 import se.cbb.jprime.io.NewickTree;
 import se.cbb.jprime.io.NewickVertex;
 import se.cbb.jprime.io.SampleNewickTree;
+import se.cbb.jprime.mcmc.Checkpointable;
 import se.cbb.jprime.misc.IntQueue;
 
 /**
@@ -20,7 +24,7 @@ import se.cbb.jprime.misc.IntQueue;
  * 
  * @author Joel Sjöstrand.
  */
-public class RBTree implements RootedTreeParameter, RootedBifurcatingTreeParameter {
+public class RBTree implements RootedTreeParameter, RootedBifurcatingTreeParameter, Checkpointable {
 	
 	/** Used to indicate null references. */
 	public static final int NULL = RootedBifurcatingTree.NULL;
@@ -114,6 +118,18 @@ public class RBTree implements RootedTreeParameter, RootedBifurcatingTreeParamet
 		this.root = tree.root;
 	}
 	
+	/**
+	 * Replaces the topology of this tree with that of another tree of equal size,
+	 * without creating any objects.
+	 * @param tree the tree to copy.
+	 */
+	public void copyTopology(RBTree tree) {
+		System.arraycopy(tree.parents, 0, this.parents, 0, tree.parents.length);
+		System.arraycopy(tree.leftChildren, 0, this.leftChildren, 0, tree.leftChildren.length);
+		System.arraycopy(tree.rightChildren, 0, this.rightChildren, 0, tree.rightChildren.length);
+		this.root = tree.root;
+	}
+	
 	@Override
 	public String getName() {
 		return this.name;
@@ -449,6 +465,30 @@ public class RBTree implements RootedTreeParameter, RootedBifurcatingTreeParamet
 		this.cache = null;
 	}
 
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeInt(this.parents.length);
+		for (int x = 0; x < this.parents.length; ++x) {
+			out.writeInt(this.parents[x]);
+			out.writeInt(this.leftChildren[x]);
+			out.writeInt(this.rightChildren[x]);
+		}
+		out.writeInt(this.root);
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		if (in.readInt() != this.parents.length) {
+			throw new IOException("Checkpoint size mismatch for tree " + this.name + ".");
+		}
+		for (int x = 0; x < this.parents.length; ++x) {
+			this.parents[x] = in.readInt();
+			this.leftChildren[x] = in.readInt();
+			this.rightChildren[x] = in.readInt();
+		}
+		this.root = in.readInt();
+	}
+
 	@Override
 	public Class<?> getSampleType() {
 		return SampleNewickTree.class;
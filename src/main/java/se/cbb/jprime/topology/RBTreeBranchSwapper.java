@@ -56,6 +56,12 @@ public class RBTreeBranchSwapper implements Proposer {
 	/** Last operation type. */
 	protected String lastOperationType;
 	
+	/**
+	 * Vertices whose children, parent, length or time were changed by the last operation.
+	 * Null if the entire tree may have changed, as for rerooting.
+	 */
+	protected int[] lastAffectedVertices;
+	
 	/**
 	 * Constructor.
 	 * @param T tree topology to perturb.
@@ -185,6 +191,7 @@ public class RBTreeBranchSwapper implements Proposer {
 		
 		// Perturb!
 		//System.out.println("\n" + this.T.getSampleValue());
+		this.lastAffectedVertices = null;
 		if (w < this.operationWeights[0]) {
 			this.doNNI();
 			this.lastOperationType = "NNI";
@@ -198,18 +205,19 @@ public class RBTreeBranchSwapper implements Proposer {
 		//System.out.println("\n" + this.T.getSampleValue());
 		assert this.verticesAreUnique();
 		
-		// Note changes. Just say that all sub-parameters have changed.
+		// Note changes. NNI and SPR disclose the changed vertices, so that dependents may
+		// update only these and their ancestors. Otherwise, say that all sub-parameters have changed.
 		ArrayList<StateParameter> affected = new ArrayList<StateParameter>(3);
-		changeInfos.put(this.T, new ChangeInfo(this.T));
+		changeInfos.put(this.T, new ChangeInfo(this.T, this.lastOperationType, this.lastAffectedVertices));
 		int no = this.T.getNoOfSubParameters();
 		affected.add(this.T);
 		if (this.lengths != null) {
-			changeInfos.put(this.lengths, new ChangeInfo(this.lengths));
+			changeInfos.put(this.lengths, new ChangeInfo(this.lengths, this.lastOperationType, this.lastAffectedVertices));
 			affected.add(this.lengths);
 			no += this.lengths.getNoOfSubParameters();
 		}
 		if (this.times != null) {
-			changeInfos.put(this.times, new ChangeInfo(this.times));
+			changeInfos.put(this.times, new ChangeInfo(this.times, this.lastOperationType, this.lastAffectedVertices));
 			affected.add(this.times);
 			no += this.getNoOfSubParameters();
 		}
@@ -441,6 +449,7 @@ public class RBTreeBranchSwapper implements Proposer {
 		
 		// Perform the actual NNI swap.
 		this.swap(v, w);
+		this.lastAffectedVertices = new int[] {v, w, vs, vp, wp};
 
 		// Carry out some time-length heuristics in accordance with the swap.
 		if (this.times != null) {
@@ -549,6 +558,21 @@ public class RBTreeBranchSwapper implements Proposer {
 		int u_c_new_s = this.T.getSibling(u_c_new);   // must make above move first! /Joel
 		this.T.setParentAndChildren(u, u_c, u_c_new);
 		this.T.setParentAndChildren(u_c_new_p, u_c_new_s, u);
+		if (this.times == null) {
+			this.lastAffectedVertices = new int[] {u_c, u, u_oc, u_p, u_c_new, u_c_new_p};
+		} else {
+			// Times of the entire moved subtree are rescaled below.
+			List<Integer> desc = this.T.getDescendants(u_c, false);
+			this.lastAffectedVertices = new int[desc.size() + 5];
+			this.lastAffectedVertices[0] = u;
+			this.lastAffectedVertices[1] = u_oc;
+			this.lastAffectedVertices[2] = u_p;
+			this.lastAffectedVertices[3] = u_c_new;
+			this.lastAffectedVertices[4] = u_c_new_p;
+			for (int i = 0; i < desc.size(); ++i) {
+				this.lastAffectedVertices[i + 5] = desc.get(i);
+			}
+		}
 
 		// Time heuristics.
 		if (this.times != null) {	
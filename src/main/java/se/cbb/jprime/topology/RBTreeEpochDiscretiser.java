@@ -673,4 +673,12 @@ public class RBTreeEpochDiscretiser implements RootedTreeDiscretiser, ProperDepe
 		return this.S.getLeaves();
 	}
 	
+	/**
+	 * Returns the number of vertices, i.e., the number of arcs.
+	 * @return the number of vertices.
+	 */
+	public int getNoOfVertices() {
+		return this.S.getNoOfVertices();
+	}
+	
 }
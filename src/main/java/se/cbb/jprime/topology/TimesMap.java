@@ -1,5 +1,9 @@
 package se.cbb.jprime.topology;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Specialisation of a DoubleMap to hold times of an ultrametric tree.
  * Provides access to both absolute times of vertices and time span of arcs.
@@ -161,4 +165,20 @@ public class TimesMap extends DoubleMap {
 		return new DoubleMap(name, this.arcTimes);
 	}
 	
+
+	@Override
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+		super.writeCheckpoint(out);
+		for (double d : this.arcTimes) {
+			out.writeDouble(d);
+		}
+	}
+
+	@Override
+	public void readCheckpoint(DataInputStream in) throws IOException {
+		super.readCheckpoint(in);
+		for (int i = 0; i < this.arcTimes.length; ++i) {
+			this.arcTimes[i] = in.readDouble();
+		}
+	}
 }
@@ -41,4 +41,40 @@ public class TreeAlgorithms {
 		return sorted;
 	}
 	
+	/**
+	 * Equivalent to <code>getSpanningRootSubtree(T, inputVertices)</code>, but without creating any objects.
+	 * The vertices are written to a buffer in reverse topological order (leaves to root), although not
+	 * necessarily in the same order as by the former method.
+	 * @param T tree.
+	 * @param inputVertices subset of vertices of T (may or may not include the root).
+	 * @param isIncluded scratch array with an element per vertex of T. Must be all false, and is all false upon return.
+	 * @param buffer array with an element per vertex of T, to hold the output vertices at its start.
+	 * @return the number of output vertices.
+	 */
+	public static int getSpanningRootSubtree(RootedTree T, int[] inputVertices, boolean[] isIncluded, int[] buffer) {
+		// Each input vertex adds the path up to the first included vertex. Later paths only contain
+		// descendants of earlier paths, so the paths are written from the end of the buffer backwards.
+		int end = buffer.length;
+		for (int u : inputVertices) {
+			int len = 0;
+			for (int v = u; v != RTree.NULL && !isIncluded[v]; v = T.getParent(v)) {
+				++len;
+			}
+			end -= len;
+			for (int v = u, i = end; i < end + len; v = T.getParent(v), ++i) {
+				isIncluded[v] = true;
+				buffer[i] = v;
+			}
+		}
+		int root = T.getRoot();
+		if (!isIncluded[root]) {
+			buffer[--end] = root;
+		}
+		int n = buffer.length - end;
+		System.arraycopy(buffer, end, buffer, 0, n);
+		for (int i = 0; i < n; ++i) {
+			isIncluded[buffer[i]] = false;
+		}
+		return n;
+	}
 }
@@ -4,7 +4,10 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -15,12 +18,18 @@ import se.cbb.jprime.io.NewickIOException;
 import se.cbb.jprime.io.PrIMENewickTree;
 import se.cbb.jprime.io.PrIMENewickTreeReader;
 import se.cbb.jprime.math.GammaDistribution;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
 import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.topology.DoubleArrayLogMap;
 import se.cbb.jprime.topology.DoubleMap;
+import se.cbb.jprime.topology.GuestHostMap;
 import se.cbb.jprime.topology.MPRMap;
 import se.cbb.jprime.topology.NamesMap;
 import se.cbb.jprime.topology.RBTree;
 import se.cbb.jprime.topology.RBTreeArcDiscretiser;
+import se.cbb.jprime.topology.RBTreeBranchSwapper;
 import se.cbb.jprime.topology.TimesMap;
 import se.cbb.jprime.topology.TopologyException;
 
@@ -56,4 +65,114 @@ public class TestDLRModel {
 		assertTrue(mod != null);
 	}
 	
+	/**
+	 * Verifies that the partial DP update after NNI and SPR moves yields the same DP values
+	 * as a full recomputation, and that rejected moves restore the previous values.
+	 */
+	@Test
+	public void testPartialTopologyUpdate() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/simple.05.nw");
+		PrIMENewickTree sRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree s = new RBTree(sRaw, "S");
+		TimesMap pureTimes = sRaw.getTimesMap("Times");
+		RBTreeArcDiscretiser times = new RBTreeArcDiscretiser(s, sRaw.getVertexNamesMap(true, "SNames"), pureTimes, 10, 10, 0.05, 20);
+		NamesMap sNames = sRaw.getVertexNamesMap(true, "S.names");
+		DupLossProbs dupLoss = new DupLossProbs(s, times, new DoubleParameter("Lambda", 0.5), new DoubleParameter("Mu", 0.4));
+		url = this.getClass().getResource("/phylogenetics/simple.09.guest.nw");
+		PrIMENewickTree gRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, false);
+		RBTree g = new RBTree(gRaw, "G");
+		NamesMap gNames = gRaw.getVertexNamesMap(false, "G.names");
+		url = this.getClass().getResource("/phylogenetics/simple.09.to.simple.05.gs");
+		GuestHostMap gs = GuestHostMapReader.readGuestHostMap(new File(url.getFile()));
+		PRNG prng = new PRNG(new BigInteger("535353"));
+		DoubleMap lengths = new DoubleMap("Lengths", g.getNoOfVertices(), 0.1);
+		for (int u = 0; u < g.getNoOfVertices(); ++u) {
+			lengths.set(u, 0.05 + 0.4 * prng.nextDouble());
+		}
+		GammaDistribution pd = new GammaDistribution(new DoubleParameter("m", 0.2), new DoubleParameter("v", 0.8));
+		
+		MPRMap gsMap = new MPRMap(gs, g, gNames, s, sNames);
+		ReconciliationHelper rHelper = new ReconciliationHelper(g, s, times, gsMap, 100);
+		DLRModel model = new DLRModel(g, s, rHelper, lengths, dupLoss, pd);
+		RBTreeBranchSwapper swapper = new RBTreeBranchSwapper(g, lengths, prng);
+		swapper.setOperationWeights(0.5, 0.5, 0.0);
+		
+		int noOfRejected = 0;
+		for (int i = 0; i < 300; ++i) {
+			double[][] oldAts = this.getValues(model.ats, g.getNoOfVertices());
+			double[][] oldBelows = this.getValues(model.belows, g.getNoOfVertices());
+			
+			// Perturb and update partially.
+			Map<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+			swapper.cacheAndPerturb(changeInfos);
+			gsMap.cacheAndUpdate(changeInfos, false);
+			rHelper.cacheAndUpdate(changeInfos, false);
+			model.cacheAndUpdate(changeInfos, false);
+			assertNotNull(changeInfos.get(model).getAffectedElements());
+			
+			// Compare with a full recomputation.
+			MPRMap fullMap = new MPRMap(gs, g, gNames, s, sNames);
+			ReconciliationHelper fullHelper = new ReconciliationHelper(g, s, times, fullMap, 100);
+			DLRModel full = new DLRModel(g, s, fullHelper, lengths, dupLoss, pd);
+			double p = full.getDataProbability().getLogValue();
+			assertFalse(Double.isNaN(p));
+			assertEquals(p, model.getDataProbability().getLogValue(), 1e-9 * Math.abs(p));
+			this.assertSameValues(full.ats, model.ats, g.getNoOfVertices());
+			this.assertSameValues(full.belows, model.belows, g.getNoOfVertices());
+			
+			// Reject every other move, restoring the previous values.
+			if (i % 2 == 0) {
+				swapper.restoreCache();
+				gsMap.restoreCache(false);
+				rHelper.restoreCache(false);
+				model.restoreCache(false);
+				for (int u = 0; u < g.getNoOfVertices(); ++u) {
+					assertArrayEquals(oldAts[u], model.ats.getLogValues(u), 0.0);
+					assertArrayEquals(oldBelows[u], model.belows.getLogValues(u), 0.0);
+				}
+				++noOfRejected;
+			} else {
+				swapper.clearCache();
+				gsMap.clearCache(false);
+				rHelper.clearCache(false);
+				model.clearCache(false);
+			}
+		}
+		assertEquals(150, noOfRejected);
+	}
+	
+	/**
+	 * Returns copies of the log-values of a DP map.
+	 * @param map the map.
+	 * @param n the number of vertices.
+	 * @return the log-values of each vertex.
+	 */
+	private double[][] getValues(DoubleArrayLogMap map, int n) {
+		double[][] vals = new double[n][];
+		for (int u = 0; u < n; ++u) {
+			vals[u] = map.getLogValues(u).clone();
+		}
+		return vals;
+	}
+	
+	/**
+	 * Asserts that all DP values of a partially updated map equal those of a full update.
+	 * @param expected the fully updated values.
+	 * @param actual the partially updated values.
+	 * @param n the number of vertices.
+	 */
+	private void assertSameValues(DoubleArrayLogMap expected, DoubleArrayLogMap actual, int n) {
+		for (int u = 0; u < n; ++u) {
+			double[] e = expected.getLogValues(u);
+			double[] a = actual.getLogValues(u);
+			int[] es = expected.getSigns(u);
+			int[] as = actual.getSigns(u);
+			assertEquals(e.length, a.length);
+			for (int i = 0; i < e.length; ++i) {
+				assertEquals(es[i], as[i]);
+				assertEquals(e[i], a[i], Math.max(1e-9 * Math.abs(e[i]), 1e-12));
+			}
+		}
+	}
+	
 }
@@ -3,6 +3,7 @@ package se.cbb.jprime.apps.dlrs;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
 
 import org.junit.Test;
 
@@ -10,6 +11,8 @@ import se.cbb.jprime.apps.dlrs.DupLossProbs;
 import se.cbb.jprime.io.NewickIOException;
 import se.cbb.jprime.io.PrIMENewickTree;
 import se.cbb.jprime.io.PrIMENewickTreeReader;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
 import se.cbb.jprime.mcmc.DoubleParameter;
 import se.cbb.jprime.topology.RBTree;
 import se.cbb.jprime.topology.RBTreeArcDiscretiser;
@@ -40,4 +43,39 @@ public class TestDupLossProbs {
 				dupLoss.getP11Probability(8) * dupLoss.getP11Probability(7) * dupLoss.getExtinctionProbability(6), 1e-6);
 	}
 	
+	@Test
+	public void testPartialUpdate() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/simple.05.nw");
+		PrIMENewickTree rawTree = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree s = new RBTree(rawTree, "S");
+		TimesMap pureTimes = rawTree.getTimesMap("Times");
+		RBTreeArcDiscretiser times = new RBTreeArcDiscretiser(s, rawTree.getVertexNamesMap(true, "SNames"), pureTimes, 3, 3, 0.05, 4);
+		DoubleParameter lambda = new DoubleParameter("Lambda", 0.5);
+		DoubleParameter mu = new DoubleParameter("Mu", 0.4);
+		DupLossProbs dupLoss = new DupLossProbs(s, times, lambda, mu);
+		String old = dupLoss.toString();
+		
+		// Move the parent of a leaf slightly upwards, changing three arcs.
+		int v = s.getParent(0);
+		int[] affected = new int[] { v, s.getLeftChild(v), s.getRightChild(v) };
+		pureTimes.cache(affected);
+		pureTimes.getVertexTimes()[v] += 0.01;
+		pureTimes.getArcTimes()[v] -= 0.01;
+		pureTimes.getArcTimes()[affected[1]] += 0.01;
+		pureTimes.getArcTimes()[affected[2]] += 0.01;
+		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+		changeInfos.put(pureTimes, new ChangeInfo(pureTimes, "Test", affected));
+		times.cacheAndUpdate(changeInfos, false);
+		dupLoss.cacheAndUpdate(changeInfos, false);
+		
+		// Partial update should equal a full computation.
+		assertEquals(new DupLossProbs(s, times, lambda, mu).toString(), dupLoss.toString());
+		assertFalse(old.equals(dupLoss.toString()));
+		
+		// Restoring should reinstate the old values.
+		dupLoss.restoreCache(false);
+		times.restoreCache(false);
+		pureTimes.restoreCache();
+		assertEquals(old, dupLoss.toString());
+	}
 }
@@ -0,0 +1,135 @@
+package se.cbb.jprime.apps.dltrs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import se.cbb.jprime.io.GuestHostMapReader;
+import se.cbb.jprime.io.NewickIOException;
+import se.cbb.jprime.io.PrIMENewickTree;
+import se.cbb.jprime.io.PrIMENewickTreeReader;
+import se.cbb.jprime.math.GammaDistribution;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
+import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.topology.DoubleMap;
+import se.cbb.jprime.topology.GuestHostMap;
+import se.cbb.jprime.topology.LeafLeafMap;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.RBTreeBranchSwapper;
+import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
+import se.cbb.jprime.topology.TimesMap;
+import se.cbb.jprime.topology.TopologyException;
+
+/**
+ * JUnit test case. Verifies that the partial DP update of DLTRModel and DLTRMAPModel
+ * after NNI and SPR moves yields the same DP values as a full recomputation, and that
+ * rejected moves restore the previous values.
+ *
+ * @author agent.
+ */
+public class TestDLTRModel {
+
+	@Test
+	public void testPartialTopologyUpdate() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/simple.05.nw");
+		PrIMENewickTree sRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree s = new RBTree(sRaw, "S");
+		NamesMap sNames = sRaw.getVertexNamesMap(true, "S.names");
+		TimesMap sTimes = sRaw.getTimesMap("Times");
+		RBTreeEpochDiscretiser disc = new RBTreeEpochDiscretiser(s, sNames, sTimes, 2, 4, 0.05, 3);
+		EpochDLTProbs dltProbs = new EpochDLTProbs(disc, new DoubleParameter("Dup", 0.3),
+				new DoubleParameter("Loss", 0.2), new DoubleParameter("Trans", 0.1), true);
+		url = this.getClass().getResource("/phylogenetics/simple.09.guest.nw");
+		PrIMENewickTree gRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, false);
+		RBTree g = new RBTree(gRaw, "G");
+		NamesMap gNames = gRaw.getVertexNamesMap(false, "G.names");
+		url = this.getClass().getResource("/phylogenetics/simple.09.to.simple.05.gs");
+		GuestHostMap gsMap = GuestHostMapReader.readGuestHostMap(new File(url.getFile()));
+		LeafLeafMap llMap = new LeafLeafMap(gsMap, g, gNames, s, sNames);
+		PRNG prng = new PRNG(new BigInteger("424242"));
+		DoubleMap lengths = new DoubleMap("Lengths", g.getNoOfVertices(), 0.1);
+		for (int u = 0; u < g.getNoOfVertices(); ++u) {
+			lengths.set(u, 0.05 + 0.4 * prng.nextDouble());
+		}
+		GammaDistribution pd = new GammaDistribution(new DoubleParameter("Mean", 0.2), new DoubleParameter("CV", 0.8));
+
+		ReconciliationHelper rHelper = new ReconciliationHelper(g, s, disc, llMap);
+		DLTRModel model = new DLTRModel(g, s, rHelper, lengths, dltProbs, pd);
+		DLTRMAPModel mapModel = new DLTRMAPModel(g, s, rHelper, lengths, dltProbs, pd);
+		RBTreeBranchSwapper swapper = new RBTreeBranchSwapper(g, lengths, prng);
+		swapper.setOperationWeights(0.5, 0.5, 0.0);
+
+		int noOfRejected = 0;
+		for (int i = 0; i < 300; ++i) {
+			double[] oldAts = model.ats.getValues().clone();
+			double[] oldBelows = model.belows.getValues().clone();
+			double[] oldMapAts = mapModel.ats.getValues().clone();
+			double[] oldMapBelows = mapModel.belows.getValues().clone();
+
+			// Perturb and update partially.
+			Map<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+			swapper.cacheAndPerturb(changeInfos);
+			rHelper.cacheAndUpdate(changeInfos, false);
+			model.cacheAndUpdate(changeInfos, false);
+			mapModel.cacheAndUpdate(changeInfos, false);
+			assertNotNull(changeInfos.get(model).getAffectedElements());
+			assertNotNull(changeInfos.get(mapModel).getAffectedElements());
+
+			// Compare with a full recomputation.
+			ReconciliationHelper fullHelper = new ReconciliationHelper(g, s, disc, llMap);
+			DLTRModel full = new DLTRModel(g, s, fullHelper, lengths, dltProbs, pd);
+			DLTRMAPModel fullMap = new DLTRMAPModel(g, s, fullHelper, lengths, dltProbs, pd);
+			double p = full.getDataProbability().getLogValue();
+			assertFalse(Double.isInfinite(p) || Double.isNaN(p));
+			assertEquals(p, model.getDataProbability().getLogValue(), 1e-9 * Math.abs(p));
+			assertEquals(fullMap.getDataProbability().getLogValue(), mapModel.getDataProbability().getLogValue(), 1e-9 * Math.abs(p));
+			this.assertSameValues(full.ats, model.ats);
+			this.assertSameValues(full.belows, model.belows);
+			this.assertSameValues(fullMap.ats, mapModel.ats);
+			this.assertSameValues(fullMap.belows, mapModel.belows);
+
+			// Reject every other move, restoring the previous values.
+			if (i % 2 == 0) {
+				swapper.restoreCache();
+				rHelper.restoreCache(false);
+				model.restoreCache(false);
+				mapModel.restoreCache(false);
+				assertArrayEquals(oldAts, model.ats.getValues(), 0.0);
+				assertArrayEquals(oldBelows, model.belows.getValues(), 0.0);
+				assertArrayEquals(oldMapAts, mapModel.ats.getValues(), 0.0);
+				assertArrayEquals(oldMapBelows, mapModel.belows.getValues(), 0.0);
+				++noOfRejected;
+			} else {
+				swapper.clearCache();
+				rHelper.clearCache(false);
+				model.clearCache(false);
+				mapModel.clearCache(false);
+			}
+		}
+		assertEquals(150, noOfRejected);
+	}
+
+	/**
+	 * Asserts that all DP values of a partially updated map equal those of a full update.
+	 * @param expected the fully updated values.
+	 * @param actual the partially updated values.
+	 */
+	private void assertSameValues(VertexEpochPtMap expected, VertexEpochPtMap actual) {
+		double[] e = expected.getValues();
+		double[] a = actual.getValues();
+		assertEquals(e.length, a.length);
+		for (int i = 0; i < e.length; ++i) {
+			assertEquals(e[i], a[i], 1e-9 * Math.abs(e[i]));
+		}
+	}
+}
@@ -44,4 +44,23 @@ public class TestEpochDLTProbs {
 		assertTrue(probs.getOneToOneProbs().get(0, 1, 2, 2, 3, 0) > 0.0);
 	}
 	
+	@Test
+	public void testConcurrent() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/simple.05.nw");
+		PrIMENewickTree rawTree = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree tree = new RBTree(rawTree, "Tree");
+		NamesMap names = rawTree.getVertexNamesMap(true, "Names");
+		TimesMap times = rawTree.getTimesMap("Times");
+		RBTreeEpochDiscretiser disc = new RBTreeEpochDiscretiser(tree, names, times, 2, 4, 0.05, 5);
+		DoubleParameter dup = new DoubleParameter("Dup", 0.1);
+		DoubleParameter loss = new DoubleParameter("Loss", 0.15);
+		DoubleParameter trans = new DoubleParameter("Trans", 0.2);
+		EpochDLTProbs seq = new EpochDLTProbs(disc, dup, loss, trans, true);
+		EpochDLTProbs conc = new EpochDLTProbs(disc, dup, loss, trans, true, 3);
+		assertEquals(seq.toString(), conc.toString());
+		
+		// A second instance runs on the same shared pool.
+		EpochDLTProbs conc2 = new EpochDLTProbs(disc, dup, loss, trans, true, 3);
+		assertEquals(seq.toString(), conc2.toString());
+	}
 }
@@ -0,0 +1,119 @@
+package se.cbb.jprime.apps.dltrs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.cbb.jprime.io.GuestHostMapReader;
+import se.cbb.jprime.io.NewickIOException;
+import se.cbb.jprime.io.PrIMENewickTree;
+import se.cbb.jprime.io.PrIMENewickTreeReader;
+import se.cbb.jprime.io.Sampleable.SamplingMode;
+import se.cbb.jprime.math.GammaDistribution;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.mcmc.Iteration;
+import se.cbb.jprime.topology.DoubleMap;
+import se.cbb.jprime.topology.GuestHostMap;
+import se.cbb.jprime.topology.LeafLeafMap;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
+import se.cbb.jprime.topology.TimesMap;
+import se.cbb.jprime.topology.TopologyException;
+
+/**
+ * JUnit test case.
+ *
+ * @author agent.
+ */
+public class TestRealisationSampler {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Guest tree names. */
+	private NamesMap gNames;
+
+	/** Model. */
+	private DLTRModel model;
+
+	/** Max realisation model. */
+	private DLTRMAPModel mapModel;
+
+	@Before
+	public void setUp() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/simple.05.nw");
+		PrIMENewickTree sRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree s = new RBTree(sRaw, "S");
+		NamesMap sNames = sRaw.getVertexNamesMap(true, "S.names");
+		TimesMap sTimes = sRaw.getTimesMap("Times");
+		RBTreeEpochDiscretiser disc = new RBTreeEpochDiscretiser(s, sNames, sTimes, 2, 4, 0.05, 3);
+		EpochDLTProbs dltProbs = new EpochDLTProbs(disc, new DoubleParameter("Dup", 0.3),
+				new DoubleParameter("Loss", 0.2), new DoubleParameter("Trans", 0.1), true);
+		url = this.getClass().getResource("/phylogenetics/simple.09.guest.nw");
+		PrIMENewickTree gRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, false);
+		RBTree g = new RBTree(gRaw, "G");
+		this.gNames = gRaw.getVertexNamesMap(false, "G.names");
+		url = this.getClass().getResource("/phylogenetics/simple.09.to.simple.05.gs");
+		GuestHostMap gsMap = GuestHostMapReader.readGuestHostMap(new File(url.getFile()));
+		LeafLeafMap llMap = new LeafLeafMap(gsMap, g, this.gNames, s, sNames);
+		DoubleMap lengths = new DoubleMap("Lengths", g.getNoOfVertices(), 0.2);
+		GammaDistribution pd = new GammaDistribution(new DoubleParameter("Mean", 0.2), new DoubleParameter("CV", 0.8));
+		ReconciliationHelper rHelper = new ReconciliationHelper(g, s, disc, llMap);
+		this.model = new DLTRModel(g, s, rHelper, lengths, dltProbs, pd);
+		this.mapModel = new DLTRMAPModel(g, s, rHelper, lengths, dltProbs, pd);
+	}
+
+	@Test
+	public void testSameOutputForAnyNumberOfThreads() throws IOException {
+		String one = this.sample(1, 4);
+		String many = this.sample(3, 4);
+		assertEquals(1 + 5 * 4, one.split("\n").length);
+		assertEquals(one, many);
+
+		// Different realisations are drawn.
+		String[] lines = one.split("\n");
+		assertFalse(lines[1].equals(lines[2]) && lines[2].equals(lines[3]) && lines[3].equals(lines[4]));
+	}
+
+	@Test
+	public void testTablesOnlyRead() throws IOException {
+		double[] ats = this.model.ats.getValues().clone();
+		double[] belows = this.model.belows.getValues().clone();
+		this.sample(1, 1);
+		this.sample(2, 3);
+		assertArrayEquals(ats, this.model.ats.getValues(), 0.0);
+		assertArrayEquals(belows, this.model.belows.getValues(), 0.0);
+	}
+
+	/**
+	 * Draws the realisations of 5 sampling rounds.
+	 * @param noOfThreads number of threads.
+	 * @param noOfRealisations number of realisations per round.
+	 * @return the contents of the realisation file.
+	 * @throws IOException.
+	 */
+	private String sample(int noOfThreads, int noOfRealisations) throws IOException {
+		File f = this.folder.newFile("real" + noOfThreads + "." + noOfRealisations);
+		Iteration iter = new Iteration(10);
+		RealisationSampler sampler = new RealisationSampler(f.getPath(), noOfRealisations, noOfThreads, iter,
+				new PRNG(new BigInteger("8642")), this.model, this.mapModel, this.gNames, false);
+		for (int i = 0; i < 5; ++i) {
+			sampler.getSampleValue(SamplingMode.ORDINARY);
+			iter.increment();
+		}
+		sampler.close();
+		return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,128 @@
+package se.cbb.jprime.apps.dltrs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.net.URL;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.cbb.jprime.io.GuestHostMapReader;
+import se.cbb.jprime.io.NewickIOException;
+import se.cbb.jprime.io.PrIMENewickTree;
+import se.cbb.jprime.io.PrIMENewickTreeReader;
+import se.cbb.jprime.io.Sampleable.SamplingMode;
+import se.cbb.jprime.math.GammaDistribution;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.mcmc.Iteration;
+import se.cbb.jprime.topology.DoubleMap;
+import se.cbb.jprime.topology.GuestHostMap;
+import se.cbb.jprime.topology.LeafLeafMap;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
+import se.cbb.jprime.topology.TimesMap;
+import se.cbb.jprime.topology.TopologyException;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit test case.
+ *
+ * @author agent.
+ */
+public class TestTransferHeatmap {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void test() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/molli.host.nw");
+		PrIMENewickTree rawTree = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree tree = new RBTree(rawTree, "Molli.Tree");
+		NamesMap names = rawTree.getVertexNamesMap(true, "Names");
+		TimesMap times = rawTree.getTimesMap("Molli.Times");
+		RBTreeEpochDiscretiser disc = new RBTreeEpochDiscretiser(tree, names, times, 3, 7, 0.05, 10);
+		TransferHeatmap heatmap = new TransferHeatmap(disc);
+
+		String real = "((A:0.0[&&PRIME VERTEXTYPE=Leaf DISCPT=(0,0)],B:0.0[&&PRIME VERTEXTYPE=Leaf DISCPT=(0,0)]):0.1" +
+				"[&&PRIME VERTEXTYPE=Transfer FROMTOLINEAGE=(3,1,-1) SPECIES_EDGE=(0,2) DISCPT=(1,2)]," +
+				"C:0.2[&&PRIME VERTEXTYPE=Leaf DISCPT=(0,0)]):0.3[&&PRIME VERTEXTYPE=Transfer FROMTOLINEAGE=(1,3,1) SPECIES_EDGE=(1,2) DISCPT=(1,2)];";
+		heatmap.addAll(new BufferedReader(new StringReader(TransferHeatmap.HOST_TREE_HEADER + "();\n100\t" + real + "\n200\t" + real + "\n")));
+		assertEquals(2, heatmap.getNoOfRealisations());
+		assertEquals(2, heatmap.get(1, 2, 3, 1));
+		assertEquals(2, heatmap.get(1, 2, 1, 3));
+		assertEquals(0, heatmap.get(1, 1, 3, 1));
+	}
+
+	@Test
+	public void testReadRealisationFile() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/simple.05.nw");
+		PrIMENewickTree sRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree s = new RBTree(sRaw, "S");
+		NamesMap sNames = sRaw.getVertexNamesMap(true, "S.names");
+		TimesMap sTimes = sRaw.getTimesMap("Times");
+		RBTreeEpochDiscretiser disc = new RBTreeEpochDiscretiser(s, sNames, sTimes, 2, 4, 0.05, 3);
+		EpochDLTProbs dltProbs = new EpochDLTProbs(disc, new DoubleParameter("Dup", 0.2),
+				new DoubleParameter("Loss", 0.2), new DoubleParameter("Trans", 0.8), true);
+		url = this.getClass().getResource("/phylogenetics/simple.09.guest.nw");
+		PrIMENewickTree gRaw = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, false);
+		RBTree g = new RBTree(gRaw, "G");
+		NamesMap gNames = gRaw.getVertexNamesMap(false, "G.names");
+		url = this.getClass().getResource("/phylogenetics/simple.09.to.simple.05.gs");
+		GuestHostMap gsMap = GuestHostMapReader.readGuestHostMap(new File(url.getFile()));
+		ReconciliationHelper rHelper = new ReconciliationHelper(g, s, disc, new LeafLeafMap(gsMap, g, gNames, s, sNames));
+		DoubleMap lengths = new DoubleMap("Lengths", g.getNoOfVertices(), 0.2);
+		GammaDistribution pd = new GammaDistribution(new DoubleParameter("Mean", 0.2), new DoubleParameter("CV", 0.8));
+		DLTRModel model = new DLTRModel(g, s, rHelper, lengths, dltProbs, pd);
+		DLTRMAPModel mapModel = new DLTRMAPModel(g, s, rHelper, lengths, dltProbs, pd);
+
+		// Sample realisations to a file, adding them to a heatmap as they are drawn.
+		File f = this.folder.newFile("realisations");
+		Iteration iter = new Iteration(100);
+		RealisationSampler sampler = new RealisationSampler(f.getPath(), 10, 2, iter, new PRNG(new BigInteger("97531")),
+				model, mapModel, gNames, false);
+		TransferHeatmap live = new TransferHeatmap(sampler.getDiscretisedHostTree());
+		sampler.setHeatmap(live);
+		for (int i = 0; i < 20; ++i) {
+			sampler.getSampleValue(SamplingMode.ORDINARY);
+			iter.increment();
+		}
+		sampler.close();
+
+		// Read the file, recreating the discretisation from its header.
+		TransferHeatmap read = TransferHeatmap.read(f);
+		assertEquals(200, live.getNoOfRealisations());
+		assertEquals(200, read.getNoOfRealisations());
+		String expected = this.toString(live);
+		assertEquals(expected, this.toString(read));
+
+		// One row per point, one column per ordered pair of the 9 host arcs, some transfers.
+		String[] rows = expected.split("\n");
+		assertEquals(1 + disc.getTotalNoOfPoints(), rows.length);
+		assertEquals(9 * 8, rows[1].split("\t").length);
+		assertTrue(expected.matches("(?s).*\\t[1-9]\\d*\\t.*"));
+	}
+
+	/**
+	 * Returns the written heatmap.
+	 * @param heatmap the heatmap.
+	 * @return the heatmap as written.
+	 * @throws IOException.
+	 */
+	private String toString(TransferHeatmap heatmap) throws IOException {
+		StringWriter out = new StringWriter();
+		BufferedWriter bw = new BufferedWriter(out);
+		heatmap.write(bw);
+		bw.flush();
+		return out.toString();
+	}
+
+}
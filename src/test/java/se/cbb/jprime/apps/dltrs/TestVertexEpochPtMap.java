@@ -0,0 +1,67 @@
+package se.cbb.jprime.apps.dltrs;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.Test;
+
+import se.cbb.jprime.io.NewickIOException;
+import se.cbb.jprime.io.PrIMENewickTree;
+import se.cbb.jprime.io.PrIMENewickTreeReader;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTreeEpochDiscretiser;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.TimesMap;
+import se.cbb.jprime.topology.TopologyException;
+import static org.junit.Assert.*;
+
+/**
+ * JUnit test case.
+ *
+ * @author agent.
+ */
+public class TestVertexEpochPtMap {
+
+	@Test
+	public void test() throws NewickIOException, IOException, TopologyException {
+		URL url = this.getClass().getResource("/phylogenetics/molli.host.nw");
+		PrIMENewickTree rawTree = PrIMENewickTreeReader.readTree(new File(url.getFile()), false, true);
+		RBTree tree = new RBTree(rawTree, "Molli.Tree");
+		NamesMap names = rawTree.getVertexNamesMap(true, "Names");
+		TimesMap times = rawTree.getTimesMap("Molli.Times");
+		RBTreeEpochDiscretiser disc = new RBTreeEpochDiscretiser(tree, names, times, 3, 7, 0.05, 10);
+		EpochPtMap ref = new EpochPtMap(disc);
+		VertexEpochPtMap pts = new VertexEpochPtMap(3, disc);
+
+		// Same layout as a single map.
+		int last = disc.getNoOfEpochs() - 1;
+		int i = disc.getNoOfEpochs() / 2;
+		int j = disc.getEpoch(i).getNoOfTimes() - 1;
+		assertEquals(ref.get(i, j).length, pts.getNoOfArcs(i));
+		assertEquals(pts.getOffset(1, 0, 0) + pts.getNoOfArcs(0), pts.getOffset(1, 0, 1));
+		pts.getValues()[pts.getOffset(2, last, disc.getEpoch(last).getNoOfTimes() - 1)] = 1.0;
+		assertEquals(1.0, pts.getTopmost(2), 1e-6);
+		assertEquals(0.0, pts.getTopmost(1), 1e-6);
+
+		// Full cache.
+		pts.getValues()[pts.getOffset(1, i, j)] = 2.0;
+		pts.cache(null);
+		pts.getValues()[pts.getOffset(1, i, j)] = 3.0;
+		pts.restoreCache();
+		assertEquals(2.0, pts.get(1, i, j, 0), 1e-6);
+		assertEquals(1.0, pts.getTopmost(2), 1e-6);
+
+		// Partial cache.
+		pts.cache(new int[] { 1 });
+		pts.getValues()[pts.getOffset(1, i, j)] = 4.0;
+		pts.getValues()[pts.getOffset(0, i, j)] = 5.0;
+		pts.restoreCache();
+		assertEquals(2.0, pts.get(1, i, j, 0), 1e-6);
+		assertEquals(5.0, pts.get(0, i, j, 0), 1e-6);
+
+		pts.reset(disc);
+		assertEquals(0.0, pts.getTopmost(2), 1e-6);
+	}
+
+}
@@ -0,0 +1,57 @@
+package se.cbb.jprime.io;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.cbb.jprime.io.Sampleable.SamplingMode;
+import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.mcmc.Iteration;
+import se.cbb.jprime.topology.DoubleMap;
+
+/**
+ * JUnit test case.
+ *
+ * @author agent.
+ */
+public class TestAsyncSampleWriter {
+
+	@Test
+	public void testSameOutput() throws IOException {
+		Iteration iter = new Iteration(1000);
+		DoubleParameter p = new DoubleParameter("P", 0.5);
+		DoubleMap m = new DoubleMap("M", 3, 1.0);
+		List<Sampleable> sampleables = new ArrayList<Sampleable>();
+		sampleables.add(iter);
+		sampleables.add(p);
+		sampleables.add(m);
+
+		StringWriter syncOut = new StringWriter();
+		StringWriter asyncOut = new StringWriter();
+		SampleWriter sync = new SampleWriter(new BufferedWriter(syncOut), 10);
+		AsyncSampleWriter async = new AsyncSampleWriter(new BufferedWriter(asyncOut), 10, 2);
+		sync.writeSampleHeader(sampleables);
+		async.writeSampleHeader(sampleables);
+		for (int i = 0; i < 1000; ++i) {
+			iter.increment();
+			p.setValue(i * 0.25);
+			m.set(i % 3, i / 7.0);
+			sync.writeSample(sampleables, SamplingMode.ORDINARY);
+			async.writeSample(sampleables, SamplingMode.ORDINARY);
+			if (i == 500) {
+				sync.writeString("# Halfway.\n");
+				async.writeString("# Halfway.\n");
+			}
+		}
+		sync.close();
+		async.close();
+		assertEquals(syncOut.toString(), asyncOut.toString());
+		assertEquals(1002, asyncOut.toString().split("\n").length);
+	}
+}
@@ -0,0 +1,51 @@
+package se.cbb.jprime.math;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for LogDoubleArrays.
+ *
+ * @author agent.
+ */
+public class TestLogDoubleArrays {
+
+	private double[] vals = new double[] { 0.0, 0.0001, 0.00123, -0.00345, -0.0456, Math.E, 1.0, 2.0 };
+
+	@Test
+	public void testAgainstLogDouble() {
+		int n = vals.length;
+		double[] p = new double[n];
+		int[] s = new int[n];
+		for (int i = 0; i < n; ++i) {
+			for (int j = 0; j < n; ++j) {
+				// Sum.
+				LogDoubleArrays.set(p, s, i, vals[i]);
+				LogDoubleArrays.add(p, s, i, Math.log(Math.abs(vals[j])), (int) Math.signum(vals[j]));
+				LogDouble sum = new LogDouble(vals[i]).add(new LogDouble(vals[j]));
+				assertEquals(sum.getSign(), s[i]);
+				if (sum.getSign() != 0) {
+					assertEquals(sum.getLogValue(), p[i], 0.0);
+				}
+
+				// Product.
+				LogDoubleArrays.set(p, s, i, vals[i]);
+				LogDoubleArrays.mult(p, s, i, vals[j]);
+				LogDouble prod = new LogDouble(vals[i]).mult(vals[j]);
+				assertEquals(prod.getSign(), s[i]);
+				assertEquals(prod.getValue(), LogDoubleArrays.getValue(p, s, i), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testLogSumExp() {
+		double[] p = new double[] { Math.log(0.1), Math.log(0.2), Math.log(0.3), Double.NEGATIVE_INFINITY };
+		assertEquals(Math.log(0.6), LogDoubleArrays.logSumExp(p, 0, 4), 1e-12);
+		assertEquals(Math.log(0.5), LogDoubleArrays.logSumExp(p, 1, 3), 1e-12);
+		assertEquals(Double.NEGATIVE_INFINITY, LogDoubleArrays.logSumExp(p, 3, 4), 0.0);
+		p = new double[] { -1000.0, -1000.0 };
+		assertEquals(-1000.0 + Math.log(2.0), LogDoubleArrays.logSumExp(p, 0, 2), 1e-12);
+	}
+}
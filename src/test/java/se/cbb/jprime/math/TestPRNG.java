@@ -0,0 +1,41 @@
+package se.cbb.jprime.math;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for PRNG.
+ *
+ * @author agent.
+ */
+public class TestPRNG {
+
+	@Test
+	public void testCheckpoint() throws IOException {
+		PRNG prng = new PRNG(new BigInteger("29386492"));
+		for (int i = 0; i < 1000; ++i) {
+			prng.nextDouble();
+		}
+		// Leave a pending Gaussian value.
+		prng.nextGaussian();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		prng.writeCheckpoint(new DataOutputStream(bytes));
+
+		PRNG restored = new PRNG(new BigInteger("1234"));
+		restored.readCheckpoint(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(prng.nextGaussian(), restored.nextGaussian(), 0.0);
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(prng.nextInt(), restored.nextInt());
+			assertEquals(prng.nextDouble(), restored.nextDouble(), 0.0);
+			assertEquals(prng.nextGaussian(), restored.nextGaussian(), 0.0);
+		}
+	}
+}
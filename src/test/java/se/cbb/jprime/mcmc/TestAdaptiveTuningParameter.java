@@ -0,0 +1,36 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import se.cbb.jprime.math.PRNG;
+
+/**
+ * Unit tests for AdaptiveTuningParameter.
+ *
+ * @author agent.
+ */
+public class TestAdaptiveTuningParameter {
+
+	@Test
+	public void testAdaptation() {
+		PRNG prng = new PRNG(new BigInteger("8723641"));
+		Iteration iter = new Iteration(40000);
+		ProposerStatistics stats = new ProposerStatistics();
+		AdaptiveTuningParameter tp = new AdaptiveTuningParameter(iter, stats, 0.01, 0.0001, 100, 0.44, 20000, 50);
+		double frozen = Double.NaN;
+		while (iter.increment()) {
+			// Acceptance probability exp(-value), i.e., the target is attained for value -log(0.44).
+			stats.increment(prng.nextDouble() < Math.exp(-tp.getValue()));
+			if (iter.getIteration() == 20000) {
+				frozen = tp.getValue();
+			}
+		}
+		assertEquals(-Math.log(0.44), frozen, 0.1);
+		assertEquals(frozen, tp.getValue(), 0.0);
+		assertTrue(tp.getNoOfAdaptations() > 0);
+	}
+}
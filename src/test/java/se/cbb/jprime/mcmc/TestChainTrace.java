@@ -0,0 +1,69 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.cbb.jprime.io.NewickIOException;
+import se.cbb.jprime.io.NewickTree;
+import se.cbb.jprime.io.NewickTreeReader;
+import se.cbb.jprime.io.RBTreeSampleWrapper;
+import se.cbb.jprime.io.SampleWriter;
+import se.cbb.jprime.io.Sampleable;
+import se.cbb.jprime.io.Sampleable.SamplingMode;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.TopologyException;
+
+/**
+ * JUnit test case.
+ *
+ * @author agent.
+ */
+public class TestChainTrace {
+
+	@Test
+	public void testClades() throws NewickIOException, TopologyException, IOException {
+		NewickTree raw = NewickTreeReader.readTree("((A,B),(C,(D,E)));", false);
+		RBTree tree = new RBTree(raw, "T");
+		NamesMap names = raw.getVertexNamesMap(true, "Names");
+		DoubleParameter p = new DoubleParameter("P", 1.5);
+		List<Sampleable> sampleables = new ArrayList<Sampleable>();
+		sampleables.add(p);
+		sampleables.add(new RBTreeSampleWrapper(tree, names));
+		StringWriter out = new StringWriter();
+		ChainTrace trace = new ChainTrace(new SampleWriter(new BufferedWriter(out), 1));
+		trace.writeSampleHeader(sampleables);
+		trace.writeSample(sampleables, SamplingMode.ORDINARY);
+
+		// Swap the names of B and C: clades {A,C} and {B,D,E}, {D,E}.
+		names.swapVertices("B", "C");
+		p.setValue(2.5);
+		trace.writeSample(sampleables, SamplingMode.ORDINARY);
+		trace.flush();
+
+		// Output is passed on.
+		assertEquals(3, out.toString().split("\n").length);
+
+		assertEquals(2, trace.getNoOfSamples());
+		assertTrue(trace.hasTrees());
+		assertEquals(1, trace.getNames().size());
+		assertEquals(1.5, trace.getValues(0)[0], 1e-12);
+		assertEquals(2.5, trace.getValues(0)[1], 1e-12);
+		HashMap<String, Double> freqs = trace.getCladeFrequencies(0, 2);
+		assertEquals(5, freqs.size());
+		assertEquals(0.5, freqs.get("A,B"), 0.0);
+		assertEquals(0.5, freqs.get("C,D,E"), 0.0);
+		assertEquals(0.5, freqs.get("A,C"), 0.0);
+		assertEquals(0.5, freqs.get("B,D,E"), 0.0);
+		assertEquals(1.0, freqs.get("D,E"), 0.0);
+		assertEquals(1, trace.getCladeFrequencies(1, 2).get("A,C").intValue());
+	}
+}
@@ -0,0 +1,80 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.cbb.jprime.math.PRNG;
+
+/**
+ * Unit tests for ConvergenceDiagnostics.
+ *
+ * @author agent.
+ */
+public class TestConvergenceDiagnostics {
+
+	private List<double[]> getTraces(int m, int n, double shift) {
+		PRNG prng = new PRNG(new BigInteger("3429868234"));
+		List<double[]> traces = new ArrayList<double[]>(m);
+		for (int k = 0; k < m; ++k) {
+			double[] trace = new double[n];
+			for (int i = 0; i < n; ++i) {
+				trace[i] = prng.nextGaussian() + k * shift;
+			}
+			traces.add(trace);
+		}
+		return traces;
+	}
+
+	@Test
+	public void testSplitRHat() {
+		assertEquals(1.0, ConvergenceDiagnostics.splitRHat(getTraces(4, 2000, 0.0), 0, 2000), 0.01);
+		assertTrue(ConvergenceDiagnostics.splitRHat(getTraces(4, 2000, 1.0), 0, 2000) > 1.1);
+		assertTrue(Double.isNaN(ConvergenceDiagnostics.splitRHat(getTraces(2, 3, 0.0), 0, 3)));
+	}
+
+	@Test
+	public void testESS() {
+		double[] iid = getTraces(1, 4000, 0.0).get(0);
+		assertEquals(4000, ConvergenceDiagnostics.ess(iid, 0, 4000), 400);
+		// Repeating each sample ten times gives a strongly autocorrelated chain.
+		double[] rep = new double[4000];
+		for (int i = 0; i < rep.length; ++i) {
+			rep[i] = iid[i / 10];
+		}
+		assertEquals(400, ConvergenceDiagnostics.ess(rep, 0, 4000), 80);
+		assertTrue(Double.isNaN(ConvergenceDiagnostics.ess(new double[] { 1, 1, 1, 1, 1 }, 0, 5)));
+	}
+
+	@Test(timeout = 5000)
+	public void testESSLagCap() {
+		// A random walk stays correlated at all lags; summing them all would be quadratic in the trace length.
+		double[] steps = getTraces(1, 200000, 0.0).get(0);
+		double[] walk = new double[steps.length];
+		for (int i = 1; i < walk.length; ++i) {
+			walk[i] = walk[i - 1] + steps[i];
+		}
+		double ess = ConvergenceDiagnostics.ess(walk, 0, walk.length);
+		assertTrue(ess > 0.0 && ess < walk.length / (double) ConvergenceDiagnostics.MAX_LAG);
+
+		// Short autocorrelation times are not affected by the cap.
+		double[] rep = new double[20000];
+		for (int i = 0; i < rep.length; ++i) {
+			rep[i] = steps[i / 10];
+		}
+		assertEquals(2000, ConvergenceDiagnostics.ess(rep, 0, rep.length), 400);
+	}
+
+	@Test
+	public void testASDSF() {
+		double[][] freqs = new double[][] { { 1.0, 0.5, 0.05 }, { 1.0, 0.7, 0.0 } };
+		assertEquals(0.0, ConvergenceDiagnostics.asdsf(new double[][] { { 1.0, 0.5 }, { 1.0, 0.5 } }, 0.1), 1e-12);
+		// Third split is below the frequency threshold: mean of sd 0 and sd 0.1414...
+		assertEquals(Math.sqrt(0.02) / 2, ConvergenceDiagnostics.asdsf(freqs, 0.1), 1e-12);
+		assertTrue(Double.isNaN(ConvergenceDiagnostics.asdsf(new double[][] { { 1.0 } }, 0.1)));
+	}
+}
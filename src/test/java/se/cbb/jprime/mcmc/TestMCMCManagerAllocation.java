@@ -0,0 +1,130 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import org.biojava.nbio.core.sequence.ProteinSequence;
+import org.junit.Test;
+
+import se.cbb.jprime.io.SampleWriter;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.math.RealInterval;
+import se.cbb.jprime.misc.Pair;
+import se.cbb.jprime.seqevo.GammaSiteRateHandler;
+import se.cbb.jprime.seqevo.JTT;
+import se.cbb.jprime.seqevo.MSAData;
+import se.cbb.jprime.seqevo.SequenceType;
+import se.cbb.jprime.seqevo.SubstitutionModel;
+import se.cbb.jprime.topology.DoubleMap;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.UniformRBTreeGenerator;
+
+/**
+ * Verifies that the iteration loop of MCMCManager does not allocate any objects
+ * for a chain of lightweight proposers and models, nor for a chain of branch length
+ * perturbations of a substitution model.
+ *
+ * @author agent.
+ */
+public class TestMCMCManagerAllocation {
+
+	@Test
+	public void testNoAllocations() throws IOException {
+		PRNG prng = new PRNG(new BigInteger("5463722"));
+		Iteration iter = new Iteration(200000);
+		ConstantThinner thinner = new ConstantThinner(iter, 1000);
+		MultiProposerSelector selector = new MultiProposerSelector(prng, new double[] { 0.5, 0.5 });
+		MCMCManager manager = new MCMCManager(iter, thinner, selector, new MetropolisHastingsAcceptor(prng),
+				new SampleWriter(new BufferedWriter(new StringWriter()), 1), prng, new ProposerStatistics());
+		for (int i = 0; i < 2; ++i) {
+			DoubleParameter p = new DoubleParameter("Param" + i, 5.0);
+			NormalProposer proposer = new NormalProposer(p, new ConstantTuningParameter(0.5), prng);
+			proposer.setStatistics(new ProposerStatistics());
+			selector.add(proposer, new ConstantProposerWeight(1.0));
+			manager.addModel(new RealParameterUniformPrior(p, new RealInterval(0, 10, false, false)));
+			manager.addSampleable(p);
+		}
+		manager.initialise(false);
+		this.assertNoAllocations(manager, 20000, 100000);
+	}
+
+	@Test
+	public void testNoAllocationsWithSubstitutionModel() throws Exception {
+		this.runSubstitutionModelChain(false);
+		this.runSubstitutionModelChain(true);
+	}
+
+	/**
+	 * Verifies a chain of branch length perturbations, with a uniform prior on the lengths
+	 * and a substitution model.
+	 * @param doEarlyAbort true to evaluate the models as bounded models.
+	 * @throws Exception.
+	 */
+	private void runSubstitutionModelChain(boolean doEarlyAbort) throws Exception {
+		// Random sequences.
+		PRNG prng = new PRNG(new BigInteger("8765"));
+		String alphabet = "ARNDCQEGHILKMFPSTWYV";
+		LinkedHashMap<String, ProteinSequence> seqs = new LinkedHashMap<String, ProteinSequence>();
+		for (int k = 0; k < 12; ++k) {
+			StringBuilder sb = new StringBuilder(30);
+			for (int i = 0; i < 30; ++i) {
+				sb.append(alphabet.charAt(prng.nextInt(alphabet.length())));
+			}
+			seqs.put("s" + k, new ProteinSequence(sb.toString()));
+		}
+		MSAData D = new MSAData(SequenceType.AMINO_ACID, seqs);
+		Pair<RBTree, NamesMap> tn = UniformRBTreeGenerator.createUniformTree("T", new ArrayList<String>(seqs.keySet()), prng);
+		DoubleMap bls = new DoubleMap("BranchLengths", tn.first.getNoOfVertices(), 0.2);
+		SubstitutionModel sm = new SubstitutionModel("JTT", D, new GammaSiteRateHandler(new DoubleParameter("k", 1.0), 2),
+				JTT.createJTT(100), tn.first, tn.second, bls, true);
+
+		Iteration iter = new Iteration(200000);
+		ConstantThinner thinner = new ConstantThinner(iter, 1000);
+		MultiProposerSelector selector = new MultiProposerSelector(prng, new double[] { 1.0 });
+		MCMCManager manager = new MCMCManager(iter, thinner, selector, new MetropolisHastingsAcceptor(prng),
+				new SampleWriter(new BufferedWriter(new StringWriter()), 1), prng, new ProposerStatistics());
+		NormalProposer proposer = new NormalProposer(bls, new RealInterval(0, 10, true, true), new ConstantTuningParameter(0.5), prng);
+		proposer.setStatistics(new ProposerStatistics());
+		selector.add(proposer, new ConstantProposerWeight(1.0));
+		manager.addModel(new RealParameterUniformPrior(bls, new RealInterval(0, 10, false, false)));
+		manager.addModel(sm);
+		manager.addSampleable(bls);
+		manager.setEarlyAbort(doEarlyAbort);
+		manager.initialise(false);
+		this.assertNoAllocations(manager, 3000, 2000);
+	}
+
+	/**
+	 * Runs a chain and asserts that it allocates less than one byte per iteration, i.e.,
+	 * that no objects are created per iteration.
+	 * @param manager the chain.
+	 * @param noOfWarmUpIterations number of iterations before measuring, so that lazily created
+	 *        buffers and statistics categories exist.
+	 * @param noOfIterations number of measured iterations.
+	 * @throws IOException.
+	 */
+	private void assertNoAllocations(MCMCManager manager, int noOfWarmUpIterations, int noOfIterations) throws IOException {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+		assumeTrue(tmx.isThreadAllocatedMemorySupported() && tmx.isThreadAllocatedMemoryEnabled());
+
+		assertTrue(manager.runIterations(noOfWarmUpIterations, false));
+		long tid = Thread.currentThread().getId();
+		long before = tmx.getThreadAllocatedBytes(tid);
+		long overhead = tmx.getThreadAllocatedBytes(tid) - before;
+		before = tmx.getThreadAllocatedBytes(tid);
+		assertTrue(manager.runIterations(noOfIterations, false));
+		long allocated = tmx.getThreadAllocatedBytes(tid) - before - overhead;
+		assertTrue("Allocated " + allocated + " bytes in " + noOfIterations + " iterations.", allocated < noOfIterations);
+	}
+}
@@ -0,0 +1,166 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.cbb.jprime.io.SampleWriter;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.math.RealInterval;
+
+/**
+ * End-to-end test of checkpointing and resuming an MCMC chain: stopping at iteration k,
+ * checkpointing and resuming must produce the same samples as an uninterrupted run.
+ *
+ * @author agent.
+ */
+public class TestMCMCManagerCheckpoint {
+
+	/** Total number of iterations. */
+	private static final int NO_OF_ITERATIONS = 4000;
+
+	/** Iteration at which the interrupted run stops. */
+	private static final int STOP = 2500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A chain, created from scratch with the same seed every time. It has adaptive tuning
+	 * parameters and proposer weights, adapted beyond the stop iteration, so that their state
+	 * is part of the checkpoint.
+	 */
+	private static class Chain {
+		final MCMCManager manager;
+		final StringWriter out = new StringWriter();
+		final SampleWriter sampler = new SampleWriter(new BufferedWriter(this.out), 1);
+
+		Chain() {
+			PRNG prng = new PRNG(new BigInteger("24681357"));
+			Iteration iter = new Iteration(NO_OF_ITERATIONS);
+			MultiProposerSelector selector = new MultiProposerSelector(prng, new double[] { 0.7, 0.3 });
+			this.manager = new MCMCManager(iter, new ConstantThinner(iter, 10), selector, new MetropolisHastingsAcceptor(prng),
+					this.sampler, prng, new ProposerStatistics());
+			this.manager.addSampleable(iter);
+			this.manager.addSampleable(this.manager);
+			for (int i = 0; i < 3; ++i) {
+				DoubleParameter p = new DoubleParameter("Param" + i, 1.0 + i);
+				ProposerStatistics stats = new ProposerStatistics();
+				TuningParameter tp = new AdaptiveTuningParameter(iter, stats, 0.5, 0.01, 10.0, 0.44, NO_OF_ITERATIONS / 2, 50);
+				NormalProposer proposer = new NormalProposer(p, tp, prng);
+				proposer.setStatistics(stats);
+				selector.add(proposer, new ConstantProposerWeight(1.0 + i));
+				this.manager.addModel(new RealParameterUniformPrior(p, new RealInterval(0, 5 + i, false, false)));
+				this.manager.addSampleable(p);
+			}
+			selector.setAdaptiveWeights(iter, 3000, 100);
+		}
+
+		String getOutput() throws IOException {
+			this.sampler.flush();
+			return this.out.toString();
+		}
+	}
+
+	@Test
+	public void testResumeGivesSameSamples() throws IOException {
+		// Uninterrupted run.
+		Chain full = new Chain();
+		full.manager.run();
+		String expected = full.getOutput();
+
+		// Run stopping at iteration k, checkpointing every 500 iterations, i.e., also at k.
+		File cp = this.folder.newFile("chain.cp");
+		Chain first = new Chain();
+		first.manager.setCheckpointing(cp, 500);
+		first.manager.initialise(true);
+		assertTrue(first.manager.runIterations(STOP, true));
+		first.manager.finish();
+		assertEquals(STOP, first.manager.getIteration().getIteration());
+
+		// Resumed run from scratch objects.
+		Chain second = new Chain();
+		second.manager.setResumeFile(cp);
+		second.manager.initialise(true);
+		assertEquals(STOP, second.manager.getIteration().getIteration());
+		assertEquals(first.manager.getPosteriorDensity().getLogValue(), second.manager.getPosteriorDensity().getLogValue(), 0.0);
+		assertFalse(second.manager.runIterations(Integer.MAX_VALUE, true));
+		second.manager.finish();
+
+		assertEquals(expected, first.getOutput() + second.getOutput());
+		assertEquals(full.manager.getPosteriorDensity().getLogValue(), second.manager.getPosteriorDensity().getLogValue(), 0.0);
+		assertEquals(full.manager.bestPosteriorDensity.getLogValue(), second.manager.bestPosteriorDensity.getLogValue(), 0.0);
+		assertEquals(full.manager.bestState, second.manager.bestState);
+	}
+
+	@Test
+	public void testRejectsInvalidHeader() throws IOException {
+		File cp = this.folder.newFile("chain.cp");
+		Chain first = new Chain();
+		first.manager.setCheckpointing(cp, 100);
+		first.manager.initialise(true);
+		first.manager.runIterations(100, true);
+
+		// Wrong magic number.
+		File badMagic = this.folder.newFile("magic.cp");
+		this.copyAndOverwriteInt(cp, badMagic, 0, 0x12345678);
+		this.assertRejected(badMagic, "Invalid checkpoint file");
+
+		// Wrong version.
+		File badVersion = this.folder.newFile("version.cp");
+		this.copyAndOverwriteInt(cp, badVersion, 4, 999);
+		this.assertRejected(badVersion, "Unsupported checkpoint file version: 999");
+
+		// The original is fine.
+		Chain ok = new Chain();
+		ok.manager.setResumeFile(cp);
+		ok.manager.initialise(true);
+		assertEquals(100, ok.manager.getIteration().getIteration());
+	}
+
+	/**
+	 * Copies a file and overwrites an int in the copy.
+	 * @param src the source.
+	 * @param dst the copy.
+	 * @param pos the byte position of the int.
+	 * @param val the int.
+	 * @throws IOException.
+	 */
+	private void copyAndOverwriteInt(File src, File dst, int pos, int val) throws IOException {
+		Files.copy(src.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		RandomAccessFile f = new RandomAccessFile(dst, "rw");
+		try {
+			f.seek(pos);
+			f.writeInt(val);
+		} finally {
+			f.close();
+		}
+	}
+
+	/**
+	 * Asserts that a fresh chain refuses to resume from a checkpoint.
+	 * @param cp the checkpoint.
+	 * @param msg expected start of the error message.
+	 */
+	private void assertRejected(File cp, String msg) {
+		Chain c = new Chain();
+		c.manager.setResumeFile(cp);
+		try {
+			c.manager.initialise(true);
+			fail("Resumed from invalid checkpoint.");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(msg));
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.Map;
+
+import org.junit.Test;
+
+import se.cbb.jprime.io.SampleLogDouble;
+import se.cbb.jprime.io.SampleWriter;
+import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.math.PRNG;
+
+/**
+ * Verifies that the level-wise concurrent update of dependents yields the same densities
+ * and change infos as the sequential update in topological order, for a DAG of mock dependents:
+ * <pre>
+ * X    Y       state parameters
+ * |\  /|
+ * | \/ |
+ * A  B |       level 0
+ * |\ | |
+ * | \| |
+ * |  C |       level 1
+ * |  | |
+ * M2 M1 M3     level 2 (models; M2 relies on A, M3 on Y)
+ * </pre>
+ *
+ * @author agent.
+ */
+public class TestMCMCManagerConcurrentUpdates {
+
+	/**
+	 * Mock dependent whose value is an affine function of the values of its parents. Logs every
+	 * update (with the parents which had changed and the new value), clear and restore.
+	 */
+	private static class Node implements ProperDependent {
+
+		/** Name. */
+		final String name;
+
+		/** Parents. */
+		final Dependent[] parents;
+
+		/** Constant term. */
+		final double offset;
+
+		/** Current value. */
+		double value;
+
+		/** Cached value. */
+		double cache;
+
+		/** Log of calls. */
+		final StringBuilder log = new StringBuilder(65536);
+
+		Node(String name, double offset, Dependent... parents) {
+			this.name = name;
+			this.offset = offset;
+			this.parents = parents;
+			this.value = this.compute();
+		}
+
+		double compute() {
+			double v = this.offset;
+			for (int i = 0; i < this.parents.length; ++i) {
+				Dependent p = this.parents[i];
+				v += (i + 1) * (p instanceof Node ? ((Node) p).value : ((DoubleParameter) p).getValue());
+			}
+			return v;
+		}
+
+		@Override
+		public Dependent[] getParentDependents() {
+			return this.parents;
+		}
+
+		@Override
+		public void cacheAndUpdate(Map<Dependent, ChangeInfo> changeInfos, boolean willSample) {
+			this.log.append("u:");
+			for (Dependent p : this.parents) {
+				this.log.append(changeInfos.get(p) == null ? '-' : '+');
+			}
+			this.cache = this.value;
+			this.value = this.compute();
+			this.log.append(':').append(this.value).append(' ');
+			changeInfos.put(this, new ChangeInfo(this, this.name + " updated"));
+		}
+
+		@Override
+		public void clearCache(boolean willSample) {
+			this.log.append("c ");
+		}
+
+		@Override
+		public void restoreCache(boolean willSample) {
+			this.value = this.cache;
+			this.log.append("r ");
+		}
+	}
+
+	/**
+	 * Mock model with a Gaussian density of its value.
+	 */
+	private static class MockModel extends Node implements InferenceModel {
+
+		MockModel(String name, double offset, Dependent... parents) {
+			super(name, offset, parents);
+		}
+
+		@Override
+		public LogDouble getDataProbability() {
+			return new LogDouble(-0.5 * this.value * this.value, 1);
+		}
+
+		@Override
+		public String getModelName() {
+			return this.name;
+		}
+
+		@Override
+		public Class<?> getSampleType() {
+			return SampleLogDouble.class;
+		}
+
+		@Override
+		public String getSampleHeader() {
+			return this.name;
+		}
+
+		@Override
+		public String getSampleValue(SamplingMode mode) {
+			return this.getDataProbability().toString();
+		}
+
+		@Override
+		public String getPreInfo(String prefix) {
+			return prefix + this.name + '\n';
+		}
+
+		@Override
+		public String getPostInfo(String prefix) {
+			return prefix + this.name + '\n';
+		}
+	}
+
+	/**
+	 * A chain over the DAG of the class description.
+	 */
+	private static class Chain {
+		final Node[] nodes;
+		final MCMCManager manager;
+		final StringWriter out = new StringWriter();
+
+		Chain(boolean doConcurrentUpdates) {
+			PRNG prng = new PRNG(new BigInteger("97531"));
+			Iteration iter = new Iteration(3000);
+			MultiProposerSelector selector = new MultiProposerSelector(prng, new double[] { 0.5, 0.5 });
+			this.manager = new MCMCManager(iter, new ConstantThinner(iter, 1), selector, new MetropolisHastingsAcceptor(prng),
+					new SampleWriter(new BufferedWriter(this.out), 1), prng, new ProposerStatistics());
+			DoubleParameter x = new DoubleParameter("X", 0.5);
+			DoubleParameter y = new DoubleParameter("Y", -0.5);
+			for (DoubleParameter p : new DoubleParameter[] { x, y }) {
+				NormalProposer proposer = new NormalProposer(p, new ConstantTuningParameter(0.3), prng);
+				proposer.setStatistics(new ProposerStatistics());
+				selector.add(proposer, new ConstantProposerWeight(1.0));
+				this.manager.addSampleable(p);
+			}
+			Node a = new Node("A", 0.1, x);
+			Node b = new Node("B", -0.2, x, y);
+			Node c = new Node("C", 0.3, a, b);
+			MockModel m1 = new MockModel("M1", 0.0, c);
+			MockModel m2 = new MockModel("M2", -0.4, a);
+			MockModel m3 = new MockModel("M3", 0.2, y);
+			this.nodes = new Node[] { a, b, c, m1, m2, m3 };
+			for (MockModel m : new MockModel[] { m1, m2, m3 }) {
+				this.manager.addModel(m);
+				this.manager.addSampleable(m);
+			}
+			this.manager.setConcurrentUpdates(doConcurrentUpdates);
+		}
+
+		void run() throws IOException {
+			this.manager.run();
+		}
+	}
+
+	@Test
+	public void testSameAsSequential() throws IOException {
+		Chain seq = new Chain(false);
+		Chain conc = new Chain(true);
+		seq.run();
+		conc.run();
+
+		// Levels: {A, B}, {C}, {M1, M2, M3}.
+		assertNull(seq.manager.levels);
+		assertEquals(3, conc.manager.levels.size());
+		assertEquals(2, conc.manager.levels.get(0).size());
+		assertEquals(1, conc.manager.levels.get(1).size());
+		assertEquals(3, conc.manager.levels.get(2).size());
+
+		// Same samples, i.e., same densities and trajectory.
+		assertEquals(seq.out.toString(), conc.out.toString());
+		assertEquals(seq.manager.getPosteriorDensity().getLogValue(), conc.manager.getPosteriorDensity().getLogValue(), 0.0);
+
+		// Same updates, with the same changed parents, and the same clears and restores.
+		for (int i = 0; i < seq.nodes.length; ++i) {
+			assertTrue(seq.nodes[i].log.length() > 0);
+			assertEquals(seq.nodes[i].name, seq.nodes[i].log.toString(), conc.nodes[i].log.toString());
+		}
+	}
+}
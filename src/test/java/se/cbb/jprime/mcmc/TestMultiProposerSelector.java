@@ -0,0 +1,123 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import se.cbb.jprime.math.PRNG;
+
+/**
+ * Unit tests for the adaptive weights of MultiProposerSelector.
+ *
+ * @author agent.
+ */
+public class TestMultiProposerSelector {
+
+	/** Interval between adaptations. */
+	private static final int INTERVAL = 100;
+
+	/** Last iteration of adaptation. */
+	private static final int END = 1000;
+
+	@Test
+	public void testBoundedUpdate() {
+		ProposerStatistics[] stats = new ProposerStatistics[3];
+		MultiProposerSelector sel = this.createSelector(stats, new double[] { 1.0, 1.0, 1.0 }, false);
+
+		// Acceptance ratios 0.805, 0.205 and 0.005 (with pseudo-counts) at equal cost:
+		// first step moves all the way to the relative efficiencies, bounded by [0.5,2].
+		this.propose(stats[0], 99, 80, 0);
+		this.propose(stats[1], 99, 20, 0);
+		this.propose(stats[2], 99, 0, 0);
+		sel.incrementPerformed(INTERVAL, 4 * END);
+		double mean = (0.805 + 0.205 + 0.005) / 3;
+		assertEquals(MultiProposerSelector.MAX_ADAPTIVE_FACTOR, sel.getAdaptiveFactor(0), 1e-12);
+		assertEquals(0.205 / mean, sel.getAdaptiveFactor(1), 1e-12);
+		assertEquals(MultiProposerSelector.MIN_ADAPTIVE_FACTOR, sel.getAdaptiveFactor(2), 1e-12);
+
+		// Not at an adaptation iteration: unchanged.
+		this.propose(stats[0], 99, 0, 0);
+		sel.incrementPerformed(INTERVAL + 1, 4 * END);
+		assertEquals(MultiProposerSelector.MAX_ADAPTIVE_FACTOR, sel.getAdaptiveFactor(0), 0.0);
+
+		// Equal efficiencies (counting the proposals above): the factors take a diminishing
+		// step towards 1, i.e., f <- f^(1-gamma) with gamma = 2^-0.6.
+		double f1 = sel.getAdaptiveFactor(1);
+		this.propose(stats[0], 99, 80, 0);
+		this.propose(stats[1], 198, 80, 0);
+		this.propose(stats[2], 198, 80, 0);
+		sel.incrementPerformed(2 * INTERVAL, 4 * END);
+		double e = 1.0 - Math.pow(2, -MultiProposerSelector.STEP_SIZE_DECAY);
+		assertEquals(Math.pow(2.0, e), sel.getAdaptiveFactor(0), 1e-12);
+		assertEquals(Math.pow(f1, e), sel.getAdaptiveFactor(1), 1e-12);
+		assertEquals(Math.pow(0.5, e), sel.getAdaptiveFactor(2), 1e-12);
+
+		// Frozen after burn-in.
+		double f0 = sel.getAdaptiveFactor(0);
+		this.propose(stats[0], 99, 99, 0);
+		this.propose(stats[1], 99, 0, 0);
+		this.propose(stats[2], 99, 0, 0);
+		sel.incrementPerformed(END + INTERVAL, 4 * END);
+		assertEquals(f0, sel.getAdaptiveFactor(0), 0.0);
+	}
+
+	@Test
+	public void testCosts() {
+		// Equal acceptance ratios, the second proposer declared 4 times as costly:
+		// efficiencies 1 and 1/4, relative to the mean 1.6 and 0.4, the latter bounded to 0.5.
+		// Measured times are ignored.
+		ProposerStatistics[] stats = new ProposerStatistics[2];
+		MultiProposerSelector sel = this.createSelector(stats, new double[] { 1.0, 4.0 }, false);
+		this.propose(stats[0], 99, 49, 400000);
+		this.propose(stats[1], 99, 49, 100);
+		sel.incrementPerformed(INTERVAL, 4 * END);
+		assertEquals(1.6, sel.getAdaptiveFactor(0), 1e-12);
+		assertEquals(MultiProposerSelector.MIN_ADAPTIVE_FACTOR, sel.getAdaptiveFactor(1), 1e-12);
+
+		// Same with equal declared costs, but measured times in proportion 1:4.
+		stats = new ProposerStatistics[2];
+		sel = this.createSelector(stats, new double[] { 1.0, 1.0 }, true);
+		this.propose(stats[0], 99, 49, 99000);
+		this.propose(stats[1], 99, 49, 4 * 99000);
+		sel.incrementPerformed(INTERVAL, 4 * END);
+		assertEquals(1.6, sel.getAdaptiveFactor(0), 1e-12);
+		assertEquals(MultiProposerSelector.MIN_ADAPTIVE_FACTOR, sel.getAdaptiveFactor(1), 1e-12);
+	}
+
+	/**
+	 * Creates a selector with adaptive weights, with one proposer of unit weight per cost.
+	 * @param stats the statistics of each proposer, filled in.
+	 * @param costs the declared costs.
+	 * @param useWallTime true to adapt on wall time.
+	 * @return the selector.
+	 */
+	private MultiProposerSelector createSelector(ProposerStatistics[] stats, double[] costs, boolean useWallTime) {
+		PRNG prng = new PRNG(new BigInteger("13579"));
+		MultiProposerSelector sel = new MultiProposerSelector(prng);
+		for (int i = 0; i < costs.length; ++i) {
+			DoubleParameter p = new DoubleParameter("P" + i, 1.0);
+			NormalProposer proposer = new NormalProposer(p, new ConstantTuningParameter(0.5), prng);
+			stats[i] = new ProposerStatistics();
+			proposer.setStatistics(stats[i]);
+			sel.add(proposer, new ConstantProposerWeight(1.0), costs[i]);
+		}
+		sel.setAdaptiveWeights(new Iteration(4 * END), END, INTERVAL, useWallTime);
+		return sel;
+	}
+
+	/**
+	 * Adds proposal outcomes to statistics.
+	 * @param stats the statistics.
+	 * @param n the number of proposals.
+	 * @param a the number of accepted proposals.
+	 * @param time the total time of the proposals.
+	 */
+	private void propose(ProposerStatistics stats, int n, int a, long time) {
+		for (int i = 0; i < n; ++i) {
+			stats.increment(i < a);
+		}
+		stats.addTime(time);
+	}
+}
@@ -0,0 +1,132 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import se.cbb.jprime.io.SampleWriter;
+import se.cbb.jprime.io.Sampleable;
+import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.math.RealInterval;
+
+/**
+ * JUnit test case.
+ *
+ * @author agent.
+ */
+public class TestParallelTemperingManager {
+
+	@Test
+	public void testSwapProbability() {
+		PRNG prng = new PRNG(new BigInteger("7654321"));
+		MCMCManager a = this.createChain(prng, new SampleWriter(new BufferedWriter(new StringWriter()), 1), 10);
+		MCMCManager b = this.createChain(prng, new SampleWriter(new BufferedWriter(new StringWriter()), 1), 10);
+		a.posteriorDensity = new LogDouble(-10.0, 1);
+		b.posteriorDensity = new LogDouble(-12.0, 1);
+		a.setHeat(1.0);
+		b.setHeat(0.5);
+
+		// (e^-12 / e^-10)^(1 - 0.5) = e^-1, from either side.
+		assertEquals(Math.exp(-1.0), ParallelTemperingManager.getSwapProbability(a, b), 1e-12);
+		assertEquals(Math.exp(-1.0), ParallelTemperingManager.getSwapProbability(b, a), 1e-12);
+
+		// The hotter replica has the higher density: always accepted.
+		b.posteriorDensity = new LogDouble(-8.0, 1);
+		assertEquals(1.0, ParallelTemperingManager.getSwapProbability(a, b), 0.0);
+
+		// Acceptance frequency of attempted exchanges, restoring the heats after each attempt.
+		b.posteriorDensity = new LogDouble(-12.0, 1);
+		ParallelTemperingManager pt = new ParallelTemperingManager(null, prng, 1.0, 1);
+		pt.addChain(a);
+		pt.addChain(b);
+		pt.noOfSwapAttempts = new int[2];
+		pt.noOfSwaps = new int[2];
+		pt.chainOfRank = new int[2];
+		int n = 20000;
+		for (int i = 0; i < n; ++i) {
+			pt.chainOfRank[0] = 0;
+			pt.chainOfRank[1] = 1;
+			a.setHeat(1.0);
+			b.setHeat(0.5);
+			pt.attemptSwap();
+			if (pt.chainOfRank[0] == 1) {
+				assertEquals(0.5, a.getHeat(), 0.0);
+				assertEquals(1.0, b.getHeat(), 0.0);
+			} else {
+				assertEquals(1.0, a.getHeat(), 0.0);
+				assertEquals(0.5, b.getHeat(), 0.0);
+			}
+		}
+		assertEquals(n, pt.noOfSwapAttempts[0]);
+		assertEquals(Math.exp(-1.0), pt.noOfSwaps[0] / (double) n, 0.02);
+	}
+
+	@Test
+	public void testOnlyColdChainWritten() throws IOException {
+		PRNG prng = new PRNG(new BigInteger("1122334455"));
+		StringWriter out = new StringWriter();
+		SampleWriter sampler = new SampleWriter(new BufferedWriter(out), 1);
+		ParallelTemperingManager pt = new ParallelTemperingManager(sampler, prng, 1.0, 5);
+		for (int i = 0; i < 3; ++i) {
+			pt.addChain(this.createChain(pt.getReplicaPRNG(), sampler, 1000));
+		}
+		pt.run();
+		sampler.close();
+
+		// Equal (uniform) densities: every exchange is accepted, so the cold replica keeps changing.
+		assertTrue(pt.noOfSwaps[0] > 0);
+		assertEquals(pt.noOfSwapAttempts[0], pt.noOfSwaps[0]);
+
+		// Header, the initial sample, and one sample per 10 iterations, all from the cold replica.
+		String[] lines = out.toString().split("\n");
+		assertEquals(2 + 1000 / 10, lines.length);
+		assertTrue(lines[0].contains("Heat"));
+		for (int i = 1; i < lines.length; ++i) {
+			String[] fields = lines[i].split("\t");
+			assertEquals(1.0, Double.parseDouble(fields[fields.length - 1]), 0.0);
+		}
+	}
+
+	/**
+	 * Creates a replica with a single uniformly distributed parameter. The sampleables are the parameter
+	 * and the current heat of the replica.
+	 * @param prng PRNG of the replica.
+	 * @param sampler sampler.
+	 * @param noOfIterations number of iterations.
+	 * @return the replica.
+	 */
+	private MCMCManager createChain(PRNG prng, SampleWriter sampler, int noOfIterations) {
+		Iteration iter = new Iteration(noOfIterations);
+		ConstantThinner thinner = new ConstantThinner(iter, 10);
+		MultiProposerSelector selector = new MultiProposerSelector(prng, new double[] { 1.0 });
+		final MCMCManager manager = new MCMCManager(iter, thinner, selector, new MetropolisHastingsAcceptor(prng),
+				sampler, prng, new ProposerStatistics());
+		DoubleParameter p = new DoubleParameter("Param", 5.0);
+		NormalProposer proposer = new NormalProposer(p, new ConstantTuningParameter(0.5), prng);
+		proposer.setStatistics(new ProposerStatistics());
+		selector.add(proposer, new ConstantProposerWeight(1.0));
+		manager.addModel(new RealParameterUniformPrior(p, new RealInterval(0, 10, false, false)));
+		manager.addSampleable(p);
+		manager.addSampleable(new Sampleable() {
+			@Override
+			public Class<?> getSampleType() {
+				return Double.class;
+			}
+			@Override
+			public String getSampleHeader() {
+				return "Heat";
+			}
+			@Override
+			public String getSampleValue(SamplingMode mode) {
+				return String.valueOf(manager.getHeat());
+			}
+		});
+		return manager;
+	}
+}
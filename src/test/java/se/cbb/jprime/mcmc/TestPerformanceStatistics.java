@@ -0,0 +1,54 @@
+package se.cbb.jprime.mcmc;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.math.RealInterval;
+
+/**
+ * Unit tests for PerformanceStatistics.
+ *
+ * @author agent.
+ */
+public class TestPerformanceStatistics {
+
+	@Test
+	public void testCounts() throws IOException {
+		DoubleParameter p = new DoubleParameter("MyParam", 1.0);
+		List<Proposer> proposers = new ArrayList<Proposer>();
+		proposers.add(new NormalProposer(p, new ConstantTuningParameter(0.5), new PRNG(new BigInteger("1234"))));
+		List<ProperDependent> deps = new ArrayList<ProperDependent>();
+		RealParameterUniformPrior prior = new RealParameterUniformPrior(p, new RealInterval(0, 10, false, false));
+		deps.add(prior);
+		PerformanceStatistics ps = new PerformanceStatistics(proposers, deps);
+
+		assertEquals(0, ps.getIndex(proposers.get(0)));
+		assertEquals(0, ps.getIndex(prior));
+		ps.addProposal(0, 1000000);
+		ps.addProposerTime(0, 500000);
+		ps.addUpdate(0, 2000000, new ChangeInfo(prior, "Full update."));
+		ps.addUpdate(0, 1000000, new ChangeInfo(prior, "Partial update.", new int[] { 0 }));
+		ps.addUpdate(0, 1000000, null);
+		ps.addDependentTime(0, 1000000);
+		assertEquals(1, ps.getNoOfProposals(0));
+		assertEquals(1500000, ps.getProposerTime(0));
+		assertEquals(1, ps.getNoOfFullUpdates(0));
+		assertEquals(1, ps.getNoOfPartialUpdates(0));
+		assertEquals(5000000, ps.getDependentTime(0));
+
+		StringWriter sw = new StringWriter();
+		BufferedWriter out = new BufferedWriter(sw);
+		ps.writeJSON(out, 10, 20000000);
+		assertEquals("{\"iteration\":10,\"time_ms\":20.0,\"proposers\":[{\"name\":\"NormalProposer perturbing MyParam\",\"proposals\":1,\"time_ms\":1.5}]," +
+				"\"dependents\":[{\"name\":\"RealParameterUniformPrior\",\"full\":1,\"partial\":1,\"void\":1,\"time_ms\":5.0}]}\n", sw.toString());
+	}
+}
@@ -0,0 +1,136 @@
+package se.cbb.jprime.seqevo;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.biojava.nbio.core.sequence.ProteinSequence;
+import org.biojava.nbio.core.sequence.io.FastaReaderHelper;
+import org.junit.Test;
+
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.math.RealInterval;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
+import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.mcmc.MetropolisHastingsProposal;
+import se.cbb.jprime.misc.Pair;
+import se.cbb.jprime.topology.DoubleMap;
+import se.cbb.jprime.topology.NamesMap;
+import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.UniformRBTreeGenerator;
+
+/**
+ * JUnit test case.
+ *
+ * @author agent.
+ */
+public class TestBranchLengthGridProposer {
+
+	@Test
+	public void testDensities() throws Exception {
+		URL url = this.getClass().getResource("/phylogenetics/56.pep.align");
+		LinkedHashMap<String, ProteinSequence> seqs = FastaReaderHelper.readFastaProteinSequence(new File(url.getFile()));
+		MSAData D = new MSAData(SequenceType.AMINO_ACID, seqs);
+		GammaSiteRateHandler siteRates = new GammaSiteRateHandler(new DoubleParameter("k", 0.7), 4);
+		SubstitutionMatrixHandler Q = JTT.createJTT(100);
+		PRNG prng = new PRNG(97531);
+		Pair<RBTree, NamesMap> tn = UniformRBTreeGenerator.createUniformTree("T", new ArrayList<String>(seqs.keySet()), prng);
+		RBTree T = tn.first;
+		DoubleMap bls = new DoubleMap("BranchLengths", T.getNoOfVertices(), 0.2);
+		for (int x = 0; x < T.getNoOfVertices(); ++x) {
+			bls.set(x, 0.01 + prng.nextDouble());
+		}
+		SubstitutionModel sm = new SubstitutionModel("JTT", D, siteRates, Q, T, tn.second, bls, true);
+		RealInterval interval = new RealInterval(0, 10, true, true);
+		BranchLengthGridProposer proposer = new BranchLengthGridProposer(sm, interval, 12, prng);
+
+		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+		for (int i = 0; i < 100; ++i) {
+			double[] oldLengths = this.getLengths(bls);
+			changeInfos.clear();
+			MetropolisHastingsProposal prop = (MetropolisHastingsProposal) proposer.cacheAndPerturb(changeInfos);
+			assertTrue(prop.isValid());
+			int x = changeInfos.get(bls).getAffectedElements()[0];
+			double old = oldLengths[x];
+			double l = bls.get(x);
+			this.assertValidGrid(proposer, sm, interval, x);
+			assertEquals(proposer.getDensity(l), prop.getForwardDensity().getValue(), 1e-12 * proposer.getDensity(l));
+			assertEquals(proposer.getDensity(old), prop.getBackwardDensity().getValue(), 1e-12 * proposer.getDensity(old));
+			double forward = prop.getForwardDensity().getValue();
+			double backward = prop.getBackwardDensity().getValue();
+
+			// The grid only depends on the other lengths, so the reverse move from the new state has
+			// the backward density as forward density and vice versa.
+			sm.cacheAndUpdate(changeInfos, false);
+			if (i % 2 == 0) {
+				proposer.restoreCache();
+				sm.restoreCache(false);
+				assertArrayEquals(oldLengths, this.getLengths(bls), 0.0);
+			} else {
+				proposer.clearCache();
+				sm.clearCache(false);
+				proposer.computeGrid(x);
+				assertEquals(backward, proposer.getDensity(old), 1e-8 * backward);
+				assertEquals(forward, proposer.getDensity(l), 1e-8 * forward);
+			}
+		}
+	}
+
+	/**
+	 * Verifies that the last computed grid covers the domain without gaps or overlaps, that its piecewise
+	 * constant density integrates to 1, and that each cell's density follows the likelihood at its midpoint.
+	 * @param proposer the proposer.
+	 * @param sm the substitution model.
+	 * @param interval the domain.
+	 * @param x the perturbed vertex.
+	 */
+	private void assertValidGrid(BranchLengthGridProposer proposer, SubstitutionModel sm, RealInterval interval, int x) {
+		int n = proposer.getNoOfCells();
+		assertEquals(interval.getLowerBound(), proposer.getEdge(0), 0.0);
+		assertEquals(interval.getUpperBound(), proposer.getEdge(n), 0.0);
+		double[] mids = new double[n];
+		double[] densities = new double[n];
+		double integral = 0.0;
+		for (int c = 0; c < n; ++c) {
+			double lo = proposer.getEdge(c);
+			double hi = proposer.getEdge(c + 1);
+			assertTrue(hi > lo);
+			mids[c] = (lo + hi) / 2;
+			densities[c] = proposer.getDensity(mids[c]);
+			integral += densities[c] * (hi - lo);
+		}
+		assertEquals(1.0, integral, 1e-12);
+
+		// Relative densities equal relative likelihoods, bounded from below.
+		double[] logLs = new double[n];
+		sm.computeBranchLengthLogLikelihoods(x, mids, logLs);
+		double max = Double.NEGATIVE_INFINITY;
+		double maxDensity = 0.0;
+		for (int c = 0; c < n; ++c) {
+			max = Math.max(max, logLs[c]);
+			maxDensity = Math.max(maxDensity, densities[c]);
+		}
+		for (int c = 0; c < n; ++c) {
+			double rel = Math.max(Math.exp(logLs[c] - max), BranchLengthGridProposer.MIN_RELATIVE_DENSITY);
+			assertEquals(rel, densities[c] / maxDensity, 1e-9 * rel);
+		}
+	}
+
+	/**
+	 * Returns a copy of the branch lengths.
+	 * @param bls the branch lengths.
+	 * @return the copy.
+	 */
+	private double[] getLengths(DoubleMap bls) {
+		double[] vals = new double[bls.getSize()];
+		for (int x = 0; x < vals.length; ++x) {
+			vals[x] = bls.get(x);
+		}
+		return vals;
+	}
+}
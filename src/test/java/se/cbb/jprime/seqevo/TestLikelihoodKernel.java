@@ -0,0 +1,49 @@
+package se.cbb.jprime.seqevo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.cbb.jprime.math.PRNG;
+
+/**
+ * JUnit test case.
+ * 
+ * @author agent.
+ */
+public class TestLikelihoodKernel {
+
+	@Test
+	public void testSpecialisedKernels() {
+		assertTrue(SequenceType.DNA.getLikelihoodKernel() instanceof NucleotideLikelihoodKernel);
+		assertTrue(SequenceType.AMINO_ACID.getLikelihoodKernel() instanceof AminoAcidLikelihoodKernel);
+		assertTrue(SequenceType.CODON.getLikelihoodKernel() instanceof GenericLikelihoodKernel);
+		assertEquals(61, SequenceType.CODON.getLikelihoodKernel().getAlphabetSize());
+		PRNG prng = new PRNG(1234);
+		this.compareWithGeneric(SequenceType.DNA.getLikelihoodKernel(), prng);
+		this.compareWithGeneric(SequenceType.AMINO_ACID.getLikelihoodKernel(), prng);
+	}
+	
+	/**
+	 * Compares a kernel with the generic kernel on random data.
+	 * @param kernel the kernel.
+	 * @param prng PRNG.
+	 */
+	private void compareWithGeneric(LikelihoodKernel kernel, PRNG prng) {
+		int n = kernel.getAlphabetSize();
+		int noOfPatterns = 7;
+		int sz = noOfPatterns * n;
+		double[] P = new double[n * n + 3];
+		for (int i = 0; i < P.length; ++i) {
+			P[i] = prng.nextDouble();
+		}
+		double[] L1 = new double[3 * sz + 5];
+		for (int i = 0; i < L1.length; ++i) {
+			L1[i] = prng.nextDouble();
+		}
+		double[] L2 = L1.clone();
+		kernel.multiplyWithP(P, 3, L1, 5, 5 + sz, 5 + 2 * sz, noOfPatterns, new double[n]);
+		new GenericLikelihoodKernel(n).multiplyWithP(P, 3, L2, 5, 5 + sz, 5 + 2 * sz, noOfPatterns, new double[n]);
+		assertArrayEquals(L2, L1, 0.0);
+	}
+}
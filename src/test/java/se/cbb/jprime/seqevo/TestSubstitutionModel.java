@@ -4,6 +4,9 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 
 import org.biojava.nbio.core.sequence.ProteinSequence;
@@ -13,11 +16,18 @@ import org.junit.Test;
 
 import se.cbb.jprime.io.NewickTree;
 import se.cbb.jprime.math.LogDouble;
+import se.cbb.jprime.math.PRNG;
+import se.cbb.jprime.mcmc.ChangeInfo;
+import se.cbb.jprime.mcmc.Dependent;
 import se.cbb.jprime.mcmc.DoubleParameter;
+import se.cbb.jprime.misc.Pair;
+import se.cbb.jprime.misc.SharedForkJoinPools;
 import se.cbb.jprime.topology.DoubleMap;
 import se.cbb.jprime.topology.NamesMap;
 import se.cbb.jprime.topology.NeighbourJoiningTreeGenerator;
 import se.cbb.jprime.topology.RBTree;
+import se.cbb.jprime.topology.RBTreeBranchSwapper;
+import se.cbb.jprime.topology.UniformRBTreeGenerator;
 
 /**
  * JUnit test case.
@@ -53,7 +63,301 @@ public class TestSubstitutionModel {
 		SubstitutionModel sm = new SubstitutionModel("JTT", D, siteRates, Q, T, names, bls, true);
 		LogDouble L = sm.getDataProbability();
 		assertTrue(L.greaterThan(0.0));
+		assertFalse(sm.isScaling());
 		assertTrue(L.lessThan(1.0));
+		
+		// Partial update followed by restore should reinstate the old likelihood.
+		double oldL = L.getLogValue();
+		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+		bls.cache(new int[] { 0 });
+		bls.set(0, 0.5);
+		changeInfos.put(bls, new ChangeInfo(bls, "Test", new int[] { 0 }));
+		sm.cacheAndUpdate(changeInfos, false);
+		assertTrue(sm.getDataProbability().getLogValue() != oldL);
+		sm.restoreCache(false);
+		bls.restoreCache();
+		assertEquals(oldL, sm.getDataProbability().getLogValue(), 1e-10);
+		
+		// Full update with the same lengths should reproduce the likelihood.
+		changeInfos.clear();
+		changeInfos.put(T, new ChangeInfo(T, "Test"));
+		sm.cacheAndUpdate(changeInfos, false);
+		sm.clearCache(false);
+		assertEquals(oldL, sm.getDataProbability().getLogValue(), 1e-10);
+		assertTrue(sm.getDataProbabilityUpperBound().greaterThan(sm.getDataProbability()));
+		assertTrue(sm.getDataProbabilityUpperBound().lessThan(1.0));
+		
+		// Bounded update: completes for a reachable minimum, aborts and restores for an unreachable one.
+		changeInfos.clear();
+		changeInfos.put(T, new ChangeInfo(T, "Test"));
+		assertTrue(sm.cacheAndUpdate(changeInfos, false, new LogDouble(oldL - 1.0, 1)));
+		assertEquals(oldL, sm.getDataProbability().getLogValue(), 1e-10);
+		sm.clearCache(false);
+		changeInfos.clear();
+		changeInfos.put(T, new ChangeInfo(T, "Test"));
+		assertFalse(sm.cacheAndUpdate(changeInfos, false, new LogDouble(oldL + 1.0, 1)));
+		assertNotNull(changeInfos.get(sm));
+		sm.restoreCache(false);
+		assertEquals(oldL, sm.getDataProbability().getLogValue(), 1e-10);
+		
+		// Likelihood as a function of single branch lengths.
+		int[] xs = new int[] { 0, T.getRoot(), T.getLeftChild(T.getRoot()), T.getRightChild(T.getRoot()) };
+		assertBranchLengthLogLikelihoods(sm, T, bls, xs, 1e-8);
+	}
+	
+	/**
+	 * Verifies the likelihood as a function of a single branch length against actual updates.
+	 * @param sm the model.
+	 * @param T the tree.
+	 * @param bls the branch lengths.
+	 * @param xs the vertices to verify.
+	 * @param tol the tolerance.
+	 */
+	private void assertBranchLengthLogLikelihoods(SubstitutionModel sm, RBTree T, DoubleMap bls, int[] xs, double tol) {
+		double[] lengths = new double[] { 0.0, 0.001, 0.1, 0.37, 2.0 };
+		double[] logLs = new double[lengths.length];
+		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+		for (int x : xs) {
+			sm.computeBranchLengthLogLikelihoods(x, lengths, logLs);
+			for (int g = 0; g < lengths.length; ++g) {
+				bls.cache(new int[] { x });
+				bls.set(x, lengths[g]);
+				changeInfos.clear();
+				changeInfos.put(bls, new ChangeInfo(bls, "Test", new int[] { x }));
+				sm.cacheAndUpdate(changeInfos, false);
+				assertEquals(sm.getDataProbability().getLogValue(), logLs[g], tol);
+				sm.restoreCache(false);
+				bls.restoreCache();
+			}
+		}
+	}
+	
+	@Test
+	public void testThreads() throws Exception {
+		URL url = this.getClass().getResource("/phylogenetics/56.pep.align");
+		LinkedHashMap<String, ProteinSequence> seqs = FastaReaderHelper.readFastaProteinSequence(new File(url.getFile()));
+		MSAData D = new MSAData(SequenceType.AMINO_ACID, seqs);
+		GammaSiteRateHandler siteRates = new GammaSiteRateHandler(new DoubleParameter("k", 0.7), 4);
+		SubstitutionMatrixHandler Q = JTT.createJTT(100);
+		PRNG prng = new PRNG(5678);
+		Pair<RBTree, NamesMap> tn = UniformRBTreeGenerator.createUniformTree("T", new ArrayList<String>(seqs.keySet()), prng);
+		RBTree T = tn.first;
+		DoubleMap bls = new DoubleMap("BranchLengths", T.getNoOfVertices(), 0.2);
+		for (int x = 0; x < T.getNoOfVertices(); ++x) {
+			bls.set(x, 0.01 + prng.nextDouble());
+		}
+		
+		// Block-parallel likelihoods should equal the serial likelihood, also after partial updates and restores.
+		SubstitutionModel serial = new SubstitutionModel("JTT", D, siteRates, Q, T, tn.second, bls, true, 1);
+		SubstitutionModel parallel = new SubstitutionModel("JTT", D, siteRates, Q, T, tn.second, bls, true, 3);
+		assertEquals(serial.getDataProbability().getLogValue(), parallel.getDataProbability().getLogValue(), 1e-9);
+		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+		for (int k = 0; k < 10; ++k) {
+			int x = prng.nextInt(T.getNoOfVertices());
+			bls.cache(new int[] { x });
+			bls.set(x, 0.01 + 2 * prng.nextDouble());
+			changeInfos.clear();
+			changeInfos.put(bls, new ChangeInfo(bls, "Test", new int[] { x }));
+			serial.cacheAndUpdate(changeInfos, false);
+			changeInfos.clear();
+			changeInfos.put(bls, new ChangeInfo(bls, "Test", new int[] { x }));
+			parallel.cacheAndUpdate(changeInfos, false);
+			assertEquals(serial.getDataProbability().getLogValue(), parallel.getDataProbability().getLogValue(), 1e-9);
+			if (k % 2 == 0) {
+				serial.restoreCache(false);
+				parallel.restoreCache(false);
+				bls.restoreCache();
+			} else {
+				serial.clearCache(false);
+				parallel.clearCache(false);
+				bls.clearCache();
+			}
+			assertEquals(serial.getDataProbability().getLogValue(), parallel.getDataProbability().getLogValue(), 1e-9);
+		}
+		
+		// Models of the same parallelism share a pool.
+		assertSame(SharedForkJoinPools.get(3), SharedForkJoinPools.get(3));
+	}
+	
+	@Test
+	public void testPartialTopologyUpdate() throws Exception {
+		URL url = this.getClass().getResource("/phylogenetics/56.pep.align");
+		LinkedHashMap<String, ProteinSequence> seqs = FastaReaderHelper.readFastaProteinSequence(new File(url.getFile()));
+		MSAData D = new MSAData(SequenceType.AMINO_ACID, seqs);
+		GammaSiteRateHandler siteRates = new GammaSiteRateHandler(new DoubleParameter("k", 0.7), 4);
+		SubstitutionMatrixHandler Q = JTT.createJTT(100);
+		PRNG prng = new PRNG(2468);
+		Pair<RBTree, NamesMap> tn = UniformRBTreeGenerator.createUniformTree("T", new ArrayList<String>(seqs.keySet()), prng);
+		RBTree T = tn.first;
+		DoubleMap bls = new DoubleMap("BranchLengths", T.getNoOfVertices(), 0.2);
+		for (int x = 0; x < T.getNoOfVertices(); ++x) {
+			bls.set(x, 0.01 + prng.nextDouble());
+		}
+		SubstitutionModel sm = new SubstitutionModel("JTT", D, siteRates, Q, T, tn.second, bls, true);
+		RBTreeBranchSwapper swapper = new RBTreeBranchSwapper(T, bls, prng);
+		swapper.setOperationWeights(0.5, 0.5, 0.0);
+		
+		// Partial updates after NNI and SPR moves should equal a full recomputation,
+		// and rejected moves should restore exactly the previous likelihood.
+		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+		for (int i = 0; i < 200; ++i) {
+			double oldL = sm.getDataProbability().getLogValue();
+			changeInfos.clear();
+			swapper.cacheAndPerturb(changeInfos);
+			sm.cacheAndUpdate(changeInfos, false);
+			assertNotNull(changeInfos.get(sm).getAffectedElements());
+			double L = new SubstitutionModel("JTT", D, siteRates, Q, T, tn.second, bls, true).getDataProbability().getLogValue();
+			assertEquals(L, sm.getDataProbability().getLogValue(), 1e-10 * Math.abs(L));
+			if (i % 2 == 0) {
+				swapper.restoreCache();
+				sm.restoreCache(false);
+				assertEquals(oldL, sm.getDataProbability().getLogValue(), 0.0);
+			} else {
+				swapper.clearCache();
+				sm.clearCache(false);
+			}
+		}
+	}
+	
+	@Test
+	public void testLargeTree() throws Exception {
+		// Random sequences on a large tree make unscaled pattern likelihoods underflow.
+		PRNG prng = new PRNG(1234);
+		String alphabet = "ARNDCQEGHILKMFPSTWYV";
+		LinkedHashMap<String, ProteinSequence> seqs = new LinkedHashMap<String, ProteinSequence>();
+		ArrayList<String> leafNames = new ArrayList<String>();
+		for (int k = 0; k < 500; ++k) {
+			StringBuilder sb = new StringBuilder(20);
+			for (int i = 0; i < 20; ++i) {
+				sb.append(alphabet.charAt(prng.nextInt(alphabet.length())));
+			}
+			seqs.put("s" + k, new ProteinSequence(sb.toString()));
+			leafNames.add("s" + k);
+		}
+		MSAData D = new MSAData(SequenceType.AMINO_ACID, seqs);
+		GammaSiteRateHandler siteRates = new GammaSiteRateHandler(new DoubleParameter("k", 1.0), 4);
+		SubstitutionMatrixHandler Q = JTT.createJTT(100);
+		Pair<RBTree, NamesMap> tn = UniformRBTreeGenerator.createUniformTree("T", leafNames, prng);
+		RBTree T = tn.first;
+		DoubleMap bls = new DoubleMap("BranchLengths", T.getNoOfVertices(), 1.0);
+		
+		SubstitutionModel sm = new SubstitutionModel("JTT", D, siteRates, Q, T, tn.second, bls, true, 2);
+		double oldL = sm.getDataProbability().getLogValue();
+		assertTrue(sm.getDataProbability().greaterThan(0.0));
+		assertFalse(Double.isInfinite(oldL));
+		assertTrue(oldL < -20 * 500);
+		
+		// Scaled partial update, restore and full update should agree.
+		HashMap<Dependent, ChangeInfo> changeInfos = new HashMap<Dependent, ChangeInfo>();
+		bls.cache(new int[] { 0 });
+		bls.set(0, 2.0);
+		changeInfos.put(bls, new ChangeInfo(bls, "Test", new int[] { 0 }));
+		sm.cacheAndUpdate(changeInfos, false);
+		assertTrue(sm.getDataProbability().getLogValue() != oldL);
+		sm.restoreCache(false);
+		bls.restoreCache();
+		assertEquals(oldL, sm.getDataProbability().getLogValue(), 1e-8);
+		changeInfos.clear();
+		changeInfos.put(T, new ChangeInfo(T, "Test"));
+		sm.cacheAndUpdate(changeInfos, false);
+		sm.clearCache(false);
+		assertEquals(oldL, sm.getDataProbability().getLogValue(), 1e-8);
+		assertBranchLengthLogLikelihoods(sm, T, bls, new int[] { 0, T.getRoot(), T.getLeftChild(T.getRoot()), T.getNoOfVertices() - 2 }, 1e-6);
+	}
+	
+	@Test
+	public void testScaling() throws Exception {
+		// Random sequences on many leaves make every unscaled pattern likelihood underflow.
+		PRNG prng = new PRNG(4321);
+		String alphabet = "ARNDCQEGHILKMFPSTWYV";
+		LinkedHashMap<String, ProteinSequence> seqs = new LinkedHashMap<String, ProteinSequence>();
+		ArrayList<String> leafNames = new ArrayList<String>();
+		for (int k = 0; k < 400; ++k) {
+			StringBuilder sb = new StringBuilder(10);
+			for (int i = 0; i < 10; ++i) {
+				sb.append(alphabet.charAt(prng.nextInt(alphabet.length())));
+			}
+			seqs.put("s" + k, new ProteinSequence(sb.toString()));
+			leafNames.add("s" + k);
+		}
+		MSAData D = new MSAData(SequenceType.AMINO_ACID, seqs);
+		GammaSiteRateHandler siteRates = new GammaSiteRateHandler(new DoubleParameter("k", 1.0), 1);
+		SubstitutionMatrixHandler Q = JTT.createJTT(100);
+		Pair<RBTree, NamesMap> tn = UniformRBTreeGenerator.createUniformTree("T", leafNames, prng);
+		RBTree T = tn.first;
+		DoubleMap bls = new DoubleMap("BranchLengths", T.getNoOfVertices(), 1.0);
+		for (int x = 0; x < T.getNoOfVertices(); ++x) {
+			bls.set(x, 0.5 + prng.nextDouble());
+		}
+		
+		// Reference in log space, including the root arc.
+		double refL = 0.0;
+		double logMaxPatternL = Double.NEGATIVE_INFINITY;
+		double[] pi = new double[20];
+		Q.getStationaryFrequencies(pi, 0);
+		double[] P = new double[400];
+		for (int pos = 0; pos < D.getNoOfPositions(); ++pos) {
+			double[] logScale = new double[1];
+			double[] v = this.getReferenceVector(T.getRoot(), pos, T, tn.second, bls, D, Q, logScale);
+			Q.computeTransitionMatrix(bls.get(T.getRoot()), new double[20], P, 0);
+			double patternL = 0.0;
+			for (int i = 0; i < 20; ++i) {
+				for (int k = 0; k < 20; ++k) {
+					patternL += pi[i] * P[i * 20 + k] * v[k];
+				}
+			}
+			patternL = Math.log(patternL) + logScale[0];
+			refL += patternL;
+			logMaxPatternL = Math.max(logMaxPatternL, patternL);
+		}
+		assertTrue(logMaxPatternL < Math.log(SubstitutionModel.MIN_UNSCALED_LIKELIHOOD));
+		
+		SubstitutionModel sm = new SubstitutionModel("JTT", D, siteRates, Q, T, tn.second, bls, true);
+		assertTrue(sm.isScaling());
+		assertEquals(refL, sm.getDataProbability().getLogValue(), 1e-9 * Math.abs(refL));
+	}
+	
+	/**
+	 * Reference pruning: returns the normalised conditional likelihood vector of a vertex for a position,
+	 * accumulating the logarithms of the normalisation factors.
+	 * @param x the vertex.
+	 * @param pos the position.
+	 * @param T the tree.
+	 * @param names the leaf names.
+	 * @param bls the branch lengths.
+	 * @param D the data.
+	 * @param Q the substitution model.
+	 * @param logScale accumulated log-scale factor at index 0.
+	 * @return the vector.
+	 */
+	private double[] getReferenceVector(int x, int pos, RBTree T, NamesMap names, DoubleMap bls, MSAData D,
+			SubstitutionMatrixHandler Q, double[] logScale) {
+		double[] v = new double[20];
+		if (T.isLeaf(x)) {
+			v[D.getIntState(names.get(x), pos)] = 1.0;
+			return v;
+		}
+		Arrays.fill(v, 1.0);
+		double[] P = new double[400];
+		for (int c : new int[] { T.getLeftChild(x), T.getRightChild(x) }) {
+			double[] w = this.getReferenceVector(c, pos, T, names, bls, D, Q, logScale);
+			Q.computeTransitionMatrix(bls.get(c), new double[20], P, 0);
+			for (int i = 0; i < 20; ++i) {
+				double sum = 0.0;
+				for (int k = 0; k < 20; ++k) {
+					sum += P[i * 20 + k] * w[k];
+				}
+				v[i] *= sum;
+			}
+		}
+		double max = 0.0;
+		for (int i = 0; i < 20; ++i) {
+			max = Math.max(max, v[i]);
+		}
+		for (int i = 0; i < 20; ++i) {
+			v[i] /= max;
+		}
+		logScale[0] += Math.log(max);
+		return v;
 	}
 }
-